@@ -14,13 +14,22 @@ import android.widget.FrameLayout;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 
-import com.bypassmobile.octo.rest.GithubEndpoint;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
+import retrofit.Callback;
 
-import retrofit.RestAdapter;
+import com.bypassmobile.octo.rest.EndpointProvider;
+import com.bypassmobile.octo.rest.GithubEndpoint;
+import com.bypassmobile.octo.rest.InFlightRequests;
+import com.bypassmobile.octo.rest.RequestScheduler;
+import com.bypassmobile.octo.rest.RetryPolicy;
 
 public class BaseActivity extends AppCompatActivity {
 
     private GithubEndpoint endpoint;
+    private RequestScheduler scheduler;
+    private RetryPolicy retryPolicy;
 
     private Toolbar bar;
     private ProgressBar progressBar;
@@ -28,18 +37,56 @@ public class BaseActivity extends AppCompatActivity {
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        RestAdapter adapter = new RestAdapter.Builder()
-                .setServer(GithubEndpoint.SERVER)
-                .setLogLevel(RestAdapter.LogLevel.FULL)
-                .build();
-
-        endpoint = adapter.create(GithubEndpoint.class);
+        // Shared by every screen, only the first one pays for creating it.
+        endpoint = EndpointProvider.getEndpoint();
+        scheduler = EndpointProvider.getRequestScheduler();
+        retryPolicy = EndpointProvider.getRetryPolicy();
     }
 
     public GithubEndpoint getEndpoint() {
         return endpoint;
     }
 
+    /**
+     * Return the scheduler requests to the endpoint should go through to stay within the rate limit.
+     */
+    public RequestScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Return the message telling the user how long until the rate limit lets requests through again.
+     */
+    public String getRateLimitedMessage() {
+        // The budget may already be back, in which case the next minute is as good a guess as any.
+        final int minutes = Math.max(1, scheduler.getMinutesUntilReset());
+        return getResources().getQuantityString(R.plurals.error_rate_limited, minutes, minutes);
+    }
+
+    /**
+     * Send a request this screen is waiting on.  It goes out within the rate limit and is sent again if it
+     * fails for a transient reason, the callback only hears about the final outcome.
+     */
+    public <T> void sendForeground(final InFlightRequests.Request<T> request, Callback<T> callback) {
+        retryPolicy.execute(new InFlightRequests.Request<T>() {
+            @Override
+            public void start(Callback<T> callback) {
+                scheduler.schedule(RequestScheduler.Priority.FOREGROUND, request, callback);
+            }
+        }, callback);
+    }
+
+    /**
+     * Adds the recent requests and the avatar loads held back to {@code adb shell dumpsys activity top}.
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        writer.print(prefix);
+        EndpointProvider.getMetrics().dump(writer);
+        writer.println(prefix + "Avatar decodes avoided: " + ListAvatarLoader.getSessionDecodesAvoided());
+    }
+
     /**
      * Convenience method for {@link Activity#findViewById(int)} so things just look cleaner.
      *
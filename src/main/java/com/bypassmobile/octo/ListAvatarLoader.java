@@ -0,0 +1,237 @@
+package com.bypassmobile.octo;
+
+
+import android.content.Context;
+import android.widget.ImageView;
+
+import com.bypassmobile.octo.image.AvatarUrls;
+import com.bypassmobile.octo.image.ImageLoader;
+import com.squareup.picasso.Callback;
+import com.squareup.picasso.Picasso;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loads the avatars of the rows of a list, holding back the ones that would only fly past.
+ *
+ * While the list is flinging, a row bound to an avatar that is not in the memory cache only shows the
+ * placeholder.  Once the list slows down to a drag or comes to rest, the held back avatars are loaded,
+ * the rows on screen first, top to bottom.  A recycled row has its load dropped, or cancelled if it was
+ * already running, so the download and decode for an avatar nobody sees are never done.
+ *
+ * Only used from the main thread.
+ */
+/* internal */ class ListAvatarLoader {
+
+    /**
+     * What actually loads the images, Picasso outside of tests.
+     */
+    interface Images {
+        /**
+         * Return if the image is ready to be shown without a download or decode.
+         */
+        boolean isInMemory(String url);
+
+        /**
+         * Load the image into the view, showing the placeholder until it arrives, and tell the callback
+         * how it went.
+         */
+        void load(String url, ImageView view, Callback callback);
+
+        void cancel(ImageView view);
+
+        void showPlaceholder(ImageView view);
+    }
+
+    /** Decodes avoided by every loader in the process. */
+    private static int sessionDecodesAvoided;
+
+    private final Images mImages;
+
+    /** Views bound while flinging and not loaded yet, in the order they were bound. */
+    private final LinkedHashMap<ImageView, String> mPending = new LinkedHashMap<>();
+    /** Views whose load is running. */
+    private final Map<ImageView, String> mLoading = new HashMap<>();
+
+    private boolean mPaused;
+
+    private int mStartedCount;
+    private int mSkippedCount;
+    private int mCancelledCount;
+
+    ListAvatarLoader(Images images) {
+        if (images == null) {
+            throw new IllegalArgumentException("The images can not be null.");
+        }
+        mImages = images;
+    }
+
+    /**
+     * Return a loader backed by the shared {@link Picasso} instance, loading avatars at the size the rows
+     * show them.
+     */
+    static ListAvatarLoader create(Context context) {
+        return new ListAvatarLoader(new PicassoImages(context));
+    }
+
+    /**
+     * Show the avatar in the view of a row that was just bound, now or once the list slows down.
+     */
+    public void bind(ImageView view, String url) {
+        if (url != null && (url.equals(mLoading.get(view)) || url.equals(mPending.get(view)))) {
+            // Already on its way.
+            return;
+        }
+        unbind(view);
+        if (url == null) {
+            mImages.showPlaceholder(view);
+        } else if (!mPaused || mImages.isInMemory(url)) {
+            start(view, url);
+        } else {
+            mImages.showPlaceholder(view);
+            mPending.put(view, url);
+        }
+    }
+
+    /**
+     * Forget the view of a row that was recycled, dropping or cancelling its load.
+     */
+    public void unbind(ImageView view) {
+        if (mPending.remove(view) != null) {
+            mSkippedCount++;
+            sessionDecodesAvoided++;
+        } else if (mLoading.remove(view) != null) {
+            mImages.cancel(view);
+            mCancelledCount++;
+            sessionDecodesAvoided++;
+        }
+    }
+
+    /**
+     * Hold back avatars from now on, for a fling.
+     */
+    public void pause() {
+        mPaused = true;
+    }
+
+    /**
+     * Stop holding back avatars and load the ones held back so far.
+     *
+     * @param onScreen
+     *      The avatar views on screen, top to bottom.  Those are loaded first, then any other held back
+     *      view that is still bound.
+     */
+    public void resume(List<ImageView> onScreen) {
+        mPaused = false;
+        for (ImageView view : onScreen) {
+            final String url = mPending.remove(view);
+            if (url != null) {
+                start(view, url);
+            }
+        }
+        for (Map.Entry<ImageView, String> entry : new ArrayList<>(mPending.entrySet())) {
+            mPending.remove(entry.getKey());
+            start(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public boolean isPaused() {
+        return mPaused;
+    }
+
+    /**
+     * Return the number of avatar loads started.
+     */
+    public int getStartedCount() {
+        return mStartedCount;
+    }
+
+    /**
+     * Return the number of avatars held back during a fling whose row was recycled before they were
+     * loaded.
+     */
+    public int getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    /**
+     * Return the number of avatar loads cancelled because their row was recycled before they finished.
+     */
+    public int getCancelledCount() {
+        return mCancelledCount;
+    }
+
+    /**
+     * Return the number of avatar decodes avoided by this loader, skipped and cancelled loads.
+     */
+    public int getDecodesAvoided() {
+        return mSkippedCount + mCancelledCount;
+    }
+
+    /**
+     * Return the number of avatar decodes avoided by every list since the process started.
+     */
+    public static int getSessionDecodesAvoided() {
+        return sessionDecodesAvoided;
+    }
+
+    private void start(final ImageView view, final String url) {
+        mStartedCount++;
+        mLoading.put(view, url);
+        mImages.load(url, view, new Callback() {
+            @Override
+            public void onSuccess() {
+                finished();
+            }
+
+            @Override
+            public void onError() {
+                finished();
+            }
+
+            private void finished() {
+                if (url.equals(mLoading.get(view))) {
+                    mLoading.remove(view);
+                }
+            }
+        });
+    }
+
+    private static final class PicassoImages implements Images {
+        private final Picasso picasso;
+        private final AvatarUrls urls;
+
+        PicassoImages(Context context) {
+            picasso = ImageLoader.createImageLoader(context);
+            urls = ImageLoader.getAvatarUrls(context);
+        }
+
+        @Override
+        public boolean isInMemory(String url) {
+            return ImageLoader.isInMemory(urls.get(url), urls.getWidthPx(), urls.getHeightPx());
+        }
+
+        @Override
+        public void load(String url, ImageView view, Callback callback) {
+            picasso.load(urls.get(url))
+                    .placeholder(R.drawable.ic_contact_picture)
+                    .resize(urls.getWidthPx(), urls.getHeightPx())
+                    .into(view, callback);
+        }
+
+        @Override
+        public void cancel(ImageView view) {
+            picasso.cancelRequest(view);
+        }
+
+        @Override
+        public void showPlaceholder(ImageView view) {
+            picasso.cancelRequest(view);
+            view.setImageResource(R.drawable.ic_contact_picture);
+        }
+    }
+}
@@ -9,20 +9,39 @@ import android.view.View;
 import android.widget.TextView;
 
 import com.bypassmobile.octo.model.User;
-
+import com.bypassmobile.octo.rest.CoalescingPageSource;
+import com.bypassmobile.octo.rest.InFlightRequests;
+import com.bypassmobile.octo.rest.RequestScheduler;
+import com.bypassmobile.octo.rest.UserPager;
+import com.bypassmobile.octo.store.FollowingPrefetcher;
+import com.bypassmobile.octo.store.UserStore;
+
+import java.util.ArrayList;
 import java.util.List;
 
 import retrofit.Callback;
 import retrofit.RetrofitError;
-import retrofit.client.Response;
 
 /**
  * Main entry point of the applications.  Activity will display the members of an organization.
  */
-public class MainActivity extends BaseActivity implements UserListFragment.UserListListener {
+public class MainActivity extends BaseActivity implements UserListFragment.UserListListener, UserListFragment.VisibleUsersListener {
+
+    private static final String ORGANIZATION = "bypasslane";
 
+    private static final String STATE_WALKING = "walkingMembers";
+
+    private UserStore store;
+    private FollowingPrefetcher prefetcher;
     private UserListFragment userFragment;
+    private UserPager pager;
+    private CoalescingPageSource pageSource;
     private TextView errorMsgView;
+    /** Whether a walk over the member pages is under way, so a recreated activity can pick it up again. */
+    private boolean walking;
+    private boolean resumeWalk;
+    private boolean loadingStored;
+    private boolean destroyed;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -31,27 +50,66 @@ public class MainActivity extends BaseActivity implements UserListFragment.UserL
 
         final Toolbar bar = findView(R.id.toolBar);
         setSupportActionBar(bar);
-        setTitle("bypasslane");
+        setTitle(ORGANIZATION);
 
         errorMsgView = findView(R.id.txtError);
+        store = UserStore.getInstance(this);
+        prefetcher = FollowingPrefetcher.getInstance(this);
 
         if (savedInstanceState != null) {
             // Restore the fragment from the previous state.
             userFragment = (UserListFragment) getSupportFragmentManager().getFragment(savedInstanceState, UserListFragment.TAG);
+            resumeWalk = savedInstanceState.getBoolean(STATE_WALKING);
         } else {
             userFragment = UserListFragment.getInstance();
             getSupportFragmentManager().beginTransaction()
                     .add(R.id.userListContainer, userFragment, UserListFragment.TAG)
                     .commit();
         }
+
+        // Shared with any other screen loading the same list, including this one after being recreated.
+        pageSource = new CoalescingPageSource(new UserPager.PageSource() {
+            @Override
+            public void getPage(final int page, final int perPage, Callback<List<User>> callback) {
+                sendForeground(new InFlightRequests.Request<List<User>>() {
+                    @Override
+                    public void start(Callback<List<User>> callback) {
+                        getEndpoint().getOrganizationMember(ORGANIZATION, page, perPage, callback);
+                    }
+                }, callback);
+            }
+        }, UserStore.orgKey(ORGANIZATION), InFlightRequests.getInstance());
+        pager = new UserPager(pageSource, UserPager.DEFAULT_PAGE_SIZE, UserPager.DEFAULT_MAX_CONCURRENT_PAGES, new MembersListener(userFragment));
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        destroyed = true;
+        // Pages still on their way have nowhere to go.
+        pager.cancel();
+        pageSource.detach();
     }
 
     @Override
     public void onStart() {
         super.onStart();
         if (userFragment.isEmpty()) {
-            getMembers("bypasslane");
+            if (!loadingStored && !walking) {
+                loadStored();
+            }
+        } else if (resumeWalk) {
+            // Recreated part way through the pages.  The pages still on their way are joined, the ones
+            // already shown are only checked again, and the list is stored once the last one is in.
+            getMembers();
         } // Else we're going to assume that this activity is being recreated from a previous state.  Most likely the members status didn't alter in between.
+        resumeWalk = false;
+    }
+
+    @Override
+    public void onUsersVisible(List<User> users) {
+        // The next tap is most likely on one of these.
+        prefetcher.prefetch(users);
     }
 
     @Override
@@ -65,15 +123,41 @@ public class MainActivity extends BaseActivity implements UserListFragment.UserL
     public void onSaveInstanceState(Bundle out) {
         super.onSaveInstanceState(out);
         getSupportFragmentManager().putFragment(out, UserListFragment.TAG, userFragment);
+        out.putBoolean(STATE_WALKING, walking);
     }
 
     /**
-     * Retrieve the members of the given organization
+     * Show what we had last time as soon as it is read, and only go to the network if it is missing or
+     * old.
      */
-    private void getMembers(String orgnization) {
+    private void loadStored() {
+        loadingStored = true;
+        store.loadList(UserStore.orgKey(ORGANIZATION), new UserStore.LoadListener() {
+            @Override
+            public void onLoaded(UserStore.Snapshot stored) {
+                loadingStored = false;
+                if (destroyed) {
+                    return;
+                }
+                if (stored != null) {
+                    userFragment.setUsers(stored.getUsers());
+                }
+                if (stored == null || !stored.isFresh()) {
+                    getMembers();
+                }
+            }
+        });
+    }
+
+    /**
+     * Retrieve every page of members of the organization.
+     */
+    private void getMembers() {
         hideError();
         setProgressIndicator();
-        getEndpoint().getOrganizationMember(orgnization, new MembersCallback(userFragment, errorMsgView));
+        walking = true;
+        pager.restart();
+        pager.loadAll();
     }
 
     /**
@@ -90,34 +174,54 @@ public class MainActivity extends BaseActivity implements UserListFragment.UserL
      *      Resource ID of the error or message to display.
      */
     private void showError(@StringRes int resId) {
+        showError(getString(resId));
+    }
+
+    /**
+     * Puts the view state in a "show error" state.
+     * @param message
+     *      Message to display to the user.
+     */
+    private void showError(String message) {
         errorMsgView.setVisibility(View.VISIBLE);
-        errorMsgView.setText(resId);
+        errorMsgView.setText(message);
         getSupportFragmentManager().beginTransaction().show(userFragment).commit();
     }
 
     /**
-     * Internal callback that can handle operations for retrieving the members.
+     * Internal listener that can handle the pages of members as they arrive.
      */
-    private class MembersCallback implements Callback<List<User>> {
-        final TextView errorMsgView;
+    private class MembersListener implements UserPager.Listener {
         final UserListFragment userListFragment;
+        /** Every member of the current walk so far, stored once the last page is in. */
+        final List<User> fetched = new ArrayList<>();
 
         /**
          *
          * @param frag
          *      The user fragment that will contain the list of users that are to show.
-         * @param errorMsgView
-         *      Error message textview that will display the appropriate error message if the view is
-         *      either empty or full.
          */
-        public MembersCallback(UserListFragment frag, TextView errorMsgView) {
+        public MembersListener(UserListFragment frag) {
             this.userListFragment = frag;
-            this.errorMsgView = errorMsgView;
         }
 
         @Override
-        public void success(List<User> users, Response response) {
-            userListFragment.addAll(users);
+        public void onPage(List<User> users, int page) {
+            if (page == 1) {
+                // The first page replaces whatever the store showed, the others are appended to it.
+                fetched.clear();
+                userListFragment.setUsers(users);
+            } else {
+                userListFragment.addAll(users);
+            }
+            fetched.addAll(users);
+            removeProgressIndicator();
+        }
+
+        @Override
+        public void onComplete() {
+            walking = false;
+            store.save(UserStore.orgKey(ORGANIZATION), fetched, UserStore.COMPLETE);
             if (userListFragment.isEmpty()) {
                 showError(R.string.error_empty_member_list);
             }
@@ -125,9 +229,14 @@ public class MainActivity extends BaseActivity implements UserListFragment.UserL
         }
 
         @Override
-        public void failure(RetrofitError error) {
-            Log.e("Octo", "Failure to download members");
-            showError(R.string.error_retrieving_member_list);
+        public void onFailure(RetrofitError error, int page) {
+            Log.e("Octo", "Failure to download members, page " + page);
+            walking = false;
+            if (RequestScheduler.isRateLimited(error)) {
+                showError(getRateLimitedMessage());
+            } else if (userListFragment.isEmpty()) {
+                showError(R.string.error_retrieving_member_list);
+            } // Else keep showing the stored members, they are better than nothing.
             removeProgressIndicator();
         }
     }
@@ -0,0 +1,24 @@
+package com.bypassmobile.octo;
+
+import android.app.Application;
+
+import com.bypassmobile.octo.image.ImageLoader;
+
+/**
+ * Hands memory back to the system when it asks for it, so under pressure the image caches shrink
+ * before the process is killed.
+ */
+public class OctoApplication extends Application {
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        ImageLoader.trimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        ImageLoader.trimMemory(TRIM_MEMORY_COMPLETE);
+    }
+}
@@ -0,0 +1,274 @@
+package com.bypassmobile.octo;
+
+
+import android.os.Bundle;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import com.bypassmobile.octo.model.User;
+import com.bypassmobile.octo.model.UserCollection;
+import com.bypassmobile.octo.store.ListStateStore;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Adapter to display the list of users in their appropriate order.
+ *
+ * Every row has a stable ID derived from the login, and every login is listed once, see
+ * {@link UserCollection}.  Appending a page only inserts its rows.  Replacing
+ * the list has the difference to the displayed one worked out on a background thread, see
+ * {@link UserDiff}, and only the rows that changed are bound again once it is applied on the main
+ * thread.  Until then the rows keep showing the previous list, while {@link #getCount()} and the saved
+ * state already reflect the new one.
+ *
+ * The saved state only holds a key to the users, which are kept in a {@link ListStateStore}.
+ */
+/* internal */ class UserAdapter extends RecyclerView.Adapter<UserAdapter.ViewHolder> {
+
+    private static final String ARG_USERS_STATE_KEY = "savedUsersKey";
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final ListAvatarLoader mAvatars;
+    private final UserListFragment.UserListListener mListener;
+    private final Executor mDiffExecutor;
+    private final Executor mMainExecutor;
+    private final ListStateStore mStates;
+    /** Key the users are saved under, kept for the lifetime of the list across recreations. */
+    private String mStateKey;
+
+    /** Snapshot of the users the rows are bound to, replaced on the main thread. */
+    private List<User> mDisplayed = new ArrayList<>();
+    /** The latest users, ahead of the rows while a diff is pending. */
+    private final UserCollection mList = new UserCollection();
+    /** Incremented for every diff, so only the latest one is applied. */
+    private int mGeneration;
+    private boolean mDiffPending;
+
+    /**
+     * @param diffExecutor
+     *      Runs the diffs, off the main thread.
+     * @param mainExecutor
+     *      Runs on the main thread, where the diffs are applied.
+     */
+    public UserAdapter(ListAvatarLoader avatars, UserListFragment.UserListListener listener, Executor diffExecutor, Executor mainExecutor) {
+        this(avatars, listener, ListStateStore.getInstance(), diffExecutor, mainExecutor);
+    }
+
+    /**
+     * @param states
+     *      Holds the users while the list is being recreated.
+     */
+    public UserAdapter(ListAvatarLoader avatars, UserListFragment.UserListListener listener, ListStateStore states,
+                       Executor diffExecutor, Executor mainExecutor) {
+        if (states == null) {
+            throw new IllegalArgumentException("The list state store can not be null.");
+        }
+        mAvatars = avatars;
+        mListener = listener;
+        mStates = states;
+        mDiffExecutor = diffExecutor;
+        mMainExecutor = mainExecutor;
+        setHasStableIds(true);
+    }
+
+    /**
+     * Adds all the user collection to the end of the adapter.  Users already listed are updated where
+     * they are instead.
+     */
+    public void addAll(Collection<User> users) {
+        if (users == null || users.isEmpty()) {
+            return;
+        }
+        final int start = mList.size();
+        final int appended = mList.addAll(users);
+        if (mDiffPending || appended != users.size()) {
+            // The pending diff is out of date now, or rows in the middle changed.
+            submitDiff();
+            return;
+        }
+        mDisplayed = mList.snapshot();
+        notifyItemRangeInserted(start, appended);
+    }
+
+    /**
+     * Replaces the adapter contents with the user collection, binding again only the rows that changed.
+     */
+    public void replaceAll(Collection<User> users) {
+        if (users != null) {
+            mList.replaceAll(users);
+        } else {
+            mList.clear();
+        }
+        if (!mDiffPending && (mDisplayed.isEmpty() || mList.isEmpty())) {
+            // Nothing to compare against.
+            final int removed = mDisplayed.size();
+            mDisplayed = mList.snapshot();
+            if (removed > 0) {
+                notifyItemRangeRemoved(0, removed);
+            }
+            if (!mDisplayed.isEmpty()) {
+                notifyItemRangeInserted(0, mDisplayed.size());
+            }
+            return;
+        }
+        submitDiff();
+    }
+
+    private void submitDiff() {
+        final int generation = ++mGeneration;
+        mDiffPending = true;
+        final List<User> displayed = mDisplayed;
+        final List<User> target = mList.snapshot();
+        mDiffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final UserDiff diff = UserDiff.calculate(displayed, target);
+                mMainExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            // A newer diff is on its way.
+                            return;
+                        }
+                        mDisplayed = target;
+                        mDiffPending = false;
+                        diff.dispatchTo(UserAdapter.this);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Return the number of users, including any not displayed yet.
+     */
+    public int getCount() {
+        return mList.size();
+    }
+
+    public boolean isEmpty() {
+        return mList.isEmpty();
+    }
+
+    /**
+     * Return a copy of the users displayed between the given positions.
+     */
+    public List<User> getRange(int from, int to) {
+        return new ArrayList<>(mDisplayed.subList(from, Math.min(to, mDisplayed.size())));
+    }
+
+    /**
+     * Restore the adapter to its previous state.
+     * @param in
+     *      The state bundle that is passed in to one of the many Fragment callbacks.
+     * @return
+     *      True if the users were restored, false if there was no state or the users are gone along
+     *      with the process that saved them, and have to be loaded again.
+     */
+    public boolean onRestoreState(Bundle in) {
+        if (in == null || in.getString(ARG_USERS_STATE_KEY) == null) {
+            return false;
+        }
+        mStateKey = in.getString(ARG_USERS_STATE_KEY);
+        final List<User> savedUsers = mStates.get(mStateKey);
+        if (savedUsers == null) {
+            return false;
+        }
+        addAll(savedUsers);
+        return true;
+    }
+
+    /**
+     * Saves the state of the adapter to be called in {@link android.support.v4.app.Fragment#onSaveInstanceState(Bundle)}.
+     * Only the key of the users goes into the bundle, the snapshot of the users is shared, not copied.
+     */
+    public void onSaveInstanceState(Bundle out) {
+        if (mStateKey == null) {
+            mStateKey = mStates.newKey();
+        }
+        mStates.put(mStateKey, mList.snapshot());
+        out.putString(ARG_USERS_STATE_KEY, mStateKey);
+    }
+
+    /**
+     * Let go of the saved users, to be called once the list is gone for good and won't be restored.
+     */
+    public void releaseState() {
+        mStates.remove(mStateKey);
+        mStateKey = null;
+    }
+
+    @Override
+    public int getItemCount() {
+        return mDisplayed.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return stableId(mDisplayed.get(position));
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        return new ViewHolder(LayoutInflater.from(parent.getContext()).inflate(R.layout.user_item, parent, false));
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        final User user = mDisplayed.get(position);
+        mAvatars.bind(holder.mAvatar, user.getProfileURL());
+        holder.mName.setText(user.getName());
+    }
+
+    @Override
+    public void onViewRecycled(ViewHolder holder) {
+        // Nobody will see the avatar if it is still on its way.
+        mAvatars.unbind(holder.mAvatar);
+    }
+
+    /**
+     * Return an ID for the user that stays the same wherever it is in the list, a 64 bit FNV-1a hash of
+     * the login.
+     */
+    /* internal */ static long stableId(User user) {
+        final String login = (user != null) ? user.getName() : null;
+        if (login == null) {
+            return 0;
+        }
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < login.length(); i++) {
+            hash ^= login.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return (hash == RecyclerView.NO_ID) ? 0 : hash;
+    }
+
+    /* internal */ class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+        final ImageView mAvatar;
+        final TextView mName;
+
+        public ViewHolder(View v) {
+            super(v);
+            mAvatar = (ImageView) v.findViewById(R.id.imgAvatar);
+            mName = (TextView) v.findViewById(R.id.txtName);
+            v.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View v) {
+            final int position = getAdapterPosition();
+            if (position != RecyclerView.NO_POSITION && mListener != null) {
+                mListener.onUserClicked(mDisplayed.get(position));
+            }
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.bypassmobile.octo;
+
+
+import android.support.v7.widget.RecyclerView;
+
+import com.bypassmobile.octo.model.User;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Difference between two lists of users as the ranges a {@link RecyclerView.Adapter} has to be told
+ * about, so only the rows that actually changed are bound again.
+ *
+ * Users are matched by login.  A matched user whose avatar changed is reported as changed, users only
+ * in the old list as removed and users only in the new list as inserted.  Users that kept their login
+ * but moved relative to the others are reported as removed and inserted again.
+ *
+ * Calculating the difference is linear in the size of the lists for the common cases of a page added
+ * or a few users changed, and O(n log n) otherwise.  It is meant to run off the main thread.
+ */
+/* internal */ final class UserDiff {
+
+    private static final int CHANGED = 0;
+    private static final int INSERTED = 1;
+    private static final int REMOVED = 2;
+
+    /** Operations as (type, position, count) triples, last position first. */
+    private final int[] ops;
+    private final int opCount;
+
+    private int changedCount;
+    private int insertedCount;
+    private int removedCount;
+
+    private UserDiff(int[] ops, int opCount) {
+        this.ops = ops;
+        this.opCount = opCount;
+        for (int i = 0; i < opCount; i++) {
+            final int count = ops[i * 3 + 2];
+            switch (ops[i * 3]) {
+                case CHANGED:
+                    changedCount += count;
+                    break;
+                case INSERTED:
+                    insertedCount += count;
+                    break;
+                case REMOVED:
+                default:
+                    removedCount += count;
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Calculate the ranges that turn the old list into the new one.  Neither list may change while this
+     * runs.
+     */
+    /* internal */ static UserDiff calculate(List<User> oldList, List<User> newList) {
+        final Builder ops = new Builder();
+        final int oldSize = oldList.size();
+        final int newSize = newList.size();
+
+        // Paging in, refreshing with a few changes and dropping the tail all leave long runs alone.
+        int start = 0;
+        while (start < oldSize && start < newSize && sameLogin(oldList.get(start), newList.get(start))) {
+            start++;
+        }
+        int oldEnd = oldSize;
+        int newEnd = newSize;
+        while (oldEnd > start && newEnd > start && sameLogin(oldList.get(oldEnd - 1), newList.get(newEnd - 1))) {
+            oldEnd--;
+            newEnd--;
+        }
+
+        // Everything is dispatched from the end, so positions before an operation are still the old ones.
+        for (int i = oldSize - 1, j = newSize - 1; i >= oldEnd; i--, j--) {
+            ops.changedIfDifferent(i, oldList.get(i), newList.get(j));
+        }
+        diffMiddle(oldList, start, oldEnd, newList, start, newEnd, ops);
+        for (int i = start - 1; i >= 0; i--) {
+            ops.changedIfDifferent(i, oldList.get(i), newList.get(i));
+        }
+        return new UserDiff(ops.ops, ops.count);
+    }
+
+    /**
+     * Tell the adapter about every range, in an order that keeps the positions of the later ones valid.
+     * The adapter must already hold the new list.
+     */
+    /* internal */ void dispatchTo(RecyclerView.Adapter<?> adapter) {
+        for (int i = 0; i < opCount; i++) {
+            final int position = ops[i * 3 + 1];
+            final int count = ops[i * 3 + 2];
+            switch (ops[i * 3]) {
+                case CHANGED:
+                    adapter.notifyItemRangeChanged(position, count);
+                    break;
+                case INSERTED:
+                    adapter.notifyItemRangeInserted(position, count);
+                    break;
+                case REMOVED:
+                default:
+                    adapter.notifyItemRangeRemoved(position, count);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Return the number of users whose row has to be bound again.
+     */
+    /* internal */ int getChangedCount() {
+        return changedCount;
+    }
+
+    /* internal */ int getInsertedCount() {
+        return insertedCount;
+    }
+
+    /* internal */ int getRemovedCount() {
+        return removedCount;
+    }
+
+    /**
+     * Diff the part between the common head and tail.  The users kept are the longest run of old users
+     * that appear in the new list in the same order, the rest is removed or inserted.
+     */
+    private static void diffMiddle(List<User> oldList, int oldStart, int oldEnd,
+                                   List<User> newList, int newStart, int newEnd, Builder ops) {
+        final int oldCount = oldEnd - oldStart;
+        final int newCount = newEnd - newStart;
+        if (oldCount == 0 || newCount == 0) {
+            if (oldCount > 0) {
+                ops.add(REMOVED, oldStart, oldCount);
+            }
+            if (newCount > 0) {
+                ops.add(INSERTED, oldStart, newCount);
+            }
+            return;
+        }
+
+        // Old positions by login, with a chain through the rest in case a login is listed twice.
+        final Map<String, Integer> firstOld = new HashMap<>(oldCount * 4 / 3 + 1);
+        final int[] nextOld = new int[oldCount];
+        for (int i = oldCount - 1; i >= 0; i--) {
+            final Integer next = firstOld.put(loginOf(oldList.get(oldStart + i)), i);
+            nextOld[i] = (next != null) ? next : -1;
+        }
+        final int[] matches = new int[newCount];
+        for (int j = 0; j < newCount; j++) {
+            final String login = loginOf(newList.get(newStart + j));
+            final Integer i = firstOld.get(login);
+            matches[j] = (i != null) ? i : -1;
+            if (i != null) {
+                if (nextOld[i] >= 0) {
+                    firstOld.put(login, nextOld[i]);
+                } else {
+                    firstOld.remove(login);
+                }
+            }
+        }
+
+        // The longest increasing run of old positions, by patience sorting.
+        final int[] tails = new int[newCount];
+        final int[] previous = new int[newCount];
+        int length = 0;
+        for (int j = 0; j < newCount; j++) {
+            if (matches[j] < 0) {
+                continue;
+            }
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (matches[tails[mid]] < matches[j]) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            previous[j] = (low > 0) ? tails[low - 1] : -1;
+            tails[low] = j;
+            if (low == length) {
+                length++;
+            }
+        }
+
+        // Walk the kept users from the last one, removing and inserting the gaps between them.
+        int keptNew = (length > 0) ? tails[length - 1] : -1;
+        int gapOldEnd = oldCount;
+        int gapNewEnd = newCount;
+        while (true) {
+            final int keptOld = (keptNew >= 0) ? matches[keptNew] : -1;
+            final int removed = gapOldEnd - keptOld - 1;
+            final int inserted = gapNewEnd - keptNew - 1;
+            if (removed > 0) {
+                ops.add(REMOVED, oldStart + keptOld + 1, removed);
+            }
+            if (inserted > 0) {
+                ops.add(INSERTED, oldStart + keptOld + 1, inserted);
+            }
+            if (keptNew < 0) {
+                break;
+            }
+            ops.changedIfDifferent(oldStart + keptOld, oldList.get(oldStart + keptOld), newList.get(newStart + keptNew));
+            gapOldEnd = keptOld;
+            gapNewEnd = keptNew;
+            keptNew = previous[keptNew];
+        }
+    }
+
+    private static boolean sameLogin(User a, User b) {
+        return equal(loginOf(a), loginOf(b));
+    }
+
+    private static String loginOf(User user) {
+        return (user != null) ? user.getName() : null;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return (a == null) ? b == null : a.equals(b);
+    }
+
+    /**
+     * Collects operations, merging a change into the one at the next position.
+     */
+    private static final class Builder {
+        int[] ops = new int[3 * 8];
+        int count;
+
+        void changedIfDifferent(int position, User oldUser, User newUser) {
+            if (oldUser == newUser || (oldUser != null && newUser != null
+                    && equal(oldUser.getProfileURL(), newUser.getProfileURL()))) {
+                return;
+            }
+            final int last = (count - 1) * 3;
+            if (count > 0 && ops[last] == CHANGED && ops[last + 1] == position + 1) {
+                ops[last + 1] = position;
+                ops[last + 2]++;
+                return;
+            }
+            add(CHANGED, position, 1);
+        }
+
+        void add(int type, int position, int itemCount) {
+            if ((count + 1) * 3 > ops.length) {
+                final int[] grown = new int[ops.length * 2];
+                System.arraycopy(ops, 0, grown, 0, count * 3);
+                ops = grown;
+            }
+            ops[count * 3] = type;
+            ops[count * 3 + 1] = position;
+            ops[count * 3 + 2] = itemCount;
+            count++;
+        }
+    }
+}
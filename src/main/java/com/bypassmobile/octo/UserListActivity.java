@@ -9,25 +9,42 @@ import android.view.View;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.bypassmobile.octo.image.AvatarUrls;
 import com.bypassmobile.octo.image.ImageLoader;
 import com.bypassmobile.octo.model.User;
+import com.bypassmobile.octo.rest.CoalescingPageSource;
+import com.bypassmobile.octo.rest.InFlightRequests;
+import com.bypassmobile.octo.rest.RequestScheduler;
+import com.bypassmobile.octo.rest.UserPager;
+import com.bypassmobile.octo.store.FollowingPrefetcher;
+import com.bypassmobile.octo.store.UserStore;
 
 import java.util.List;
 
 import retrofit.Callback;
 import retrofit.RetrofitError;
-import retrofit.client.Response;
 
 /**
  *  Activity intended to show followers of a specific user.
  */
-public class UserListActivity extends BaseActivity implements UserListFragment.UserListListener {
+public class UserListActivity extends BaseActivity implements UserListFragment.UserListListener, UserListFragment.LoadMoreListener, UserListFragment.VisibleUsersListener {
 
     public static final String ARG_USER_PARCEL = "user";
 
+    private static final String STATE_NEXT_PAGE = "nextPage";
+
+    private UserStore store;
+    private FollowingPrefetcher prefetcher;
     private UserListFragment userFragment;
+    private UserPager pager;
+    private CoalescingPageSource pageSource;
+    private FollowingListener listener;
     private User user;
     private TextView errorMsgView;
+    /** Page the list on screen continues at when this pager did not load it, or UserStore.COMPLETE. */
+    private int shownNextPage = UserStore.COMPLETE;
+    private boolean loadingStored;
+    private boolean destroyed;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -44,10 +61,12 @@ public class UserListActivity extends BaseActivity implements UserListFragment.U
 
         final ImageView profileImage = (ImageView) bar.findViewById(R.id.imgAvatar);
         if (profileImage != null) {
+            // Same URL and size as the rows, so the avatar the user tapped is already cached.
+            final AvatarUrls avatarUrls = ImageLoader.getAvatarUrls(this);
             ImageLoader.createImageLoader(this)
-                    .load(user.getProfileURL())
+                    .load(avatarUrls.get(user.getProfileURL()))
                     .placeholder(R.drawable.ic_contact_picture)
-                    .resizeDimen(R.dimen.avatar_width, R.dimen.avatar_height)
+                    .resize(avatarUrls.getWidthPx(), avatarUrls.getHeightPx())
                     .into(profileImage);
         }
 
@@ -56,26 +75,77 @@ public class UserListActivity extends BaseActivity implements UserListFragment.U
         setDisplayHomeAsUpEnabled(true);
 
         errorMsgView = findView(R.id.txtError);
+        store = UserStore.getInstance(this);
+        prefetcher = FollowingPrefetcher.getInstance(this);
+        if (savedInstanceState == null) {
+            prefetcher.onOpened(user.getName());
+        }
 
         if (savedInstanceState != null) {
             // Restore the fragment from the previous state.
             userFragment = (UserListFragment) getSupportFragmentManager().getFragment(savedInstanceState, UserListFragment.TAG);
+            shownNextPage = savedInstanceState.getInt(STATE_NEXT_PAGE, UserStore.COMPLETE);
         } else {
             userFragment = UserListFragment.getInstance();
             getSupportFragmentManager().beginTransaction()
                     .add(R.id.userListContainer, userFragment, UserListFragment.TAG)
                     .commit();
         }
+
+        listener = new FollowingListener(userFragment);
+        // Shared with any other screen loading the same list, including this one after being recreated.
+        pageSource = new CoalescingPageSource(new UserPager.PageSource() {
+            @Override
+            public void getPage(final int page, final int perPage, Callback<List<User>> callback) {
+                sendForeground(new InFlightRequests.Request<List<User>>() {
+                    @Override
+                    public void start(Callback<List<User>> callback) {
+                        getEndpoint().getFollowingUser(user.getName(), page, perPage, callback);
+                    }
+                }, callback);
+            }
+        }, UserStore.followingKey(user.getName()), InFlightRequests.getInstance());
+        pager = new UserPager(pageSource, UserPager.DEFAULT_PAGE_SIZE, UserPager.DEFAULT_MAX_CONCURRENT_PAGES, listener);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        destroyed = true;
+        // Pages still on their way have nowhere to go.
+        pager.cancel();
+        pageSource.detach();
     }
 
     @Override
     public void onStart() {
         super.onStart();
-        if (userFragment.isEmpty()) {
-            getFollowers();
+        if (userFragment.isEmpty() && !loadingStored && !pager.isLoading()) {
+            loadStored();
         } // Else we're going to assume that this activity is being recreated from a previous state.  Most likely the members status didn't alter in between.
     }
 
+    @Override
+    public void onLoadMore() {
+        if (pager.isComplete() || pager.isLoading()) {
+            return;
+        }
+        if (pager.getPagesDelivered() == 0 && !userFragment.isEmpty()) {
+            // Showing a stored or restored list, page on from where it ended instead of starting over.
+            if (shownNextPage == UserStore.COMPLETE) {
+                return;
+            }
+            pager.resumeAt(shownNextPage);
+        }
+        pager.loadNext();
+    }
+
+    @Override
+    public void onUsersVisible(List<User> users) {
+        // The next tap is most likely on one of these.
+        prefetcher.prefetch(users);
+    }
+
     @Override
     public void onUserClicked(User user) {
         final Intent intent = new Intent(this, UserListActivity.class);
@@ -87,15 +157,41 @@ public class UserListActivity extends BaseActivity implements UserListFragment.U
     public void onSaveInstanceState(Bundle out) {
         super.onSaveInstanceState(out);
         getSupportFragmentManager().putFragment(out, UserListFragment.TAG, userFragment);
+        out.putInt(STATE_NEXT_PAGE, (pager.getPagesDelivered() > 0) ? pager.getNextPage() : shownNextPage);
+    }
+
+    /**
+     * Show what we had last time as soon as it is read, and only go to the network if it is missing or
+     * old.
+     */
+    private void loadStored() {
+        loadingStored = true;
+        store.loadList(UserStore.followingKey(user.getName()), new UserStore.LoadListener() {
+            @Override
+            public void onLoaded(UserStore.Snapshot stored) {
+                loadingStored = false;
+                if (destroyed) {
+                    return;
+                }
+                if (stored != null) {
+                    userFragment.setUsers(stored.getUsers());
+                    shownNextPage = stored.getNextPage();
+                }
+                if (stored == null || !stored.isFresh()) {
+                    getFollowers();
+                }
+            }
+        });
     }
 
     /**
-     * Retrieve the followers of the user.
+     * Retrieve the first page of users the user follows, the rest is loaded as the list is scrolled.
      */
     private void getFollowers() {
         hideError();
         setProgressIndicator();
-        getEndpoint().getFollowingUser(user.getName(), new MembersCallback(userFragment, errorMsgView));
+        pager.restart();
+        pager.loadNext();
     }
 
     /**
@@ -118,28 +214,32 @@ public class UserListActivity extends BaseActivity implements UserListFragment.U
     }
 
     /**
-     * Internal callback that can handle operations for retrieving the members.
+     * Internal listener that can handle the pages of followed users as they arrive.
      */
-    private class MembersCallback implements Callback<List<User>> {
-        final TextView errorMsgView;
+    private class FollowingListener implements UserPager.Listener {
         final UserListFragment userListFragment;
 
         /**
          *
          * @param frag
          *      The user fragment that will contain the list of users that are to show.
-         * @param errorMsgView
-         *      Error message textview that will display the appropriate error message if the view is
-         *      either empty or full.
          */
-        public MembersCallback(UserListFragment frag, TextView errorMsgView) {
+        public FollowingListener(UserListFragment frag) {
             this.userListFragment = frag;
-            this.errorMsgView = errorMsgView;
         }
 
         @Override
-        public void success(List<User> users, Response response) {
-            userListFragment.addAll(users);
+        public void onPage(List<User> users, int page) {
+            // The first page replaces whatever the store showed, the others are appended to it, on screen
+            // and on disk alike.
+            final String key = UserStore.followingKey(user.getName());
+            if (page == 1) {
+                userListFragment.setUsers(users);
+                store.save(key, users, pager.getNextPage());
+            } else {
+                userListFragment.addAll(users);
+                store.savePage(key, users, page, pager.getNextPage());
+            }
             if (userListFragment.isEmpty()) {
                 showError(getString(R.string.error_empty_follower_list, user.getName()));
             } else {
@@ -149,9 +249,18 @@ public class UserListActivity extends BaseActivity implements UserListFragment.U
         }
 
         @Override
-        public void failure(RetrofitError error) {
-            Log.e("Octo", "Failure to download members");
-            showError(getString(R.string.error_retrieving_follower_list, user.getName()));
+        public void onComplete() {
+            // Nothing left to load more of.
+        }
+
+        @Override
+        public void onFailure(RetrofitError error, int page) {
+            Log.e("Octo", "Failure to download members, page " + page);
+            if (userListFragment.isEmpty()) {
+                showError(RequestScheduler.isRateLimited(error)
+                        ? getRateLimitedMessage()
+                        : getString(R.string.error_retrieving_follower_list, user.getName()));
+            } // Else keep showing the stored followers, they are better than nothing.
             removeProgressIndicator();
         }
     }
@@ -1,31 +1,28 @@
 package com.bypassmobile.octo;
 
 import android.app.Activity;
-import android.content.Context;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.AdapterView;
-import android.widget.BaseAdapter;
 import android.widget.ImageView;
-import android.widget.ListView;
-import android.widget.TextView;
 
-import com.bypassmobile.octo.image.ImageLoader;
 import com.bypassmobile.octo.model.User;
-import com.squareup.picasso.Picasso;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
 
+import retrofit.android.MainThreadExecutor;
+
 /**
  *  Simple fragment that is used to display a list of {@link User} objects.
  */
-public class UserListFragment extends Fragment implements AdapterView.OnItemClickListener {
+public class UserListFragment extends Fragment {
 
     public static final String TAG = UserListFragment.class.getSimpleName();
 
@@ -42,36 +39,89 @@ public class UserListFragment extends Fragment implements AdapterView.OnItemClic
         void onUserClicked(User user);
     }
 
+    /**
+     * Activities that page their list in as the user scrolls implement this interface as well.
+     */
+    public interface LoadMoreListener {
+        /**
+         * The user is getting close to the end of the list, the next page should be fetched.
+         */
+        void onLoadMore();
+    }
+
+    /**
+     * Activities that want to know which users are on screen once scrolling settles implement this
+     * interface as well.
+     */
+    public interface VisibleUsersListener {
+        /**
+         * @param users
+         *      The users on screen, top to bottom.
+         */
+        void onUsersVisible(List<User> users);
+    }
+
     public static UserListFragment getInstance() {
         final UserListFragment newFrag = new UserListFragment();
         newFrag.setArguments(new Bundle());
         return newFrag;
     }
 
-    private static final String ARG_USERS_ARRAY_LIST_STATE = "savedUsers";
+    /** Ask for more once no more than this many users are left below the visible ones. */
+    private static final int LOAD_MORE_THRESHOLD = 10;
+
+    private static final String ARG_SCROLL_POSITION = "scrollPosition";
+    private static final String ARG_SCROLL_OFFSET = "scrollOffset";
 
     private UserAdapter mAdapter;
-    private UserListListener mListener;
+    private ListAvatarLoader mAvatars;
+    private LinearLayoutManager mLayoutManager;
+    private LoadMoreListener mLoadMoreListener;
+    private VisibleUsersListener mVisibleUsersListener;
+
+    /** Last range reported to the visible users listener, so it only hears about changes. */
+    private int mLastFirstVisible = -1;
+    private int mLastVisibleCount = -1;
+    private int mLastTotalCount = -1;
+
+    /** Position to scroll back to once the list has that many users again, after a recreation. */
+    private int mPendingScrollPosition = RecyclerView.NO_POSITION;
+    private int mPendingScrollOffset;
 
     @Override
     public void onAttach(Activity act) {
         super.onAttach(act);
-        mAdapter = new UserAdapter(act);
+        final UserListListener listener;
         try {
-            mListener = (UserListListener) act;
+            listener = (UserListListener) act;
         } catch (ClassCastException e) {
             throw new ClassCastException("Activity " + act.getClass().getCanonicalName() + " must implement " + UserListListener.class.getCanonicalName());
         }
+        // Diffs run one after the other in the background, only the latest is applied.
+        mAvatars = ListAvatarLoader.create(act);
+        mAdapter = new UserAdapter(mAvatars, listener, AsyncTask.SERIAL_EXECUTOR, new MainThreadExecutor());
+        mLoadMoreListener = (act instanceof LoadMoreListener) ? (LoadMoreListener) act : null;
+        mVisibleUsersListener = (act instanceof VisibleUsersListener) ? (VisibleUsersListener) act : null;
     }
 
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
+        // The users are gone if the process was recreated, the activity will reload them from the
+        // store and the list scrolls back once they are in.
         mAdapter.onRestoreState(savedInstanceState);
+        if (savedInstanceState != null) {
+            mPendingScrollPosition = savedInstanceState.getInt(ARG_SCROLL_POSITION, RecyclerView.NO_POSITION);
+            mPendingScrollOffset = savedInstanceState.getInt(ARG_SCROLL_OFFSET);
+        }
 
         final View root = inflater.inflate(R.layout.fragment_user_list, container, false);
-        final ListView list = (ListView) root.findViewById(R.id.listView);
+        final RecyclerView list = (RecyclerView) root.findViewById(R.id.listView);
+        mLayoutManager = new LinearLayoutManager(list.getContext());
+        list.setLayoutManager(mLayoutManager);
+        list.setHasFixedSize(true);
         list.setAdapter(mAdapter);
-        list.setOnItemClickListener(this);
+        list.addOnScrollListener(new ScrollListener());
+        applyPendingScroll();
 
         return root;
     }
@@ -80,12 +130,47 @@ public class UserListFragment extends Fragment implements AdapterView.OnItemClic
     public void onSaveInstanceState(Bundle out) {
         super.onSaveInstanceState(out);
         mAdapter.onSaveInstanceState(out);
+
+        if (mPendingScrollPosition != RecyclerView.NO_POSITION) {
+            // Never got to scroll back, the users have yet to come in again.
+            out.putInt(ARG_SCROLL_POSITION, mPendingScrollPosition);
+            out.putInt(ARG_SCROLL_OFFSET, mPendingScrollOffset);
+        } else if (mLayoutManager != null) {
+            final int first = mLayoutManager.findFirstVisibleItemPosition();
+            final View firstView = (first != RecyclerView.NO_POSITION) ? mLayoutManager.findViewByPosition(first) : null;
+            if (firstView != null) {
+                out.putInt(ARG_SCROLL_POSITION, first);
+                out.putInt(ARG_SCROLL_OFFSET, firstView.getTop());
+            }
+        }
     }
 
     @Override
-    public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-        User clickedUser = (User) view.getTag(R.id.itemPayload);
-        mListener.onUserClicked(clickedUser);
+    public void onDestroy() {
+        super.onDestroy();
+        if (isRemoving() || getActivity().isFinishing()) {
+            // Not coming back, the saved users can go.
+            mAdapter.releaseState();
+        }
+    }
+
+    private void applyPendingScroll() {
+        if (mLayoutManager != null && mPendingScrollPosition != RecyclerView.NO_POSITION
+                && mPendingScrollPosition < mAdapter.getItemCount()) {
+            mLayoutManager.scrollToPositionWithOffset(mPendingScrollPosition, mPendingScrollOffset);
+            mPendingScrollPosition = RecyclerView.NO_POSITION;
+        }
+    }
+
+    private void onVisibleRangeChanged(int firstVisible, int visibleCount, int totalCount) {
+        if (mVisibleUsersListener == null || visibleCount <= 0
+                || (firstVisible == mLastFirstVisible && visibleCount == mLastVisibleCount && totalCount == mLastTotalCount)) {
+            return;
+        }
+        mLastFirstVisible = firstVisible;
+        mLastVisibleCount = visibleCount;
+        mLastTotalCount = totalCount;
+        mVisibleUsersListener.onUsersVisible(mAdapter.getRange(firstVisible, firstVisible + visibleCount));
     }
 
     /**
@@ -96,6 +181,25 @@ public class UserListFragment extends Fragment implements AdapterView.OnItemClic
             throw new IllegalStateException("Unable to add users to a detached fragment.");
         }
         mAdapter.addAll(users);
+        applyPendingScroll();
+    }
+
+    /**
+     * Replace the displayed users with the given ones.
+     */
+    public void setUsers(Collection<User> users) {
+        if (mAdapter == null) {
+            throw new IllegalStateException("Unable to set users on a detached fragment.");
+        }
+        mAdapter.replaceAll(users);
+        applyPendingScroll();
+    }
+
+    /**
+     * Return the number of users the fragment is displaying.
+     */
+    public int getCount() {
+        return (mAdapter == null) ? 0 : mAdapter.getCount();
     }
 
     /**
@@ -106,94 +210,62 @@ public class UserListFragment extends Fragment implements AdapterView.OnItemClic
     }
 
     /**
-     * Adapter to display the list of users in their appropriate order.
+     * Return the number of avatar decodes this list avoided by holding back avatars during flings.
      */
-    private static class UserAdapter extends BaseAdapter {
-
-        private final ArrayList<User> mList;
-        private final Picasso mPicasso;
+    public int getDecodesAvoided() {
+        return (mAvatars == null) ? 0 : mAvatars.getDecodesAvoided();
+    }
 
-        public UserAdapter(Context ctx) {
-            mList = new ArrayList<>();
-            mPicasso = ImageLoader.createImageLoader(ctx);
-        }
+    /**
+     * Asks for more users near the end of the list, reports the visible users once scrolling settles and
+     * holds back avatars during flings.
+     */
+    private class ScrollListener extends RecyclerView.OnScrollListener {
 
-        /**
-         * Adds all the user collection to the adapter and restarts the list.
-         */
-        public void addAll(Collection<User> user) {
-            if (user != null) {
-                mList.addAll(user);
-                notifyDataSetChanged();
+        @Override
+        public void onScrollStateChanged(RecyclerView view, int scrollState) {
+            if (scrollState == RecyclerView.SCROLL_STATE_SETTLING) {
+                mAvatars.pause();
+            } else if (mAvatars.isPaused()) {
+                // Caught by a finger or at rest, the rows on screen get their avatars first.
+                mAvatars.resume(avatarsOnScreen(view));
             }
-        }
-
-        /**
-         * Restore the adapter to its previous state.
-         * @param in
-         *      The state bundle that is passed in to one of the many Fragment callbacks.
-         */
-        public void onRestoreState(Bundle in) {
-            if (in != null) {
-                ArrayList<User> savedUsers = in.getParcelableArrayList(ARG_USERS_ARRAY_LIST_STATE);
-                addAll(savedUsers);
+            if (scrollState == RecyclerView.SCROLL_STATE_IDLE) {
+                reportVisibleRange();
             }
         }
 
-        /**
-         * Saves the state of the adapter to be called in {@link Fragment#onSaveInstanceState(Bundle)}
-         */
-        public void onSaveInstanceState(Bundle out) {
-            out.putParcelableArrayList(ARG_USERS_ARRAY_LIST_STATE, mList);
-        }
-
-        @Override
-        public int getCount() {
-            return mList.size();
-        }
-
         @Override
-        public Object getItem(int position) {
-            return mList.get(position);
-        }
-
-        @Override
-        public long getItemId(int position) {
-            return 0;
+        public void onScrolled(RecyclerView view, int dx, int dy) {
+            final int lastVisible = mLayoutManager.findLastVisibleItemPosition();
+            final int totalCount = mAdapter.getItemCount();
+            if (mLoadMoreListener != null && totalCount > 0 && lastVisible != RecyclerView.NO_POSITION
+                    && lastVisible + 1 >= totalCount - LOAD_MORE_THRESHOLD) {
+                mLoadMoreListener.onLoadMore();
+            }
+            if (view.getScrollState() == RecyclerView.SCROLL_STATE_IDLE) {
+                // Laid out after the data changed rather than scrolled.
+                reportVisibleRange();
+            }
         }
 
-        @Override
-        public View getView(int position, View convertView, ViewGroup parent) {
-            View root = convertView;
-            ViewHolder holder;
-            if (root == null) {
-                root = LayoutInflater.from(parent.getContext()).inflate(R.layout.user_item, parent, false);
-                holder = new ViewHolder(root);
-                root.setTag(holder);
-            } else {
-                holder = (ViewHolder) root.getTag();
+        private List<ImageView> avatarsOnScreen(RecyclerView view) {
+            final List<ImageView> avatars = new ArrayList<>(mLayoutManager.getChildCount());
+            for (int i = 0; i < mLayoutManager.getChildCount(); i++) {
+                final RecyclerView.ViewHolder holder = view.getChildViewHolder(mLayoutManager.getChildAt(i));
+                if (holder instanceof UserAdapter.ViewHolder) {
+                    avatars.add(((UserAdapter.ViewHolder) holder).mAvatar);
+                }
             }
-
-            final User user = mList.get(position);
-            mPicasso.load(user.getProfileURL())
-                    .placeholder(R.drawable.ic_contact_picture)
-                    .resizeDimen(R.dimen.avatar_width, R.dimen.avatar_height)
-                    .into(holder.mAvatar);
-
-            holder.mName.setText(user.getName());
-            root.setTag(R.id.itemPayload, user);
-
-            return root;
+            return avatars;
         }
-    }
 
-    private static class ViewHolder {
-        final ImageView mAvatar;
-        final TextView mName;
-
-        public ViewHolder(View v) {
-            mAvatar = (ImageView) v.findViewById(R.id.imgAvatar);
-            mName = (TextView) v.findViewById(R.id.txtName);
+        private void reportVisibleRange() {
+            final int firstVisible = mLayoutManager.findFirstVisibleItemPosition();
+            final int lastVisible = mLayoutManager.findLastVisibleItemPosition();
+            if (firstVisible != RecyclerView.NO_POSITION) {
+                onVisibleRangeChanged(firstVisible, lastVisible - firstVisible + 1, mAdapter.getItemCount());
+            }
         }
     }
 }
@@ -12,6 +12,7 @@ import static android.content.pm.ApplicationInfo.FLAG_LARGE_HEAP;
  */
 public class Utils {
     private static final int MAX_MEM_CACHE_SIZE = 30 * 1024 * 1024; // 30MB
+    private static final int MAX_LARGE_HEAP_MEM_CACHE_SIZE = 64 * 1024 * 1024; // 64MB
 
     public static int calculateMemoryCacheSizeBytes(Context context) {
         ActivityManager am = (ActivityManager) context.getSystemService(ACTIVITY_SERVICE);
@@ -19,10 +20,27 @@ public class Utils {
         int memoryClass = am.getMemoryClass();
         if (largeHeap && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
             memoryClass = am.getLargeMemoryClass();
+        } else {
+            largeHeap = false;
         }
-        // Target 15% of the available RAM.
-        int size = 1024 * 1024 * memoryClass / 7;
+        boolean lowRam = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && am.isLowRamDevice();
+        return calculateMemoryCacheSizeBytes(memoryClass, largeHeap, lowRam);
+    }
+
+    /**
+     * Memory cache budget for a heap of the given size.
+     *
+     * @param memoryClass
+     *      Heap limit of the app in megabytes, the large memory class if the app runs with a large heap.
+     * @param largeHeap
+     *      Whether memoryClass is the large memory class.  Large heaps get a higher cap.
+     * @param lowRam
+     *      Whether the device reports itself as a low RAM device.  Those get a smaller share of the heap.
+     */
+    public static int calculateMemoryCacheSizeBytes(int memoryClass, boolean largeHeap, boolean lowRam) {
+        // Target 15% of the available RAM, 10% on low RAM devices where the system is quick to kill us.
+        int size = 1024 * 1024 * memoryClass / (lowRam ? 10 : 7);
         // Bound to max size for mem cache.
-        return Math.min(size, MAX_MEM_CACHE_SIZE);
+        return Math.min(size, largeHeap ? MAX_LARGE_HEAP_MEM_CACHE_SIZE : MAX_MEM_CACHE_SIZE);
     }
 }
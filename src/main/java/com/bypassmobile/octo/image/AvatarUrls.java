@@ -0,0 +1,135 @@
+package com.bypassmobile.octo.image;
+
+
+import android.content.res.Resources;
+import android.net.Uri;
+import android.support.annotation.DimenRes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Builds avatar URLs that ask GitHub for the avatar at the size it is shown, with the s=&lt;px&gt;
+ * parameter, instead of downloading the full size one and scaling it down on the device.
+ *
+ * Sizes are rounded up to a few fixed steps and the URLs are normalized, so every view showing an
+ * avatar at the same size, the toolbar and the list rows included, asks for the exact same URL and
+ * shares the same cache entries.
+ */
+public final class AvatarUrls {
+
+    /** Parameter GitHub scales avatars by. */
+    /* internal */ static final String SIZE_PARAM = "s";
+    /** Older spelling of the same parameter, dropped so it can't disagree. */
+    private static final String SIZE_PARAM_LONG = "size";
+
+    /** Sizes in pixels avatars are requested at, the largest is the largest GitHub serves. */
+    private static final int[] SIZE_STEPS_PX = {32, 40, 48, 64, 80, 96, 128, 144, 192, 256, 288, 384, 460};
+
+    private final int widthPx;
+    private final int heightPx;
+    private final int requestPx;
+
+    /**
+     * @param widthPx
+     *      Width avatars are shown at in pixels.  Must be greater than 0.
+     * @param heightPx
+     *      Height avatars are shown at in pixels.  Must be greater than 0.
+     */
+    public AvatarUrls(int widthPx, int heightPx) {
+        if (widthPx <= 0 || heightPx <= 0) {
+            throw new IllegalArgumentException("The avatar size should be greater than 0.");
+        }
+        this.widthPx = widthPx;
+        this.heightPx = heightPx;
+        this.requestPx = stepFor(Math.max(widthPx, heightPx));
+    }
+
+    /**
+     * Return the URLs for avatars shown at the size of the given dimensions on this screen.
+     */
+    public static AvatarUrls forSize(Resources res, @DimenRes int widthRes, @DimenRes int heightRes) {
+        return new AvatarUrls(res.getDimensionPixelSize(widthRes), res.getDimensionPixelSize(heightRes));
+    }
+
+    /**
+     * Return the URL of the avatar at the size shown, or the URL as is if it isn't an http URL.
+     */
+    public String get(String avatarUrl) {
+        return sized(avatarUrl, requestPx);
+    }
+
+    /**
+     * Return if the URL is one {@link #get(String)} returned, an avatar at the size shown.
+     */
+    public boolean isAvatar(String url) {
+        if (url == null || !Integer.toString(requestPx).equals(Uri.parse(url).getQueryParameter(SIZE_PARAM))) {
+            return false;
+        }
+        return url.equals(get(url));
+    }
+
+    /**
+     * Return the width avatars are shown at, what they should be resized to.
+     */
+    public int getWidthPx() {
+        return widthPx;
+    }
+
+    public int getHeightPx() {
+        return heightPx;
+    }
+
+    /**
+     * Return the size in pixels the avatars are requested at.
+     */
+    public int getRequestPx() {
+        return requestPx;
+    }
+
+    /**
+     * Return the smallest size step that is at least the given size, or the largest step.
+     */
+    /* internal */ static int stepFor(int px) {
+        for (int step : SIZE_STEPS_PX) {
+            if (step >= px) {
+                return step;
+            }
+        }
+        return SIZE_STEPS_PX[SIZE_STEPS_PX.length - 1];
+    }
+
+    /**
+     * Return the URL with a lower case scheme and host, its query parameters sorted and the size
+     * parameter replaced by the given size.
+     */
+    /* internal */ static String sized(String avatarUrl, int sizePx) {
+        if (avatarUrl == null) {
+            return null;
+        }
+        final Uri uri = Uri.parse(avatarUrl.trim());
+        final String scheme = (uri.getScheme() != null) ? uri.getScheme().toLowerCase(Locale.US) : null;
+        if (!"http".equals(scheme) && !"https".equals(scheme) || uri.getEncodedAuthority() == null) {
+            return avatarUrl;
+        }
+
+        final Uri.Builder builder = uri.buildUpon()
+                .scheme(scheme)
+                .encodedAuthority(uri.getEncodedAuthority().toLowerCase(Locale.US))
+                .clearQuery()
+                .fragment(null);
+        final List<String> names = new ArrayList<>(uri.getQueryParameterNames());
+        names.remove(SIZE_PARAM);
+        names.remove(SIZE_PARAM_LONG);
+        Collections.sort(names);
+        for (String name : names) {
+            for (String value : uri.getQueryParameters(name)) {
+                builder.appendQueryParameter(name, value);
+            }
+        }
+        builder.appendQueryParameter(SIZE_PARAM, Integer.toString(sizePx));
+        return builder.build().toString();
+    }
+}
@@ -0,0 +1,32 @@
+package com.bypassmobile.octo.image;
+
+
+import android.os.Process;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates daemon threads running at background priority, for cache housekeeping that should never
+ * compete with visible work.
+ */
+/* internal */ class BackgroundThreadFactory implements ThreadFactory {
+
+    private final String name;
+
+    BackgroundThreadFactory(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public Thread newThread(final Runnable runnable) {
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }
+        }, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
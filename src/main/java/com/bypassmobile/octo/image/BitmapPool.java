@@ -0,0 +1,192 @@
+package com.bypassmobile.octo.image;
+
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Byte bounded pool of mutable bitmaps keyed by their width, height and config, so a decode can write
+ * into an existing allocation through {@link android.graphics.BitmapFactory.Options#inBitmap} instead
+ * of asking the heap for a new one.
+ *
+ * Only bitmaps nothing else references may be handed to the pool.  Immutable or recycled bitmaps can
+ * never be decoded into and are turned away.
+ */
+public class BitmapPool {
+
+    private final int maxSizeBytes;
+
+    /** Pooled bitmaps per size, the sizes in the order they were last used. */
+    private final LinkedHashMap<Key, ArrayDeque<Bitmap>> pool;
+
+    private int currSizeBytes;
+
+    private int hitCount;
+    private int missCount;
+    private long bytesReused;
+    private int evictionCount;
+
+    /**
+     * @param maxSizeBytes
+     *      Maximum number of bytes the pooled bitmaps may occupy.  Must be greater than 0.
+     */
+    public BitmapPool(int maxSizeBytes) {
+        if (maxSizeBytes <= 0) {
+            throw new IllegalArgumentException("The maximum number of bytes the pool should hold should be greater than 0.");
+        }
+        this.maxSizeBytes = maxSizeBytes;
+        this.pool = new LinkedHashMap<>(0, 0.75f, true);
+    }
+
+    /**
+     * Take a bitmap of exactly the given size out of the pool.
+     *
+     * @return
+     *      A mutable bitmap with undefined contents, or null if none is available.
+     */
+    public Bitmap get(int width, int height, Bitmap.Config config) {
+        synchronized (pool) {
+            final ArrayDeque<Bitmap> bitmaps = pool.get(new Key(width, height, config));
+            final Bitmap bitmap = (bitmaps != null) ? bitmaps.pollLast() : null;
+            if (bitmap == null) {
+                missCount++;
+                return null;
+            }
+
+            final int size = ImageCache.getByteCount(bitmap);
+            currSizeBytes -= size;
+            hitCount++;
+            bytesReused += size;
+            return bitmap;
+        }
+    }
+
+    /**
+     * Give a bitmap to the pool.  The caller must not touch the bitmap afterwards.
+     *
+     * @return
+     *      True if the bitmap was pooled, false if it can't be reused or is too large to keep.
+     */
+    public boolean put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+            return false;
+        }
+        final int size = ImageCache.getByteCount(bitmap);
+        if (size > maxSizeBytes) {
+            return false;
+        }
+
+        synchronized (pool) {
+            final Key key = new Key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+            ArrayDeque<Bitmap> bitmaps = pool.get(key);
+            if (bitmaps == null) {
+                bitmaps = new ArrayDeque<>();
+                pool.put(key, bitmaps);
+            }
+            bitmaps.addLast(bitmap);
+            currSizeBytes += size;
+            trimToSize(maxSizeBytes);
+            return true;
+        }
+    }
+
+    /**
+     * Drop pooled bitmaps until the pool holds no more than the given number of bytes.
+     */
+    public void trimToSize(int targetBytes) {
+        synchronized (pool) {
+            final Iterator<ArrayDeque<Bitmap>> it = pool.values().iterator();
+            while (currSizeBytes > targetBytes && it.hasNext()) {
+                // Least recently used size first, oldest bitmap of that size first.
+                final ArrayDeque<Bitmap> bitmaps = it.next();
+                while (currSizeBytes > targetBytes && !bitmaps.isEmpty()) {
+                    currSizeBytes -= ImageCache.getByteCount(bitmaps.pollFirst());
+                    evictionCount++;
+                }
+                if (bitmaps.isEmpty()) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    public int getMaxSizeBytes() {
+        return maxSizeBytes;
+    }
+
+    public int getCurrSizeBytes() {
+        synchronized (pool) {
+            return currSizeBytes;
+        }
+    }
+
+    public int getHitCount() {
+        synchronized (pool) {
+            return hitCount;
+        }
+    }
+
+    public int getMissCount() {
+        synchronized (pool) {
+            return missCount;
+        }
+    }
+
+    /**
+     * Return the fraction of requests the pool could serve, 0 if there were none yet.
+     */
+    public float getHitRate() {
+        synchronized (pool) {
+            final int requests = hitCount + missCount;
+            return (requests == 0) ? 0 : hitCount / (float) requests;
+        }
+    }
+
+    /**
+     * Return the total size of the bitmaps handed out for reuse, the bytes that did not have to be
+     * allocated.
+     */
+    public long getBytesReused() {
+        synchronized (pool) {
+            return bytesReused;
+        }
+    }
+
+    public int getEvictionCount() {
+        synchronized (pool) {
+            return evictionCount;
+        }
+    }
+
+    private static final class Key {
+        final int width;
+        final int height;
+        final Bitmap.Config config;
+
+        Key(int width, int height, Bitmap.Config config) {
+            this.width = width;
+            this.height = height;
+            this.config = config;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return width == other.width && height == other.height && config == other.config;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = width;
+            result = 31 * result + height;
+            result = 31 * result + ((config != null) ? config.hashCode() : 0);
+            return result;
+        }
+    }
+}
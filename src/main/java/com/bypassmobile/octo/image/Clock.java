@@ -0,0 +1,36 @@
+package com.bypassmobile.octo.image;
+
+
+/**
+ * Source of time for the caches, so expiry does not depend on the wall clock and can be driven by
+ * tests.
+ */
+public interface Clock {
+
+    /**
+     * Monotonic clock backed by {@link System#nanoTime()}.  Unlike the wall clock it never jumps when
+     * the user or the network changes the time.
+     */
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long millis() {
+            return System.nanoTime() / 1000000L;
+        }
+    };
+
+    /**
+     * Wall clock backed by {@link System#currentTimeMillis()}, for comparing against times that come
+     * from elsewhere, like the reset time of a server's rate limit.
+     */
+    Clock WALL = new Clock() {
+        @Override
+        public long millis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    /**
+     * Return the current time in milliseconds.  Only differences between two values are meaningful.
+     */
+    long millis();
+}
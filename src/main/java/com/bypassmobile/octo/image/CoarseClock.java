@@ -0,0 +1,79 @@
+package com.bypassmobile.octo.image;
+
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Clock that hands out a cached reading of another clock, refreshed on a schedule.  Reading it is a
+ * single volatile load, so the caches can check the time on every lookup, inside their lock, for next
+ * to nothing.  The price is that it runs up to one resolution behind, which is fine for timeouts
+ * measured in minutes.
+ *
+ * The clock does not move until it is started, or {@link #tick()} is called.
+ */
+public class CoarseClock implements Clock {
+
+    private final Clock source;
+    private final long resolutionMs;
+
+    private volatile long millis;
+    private ScheduledFuture<?> ticker;
+
+    /**
+     * @param source
+     *      Clock that is read on every tick.
+     * @param resolutionMs
+     *      Time between ticks in milliseconds.  Must be greater than 0.
+     */
+    public CoarseClock(Clock source, long resolutionMs) {
+        if (source == null) {
+            throw new IllegalArgumentException("The source clock can not be null.");
+        }
+        if (resolutionMs <= 0) {
+            throw new IllegalArgumentException("The resolution should be greater than 0.");
+        }
+        this.source = source;
+        this.resolutionMs = resolutionMs;
+        this.millis = source.millis();
+    }
+
+    @Override
+    public long millis() {
+        return millis;
+    }
+
+    /**
+     * Read the source clock now.
+     */
+    public void tick() {
+        final long now = source.millis();
+        // Never go backwards, even if the source does.
+        if (now > millis) {
+            millis = now;
+        }
+    }
+
+    /**
+     * Start ticking on the given executor until {@link #stop()} is called.
+     */
+    public synchronized void start(ScheduledExecutorService executor) {
+        if (ticker != null) {
+            throw new IllegalStateException("The clock is already running.");
+        }
+        ticker = executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                tick();
+            }
+        }, resolutionMs, resolutionMs, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (ticker != null) {
+            ticker.cancel(false);
+            ticker = null;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.bypassmobile.octo.image;
+
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.util.Log;
+
+import com.squareup.picasso.Downloader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@link Downloader} that checks a {@link DiskImageCache} before going to the network and stores every
+ * image it downloads, so going back to a list that was seen before does not cost any network requests,
+ * even after the process was killed.
+ */
+public class DiskCacheDownloader implements Downloader {
+
+    private static final String TAG = DiskCacheDownloader.class.getSimpleName();
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final Downloader network;
+    private final DiskImageCache diskCache;
+    private final PooledBitmapDecoder decoder;
+
+    /**
+     * @param network
+     *      Downloader used when the image is not on disk yet.
+     * @param diskCache
+     *      Cache the encoded image bytes are kept in.
+     */
+    public DiskCacheDownloader(Downloader network, DiskImageCache diskCache) {
+        this(network, diskCache, null);
+    }
+
+    /**
+     * @param network
+     *      Downloader used when the image is not on disk yet.
+     * @param diskCache
+     *      Cache the encoded image bytes are kept in.
+     * @param decoder
+     *      Decoder used to hand back avatars already scaled down to about their display size, or null to
+     *      leave decoding to Picasso.
+     */
+    public DiskCacheDownloader(Downloader network, DiskImageCache diskCache, PooledBitmapDecoder decoder) {
+        if (network == null || diskCache == null) {
+            throw new IllegalArgumentException("The network downloader and disk cache can not be null.");
+        }
+        this.network = network;
+        this.diskCache = diskCache;
+        this.decoder = decoder;
+    }
+
+    @Override
+    public Response load(Uri uri, boolean localCacheOnly) throws IOException {
+        final String key = uri.toString();
+        try {
+            final byte[] cached = diskCache.get(key);
+            if (cached != null) {
+                return createResponse(key, cached, true);
+            }
+        } catch (IOException e) {
+            // A broken disk cache should never stop images from loading.
+            Log.w(TAG, "Unable to read " + key + " from the disk cache", e);
+        }
+
+        final Response response = network.load(uri, localCacheOnly);
+        final InputStream stream = response.getInputStream();
+        if (stream == null) {
+            // Already decoded, nothing to store.
+            return response;
+        }
+        return createResponse(key, store(key, stream), false);
+    }
+
+    /**
+     * Download the image again, skipping the copy on disk, and replace the copy on disk with it.
+     *
+     * @return
+     *      The new image decoded to about display size, or null if there is no decoder or it could not
+     *      decode the image.
+     */
+    public Bitmap refresh(Uri uri) throws IOException {
+        final Response response = network.load(uri, false);
+        final InputStream stream = response.getInputStream();
+        if (stream == null) {
+            return response.getBitmap();
+        }
+        final String key = uri.toString();
+        final byte[] data = store(key, stream);
+        return (decoder != null) ? decoder.decode(key, data) : null;
+    }
+
+    private byte[] store(String key, InputStream stream) throws IOException {
+        final byte[] data = readFully(stream);
+        try {
+            diskCache.put(key, data);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write " + key + " to the disk cache", e);
+        }
+        return data;
+    }
+
+    private Response createResponse(String key, byte[] data, boolean cached) {
+        if (decoder != null) {
+            final Bitmap bitmap = decoder.decode(key, data);
+            if (bitmap != null) {
+                return new Response(bitmap, cached);
+            }
+        }
+        // Let Picasso have a go at whatever the decoder could not handle.
+        return new Response(new ByteArrayInputStream(data), cached);
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,412 @@
+package com.bypassmobile.octo.image;
+
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size bounded, least recently used cache of encoded images on disk.  Used as the second tier behind
+ * the memory cache so avatars survive the process.
+ *
+ * Every entry is a file in the cache directory named after the hash of its key.  A journal in the same
+ * directory records which entries are complete along with their size and the order they were used in,
+ * so the cache can be rebuilt on the next start without listing or reading every file:
+ *
+ * <pre>
+ *     octo.DiskImageCache
+ *     1
+ *     CLEAN 3400330d1dfc7f3f7f4b8d4d803dfcf6 4823
+ *     READ 3400330d1dfc7f3f7f4b8d4d803dfcf6
+ *     REMOVE 3400330d1dfc7f3f7f4b8d4d803dfcf6
+ * </pre>
+ *
+ * Entries are written to a temporary file which is only renamed into place once it has been fully
+ * synced to disk, and only then journaled as CLEAN.  A crash at any point leaves either the old entry,
+ * no entry or a stray file that is deleted the next time the cache is opened.
+ *
+ * The cache is opened lazily on first use so the journal is never replayed on the main thread.
+ */
+public class DiskImageCache {
+
+    private static final String TAG = DiskImageCache.class.getSimpleName();
+
+    /* internal */ static final String JOURNAL_FILE = "journal";
+    private static final String JOURNAL_FILE_TMP = "journal.tmp";
+    private static final String MAGIC = "octo.DiskImageCache";
+    private static final String VERSION = "1";
+
+    private static final String CLEAN = "CLEAN";
+    private static final String READ = "READ";
+    private static final String REMOVE = "REMOVE";
+
+    private static final String ENTRY_SUFFIX = ".0";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    /** Rebuild the journal once it has this many more lines than there are entries. */
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+    private final File directory;
+    private final long maxSizeBytes;
+
+    /** Entry hash to size in bytes, in access order. */
+    private final LinkedHashMap<String, Long> entries;
+
+    private Writer journalWriter;
+    private long currSizeBytes;
+    private int redundantOpCount;
+
+    /**
+     * @param directory
+     *      Directory the cache owns.  It is created if it does not exist, and any file in it that the
+     *      journal does not account for is deleted.
+     * @param maxSizeBytes
+     *      Maximum number of bytes the cache should hold on disk.  Must be greater than 0.
+     */
+    public DiskImageCache(File directory, long maxSizeBytes) {
+        if (directory == null) {
+            throw new IllegalArgumentException("The cache directory can not be null.");
+        }
+        if (maxSizeBytes <= 0) {
+            throw new IllegalArgumentException("The maximum number of bytes the cache should hold should be greater than 0.");
+        }
+        this.directory = directory;
+        this.maxSizeBytes = maxSizeBytes;
+        this.entries = new LinkedHashMap<>(0, 0.75f, true);
+    }
+
+    /**
+     * Return the cached bytes for the key or null if they are not on disk.
+     */
+    public byte[] get(String key) throws IOException {
+        final String hash = hashKey(key);
+        final long size;
+        FileInputStream in = null;
+        try {
+            synchronized (this) {
+                ensureOpen();
+                final Long entrySize = entries.get(hash);
+                if (entrySize == null) {
+                    return null;
+                }
+                // Opened under the lock so the file matches the size.  A put renaming a new file over it
+                // afterwards leaves the open file as it was, and a removal leaves it readable.
+                try {
+                    in = new FileInputStream(entryFile(hash));
+                } catch (FileNotFoundException e) {
+                    return null;
+                }
+                size = entrySize;
+                appendJournal(READ, hash, -1);
+            }
+
+            // Read outside the lock.
+            final FileChannel channel = in.getChannel();
+            final ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    // Truncated behind our back, don't trust it.  Only drop the entry if it is still the
+                    // one that was read, a put may have replaced it since.
+                    removeIfUnchanged(hash, size);
+                    return null;
+                }
+            }
+            return buffer.array();
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Store the bytes for the key, replacing any previous entry.  Entries larger than the whole cache
+     * are ignored.
+     */
+    public void put(String key, byte[] data) throws IOException {
+        if (data == null) {
+            throw new IllegalArgumentException("Can not cache null data.");
+        }
+        if (data.length > maxSizeBytes) {
+            return;
+        }
+
+        final String hash = hashKey(key);
+        synchronized (this) {
+            ensureOpen();
+        }
+
+        // Write the temporary file outside the lock, each writer gets its own file.
+        final File tmp = new File(directory, hash + "." + Thread.currentThread().getId() + TMP_SUFFIX);
+        FileOutputStream out = null;
+        boolean written = false;
+        try {
+            out = new FileOutputStream(tmp);
+            out.write(data);
+            out.getFD().sync();
+            written = true;
+        } finally {
+            closeQuietly(out);
+            if (!written) {
+                tmp.delete();
+            }
+        }
+
+        synchronized (this) {
+            ensureOpen();
+            final File target = entryFile(hash);
+            if (!tmp.renameTo(target)) {
+                tmp.delete();
+                throw new IOException("Unable to move " + tmp + " to " + target);
+            }
+            final Long old = entries.put(hash, (long) data.length);
+            if (old != null) {
+                currSizeBytes -= old;
+            }
+            currSizeBytes += data.length;
+            appendJournal(CLEAN, hash, data.length);
+            journalWriter.flush();
+            trimToSize();
+        }
+    }
+
+    /**
+     * Remove the entry for the key.
+     *
+     * @return
+     *      True if there was an entry.
+     */
+    public synchronized boolean remove(String key) throws IOException {
+        ensureOpen();
+        return removeEntry(hashKey(key));
+    }
+
+    /**
+     * Return the number of bytes the cache currently holds on disk.
+     */
+    public synchronized long getCurrSizeBytes() throws IOException {
+        ensureOpen();
+        return currSizeBytes;
+    }
+
+    /**
+     * Return the number of entries in the cache.
+     */
+    public synchronized int size() throws IOException {
+        ensureOpen();
+        return entries.size();
+    }
+
+    public long getMaxSizeBytes() {
+        return maxSizeBytes;
+    }
+
+    /**
+     * Flush and close the journal.  The cache reopens itself on the next call.
+     */
+    public synchronized void close() throws IOException {
+        if (journalWriter != null) {
+            journalWriter.close();
+            journalWriter = null;
+        }
+        entries.clear();
+        currSizeBytes = 0;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (journalWriter != null) {
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create cache directory " + directory);
+        }
+
+        final File journal = new File(directory, JOURNAL_FILE);
+        if (journal.exists()) {
+            try {
+                readJournal(journal);
+            } catch (IOException e) {
+                Log.w(TAG, "Discarding corrupt disk cache journal", e);
+                entries.clear();
+                currSizeBytes = 0;
+            }
+        }
+        deleteUnknownFiles();
+        rebuildJournal();
+    }
+
+    private void readJournal(File journal) throws IOException {
+        final BufferedReader reader = new BufferedReader(new FileReader(journal));
+        try {
+            if (!MAGIC.equals(reader.readLine()) || !VERSION.equals(reader.readLine())) {
+                throw new IOException("Unexpected journal header");
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // A crash mid append leaves a partial last line, anything we can't parse is skipped.
+                final String[] parts = line.split(" ");
+                if (parts.length == 3 && CLEAN.equals(parts[0])) {
+                    try {
+                        final Long old = entries.put(parts[1], Long.parseLong(parts[2]));
+                        currSizeBytes += Long.parseLong(parts[2]) - ((old != null) ? old : 0);
+                    } catch (NumberFormatException e) {
+                        // Partial line.
+                    }
+                } else if (parts.length == 2 && READ.equals(parts[0])) {
+                    entries.get(parts[1]);
+                } else if (parts.length == 2 && REMOVE.equals(parts[0])) {
+                    final Long old = entries.remove(parts[1]);
+                    if (old != null) {
+                        currSizeBytes -= old;
+                    }
+                }
+            }
+        } finally {
+            closeQuietly(reader);
+        }
+
+        // Drop journaled entries whose file did not survive.
+        final Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<String, Long> entry = it.next();
+            if (entryFile(entry.getKey()).length() != entry.getValue()) {
+                entryFile(entry.getKey()).delete();
+                currSizeBytes -= entry.getValue();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Deletes temporary files and entries the journal never marked clean.
+     */
+    private void deleteUnknownFiles() {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            final String name = file.getName();
+            if (name.equals(JOURNAL_FILE)) {
+                continue;
+            }
+            final boolean known = name.endsWith(ENTRY_SUFFIX)
+                    && entries.containsKey(name.substring(0, name.length() - ENTRY_SUFFIX.length()));
+            if (!known) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Writes a compact journal holding only the current entries, replacing the old one atomically.
+     */
+    private void rebuildJournal() throws IOException {
+        if (journalWriter != null) {
+            journalWriter.close();
+        }
+
+        final File tmp = new File(directory, JOURNAL_FILE_TMP);
+        final Writer writer = new BufferedWriter(new FileWriter(tmp));
+        try {
+            writer.write(MAGIC + "\n" + VERSION + "\n");
+            for (Map.Entry<String, Long> entry : entries.entrySet()) {
+                writer.write(CLEAN + " " + entry.getKey() + " " + entry.getValue() + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+        if (!tmp.renameTo(new File(directory, JOURNAL_FILE))) {
+            throw new IOException("Unable to replace disk cache journal");
+        }
+
+        journalWriter = new BufferedWriter(new FileWriter(new File(directory, JOURNAL_FILE), true));
+        redundantOpCount = 0;
+    }
+
+    private void appendJournal(String op, String hash, long size) throws IOException {
+        journalWriter.write(op + " " + hash + ((size >= 0) ? " " + size : "") + "\n");
+        redundantOpCount++;
+        if (redundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD && redundantOpCount >= entries.size()) {
+            rebuildJournal();
+        }
+    }
+
+    private boolean removeEntry(String hash) throws IOException {
+        final Long size = entries.remove(hash);
+        if (size == null) {
+            return false;
+        }
+        entryFile(hash).delete();
+        currSizeBytes -= size;
+        appendJournal(REMOVE, hash, -1);
+        return true;
+    }
+
+    /**
+     * Remove the entry if it still has the given size but its file no longer does.
+     */
+    private synchronized void removeIfUnchanged(String hash, long size) throws IOException {
+        final Long current = entries.get(hash);
+        if (current != null && current == size && entryFile(hash).length() != size) {
+            removeEntry(hash);
+        }
+    }
+
+    private void trimToSize() throws IOException {
+        while (currSizeBytes > maxSizeBytes && !entries.isEmpty()) {
+            removeEntry(entries.keySet().iterator().next());
+        }
+        journalWriter.flush();
+    }
+
+    private File entryFile(String hash) {
+        return new File(directory, hash + ENTRY_SUFFIX);
+    }
+
+    /**
+     * Hash the key so any URL can be used as a file name.
+     */
+    /* internal */ static String hashKey(String key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Disk cache key can not be null.");
+        }
+        try {
+            final byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+            final StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // don't care
+        }
+    }
+}
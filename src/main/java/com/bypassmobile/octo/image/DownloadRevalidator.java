@@ -0,0 +1,92 @@
+package com.bypassmobile.octo.image;
+
+
+import android.graphics.Bitmap;
+import android.graphics.Point;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Revalidates stale avatars by downloading them again on a background thread and setting the fresh
+ * bitmap on the cache.  The app only ever asks Picasso to resize avatars, so the downloaded bitmap is
+ * resized to the size named in the key the same way Picasso does, stretched to exactly that size.
+ * Keys asking for anything else, a crop, a rotation or a custom transformation, are left to expire.
+ */
+public class DownloadRevalidator implements ImageCache.Revalidator {
+
+    private static final String TAG = DownloadRevalidator.class.getSimpleName();
+
+    private static final String RESIZE = "resize:";
+
+    private final DiskCacheDownloader downloader;
+    private final Executor executor;
+
+    /**
+     * Revalidates on a single low priority thread so refreshes never compete with visible loads.
+     */
+    public DownloadRevalidator(DiskCacheDownloader downloader) {
+        this(downloader, Executors.newSingleThreadExecutor(new BackgroundThreadFactory("Octo-Revalidator")));
+    }
+
+    public DownloadRevalidator(DiskCacheDownloader downloader, Executor executor) {
+        if (downloader == null || executor == null) {
+            throw new IllegalArgumentException("The downloader and executor can not be null.");
+        }
+        this.downloader = downloader;
+        this.executor = executor;
+    }
+
+    @Override
+    public void revalidate(final ImageCache cache, final String key) {
+        final Point size = getResize(key);
+        if (size == null) {
+            // Not something a download can reproduce, the stale copy is served until it is dropped.
+            return;
+        }
+        final Uri uri = Uri.parse(key.substring(0, key.indexOf('\n')));
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Bitmap bitmap = downloader.refresh(uri);
+                    if (bitmap == null) {
+                        return;
+                    }
+                    if (bitmap.getWidth() != size.x || bitmap.getHeight() != size.y) {
+                        bitmap = Bitmap.createScaledBitmap(bitmap, size.x, size.y, true);
+                    }
+                    cache.set(key, bitmap);
+                } catch (IOException e) {
+                    // The stale copy is served until it is dropped.
+                    Log.w(TAG, "Unable to revalidate " + uri, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Return the size a Picasso key asks the image to be resized to, or null if the key asks for
+     * anything but a resize.  Picasso keys are the uri followed by the transformations, one per line.
+     */
+    /* internal */ static Point getResize(String key) {
+        final String[] lines = key.split("\n");
+        if (lines.length != 2 || !lines[1].startsWith(RESIZE)) {
+            return null;
+        }
+        final int x = lines[1].indexOf('x', RESIZE.length());
+        if (x < 0) {
+            return null;
+        }
+        try {
+            final int width = Integer.parseInt(lines[1].substring(RESIZE.length(), x));
+            final int height = Integer.parseInt(lines[1].substring(x + 1));
+            return (width > 0 && height > 0) ? new Point(width, height) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.bypassmobile.octo.image;
+
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically removes expired bitmaps from an {@link ImageCache}.  On its own the cache only expires
+ * entries when it is used, so while the app sits idle on a list, bitmaps that timed out would hold on
+ * to their memory.
+ */
+public class ExpirySweeper implements Runnable {
+
+    private final ImageCache cache;
+    private final long intervalMs;
+
+    private ScheduledFuture<?> sweeper;
+    private int sweepCount;
+    private int sweptEntries;
+
+    /**
+     * @param cache
+     *      Cache to sweep.
+     * @param intervalMs
+     *      Time between sweeps in milliseconds.  Must be greater than 0.
+     */
+    public ExpirySweeper(ImageCache cache, long intervalMs) {
+        if (cache == null) {
+            throw new IllegalArgumentException("The cache can not be null.");
+        }
+        if (intervalMs <= 0) {
+            throw new IllegalArgumentException("The sweep interval should be greater than 0.");
+        }
+        this.cache = cache;
+        this.intervalMs = intervalMs;
+    }
+
+    /**
+     * Sweep once.
+     */
+    @Override
+    public void run() {
+        final int swept = cache.sweepExpired();
+        synchronized (this) {
+            sweepCount++;
+            sweptEntries += swept;
+        }
+    }
+
+    /**
+     * Start sweeping on the given executor until {@link #stop()} is called.  The executor should run
+     * at background priority, the sweep only ever holds the cache lock for a small batch of entries.
+     */
+    public synchronized void start(ScheduledExecutorService executor) {
+        if (sweeper != null) {
+            throw new IllegalStateException("The sweeper is already running.");
+        }
+        sweeper = executor.scheduleWithFixedDelay(this, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (sweeper != null) {
+            sweeper.cancel(false);
+            sweeper = null;
+        }
+    }
+
+    public synchronized int getSweepCount() {
+        return sweepCount;
+    }
+
+    /**
+     * Return the number of expired entries removed by the sweeper, as opposed to by cache lookups.
+     */
+    public synchronized int getSweptEntries() {
+        return sweptEntries;
+    }
+}
@@ -0,0 +1,137 @@
+package com.bypassmobile.octo.image;
+
+
+/**
+ * Count-min sketch estimating how often a key was seen recently, in a fixed amount of memory no matter
+ * how many distinct keys go through it.
+ *
+ * Every key maps to one 4 bit counter in each of four rows, and its frequency is the smallest of those
+ * counters, so collisions can only ever overestimate.  Counters saturate at 15, which is plenty to tell
+ * a popular image from one that was seen once.  After a number of increments proportional to the size
+ * of the sketch every counter is halved, so keys that were popular a long time ago fade out and the
+ * sketch follows the current working set.
+ *
+ * Not thread safe, callers synchronize.
+ */
+/* internal */ final class FrequencySketch {
+
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_FREQUENCY = 15;
+
+    /** Each long holds sixteen 4 bit counters. */
+    private long[] table;
+    private int tableMask;
+    private int sampleSize;
+
+    private int size;
+    private int resetCount;
+
+    /**
+     * @param expectedEntries
+     *      Number of entries the cache is expected to hold.  The sketch is sized, and ages, relative to it.
+     */
+    FrequencySketch(int expectedEntries) {
+        resize(expectedEntries);
+    }
+
+    /**
+     * Size the sketch, and how often it ages, for a new number of entries.  The counts are dropped if the
+     * table changes size, they can not be moved without the keys.
+     */
+    void resize(int expectedEntries) {
+        if (expectedEntries <= 0) {
+            throw new IllegalArgumentException("The expected number of entries should be greater than 0.");
+        }
+        int length = 1;
+        while (length < expectedEntries) {
+            length <<= 1;
+        }
+        if (table != null && table.length == length) {
+            return;
+        }
+        this.table = new long[length];
+        this.tableMask = length - 1;
+        this.sampleSize = 10 * length;
+        this.size = 0;
+    }
+
+    /**
+     * Return the estimated number of times the key was seen, 0 to 15.
+     */
+    int frequency(Object key) {
+        final int hash = spread(key.hashCode());
+        final int start = (hash & 3) << 2;
+        int frequency = MAX_FREQUENCY;
+        for (int i = 0; i < 4; i++) {
+            final int offset = (start + i) << 2;
+            final int count = (int) ((table[indexOf(hash, i)] >>> offset) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Record one more occurrence of the key, aging the whole sketch once enough were recorded.
+     */
+    void increment(Object key) {
+        final int hash = spread(key.hashCode());
+        final int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (added && ++size >= sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * Return how many times the sketch was aged.  Used primarily for testing purposes.
+     */
+    int getResetCount() {
+        return resetCount;
+    }
+
+    /**
+     * Return the number of increments after which the sketch ages.  Used primarily for testing purposes.
+     */
+    int getSampleSize() {
+        return sampleSize;
+    }
+
+    private boolean incrementAt(int index, int counter) {
+        final int offset = counter << 2;
+        final long mask = 0xfL << offset;
+        if ((table[index] & mask) == mask) {
+            return false;
+        }
+        table[index] += 1L << offset;
+        return true;
+    }
+
+    /**
+     * Halve every counter.
+     */
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size >>>= 1;
+        resetCount++;
+    }
+
+    private int indexOf(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h += h >>> 32;
+        return (int) h & tableMask;
+    }
+
+    private static int spread(int h) {
+        // Keys sharing a common prefix, such as the avatar host, differ mostly in their low bits.
+        h = ((h >>> 16) ^ h) * 0x45d9f3b;
+        h = ((h >>> 16) ^ h) * 0x45d9f3b;
+        return (h >>> 16) ^ h;
+    }
+}
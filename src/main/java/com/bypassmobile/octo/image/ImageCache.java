@@ -1,30 +1,94 @@
 package com.bypassmobile.octo.image;
 
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.os.Build;
 import android.util.Log;
 
 import com.bypassmobile.octo.Utils;
-import com.squareup.picasso.Cache;
 import com.squareup.picasso.LruCache;
 import com.squareup.picasso.Picasso;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.TreeSet;
 
-public class ImageCache implements Cache {
+public class ImageCache implements TrimmableCache {
 
-    private final Map<String,Bitmap> cacheMap;
-    private final Map<String, Long> timeMap;
+    /**
+     * How the timeout of an entry is counted.
+     */
+    public enum Expiration {
+        /** From the last time the entry was set or looked up, so entries in use never expire. */
+        SLIDING,
+        /** From the time the entry was set, so even popular entries are refreshed regularly. */
+        ABSOLUTE
+    }
+
+    /**
+     * Refreshes entries that expired but are still being served while stale.
+     */
+    public interface Revalidator {
+        /**
+         * Called outside the cache lock, at most once per stale entry, the first time it is served
+         * after it expired.  Should fetch a fresh bitmap in the background and set it on the cache.
+         *
+         * @param cache
+         *      Cache the stale entry is in.
+         * @param key
+         *      Key of the stale entry.
+         */
+        void revalidate(ImageCache cache, String key);
+    }
+
+    /** Number of expired entries the sweeper removes per hold of the lock. */
+    private static final int SWEEP_BATCH_SIZE = 16;
+
+    private static final Comparator<Entry> REMOVAL_ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry lhs, Entry rhs) {
+            if (lhs.removeAt != rhs.removeAt) {
+                return (lhs.removeAt < rhs.removeAt) ? -1 : 1;
+            }
+            return (lhs.sequence < rhs.sequence) ? -1 : ((lhs.sequence == rhs.sequence) ? 0 : 1);
+        }
+    };
 
-    private final int maxSizeBytes;
+    /**
+     * Every cached bitmap with the size it was accounted for and its expiry.  The map is kept in
+     * access order, so the head is the least recently used entry and eviction only ever has to look at
+     * the front of the map.
+     */
+    private final LinkedHashMap<String, Entry> cacheMap;
+
+    /**
+     * Entries that can expire, ordered by the time they are due to be removed.  Entries can have their
+     * own timeout, so this is not the access order, but expiry still only has to look at the front.
+     */
+    private final TreeSet<Entry> expiryIndex;
+
+    private final float lowWatermark;
     private final int timeout;
+    private final Expiration expiration;
+    private final long staleWhileRevalidateMs;
+    private final Revalidator revalidator;
+    private final Clock clock;
+
+    private volatile int maxSizeBytes;
+    private int lowWatermarkBytes;
 
     private int currSizeBytes;
+    private int lastTrimScanCount;
+    private long nextSequence;
+
+    private int evictionCount;
+    private long evictedBytes;
+    private int expirationCount;
+    private int staleHitCount;
 
     /**
      * Default constructor.  Memory size will be determined by the memory available on the specific
@@ -61,7 +125,8 @@ public class ImageCache implements Cache {
     /**
      * Manual input for how much memory the cache should hold as well as the time to hold it.
      *
-     * For efficiency reasons, the only time a bitmap will be removed is during a get or set call.
+     * For efficiency reasons, the only time a bitmap will be removed is during a get or set call, unless
+     * an {@link ExpirySweeper} is attached.
      *
      * @param maxSizeBytes
      *      Maximum number of bytes the cache should hold.  Must be greater than 0.
@@ -70,14 +135,45 @@ public class ImageCache implements Cache {
      *      A value less than or equal to 0 means the image will be held as long as possible.
      */
     public ImageCache(int maxSizeBytes, int timeoutMs) {
-        if (maxSizeBytes <= 0) {
+        this(maxSizeBytes, timeoutMs, 1f);
+    }
+
+    /**
+     * Manual input for how much memory the cache should hold, the time to hold it and how far to trim
+     * once the cache goes over budget.
+     *
+     * @param maxSizeBytes
+     *      Maximum number of bytes the cache should hold.  Must be greater than 0.
+     * @param timeoutMs
+     *      timeout in milliseconds for the cache to hold an image.
+     *      A value less than or equal to 0 means the image will be held as long as possible.
+     * @param lowWatermark
+     *      Fraction of maxSizeBytes the cache is trimmed down to when a set puts it over budget, so one
+     *      eviction pass frees a batch of space instead of a single entry.  Must be in (0, 1], where 1
+     *      only evicts as much as needed to get back under budget.
+     */
+    public ImageCache(int maxSizeBytes, int timeoutMs, float lowWatermark) {
+        this(new Builder(maxSizeBytes).timeout(timeoutMs).lowWatermark(lowWatermark));
+    }
+
+    private ImageCache(Builder builder) {
+        if (builder.maxSizeBytes <= 0) {
             throw new IllegalArgumentException("The maximum number of bytes the cache should hold should be greater than 0.");
         }
-        this.maxSizeBytes = maxSizeBytes;
+        if (builder.lowWatermark <= 0 || builder.lowWatermark > 1) {
+            throw new IllegalArgumentException("The low watermark should be greater than 0 and no more than 1.");
+        }
+        this.maxSizeBytes = builder.maxSizeBytes;
+        this.lowWatermark = builder.lowWatermark;
+        this.lowWatermarkBytes = (int) (maxSizeBytes * (double) lowWatermark);
         this.currSizeBytes = 0;
         this.cacheMap = new LinkedHashMap<>(0, 1, true);
-        this.timeMap = (timeoutMs > 0) ? new HashMap<String, Long>(0, 1) : null;
-        this.timeout = timeoutMs;
+        this.expiryIndex = new TreeSet<>(REMOVAL_ORDER);
+        this.timeout = builder.timeoutMs;
+        this.expiration = builder.expiration;
+        this.staleWhileRevalidateMs = builder.staleWhileRevalidateMs;
+        this.revalidator = builder.revalidator;
+        this.clock = builder.clock;
     }
 
     @Override
@@ -85,18 +181,60 @@ public class ImageCache implements Cache {
         if (stringResource == null) {
             throw new IllegalArgumentException("Cannot retrieve bitmap with null string resource.");
         }
+
+        boolean revalidate = false;
+        Bitmap bitmap = null;
         synchronized (cacheMap) {
-            // Update timestamp if it's being touched.
-            if (timeMap != null && timeMap.containsKey(stringResource)) {
-                timeMap.put(stringResource, System.currentTimeMillis());
+            final long now = clock.millis();
+            // The lookup also moves the entry to the back of the map.
+            final Entry entry = cacheMap.get(stringResource);
+            if (entry != null) {
+                entry.touchedAt = now;
+                final boolean expired = now > entry.expiresAt;
+                if (expiration == Expiration.SLIDING) {
+                    // Touching it restarts the timeout, even if it was about to be dropped.
+                    unschedule(entry);
+                    schedule(entry, now);
+                    bitmap = entry.bitmap;
+                } else if (now <= entry.removeAt) {
+                    bitmap = entry.bitmap;
+                } else {
+                    removeExpired(entry);
+                }
+
+                if (bitmap != null && expired && revalidator != null) {
+                    staleHitCount++;
+                    revalidate = !entry.revalidating;
+                    entry.revalidating = true;
+                }
             }
-            trimOldBitmaps();
-            return cacheMap.get(stringResource);
+            trimOldBitmaps(now);
+        }
+
+        if (revalidate) {
+            revalidator.revalidate(this, stringResource);
         }
+        return bitmap;
     }
 
     @Override
     public void set(String stringResource, Bitmap bitmap) {
+        put(stringResource, bitmap, 0, false);
+    }
+
+    /**
+     * Cache a bitmap with its own timeout instead of the cache wide one.  The timeout sticks to the key,
+     * a later {@link #set(String, Bitmap)} replacing the bitmap keeps it.
+     *
+     * @param ttlMs
+     *      timeout in milliseconds for the cache to hold this image.
+     *      A value less than or equal to 0 means the image will be held as long as possible.
+     */
+    public void set(String stringResource, Bitmap bitmap, int ttlMs) {
+        put(stringResource, bitmap, ttlMs, true);
+    }
+
+    private void put(String stringResource, Bitmap bitmap, int ttlMs, boolean customTtl) {
         if (stringResource == null || bitmap == null) {
             throw new IllegalArgumentException("The String url and bitmap can not be null.");
         }
@@ -109,18 +247,26 @@ public class ImageCache implements Cache {
         }
 
         synchronized (cacheMap) {
-            int oldBitmapSize = (cacheMap.containsKey(stringResource)) ? getByteCount(cacheMap.get(stringResource)) : 0;
-            currSizeBytes += newBitmapSize - oldBitmapSize;
-            cacheMap.put(stringResource, bitmap);
-            if (timeMap != null) {
-                timeMap.put(stringResource, System.currentTimeMillis());
+            final long now = clock.millis();
+            final Entry old = cacheMap.get(stringResource);
+            if (!customTtl) {
+                customTtl = old != null && old.customTtl;
+                ttlMs = customTtl ? old.ttlMs : timeout;
+            }
+
+            final Entry entry = new Entry(stringResource, bitmap, newBitmapSize, ttlMs, customTtl, nextSequence++);
+            entry.touchedAt = now;
+            schedule(entry, now);
+            cacheMap.put(stringResource, entry);
+            if (old != null) {
+                unschedule(old);
             }
+            currSizeBytes += newBitmapSize - ((old != null) ? old.sizeBytes : 0);
 
-            trimOldBitmaps(); // Remove the old bitmaps first
+            trimOldBitmaps(now); // Remove the old bitmaps first
 
             if (currSizeBytes > maxSizeBytes) {
-                String keyToRemove = cacheMap.keySet().iterator().next();
-                removeFromCache(keyToRemove);
+                trimToSize(lowWatermarkBytes, stringResource);
             }
         }
     }
@@ -141,7 +287,59 @@ public class ImageCache implements Cache {
     public void clear() {
         synchronized (cacheMap) {
             cacheMap.clear();
+            expiryIndex.clear();
+            currSizeBytes = 0;
+        }
+    }
+
+    @Override
+    public void resize(int maxSizeBytes) {
+        if (maxSizeBytes <= 0) {
+            throw new IllegalArgumentException("The maximum number of bytes the cache should hold should be greater than 0.");
+        }
+        synchronized (cacheMap) {
+            this.maxSizeBytes = maxSizeBytes;
+            this.lowWatermarkBytes = (int) (maxSizeBytes * (double) lowWatermark);
+            trimToSize(maxSizeBytes, null);
+        }
+    }
+
+    @Override
+    public void trimMemory(int level) {
+        synchronized (cacheMap) {
+            trimToSize(getTrimTargetBytes(maxSizeBytes, level), null);
+        }
+    }
+
+    /**
+     * Remove every entry that is due to be removed, a small batch at a time so lookups on other
+     * threads never wait on the lock for long.  Meant to be called from a background thread, see
+     * {@link ExpirySweeper}.
+     *
+     * @return
+     *      Number of entries removed.
+     */
+    public int sweepExpired() {
+        return sweepExpired(SWEEP_BATCH_SIZE);
+    }
+
+    /* internal */ int sweepExpired(int batchSize) {
+        int removed = 0;
+        boolean done = false;
+        while (!done) {
+            synchronized (cacheMap) {
+                final long now = clock.millis();
+                for (int i = 0; i < batchSize; i++) {
+                    if (expiryIndex.isEmpty() || now <= expiryIndex.first().removeAt) {
+                        done = true;
+                        break;
+                    }
+                    removeExpired(expiryIndex.first());
+                    removed++;
+                }
+            }
         }
+        return removed;
     }
 
     /**
@@ -155,43 +353,86 @@ public class ImageCache implements Cache {
             return null;
         }
 
-        Bitmap old;
         synchronized (cacheMap) {
-            if (timeMap != null) {
-                timeMap.remove(stringResource);
+            final Entry old = cacheMap.remove(stringResource);
+            if (old == null) {
+                return null;
             }
+            unschedule(old);
+            currSizeBytes -= old.sizeBytes;
+            return old.bitmap;
+        }
+    }
 
-            old = cacheMap.remove(stringResource);
-            if (old != null) {
-                currSizeBytes -= getByteCount(old);
+    /**
+     * Evicts the least recently used bitmaps until the cache holds no more than the given number of bytes.
+     *
+     * @param targetBytes
+     *      Size to trim the cache down to.
+     * @param keep
+     *      Key that was just set.  Trimming stops rather than evicting it.  May be null.
+     */
+    private void trimToSize(int targetBytes, String keep) {
+        synchronized (cacheMap) {
+            final Iterator<Map.Entry<String, Entry>> it = cacheMap.entrySet().iterator();
+            while (currSizeBytes > targetBytes && it.hasNext()) {
+                final Map.Entry<String, Entry> eldest = it.next();
+                if (keep != null && eldest.getKey().equals(keep)) {
+                    break;
+                }
+                it.remove();
+                unschedule(eldest.getValue());
+
+                final int size = eldest.getValue().sizeBytes;
+                currSizeBytes -= size;
+                evictionCount++;
+                evictedBytes += size;
+            }
+        }
+    }
+
+    /**
+     * Trims all old bitmaps that are due to be removed.  Walks the expiry index from the entry due
+     * first and stops at the first one that is still fresh, or still allowed to be served stale.
+     */
+    private void trimOldBitmaps(long now) {
+        lastTrimScanCount = 0;
+        while (!expiryIndex.isEmpty()) {
+            final Entry first = expiryIndex.first();
+            lastTrimScanCount++;
+            if (now <= first.removeAt) {
+                // Everything behind this entry is due later, so nothing else has expired.
+                break;
             }
+            removeExpired(first);
         }
-        return old;
+    }
+
+    private void removeExpired(Entry entry) {
+        expiryIndex.remove(entry);
+        cacheMap.remove(entry.key);
+        currSizeBytes -= entry.sizeBytes;
+        expirationCount++;
     }
 
     /**
-     * Trims all old bitmaps from the mapping if there is a timeout.
+     * Sets the expiry of an entry relative to now and adds it to the expiry index if it can expire.
+     * Must not be called for an entry that is still in the index.
      */
-    private void trimOldBitmaps() {
-        if (timeMap == null || timeout < 0) {
-            // No timeouts
+    private void schedule(Entry entry, long now) {
+        if (entry.ttlMs <= 0) {
+            entry.expiresAt = Long.MAX_VALUE;
+            entry.removeAt = Long.MAX_VALUE;
             return;
         }
+        entry.expiresAt = now + entry.ttlMs;
+        entry.removeAt = (revalidator != null) ? entry.expiresAt + staleWhileRevalidateMs : entry.expiresAt;
+        expiryIndex.add(entry);
+    }
 
-        synchronized (cacheMap) {
-            long currentTime = System.currentTimeMillis();
-            HashSet<String> keysToRemove = new HashSet<>(timeMap.size());
-            int sizeToRemove = 0;
-            for (String key : timeMap.keySet()) {
-                long timed = currentTime - timeMap.get(key);
-                if ((timed > timeout)) {
-                    keysToRemove.add(key);
-                    sizeToRemove += getByteCount(cacheMap.get(key));
-                }
-            }
-            currSizeBytes -= sizeToRemove;
-            cacheMap.keySet().removeAll(keysToRemove);
-            timeMap.keySet().removeAll(keysToRemove);
+    private void unschedule(Entry entry) {
+        if (entry.ttlMs > 0) {
+            expiryIndex.remove(entry);
         }
     }
 
@@ -202,7 +443,115 @@ public class ImageCache implements Cache {
         return currSizeBytes;
     }
 
-    private static int getByteCount(Bitmap bmp) {
+    /**
+     * Return the number of bitmaps that were evicted to keep the cache within its byte budget.
+     */
+    public int getEvictionCount() {
+        synchronized (cacheMap) {
+            return evictionCount;
+        }
+    }
+
+    /**
+     * Return the total number of bytes released by evictions to keep the cache within its byte budget.
+     */
+    public long getEvictedBytes() {
+        synchronized (cacheMap) {
+            return evictedBytes;
+        }
+    }
+
+    /**
+     * Return the number of bitmaps that were removed because they timed out.
+     */
+    public int getExpirationCount() {
+        synchronized (cacheMap) {
+            return expirationCount;
+        }
+    }
+
+    /**
+     * Return the number of times a bitmap was served after it expired while it was being revalidated.
+     */
+    public int getStaleHitCount() {
+        synchronized (cacheMap) {
+            return staleHitCount;
+        }
+    }
+
+    /**
+     * Return how many expiry index entries the most recent trim had to look at.  Used primarily for testing purposes.
+     */
+    /* internal */ int getLastTrimScanCount() {
+        return lastTrimScanCount;
+    }
+
+    /**
+     * Verifies the bookkeeping of the cache against its entries.  Used primarily for testing purposes.
+     *
+     * @throws IllegalStateException
+     *      If the byte count does not match the entries, the cache is over budget, an entry's size no
+     *      longer matches its bitmap, the entries are not in the order they were touched or the expiry
+     *      index does not match the entries.
+     */
+    /* internal */ void checkConsistency() {
+        synchronized (cacheMap) {
+            int totalBytes = 0;
+            int expiringEntries = 0;
+            long previousTouch = Long.MIN_VALUE;
+            for (Map.Entry<String, Entry> mapEntry : cacheMap.entrySet()) {
+                final Entry entry = mapEntry.getValue();
+                if (entry.ttlMs > 0) {
+                    if (!expiryIndex.contains(entry)) {
+                        throw new IllegalStateException("Entry " + mapEntry.getKey() + " is missing from the expiry index.");
+                    }
+                    expiringEntries++;
+                }
+                if (entry.sizeBytes != getByteCount(entry.bitmap)) {
+                    throw new IllegalStateException("Entry " + mapEntry.getKey() + " accounted for " + entry.sizeBytes + " bytes but holds " + getByteCount(entry.bitmap));
+                }
+                if (entry.touchedAt < previousTouch) {
+                    throw new IllegalStateException("Entry " + mapEntry.getKey() + " is out of touch order.");
+                }
+                previousTouch = entry.touchedAt;
+                totalBytes += entry.sizeBytes;
+            }
+            if (expiringEntries != expiryIndex.size()) {
+                throw new IllegalStateException("Expiry index holds " + expiryIndex.size() + " entries but only " + expiringEntries + " can expire.");
+            }
+            if (totalBytes != currSizeBytes) {
+                throw new IllegalStateException("Cache accounts for " + currSizeBytes + " bytes but holds " + totalBytes);
+            }
+            if (currSizeBytes > maxSizeBytes) {
+                throw new IllegalStateException("Cache holds " + currSizeBytes + " bytes which is over its budget of " + maxSizeBytes);
+            }
+        }
+    }
+
+    /**
+     * Return how many bytes a cache with the given budget should be trimmed down to for a
+     * {@link ComponentCallbacks2} trim level.
+     *
+     * Once the app is in the background nothing it caches is on screen, so everything goes and the
+     * process becomes cheaper to keep around.  While it is still running it keeps half of its budget
+     * when memory is critical or its UI was just hidden, and three quarters when memory is getting low.
+     */
+    /* internal */ static int getTrimTargetBytes(int maxSizeBytes, int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            return 0;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return maxSizeBytes / 2;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return maxSizeBytes / 4 * 3;
+        } else {
+            return maxSizeBytes;
+        }
+    }
+
+    /**
+     * Return the number of bytes the bitmap occupies, or 0 for null.
+     */
+    /* internal */ static int getByteCount(Bitmap bmp) {
         if (bmp == null) {
             return 0;
         }
@@ -214,4 +563,112 @@ public class ImageCache implements Cache {
             return bmp.getWidth() * bmp.getHeight();
         }
     }
+
+    /**
+     * Builds an {@link ImageCache} with optional absolute expiry, stale-while-revalidate and its own
+     * clock.
+     */
+    public static class Builder {
+        private final int maxSizeBytes;
+        private int timeoutMs = -1;
+        private float lowWatermark = 1f;
+        private Expiration expiration = Expiration.SLIDING;
+        private long staleWhileRevalidateMs;
+        private Revalidator revalidator;
+        private Clock clock = Clock.SYSTEM;
+
+        /**
+         * @param maxSizeBytes
+         *      Maximum number of bytes the cache should hold.  Must be greater than 0.
+         */
+        public Builder(int maxSizeBytes) {
+            this.maxSizeBytes = maxSizeBytes;
+        }
+
+        /**
+         * Default timeout in milliseconds for the cache to hold an image.  A value less than or equal
+         * to 0, the default, means images will be held as long as possible.
+         */
+        public Builder timeout(int timeoutMs) {
+            this.timeoutMs = timeoutMs;
+            return this;
+        }
+
+        /**
+         * Fraction of the budget the cache is trimmed down to when a set puts it over budget.  Must be
+         * in (0, 1].  Defaults to 1.
+         */
+        public Builder lowWatermark(float lowWatermark) {
+            this.lowWatermark = lowWatermark;
+            return this;
+        }
+
+        /**
+         * How timeouts are counted.  Defaults to {@link Expiration#SLIDING}.
+         */
+        public Builder expiration(Expiration expiration) {
+            if (expiration == null) {
+                throw new IllegalArgumentException("Expiration can not be null.");
+            }
+            this.expiration = expiration;
+            return this;
+        }
+
+        /**
+         * Keep serving expired bitmaps for up to the given time while the revalidator fetches a fresh
+         * one, instead of dropping them and making the next lookup wait for the network.
+         */
+        public Builder staleWhileRevalidate(long staleMs, Revalidator revalidator) {
+            if (staleMs < 0 || revalidator == null) {
+                throw new IllegalArgumentException("The stale time can not be negative and the revalidator can not be null.");
+            }
+            this.staleWhileRevalidateMs = staleMs;
+            this.revalidator = revalidator;
+            return this;
+        }
+
+        /**
+         * Time source used for expiry.  Defaults to {@link Clock#SYSTEM}.
+         */
+        public Builder clock(Clock clock) {
+            if (clock == null) {
+                throw new IllegalArgumentException("Clock can not be null.");
+            }
+            this.clock = clock;
+            return this;
+        }
+
+        public ImageCache build() {
+            return new ImageCache(this);
+        }
+    }
+
+    /**
+     * Single cache record.  The size is recorded when the entry is added so the bytes released on
+     * removal always match the bytes that were accounted for.
+     */
+    private static final class Entry {
+        final String key;
+        final Bitmap bitmap;
+        final int sizeBytes;
+        final int ttlMs;
+        final boolean customTtl;
+        /** Tie breaker for entries due at the same time. */
+        final long sequence;
+
+        long touchedAt;
+        long expiresAt;
+        /** When the entry is dropped, after expiresAt by the stale-while-revalidate time. */
+        long removeAt;
+        boolean revalidating;
+
+        Entry(String key, Bitmap bitmap, int sizeBytes, int ttlMs, boolean customTtl, long sequence) {
+            this.key = key;
+            this.bitmap = bitmap;
+            this.sizeBytes = sizeBytes;
+            this.ttlMs = ttlMs;
+            this.customTtl = customTtl;
+            this.sequence = sequence;
+        }
+    }
 }
@@ -3,17 +3,165 @@ package com.bypassmobile.octo.image;
 
 import android.content.Context;
 
+import com.bypassmobile.octo.R;
+import com.bypassmobile.octo.Utils;
 import com.squareup.picasso.Picasso;
+import com.squareup.picasso.UrlConnectionDownloader;
+
+import java.io.File;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 public final class ImageLoader {
 
+    /**
+     * Memory cache implementations the shared {@link Picasso} instance can be built with.
+     */
+    public enum MemoryCacheType {
+        /** {@link ImageCache}, a single lock LRU with a timeout and stale-while-revalidate. */
+        LRU,
+        /** {@link StripedImageCache}, split over several locks for concurrent decoder threads. */
+        STRIPED,
+        /** {@link TinyLfuImageCache}, only keeps new bitmaps over popular ones if they are used more often. */
+        TINY_LFU
+    }
+
+    /** Avatars are refreshed this long after they were loaded, however often they are shown. */
+    private static final int CACHE_TIMEOUT_MS = 10 * 60 * 1000; // 10 minutes
+    /** How long an expired avatar is still shown while its refresh is running. */
+    private static final long CACHE_STALE_MS = 60 * 60 * 1000; // 1 hour
+
+    /** Resolution of the clock the memory cache reads on every lookup. */
+    private static final long CLOCK_RESOLUTION_MS = 1000;
+    /** Time between sweeps for expired bitmaps while the app is idle. */
+    private static final long SWEEP_INTERVAL_MS = 60 * 1000; // 1 minute
+
+    private static final String DISK_CACHE_DIR = "avatars";
+    private static final long DISK_CACHE_SIZE_BYTES = 10 * 1024 * 1024; // 10MB
+
+    /** Share of the memory budget set aside for reusable decode buffers, the rest goes to the memory cache. */
+    private static final int BITMAP_POOL_FRACTION = 8;
+
     private static Picasso singleton;
+    private static TrimmableCache memoryCache;
+    private static BitmapPool bitmapPool;
+    private static MemoryCacheType memoryCacheType = MemoryCacheType.LRU;
+    private static boolean sweepExpired = true;
 
     public static Picasso createImageLoader(Context context){
         if(singleton == null){
-            singleton = new Picasso.Builder(context).memoryCache(new ImageCache(context, 10000)).build();
+            final int memoryBudget = Utils.calculateMemoryCacheSizeBytes(context);
+            bitmapPool = new BitmapPool(memoryBudget / BITMAP_POOL_FRACTION);
+            final DiskCacheDownloader downloader = createDownloader(context, bitmapPool);
+            memoryCache = createMemoryCache(memoryBudget - bitmapPool.getMaxSizeBytes(), downloader);
+            singleton = new Picasso.Builder(context)
+                    .memoryCache(memoryCache)
+                    .downloader(downloader)
+                    .build();
         }
 
         return singleton;
     }
+
+    /**
+     * Select the memory cache the image loader will be created with.  Has to be called before the first
+     * call to {@link #createImageLoader(Context)}.
+     */
+    public static void setMemoryCacheType(MemoryCacheType type) {
+        if (type == null) {
+            throw new IllegalArgumentException("Memory cache type can not be null.");
+        }
+        if (singleton != null) {
+            throw new IllegalStateException("The image loader has already been created with a " + memoryCacheType + " cache.");
+        }
+        memoryCacheType = type;
+    }
+
+    /**
+     * Select whether expired bitmaps are swept from the memory cache in the background, rather than only
+     * when the cache is used.  On by default, and only applies to the {@link MemoryCacheType#LRU} cache.
+     * Has to be called before the first call to {@link #createImageLoader(Context)}.
+     */
+    public static void setSweepExpired(boolean enabled) {
+        if (singleton != null) {
+            throw new IllegalStateException("The image loader has already been created.");
+        }
+        sweepExpired = enabled;
+    }
+
+    /**
+     * Give memory back from the memory cache and the bitmap pool.  Called from
+     * {@link android.content.ComponentCallbacks2#onTrimMemory(int)}.
+     *
+     * @param level
+     *      One of the {@link android.content.ComponentCallbacks2} TRIM_MEMORY levels.
+     */
+    public static void trimMemory(int level) {
+        if (singleton == null) {
+            // Nothing has been cached yet.
+            return;
+        }
+        memoryCache.trimMemory(level);
+        bitmapPool.trimToSize(ImageCache.getTrimTargetBytes(bitmapPool.getMaxSizeBytes(), level));
+    }
+
+    /**
+     * Return the URLs avatars are loaded with.  Every avatar in the app is shown at the same size, so
+     * the toolbar, the list and the prefetcher all request, and cache, the same image.
+     */
+    public static AvatarUrls getAvatarUrls(Context context) {
+        return AvatarUrls.forSize(context.getResources(), R.dimen.avatar_width, R.dimen.avatar_height);
+    }
+
+    /**
+     * Return if the image at the url, resized to the given size, is in the memory cache, so showing it
+     * costs no download and no decode.  Picasso keys are the uri followed by the transformations, one
+     * per line.
+     */
+    public static boolean isInMemory(String url, int width, int height) {
+        if (singleton == null || url == null) {
+            return false;
+        }
+        return memoryCache.get(url + "\nresize:" + width + "x" + height + "\n") != null;
+    }
+
+    /**
+     * Return the pool of decode buffers used by the image loader, or null if it has not been created yet.
+     * Exposed for its hit rate and reuse metrics.
+     */
+    public static BitmapPool getBitmapPool() {
+        return bitmapPool;
+    }
+
+    private static DiskCacheDownloader createDownloader(Context context, BitmapPool pool) {
+        final DiskImageCache diskCache = new DiskImageCache(new File(context.getCacheDir(), DISK_CACHE_DIR), DISK_CACHE_SIZE_BYTES);
+        final PooledBitmapDecoder decoder = new PooledBitmapDecoder(pool, getAvatarUrls(context));
+        return new DiskCacheDownloader(new UrlConnectionDownloader(context), diskCache, decoder);
+    }
+
+    private static TrimmableCache createMemoryCache(int maxSizeBytes, DiskCacheDownloader downloader) {
+        switch (memoryCacheType) {
+            case STRIPED:
+                return new StripedImageCache(maxSizeBytes);
+            case TINY_LFU:
+                return new TinyLfuImageCache(maxSizeBytes);
+            case LRU:
+            default:
+                final ScheduledExecutorService housekeeping =
+                        Executors.newSingleThreadScheduledExecutor(new BackgroundThreadFactory("Octo-Housekeeping"));
+                final CoarseClock clock = new CoarseClock(Clock.SYSTEM, CLOCK_RESOLUTION_MS);
+                clock.start(housekeeping);
+
+                final ImageCache cache = new ImageCache.Builder(maxSizeBytes)
+                        .timeout(CACHE_TIMEOUT_MS)
+                        .expiration(ImageCache.Expiration.ABSOLUTE)
+                        .staleWhileRevalidate(CACHE_STALE_MS, new DownloadRevalidator(downloader))
+                        .clock(clock)
+                        .build();
+                if (sweepExpired) {
+                    new ExpirySweeper(cache, SWEEP_INTERVAL_MS).start(housekeeping);
+                }
+                return cache;
+        }
+    }
 }
@@ -0,0 +1,102 @@
+package com.bypassmobile.octo.image;
+
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+/**
+ * Decodes downloaded avatars down to about the size they are displayed at, reusing the full size decode
+ * buffer from a {@link BitmapPool} instead of allocating a new one for every image.
+ *
+ * Every avatar shown by the app is requested through {@link AvatarUrls} and decoded into the same
+ * handful of sizes, so after the first few decodes the large intermediate bitmap practically always
+ * comes from the pool and only the small display sized bitmap is allocated.
+ *
+ * Only avatar URLs are decoded, anything else is left to Picasso.  Images are only ever scaled down,
+ * keeping their aspect ratio, to the smallest size that still covers the avatar size.  Picasso then
+ * resizes and crops them to whatever the request asked for.
+ */
+public class PooledBitmapDecoder {
+
+    private static final String TAG = PooledBitmapDecoder.class.getSimpleName();
+
+    private static final Bitmap.Config CONFIG = Bitmap.Config.ARGB_8888;
+
+    private final BitmapPool pool;
+    private final AvatarUrls avatarUrls;
+
+    /**
+     * @param pool
+     *      Pool the decode buffers are taken from and returned to.
+     * @param avatarUrls
+     *      The avatar URLs to decode and the size they are displayed at.
+     */
+    public PooledBitmapDecoder(BitmapPool pool, AvatarUrls avatarUrls) {
+        if (pool == null || avatarUrls == null) {
+            throw new IllegalArgumentException("The bitmap pool and avatar URLs can not be null.");
+        }
+        this.pool = pool;
+        this.avatarUrls = avatarUrls;
+    }
+
+    /**
+     * @param url
+     *      URL the image was downloaded from.
+     * @return
+     *      The image scaled down to cover the avatar size, or null if it is not an avatar or could not
+     *      be decoded.
+     */
+    public Bitmap decode(String url, byte[] data) {
+        if (!avatarUrls.isAvatar(url)) {
+            return null;
+        }
+
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        // Before KitKat inBitmap needs an exact size match and no subsampling, which the pool guarantees.
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = 1;
+        options.inPreferredConfig = CONFIG;
+        options.inMutable = true;
+        options.inBitmap = pool.get(options.outWidth, options.outHeight, CONFIG);
+
+        Bitmap decoded;
+        try {
+            decoded = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap was rejected, fall back to a fresh allocation.
+            Log.w(TAG, "Unable to reuse pooled bitmap", e);
+            options.inBitmap = null;
+            decoded = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+        if (decoded == null) {
+            pool.put(options.inBitmap);
+            return null;
+        }
+        final int targetWidth = avatarUrls.getWidthPx();
+        final int targetHeight = avatarUrls.getHeightPx();
+        final float scale = Math.max(targetWidth / (float) decoded.getWidth(), targetHeight / (float) decoded.getHeight());
+        if (scale >= 1) {
+            // No larger than the avatar already.  Hand it over as is, it can't go back into the pool then.
+            return decoded;
+        }
+
+        final Bitmap scaled = Bitmap.createScaledBitmap(decoded,
+                Math.max(targetWidth, Math.round(decoded.getWidth() * scale)),
+                Math.max(targetHeight, Math.round(decoded.getHeight() * scale)), true);
+        if (scaled != decoded) {
+            pool.put(decoded);
+        }
+        return scaled;
+    }
+
+    public BitmapPool getPool() {
+        return pool;
+    }
+}
@@ -0,0 +1,290 @@
+package com.bypassmobile.octo.image;
+
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import com.bypassmobile.octo.Utils;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Memory cache that spreads its entries over a number of independently locked segments so Picasso's
+ * decoder threads and the main thread are not all queued up on a single monitor.
+ *
+ * Every segment keeps its own access ordered map, which means eviction is least recently used within
+ * a segment but only approximately least recently used across the whole cache.  The byte budget is
+ * shared by all segments.  Unlike {@link ImageCache} there is no timeout, entries only leave the
+ * cache when the budget requires it or when they are explicitly removed.
+ */
+public class StripedImageCache implements TrimmableCache {
+
+    private static final int DEFAULT_SEGMENT_COUNT = 8;
+
+    private final Segment[] segments;
+    private final int segmentMask;
+
+    private volatile int maxSizeBytes;
+
+    private final AtomicInteger currSizeBytes;
+
+    /**
+     * Default constructor.  Memory size will be determined by the memory available on the specific
+     * device.
+     * @param ctx
+     *      App context
+     */
+    public StripedImageCache(Context ctx) {
+        this(Utils.calculateMemoryCacheSizeBytes(ctx));
+    }
+
+    /**
+     * Manual input for how much memory the cache should hold.
+     * @param maxSizeBytes
+     *      Maximum number of bytes the cache should hold.  Must be greater than 0.
+     */
+    public StripedImageCache(int maxSizeBytes) {
+        this(maxSizeBytes, DEFAULT_SEGMENT_COUNT);
+    }
+
+    /**
+     * Manual input for how much memory the cache should hold as well as how many locks it is split over.
+     *
+     * @param maxSizeBytes
+     *      Maximum number of bytes the cache should hold.  Must be greater than 0.
+     * @param segmentCount
+     *      Number of independently locked segments.  Rounded up to the next power of two.
+     */
+    public StripedImageCache(int maxSizeBytes, int segmentCount) {
+        if (maxSizeBytes <= 0) {
+            throw new IllegalArgumentException("The maximum number of bytes the cache should hold should be greater than 0.");
+        }
+        if (segmentCount <= 0) {
+            throw new IllegalArgumentException("The cache needs at least one segment.");
+        }
+        int count = 1;
+        while (count < segmentCount) {
+            count <<= 1;
+        }
+
+        this.maxSizeBytes = maxSizeBytes;
+        this.currSizeBytes = new AtomicInteger();
+        this.segmentMask = count - 1;
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    @Override
+    public Bitmap get(String stringResource) {
+        if (stringResource == null) {
+            throw new IllegalArgumentException("Cannot retrieve bitmap with null string resource.");
+        }
+        return segments[indexFor(stringResource)].get(stringResource);
+    }
+
+    @Override
+    public void set(String stringResource, Bitmap bitmap) {
+        if (stringResource == null || bitmap == null) {
+            throw new IllegalArgumentException("The String url and bitmap can not be null.");
+        }
+
+        final int newBitmapSize = ImageCache.getByteCount(bitmap);
+        if (newBitmapSize >= maxSizeBytes) {
+            // Bitmap is most certainly too big too be added, instead dump it so the other images don't get flushed.
+            removeFromCache(stringResource);
+            return;
+        }
+
+        final int index = indexFor(stringResource);
+        final int delta = segments[index].put(stringResource, bitmap, newBitmapSize);
+        if (currSizeBytes.addAndGet(delta) > maxSizeBytes) {
+            trimToSize(maxSizeBytes, index, stringResource);
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    @Override
+    public int maxSize() {
+        return maxSizeBytes;
+    }
+
+    @Override
+    public void clear() {
+        for (Segment segment : segments) {
+            currSizeBytes.addAndGet(-segment.clear());
+        }
+    }
+
+    @Override
+    public void resize(int maxSizeBytes) {
+        if (maxSizeBytes <= 0) {
+            throw new IllegalArgumentException("The maximum number of bytes the cache should hold should be greater than 0.");
+        }
+        this.maxSizeBytes = maxSizeBytes;
+        trimToSize(maxSizeBytes, 0, null);
+    }
+
+    @Override
+    public void trimMemory(int level) {
+        final int targetBytes = ImageCache.getTrimTargetBytes(maxSizeBytes, level);
+        if (targetBytes == 0) {
+            clear();
+        } else {
+            trimToSize(targetBytes, 0, null);
+        }
+    }
+
+    /**
+     * Explicitly remove a specific bitmap resource from the cache.
+     *
+     * @return
+     *      If found, the bitmap that was removed.
+     */
+    public Bitmap removeFromCache(String stringResource) {
+        if (stringResource == null) {
+            return null;
+        }
+
+        return segments[indexFor(stringResource)].remove(stringResource, currSizeBytes);
+    }
+
+    /**
+     * Return the current size of the cache in bytes.  Used primarily for testing purposes.
+     */
+    /* internal */ int getCurrSizeBytes() {
+        return currSizeBytes.get();
+    }
+
+    /**
+     * Evicts the eldest entry of each segment in turn, starting with the one that just grew, until the
+     * cache holds no more than the given number of bytes.  Only one segment lock is held at a time.
+     *
+     * @param targetBytes
+     *      Size to trim the cache down to.
+     * @param index
+     *      Segment the budget was exceeded from.
+     * @param keep
+     *      Key that was just set.  It is never chosen as a victim.  May be null.
+     */
+    private void trimToSize(int targetBytes, int index, String keep) {
+        int emptySegments = 0;
+        while (currSizeBytes.get() > targetBytes && emptySegments <= segmentMask) {
+            final int freed = segments[index].evictEldest(keep);
+            if (freed > 0) {
+                currSizeBytes.addAndGet(-freed);
+                emptySegments = 0;
+            } else {
+                emptySegments++;
+            }
+            index = (index + 1) & segmentMask;
+        }
+    }
+
+    private int indexFor(String key) {
+        // Spread the hash so keys sharing a common prefix, such as the avatar host, don't pile up.
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        h ^= (h >>> 8);
+        return h & segmentMask;
+    }
+
+    /**
+     * Single lock stripe.  Sizes are recorded when an entry is added so the bytes released on removal
+     * always match the bytes that were accounted for.
+     */
+    private static final class Segment {
+        private final LinkedHashMap<String, Bitmap> cacheMap = new LinkedHashMap<>(0, 0.75f, true);
+        private final Map<String, Integer> sizeMap = new HashMap<>();
+
+        Bitmap get(String key) {
+            synchronized (cacheMap) {
+                return cacheMap.get(key);
+            }
+        }
+
+        /**
+         * @return
+         *      Change in the number of bytes held by this segment.
+         */
+        int put(String key, Bitmap bitmap, int sizeBytes) {
+            synchronized (cacheMap) {
+                cacheMap.put(key, bitmap);
+                final Integer oldSize = sizeMap.put(key, sizeBytes);
+                return sizeBytes - (oldSize == null ? 0 : oldSize);
+            }
+        }
+
+        /**
+         * @param sizeBytes
+         *      Released from by the size the entry was recorded with, the bitmap may have been
+         *      reconfigured since.
+         * @return
+         *      The bitmap removed, or null if there was none.
+         */
+        Bitmap remove(String key, AtomicInteger sizeBytes) {
+            synchronized (cacheMap) {
+                final Integer size = sizeMap.remove(key);
+                if (size != null) {
+                    sizeBytes.addAndGet(-size);
+                }
+                return cacheMap.remove(key);
+            }
+        }
+
+        /**
+         * Removes the least recently used entry other than {@code keep}, which may be null.
+         *
+         * @return
+         *      Number of bytes freed, 0 if there was nothing to evict.
+         */
+        int evictEldest(String keep) {
+            synchronized (cacheMap) {
+                final Iterator<String> it = cacheMap.keySet().iterator();
+                while (it.hasNext()) {
+                    final String key = it.next();
+                    if (keep == null || !key.equals(keep)) {
+                        it.remove();
+                        return sizeMap.remove(key);
+                    }
+                }
+                return 0;
+            }
+        }
+
+        int size() {
+            synchronized (cacheMap) {
+                return cacheMap.size();
+            }
+        }
+
+        /**
+         * @return
+         *      Number of bytes freed.
+         */
+        int clear() {
+            synchronized (cacheMap) {
+                int freed = 0;
+                for (Integer size : sizeMap.values()) {
+                    freed += size;
+                }
+                cacheMap.clear();
+                sizeMap.clear();
+                return freed;
+            }
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package com.bypassmobile.octo.image;
+
+
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import com.bypassmobile.octo.Utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Memory cache that only lets a new bitmap push out an older one if the new one is likely to be used
+ * more often, so a single deep walk through the follower graph can't flush the avatars users keep
+ * coming back to.
+ *
+ * New entries go into a small window LRU which absorbs bursts of recently used images.  Whatever falls
+ * out of the window is a candidate for the main LRU, which holds the bulk of the budget.  If the main
+ * cache is full, the candidate is only admitted if a {@link FrequencySketch} says it was requested more
+ * often than every entry it would evict, otherwise the candidate is dropped and the main cache is left
+ * alone.
+ *
+ * Frequencies are counted on lookups.  Picasso always looks a key up before it decodes and sets it, so a
+ * bitmap that is set has been counted at least once.
+ */
+public class TinyLfuImageCache implements TrimmableCache {
+
+    /** Share of the budget given to the window LRU. */
+    private static final float WINDOW_FRACTION = 0.01f;
+
+    /** Assumed average entry size used to size the frequency sketch when no entry count is given. */
+    private static final int DEFAULT_ENTRY_BYTES = 32 * 1024;
+    private static final int MIN_EXPECTED_ENTRIES = 64;
+
+    private final LinkedHashMap<String, Entry> window;
+    private final LinkedHashMap<String, Entry> main;
+    private final FrequencySketch sketch;
+    /** Budget per expected entry, so the sketch grows and shrinks with the cache. */
+    private final int bytesPerEntry;
+
+    private int maxSizeBytes;
+    private int maxWindowBytes;
+
+    private int windowSizeBytes;
+    private int mainSizeBytes;
+
+    private int admittedCount;
+    private int rejectedCount;
+
+    /**
+     * Default constructor.  Memory size will be determined by the memory available on the specific
+     * device.
+     * @param ctx
+     *      App context
+     */
+    public TinyLfuImageCache(Context ctx) {
+        this(Utils.calculateMemoryCacheSizeBytes(ctx));
+    }
+
+    /**
+     * Manual input for how much memory the cache should hold.
+     * @param maxSizeBytes
+     *      Maximum number of bytes the cache should hold.  Must be greater than 0.
+     */
+    public TinyLfuImageCache(int maxSizeBytes) {
+        this(maxSizeBytes, Math.max(MIN_EXPECTED_ENTRIES, maxSizeBytes / DEFAULT_ENTRY_BYTES));
+    }
+
+    /**
+     * Manual input for how much memory the cache should hold as well as how many bitmaps it is expected
+     * to hold, which sizes the frequency sketch.
+     *
+     * @param maxSizeBytes
+     *      Maximum number of bytes the cache should hold.  Must be greater than 0.
+     * @param expectedEntries
+     *      Number of bitmaps the cache is expected to hold when full.  Must be greater than 0.
+     */
+    public TinyLfuImageCache(int maxSizeBytes, int expectedEntries) {
+        if (maxSizeBytes <= 0) {
+            throw new IllegalArgumentException("The maximum number of bytes the cache should hold should be greater than 0.");
+        }
+        this.window = new LinkedHashMap<>(0, 0.75f, true);
+        this.main = new LinkedHashMap<>(0, 0.75f, true);
+        this.sketch = new FrequencySketch(expectedEntries);
+        this.bytesPerEntry = Math.max(1, maxSizeBytes / expectedEntries);
+        setBudget(maxSizeBytes);
+    }
+
+    @Override
+    public synchronized Bitmap get(String stringResource) {
+        if (stringResource == null) {
+            throw new IllegalArgumentException("Cannot retrieve bitmap with null string resource.");
+        }
+        sketch.increment(stringResource);
+
+        Entry entry = window.get(stringResource);
+        if (entry == null) {
+            entry = main.get(stringResource);
+        }
+        return (entry != null) ? entry.bitmap : null;
+    }
+
+    @Override
+    public synchronized void set(String stringResource, Bitmap bitmap) {
+        if (stringResource == null || bitmap == null) {
+            throw new IllegalArgumentException("The String url and bitmap can not be null.");
+        }
+
+        final int newBitmapSize = ImageCache.getByteCount(bitmap);
+        if (newBitmapSize >= maxSizeBytes) {
+            // Bitmap is most certainly too big too be added, instead dump it so the other images don't get flushed.
+            removeFromCache(stringResource);
+            return;
+        }
+
+        final Entry entry = new Entry(bitmap, newBitmapSize);
+        final Entry oldMain = main.get(stringResource);
+        if (oldMain != null) {
+            // Already admitted, replace it in place.
+            main.put(stringResource, entry);
+            mainSizeBytes += newBitmapSize - oldMain.sizeBytes;
+            trimMain(maxSizeBytes - maxWindowBytes);
+            return;
+        }
+
+        final Entry oldWindow = window.put(stringResource, entry);
+        windowSizeBytes += newBitmapSize - ((oldWindow != null) ? oldWindow.sizeBytes : 0);
+        drainWindow();
+    }
+
+    @Override
+    public synchronized int size() {
+        return window.size() + main.size();
+    }
+
+    @Override
+    public synchronized int maxSize() {
+        return maxSizeBytes;
+    }
+
+    @Override
+    public synchronized void clear() {
+        window.clear();
+        main.clear();
+        windowSizeBytes = 0;
+        mainSizeBytes = 0;
+    }
+
+    @Override
+    public synchronized void resize(int maxSizeBytes) {
+        if (maxSizeBytes <= 0) {
+            throw new IllegalArgumentException("The maximum number of bytes the cache should hold should be greater than 0.");
+        }
+        setBudget(maxSizeBytes);
+        sketch.resize(Math.max(1, maxSizeBytes / bytesPerEntry));
+        drainWindow();
+        trimMain(maxSizeBytes - maxWindowBytes);
+    }
+
+    @Override
+    public synchronized void trimMemory(int level) {
+        final int targetBytes = ImageCache.getTrimTargetBytes(maxSizeBytes, level);
+        // The window holds the entries that have proven themselves the least, those go first.
+        final Iterator<Entry> it = window.values().iterator();
+        while (getCurrSizeBytes() > targetBytes && it.hasNext()) {
+            windowSizeBytes -= it.next().sizeBytes;
+            it.remove();
+        }
+        trimMain(targetBytes - windowSizeBytes);
+    }
+
+    /**
+     * Explicitly remove a specific bitmap resource from the cache.
+     *
+     * @return
+     *      If found, the bitmap that was removed.
+     */
+    public synchronized Bitmap removeFromCache(String stringResource) {
+        if (stringResource == null) {
+            return null;
+        }
+
+        Entry old = window.remove(stringResource);
+        if (old != null) {
+            windowSizeBytes -= old.sizeBytes;
+            return old.bitmap;
+        }
+        old = main.remove(stringResource);
+        if (old != null) {
+            mainSizeBytes -= old.sizeBytes;
+            return old.bitmap;
+        }
+        return null;
+    }
+
+    /**
+     * Return the number of bitmaps that made it from the window into the main cache.
+     */
+    public synchronized int getAdmittedCount() {
+        return admittedCount;
+    }
+
+    /**
+     * Return the number of bitmaps that were dropped because they were requested less often than the
+     * bitmaps they would have replaced.
+     */
+    public synchronized int getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * Return the number of increments after which the frequency sketch ages.  Used primarily for testing
+     * purposes.
+     */
+    /* internal */ synchronized int getSketchSampleSize() {
+        return sketch.getSampleSize();
+    }
+
+    /**
+     * Return the current size of the cache in bytes.  Used primarily for testing purposes.
+     */
+    /* internal */ synchronized int getCurrSizeBytes() {
+        return windowSizeBytes + mainSizeBytes;
+    }
+
+    private void setBudget(int maxSizeBytes) {
+        this.maxSizeBytes = maxSizeBytes;
+        this.maxWindowBytes = (int) (maxSizeBytes * WINDOW_FRACTION);
+    }
+
+    /**
+     * Moves entries out of the window until it is back within its share of the budget, offering each
+     * one to the main cache.
+     */
+    private void drainWindow() {
+        final Iterator<Map.Entry<String, Entry>> it = window.entrySet().iterator();
+        while (windowSizeBytes > maxWindowBytes && it.hasNext()) {
+            final Map.Entry<String, Entry> candidate = it.next();
+            it.remove();
+            windowSizeBytes -= candidate.getValue().sizeBytes;
+            offerToMain(candidate.getKey(), candidate.getValue());
+        }
+    }
+
+    /**
+     * Admits the candidate into the main cache if there is room, or if it is more popular than every
+     * entry that would have to make room for it.
+     */
+    private void offerToMain(String key, Entry candidate) {
+        final int maxMainBytes = maxSizeBytes - maxWindowBytes;
+        final int bytesNeeded = mainSizeBytes + candidate.sizeBytes - maxMainBytes;
+        if (bytesNeeded > 0) {
+            final int candidateFrequency = sketch.frequency(key);
+            int bytesFreed = 0;
+            for (Map.Entry<String, Entry> victim : main.entrySet()) {
+                if (bytesFreed >= bytesNeeded) {
+                    break;
+                }
+                if (candidateFrequency <= sketch.frequency(victim.getKey())) {
+                    rejectedCount++;
+                    return;
+                }
+                bytesFreed += victim.getValue().sizeBytes;
+            }
+            if (bytesFreed < bytesNeeded) {
+                rejectedCount++;
+                return;
+            }
+            trimMain(maxMainBytes - candidate.sizeBytes);
+        }
+
+        main.put(key, candidate);
+        mainSizeBytes += candidate.sizeBytes;
+        admittedCount++;
+    }
+
+    /**
+     * Evicts the least recently used entries of the main cache until it holds no more than the given
+     * number of bytes.
+     */
+    private void trimMain(int targetBytes) {
+        final Iterator<Entry> it = main.values().iterator();
+        while (mainSizeBytes > targetBytes && it.hasNext()) {
+            mainSizeBytes -= it.next().sizeBytes;
+            it.remove();
+        }
+    }
+
+    private static final class Entry {
+        final Bitmap bitmap;
+        final int sizeBytes;
+
+        Entry(Bitmap bitmap, int sizeBytes) {
+            this.bitmap = bitmap;
+            this.sizeBytes = sizeBytes;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.bypassmobile.octo.image;
+
+
+import android.content.ComponentCallbacks2;
+
+import com.squareup.picasso.Cache;
+
+/**
+ * Memory cache whose budget can change at runtime and that can give memory back when the system asks
+ * for it.
+ */
+public interface TrimmableCache extends Cache {
+
+    /**
+     * Change the maximum number of bytes the cache may hold, evicting least recently used entries right
+     * away if it now holds more than that.
+     *
+     * @param maxSizeBytes
+     *      New maximum number of bytes the cache should hold.  Must be greater than 0.
+     */
+    void resize(int maxSizeBytes);
+
+    /**
+     * Release memory in proportion to how much pressure the system is under.  The budget is left
+     * alone, the cache simply refills once the pressure is gone.
+     *
+     * @param level
+     *      One of the {@link ComponentCallbacks2} TRIM_MEMORY levels.
+     */
+    void trimMemory(int level);
+}
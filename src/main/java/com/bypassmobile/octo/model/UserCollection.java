@@ -0,0 +1,249 @@
+package com.bypassmobile.octo.model;
+
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Users in the order they were added, indexed by login so a user is only ever listed once.
+ *
+ * Appending a user whose login is already listed replaces the listed one in place instead, so pages
+ * that overlap because the list shifted between requests, or a page arriving after the same users were
+ * restored, never show anyone twice.  Lookups and appends are O(1).
+ *
+ * {@link #snapshot()} hands out an immutable view in O(1).  The backing array is only copied if the
+ * collection changes a position the snapshot can see, so appends after a snapshot stay cheap.  Snapshots
+ * can be read from any thread, the collection itself is not thread safe.
+ */
+public final class UserCollection {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private User[] items;
+    private int size;
+    /** Whether a snapshot still refers to the items array. */
+    private boolean shared;
+
+    /**
+     * Open addressing table of positions + 1 by login hash, 0 for an empty slot.  Always at most half
+     * full so probes stay short.
+     */
+    private int[] index;
+
+    public UserCollection() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity
+     *      Number of users to make room for up front.
+     */
+    public UserCollection(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("The capacity can not be negative.");
+        }
+        items = new User[Math.max(capacity, 1)];
+        index = new int[tableSizeFor(capacity)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public User get(int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Position " + position + " out of " + size);
+        }
+        return items[position];
+    }
+
+    /**
+     * Return the position of the user with the login, or -1 if there is none.
+     */
+    public int indexOf(String login) {
+        if (login == null) {
+            return -1;
+        }
+        final int mask = index.length - 1;
+        for (int slot = hash(login) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+            final int position = index[slot] - 1;
+            if (login.equals(items[position].getName())) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return the user with the login, or null if there is none.
+     */
+    public User find(String login) {
+        final int position = indexOf(login);
+        return (position >= 0) ? items[position] : null;
+    }
+
+    /**
+     * Append the user, or replace the user with the same login where it is.
+     *
+     * @return
+     *      True if the user was appended, false if it replaced one.
+     */
+    public boolean add(User user) {
+        if (user == null) {
+            throw new IllegalArgumentException("Can not add a null user.");
+        }
+        if (update(user) >= 0) {
+            return false;
+        }
+        ensureCapacity(size + 1);
+        items[size] = user;
+        size++;
+        if (user.getName() != null) {
+            insertIndex(user.getName(), size - 1);
+        }
+        return true;
+    }
+
+    /**
+     * Append every user as {@link #add(User)} does, in order.
+     *
+     * @return
+     *      Number of users appended, the rest replaced users already listed.
+     */
+    public int addAll(Collection<? extends User> users) {
+        ensureCapacity(size + users.size());
+        int appended = 0;
+        for (User user : users) {
+            if (add(user)) {
+                appended++;
+            }
+        }
+        return appended;
+    }
+
+    /**
+     * Replace the user with the same login where it is, if it is listed.
+     *
+     * @return
+     *      The position of the replaced user, or -1 if none has the login.
+     */
+    public int update(User user) {
+        if (user == null) {
+            throw new IllegalArgumentException("Can not update a null user.");
+        }
+        final int position = indexOf(user.getName());
+        if (position >= 0 && items[position] != user) {
+            unshare();
+            items[position] = user;
+        }
+        return position;
+    }
+
+    /**
+     * Replace the whole collection with the users, for a refreshed list.  Of users listed twice the
+     * first position is kept with the last data.
+     */
+    public void replaceAll(Collection<? extends User> users) {
+        // Never write into an array a snapshot may still be reading.
+        items = new User[Math.max(users.size(), 1)];
+        shared = false;
+        size = 0;
+        index = new int[tableSizeFor(users.size())];
+        addAll(users);
+    }
+
+    public void clear() {
+        replaceAll(Arrays.<User>asList());
+    }
+
+    /**
+     * Return an immutable view of the users as they are now, unaffected by later changes.
+     */
+    public List<User> snapshot() {
+        shared = true;
+        return new Snapshot(items, size);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > items.length) {
+            // A snapshot keeps the old array, nothing left to share.
+            items = Arrays.copyOf(items, Math.max(capacity, items.length + (items.length >> 1)));
+            shared = false;
+        }
+        if (capacity * 2 > index.length) {
+            rebuildIndex(tableSizeFor(capacity));
+        }
+    }
+
+    private void unshare() {
+        if (shared) {
+            items = items.clone();
+            shared = false;
+        }
+    }
+
+    private void rebuildIndex(int tableSize) {
+        index = new int[tableSize];
+        for (int i = 0; i < size; i++) {
+            if (items[i].getName() != null) {
+                insertIndex(items[i].getName(), i);
+            }
+        }
+    }
+
+    private void insertIndex(String login, int position) {
+        final int mask = index.length - 1;
+        int slot = hash(login) & mask;
+        while (index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = position + 1;
+    }
+
+    /**
+     * Return a power of two table size that keeps the given number of logins at most half full.
+     */
+    private static int tableSizeFor(int capacity) {
+        int size = 4;
+        while (size < capacity * 2) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    private static int hash(String login) {
+        // Spread the bits, String hashes of similar logins differ mostly in the low ones.
+        final int h = login.hashCode() * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    private static final class Snapshot extends AbstractList<User> implements RandomAccess {
+        private final User[] items;
+        private final int size;
+
+        Snapshot(User[] items, int size) {
+            this.items = items;
+            this.size = size;
+        }
+
+        @Override
+        public User get(int position) {
+            if (position < 0 || position >= size) {
+                throw new IndexOutOfBoundsException("Position " + position + " out of " + size);
+            }
+            return items[position];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
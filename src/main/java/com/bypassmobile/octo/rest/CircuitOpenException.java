@@ -0,0 +1,23 @@
+package com.bypassmobile.octo.rest;
+
+
+/**
+ * Cause of the {@link retrofit.RetrofitError} a request gets when the {@link RetryPolicy} did not send it
+ * because the API has been failing and is given time to recover.
+ */
+public class CircuitOpenException extends RuntimeException {
+
+    private final long retryAtMs;
+
+    public CircuitOpenException(long retryAtMs) {
+        super("Requests are held back until " + retryAtMs);
+        this.retryAtMs = retryAtMs;
+    }
+
+    /**
+     * Return the time in milliseconds, on the clock of the policy, the next request will be tried at.
+     */
+    public long getRetryAtMs() {
+        return retryAtMs;
+    }
+}
@@ -0,0 +1,90 @@
+package com.bypassmobile.octo.rest;
+
+
+import com.bypassmobile.octo.model.User;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import retrofit.Callback;
+import retrofit.RetrofitError;
+import retrofit.client.Response;
+
+/**
+ * {@link UserPager.PageSource} that fetches its pages through {@link InFlightRequests}, so two pagers
+ * over the same list share the requests for the pages they both want.
+ *
+ * Not thread safe, meant to be used and called back on the main thread.
+ */
+public class CoalescingPageSource implements UserPager.PageSource {
+
+    private final UserPager.PageSource source;
+    private final String key;
+    private final InFlightRequests requests;
+
+    /** Callbacks still waiting on a page, detached when the owner goes away. */
+    private final List<PageCallback> waiting = new ArrayList<>();
+
+    /**
+     * @param key
+     *      Identifies the list, for example {@link com.bypassmobile.octo.store.UserStore#followingKey(String)}.
+     *      Pages of sources with the same key are shared.
+     */
+    public CoalescingPageSource(UserPager.PageSource source, String key, InFlightRequests requests) {
+        if (source == null || key == null || requests == null) {
+            throw new IllegalArgumentException("The source, key and request registry can not be null.");
+        }
+        this.source = source;
+        this.key = key;
+        this.requests = requests;
+    }
+
+    @Override
+    public void getPage(final int page, final int perPage, Callback<List<User>> callback) {
+        final PageCallback pageCallback = new PageCallback(pageKey(page, perPage), callback);
+        waiting.add(pageCallback);
+        requests.join(pageCallback.key, new InFlightRequests.Request<List<User>>() {
+            @Override
+            public void start(Callback<List<User>> shared) {
+                source.getPage(page, perPage, shared);
+            }
+        }, pageCallback);
+    }
+
+    /**
+     * Stop waiting on every page requested through this source.  The requests keep running for any other
+     * source waiting on them.
+     */
+    public void detach() {
+        for (PageCallback callback : waiting) {
+            requests.leave(callback.key, callback);
+        }
+        waiting.clear();
+    }
+
+    /* internal */ String pageKey(int page, int perPage) {
+        return key + "?page=" + page + "&per_page=" + perPage;
+    }
+
+    private class PageCallback implements Callback<List<User>> {
+        final String key;
+        final Callback<List<User>> callback;
+
+        PageCallback(String key, Callback<List<User>> callback) {
+            this.key = key;
+            this.callback = callback;
+        }
+
+        @Override
+        public void success(List<User> users, Response response) {
+            waiting.remove(this);
+            callback.success(users, response);
+        }
+
+        @Override
+        public void failure(RetrofitError error) {
+            waiting.remove(this);
+            callback.failure(error);
+        }
+    }
+}
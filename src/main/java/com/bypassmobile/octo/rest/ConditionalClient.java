@@ -0,0 +1,178 @@
+package com.bypassmobile.octo.rest;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import retrofit.client.Client;
+import retrofit.client.Header;
+import retrofit.client.Request;
+import retrofit.client.Response;
+import retrofit.mime.TypedByteArray;
+import retrofit.mime.TypedInput;
+
+/**
+ * {@link Client} that turns GET requests into conditional requests with If-None-Match and
+ * If-Modified-Since once it has seen a response for the URL.  A 304 Not Modified is passed on as a
+ * 200 with an empty body that {@link ConditionalConverter} answers from the {@link ValidatorCache},
+ * since Retrofit treats anything outside 2xx as an error.  Headers the 304 leaves out, such as the Link
+ * header a paged list is walked by, are taken from the response it stands in for.
+ *
+ * A 304 does not count against the GitHub rate limit.
+ */
+public class ConditionalClient implements Client {
+
+    private static final String METHOD_GET = "GET";
+
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_NOT_MODIFIED = 304;
+
+    private static final String ETAG = "ETag";
+    private static final String LAST_MODIFIED = "Last-Modified";
+    private static final String CONTENT_LENGTH = "Content-Length";
+    private static final String IF_NONE_MATCH = "If-None-Match";
+    private static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final String DEFAULT_MIME_TYPE = "application/json; charset=UTF-8";
+
+    private final Client client;
+    private final ValidatorCache validators;
+
+    private int notModifiedCount;
+
+    public ConditionalClient(Client client, ValidatorCache validators) {
+        if (client == null || validators == null) {
+            throw new IllegalArgumentException("The client and validator cache can not be null.");
+        }
+        this.client = client;
+        this.validators = validators;
+    }
+
+    @Override
+    public Response execute(Request request) throws IOException {
+        if (!METHOD_GET.equals(request.getMethod())) {
+            return client.execute(request);
+        }
+
+        final String url = request.getUrl();
+        final String eTag = validators.getETag(url);
+        final String lastModified = validators.getLastModified(url);
+        if (eTag != null || lastModified != null) {
+            final List<Header> headers = new ArrayList<>(request.getHeaders());
+            if (eTag != null) {
+                headers.add(new Header(IF_NONE_MATCH, eTag));
+            }
+            if (lastModified != null) {
+                headers.add(new Header(IF_MODIFIED_SINCE, lastModified));
+            }
+            request = new Request(request.getMethod(), url, headers, request.getBody());
+        }
+
+        final Response response = client.execute(request);
+        if (response.getStatus() == HTTP_NOT_MODIFIED && validators.getBody(url) != null) {
+            synchronized (this) {
+                notModifiedCount++;
+            }
+            closeBody(response);
+            return new Response(HTTP_OK, response.getReason(), mergeHeaders(response.getHeaders(), validators.getHeaders(url)),
+                    new TypedByteArray(ValidatorCache.markNotModified(DEFAULT_MIME_TYPE, url), new byte[0]));
+        }
+        if (response.getStatus() != HTTP_OK || response.getBody() == null) {
+            return response;
+        }
+
+        final String newETag = findHeader(response, ETAG);
+        final String newLastModified = findHeader(response, LAST_MODIFIED);
+        if (newETag == null && newLastModified == null) {
+            return response;
+        }
+        validators.putValidators(url, newETag, newLastModified, response.getHeaders());
+        return new Response(response.getStatus(), response.getReason(), response.getHeaders(),
+                new MarkedInput(response.getBody(), url));
+    }
+
+    /**
+     * Return the number of requests that were answered with 304 Not Modified.
+     */
+    public synchronized int getNotModifiedCount() {
+        return notModifiedCount;
+    }
+
+    private static String findHeader(Response response, String name) {
+        for (Header header : response.getHeaders()) {
+            if (name.equalsIgnoreCase(header.getName())) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the headers of a 304 along with the headers of the cached response it did not update.  The
+     * length of the cached body does not apply to the empty body standing in for it.
+     */
+    private static List<Header> mergeHeaders(List<Header> notModified, List<Header> cached) {
+        final List<Header> headers = new ArrayList<>(notModified);
+        final Set<String> names = new HashSet<>();
+        for (Header header : notModified) {
+            if (header.getName() != null) {
+                names.add(header.getName().toLowerCase(Locale.US));
+            }
+        }
+        for (Header header : cached) {
+            final String name = header.getName();
+            if (name != null && !names.contains(name.toLowerCase(Locale.US)) && !CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                headers.add(header);
+            }
+        }
+        return headers;
+    }
+
+    private static void closeBody(Response response) {
+        if (response.getBody() == null) {
+            return;
+        }
+        try {
+            response.getBody().in().close();
+        } catch (IOException e) {
+            // don't care
+        }
+    }
+
+    /**
+     * Body whose mime type carries the URL it came from.
+     */
+    private static final class MarkedInput implements MetricsClient.CountedInput {
+        private final TypedInput body;
+        private final String mimeType;
+
+        MarkedInput(TypedInput body, String url) {
+            this.body = body;
+            this.mimeType = ValidatorCache.markUrl((body.mimeType() != null) ? body.mimeType() : DEFAULT_MIME_TYPE, url);
+        }
+
+        @Override
+        public String mimeType() {
+            return mimeType;
+        }
+
+        @Override
+        public long length() {
+            return body.length();
+        }
+
+        @Override
+        public long getBytesRead() {
+            return MetricsClient.getBytesRead(body);
+        }
+
+        @Override
+        public InputStream in() throws IOException {
+            return body.in();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.bypassmobile.octo.rest;
+
+
+import java.lang.reflect.Type;
+
+import retrofit.converter.ConversionException;
+import retrofit.converter.Converter;
+import retrofit.mime.TypedInput;
+import retrofit.mime.TypedOutput;
+
+/**
+ * {@link Converter} that answers the bodies {@link ConditionalClient} marked as not modified with the
+ * object the last full response for the URL was converted to, so a 304 costs no parsing at all, and
+ * remembers the objects it does convert for next time.
+ *
+ * The same object is handed out for every 304, callers should not modify it.
+ */
+public class ConditionalConverter implements Converter {
+
+    private final Converter converter;
+    private final ValidatorCache validators;
+
+    public ConditionalConverter(Converter converter, ValidatorCache validators) {
+        if (converter == null || validators == null) {
+            throw new IllegalArgumentException("The converter and validator cache can not be null.");
+        }
+        this.converter = converter;
+        this.validators = validators;
+    }
+
+    @Override
+    public Object fromBody(TypedInput body, Type type) throws ConversionException {
+        final String mimeType = body.mimeType();
+        final String url = ValidatorCache.getMarkedUrl(mimeType);
+        if (url == null) {
+            return converter.fromBody(body, type);
+        }
+
+        if (ValidatorCache.isMarkedNotModified(mimeType)) {
+            final Object cached = validators.getBody(url);
+            if (cached == null) {
+                throw new ConversionException("Not modified, but nothing is cached for " + url);
+            }
+            return cached;
+        }
+
+        final Object converted = converter.fromBody(body, type);
+        validators.putBody(url, converted);
+        return converted;
+    }
+
+    @Override
+    public TypedOutput toBody(Object object) {
+        return converter.toBody(object);
+    }
+}
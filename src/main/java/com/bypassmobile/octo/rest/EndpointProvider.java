@@ -0,0 +1,209 @@
+package com.bypassmobile.octo.rest;
+
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.bypassmobile.octo.image.Clock;
+import com.google.gson.Gson;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import retrofit.RestAdapter;
+import retrofit.android.MainThreadExecutor;
+import retrofit.client.Client;
+import retrofit.client.UrlConnectionClient;
+import retrofit.converter.Converter;
+import retrofit.converter.GsonConverter;
+
+/**
+ * Process wide {@link GithubEndpoint}.  Every screen shares the same {@link RestAdapter}, so the proxy
+ * and its reflection over the endpoint interface are only ever built once, and all requests go through
+ * one client and one pool of HTTP threads, which keeps connections to the API alive between screens.
+ *
+ * Requests for a list that was loaded before are sent as conditional requests, see
+ * {@link ConditionalClient}, and user lists are parsed off the stream by {@link StreamingUserConverter}.
+ * The rate limit reported by every response is tracked by the {@link RequestScheduler}, transient
+ * failures are retried by the {@link RetryPolicy}, and every
+ * request is recorded in {@link RequestMetrics}.  Retrofit's own logging is off unless
+ * {@link #setDebugLogging(boolean)} turns it on, since it reads every body into memory to print it.
+ */
+public final class EndpointProvider {
+
+    /** Number of requests that may run at the same time. */
+    private static final int HTTP_THREADS = 3;
+    /** Number of URLs whose validators and parsed responses are remembered. */
+    private static final int MAX_VALIDATED_URLS = 64;
+    /** Number of recent requests kept in the metrics. */
+    private static final int METRICS_CAPACITY = 128;
+
+    private static final String LOG_TAG = "Octo-Http";
+    /** Longest line logcat prints in one piece. */
+    private static final int MAX_LOG_LINE = 4000;
+
+    private static GithubEndpoint endpoint;
+    private static RequestScheduler scheduler;
+    private static RetryPolicy retryPolicy;
+    private static ScheduledExecutorService timer;
+    private static RequestMetrics metrics;
+    private static boolean debugLogging;
+
+    private static int creationCount;
+    private static long creationTimeMs;
+
+    private EndpointProvider() {
+    }
+
+    /**
+     * Return the shared endpoint, creating it on the first call.
+     */
+    public static synchronized GithubEndpoint getEndpoint() {
+        if (endpoint == null) {
+            final long start = SystemClock.elapsedRealtime();
+            final ValidatorCache validators = new ValidatorCache(MAX_VALIDATED_URLS);
+            final Client network = new MetricsClient(new UrlConnectionClient(), getMetrics(), GithubEndpoint.class);
+            endpoint = createAdapter(GithubEndpoint.SERVER,
+                    new ConditionalClient(new RateLimitClient(network, getRequestScheduler()), validators),
+                    new ConditionalConverter(new StreamingUserConverter(new GsonConverter(new Gson())), validators),
+                    createHttpExecutor(),
+                    debugLogging ? RestAdapter.LogLevel.FULL : RestAdapter.LogLevel.NONE,
+                    debugLogging ? new BackgroundLog(Executors.newSingleThreadExecutor()) : RestAdapter.Log.NONE)
+                    .create(GithubEndpoint.class);
+            creationTimeMs = SystemClock.elapsedRealtime() - start;
+            creationCount++;
+        }
+        return endpoint;
+    }
+
+    /**
+     * Return the scheduler every request to the shared endpoint should go through, so they stay within
+     * the rate limit its responses report.
+     */
+    public static synchronized RequestScheduler getRequestScheduler() {
+        if (scheduler == null) {
+            scheduler = new RequestScheduler(getTimer(), new MainThreadExecutor(), Clock.WALL,
+                    RequestScheduler.DEFAULT_MAX_DELAY_MS);
+        }
+        return scheduler;
+    }
+
+    /**
+     * Return the policy requests to the shared endpoint that a screen is waiting on should be retried
+     * with.
+     */
+    public static synchronized RetryPolicy getRetryPolicy() {
+        if (retryPolicy == null) {
+            retryPolicy = new RetryPolicy.Builder(getTimer(), new MainThreadExecutor()).build();
+        }
+        return retryPolicy;
+    }
+
+    /**
+     * Return the most recent requests made through the shared endpoint.
+     */
+    public static synchronized RequestMetrics getMetrics() {
+        if (metrics == null) {
+            metrics = new RequestMetrics(METRICS_CAPACITY);
+        }
+        return metrics;
+    }
+
+    /**
+     * Select whether every request and response is logged in full, headers and bodies included.  Off by
+     * default.  Has to be called before the first call to {@link #getEndpoint()}.
+     */
+    public static synchronized void setDebugLogging(boolean enabled) {
+        if (endpoint != null) {
+            throw new IllegalStateException("The endpoint has already been created.");
+        }
+        debugLogging = enabled;
+    }
+
+    /**
+     * Return how many times the endpoint was created in this process.  Anything but 1 means a screen
+     * is paying for its own adapter.
+     */
+    public static synchronized int getCreationCount() {
+        return creationCount;
+    }
+
+    /**
+     * Return how long creating the endpoint took in milliseconds, the cost the first screen pays and
+     * every other screen does not.
+     */
+    public static synchronized long getCreationTimeMs() {
+        return creationTimeMs;
+    }
+
+    /* internal */ static RestAdapter createAdapter(String server, Client client, Converter converter, ExecutorService httpExecutor) {
+        return createAdapter(server, client, converter, httpExecutor, RestAdapter.LogLevel.NONE, RestAdapter.Log.NONE);
+    }
+
+    /* internal */ static RestAdapter createAdapter(String server, Client client, Converter converter, ExecutorService httpExecutor,
+                                                    RestAdapter.LogLevel logLevel, RestAdapter.Log log) {
+        return new RestAdapter.Builder()
+                .setServer(server)
+                .setClient(client)
+                .setConverter(converter)
+                .setExecutors(httpExecutor, new MainThreadExecutor())
+                .setLog(log)
+                .setLogLevel(logLevel)
+                .build();
+    }
+
+    /**
+     * Return the thread requests are held on until they may go out again.
+     */
+    private static ScheduledExecutorService getTimer() {
+        if (timer == null) {
+            timer = Executors.newSingleThreadScheduledExecutor();
+        }
+        return timer;
+    }
+
+    private static ExecutorService createHttpExecutor() {
+        return Executors.newFixedThreadPool(HTTP_THREADS, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "Octo-Http-" + count.incrementAndGet());
+            }
+        });
+    }
+
+    /**
+     * Hands log lines to a background thread, so the HTTP threads never wait on logcat.
+     */
+    /* internal */ static final class BackgroundLog implements RestAdapter.Log {
+        private final Executor executor;
+
+        BackgroundLog(Executor executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public void log(final String message) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < message.length(); i += MAX_LOG_LINE) {
+                        Log.d(LOG_TAG, message.substring(i, Math.min(message.length(), i + MAX_LOG_LINE)));
+                    }
+                }
+            });
+        }
+    }
+}
@@ -8,6 +8,7 @@ import java.util.List;
 import retrofit.Callback;
 import retrofit.http.GET;
 import retrofit.http.Path;
+import retrofit.http.Query;
 
 public interface GithubEndpoint {
 
@@ -19,6 +20,12 @@ public interface GithubEndpoint {
     @GET("/users/{id}/following")
     public void getFollowingUser(@Path("id") String user, Callback<List<User>> callback);
 
+    @GET("/users/{id}/following")
+    public void getFollowingUser(@Path("id") String user, @Query("page") int page, @Query("per_page") int perPage, Callback<List<User>> callback);
+
     @GET("/orgs/{id}/members")
     public void getOrganizationMember(@Path("id") String organization, Callback<List<User>> callback);
+
+    @GET("/orgs/{id}/members")
+    public void getOrganizationMember(@Path("id") String organization, @Query("page") int page, @Query("per_page") int perPage, Callback<List<User>> callback);
 }
@@ -0,0 +1,145 @@
+package com.bypassmobile.octo.rest;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import retrofit.Callback;
+import retrofit.RetrofitError;
+import retrofit.client.Response;
+
+/**
+ * Registry of the requests that are on their way, keyed by endpoint and arguments, so callers asking
+ * for the same thing at the same time share one network call and one parsed result.  A screen that is
+ * recreated while its request is running joins that request instead of sending another one.
+ *
+ * Lives as long as the process, which is what lets requests outlive the activity that started them.
+ */
+public class InFlightRequests {
+
+    private static InFlightRequests singleton;
+
+    /**
+     * Starts the network call for a key.
+     */
+    public interface Request<T> {
+        void start(Callback<T> callback);
+    }
+
+    private final Map<String, Call<?>> calls = new HashMap<>();
+
+    private int startedCount;
+    private int joinedCount;
+
+    /**
+     * Return the process wide registry.
+     */
+    public static synchronized InFlightRequests getInstance() {
+        if (singleton == null) {
+            singleton = new InFlightRequests();
+        }
+        return singleton;
+    }
+
+    /**
+     * Hand the result for the key to the callback, starting the request only if no request for the key
+     * is already running.
+     *
+     * @param key
+     *      Identifies the endpoint and its arguments.  Requests with the same key must produce the same
+     *      type of result.
+     */
+    public <T> void join(String key, Request<T> request, Callback<T> callback) {
+        if (key == null || request == null || callback == null) {
+            throw new IllegalArgumentException("The key, request and callback can not be null.");
+        }
+        final Call<T> call;
+        synchronized (this) {
+            // Same key, same type.
+            @SuppressWarnings("unchecked")
+            final Call<T> running = (Call<T>) calls.get(key);
+            if (running != null) {
+                running.callbacks.add(callback);
+                joinedCount++;
+                return;
+            }
+            call = new Call<>(key);
+            call.callbacks.add(callback);
+            calls.put(key, call);
+            startedCount++;
+        }
+        // Outside the lock, a request may call back right away.
+        request.start(call);
+    }
+
+    /**
+     * Stop handing the result for the key to the callback.  The request itself keeps running for anyone
+     * else waiting on it, or for whoever joins it next.
+     *
+     * @return
+     *      True if the callback was waiting on the key.
+     */
+    public synchronized boolean leave(String key, Callback<?> callback) {
+        final Call<?> call = calls.get(key);
+        return call != null && call.callbacks.remove(callback);
+    }
+
+    /**
+     * Return if a request for the key is running.
+     */
+    public synchronized boolean isInFlight(String key) {
+        return calls.containsKey(key);
+    }
+
+    /**
+     * Return the number of network calls started.
+     */
+    public synchronized int getStartedCount() {
+        return startedCount;
+    }
+
+    /**
+     * Return the number of callers that joined a running request instead of starting their own.
+     */
+    public synchronized int getJoinedCount() {
+        return joinedCount;
+    }
+
+    private List<Callback<?>> finish(String key) {
+        synchronized (this) {
+            final Call<?> call = calls.remove(key);
+            return (call != null) ? new ArrayList<Callback<?>>(call.callbacks) : new ArrayList<Callback<?>>();
+        }
+    }
+
+    /**
+     * The running request for a key and everyone waiting on it.
+     */
+    private final class Call<T> implements Callback<T> {
+        final String key;
+        final List<Callback<?>> callbacks = new ArrayList<>();
+
+        Call(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public void success(T result, Response response) {
+            for (Callback<?> callback : finish(key)) {
+                // Same key, same type.
+                @SuppressWarnings("unchecked")
+                final Callback<T> joined = (Callback<T>) callback;
+                joined.success(result, response);
+            }
+        }
+
+        @Override
+        public void failure(RetrofitError error) {
+            for (Callback<?> callback : finish(key)) {
+                callback.failure(error);
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.bypassmobile.octo.rest;
+
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import retrofit.client.Header;
+
+/**
+ * Reads the page numbers out of the Link header GitHub sends with every paged response:
+ *
+ * <pre>
+ *     Link: &lt;https://api.github.com/user/1/following?page=2&gt;; rel="next",
+ *           &lt;https://api.github.com/user/1/following?page=9&gt;; rel="last"
+ * </pre>
+ */
+/* internal */ final class LinkHeader {
+
+    /* internal */ static final String NAME = "Link";
+
+    /* internal */ static final String REL_NEXT = "next";
+    /* internal */ static final String REL_LAST = "last";
+
+    private static final String REL = "rel=";
+    private static final String PAGE_PARAM = "page=";
+
+    private LinkHeader() {
+    }
+
+    /**
+     * Return the page number the link with the given relation points at, or -1 if the headers have no
+     * such link.
+     */
+    /* internal */ static int findPage(List<Header> headers, String rel) {
+        if (headers == null) {
+            return -1;
+        }
+        for (Header header : headers) {
+            if (NAME.equalsIgnoreCase(header.getName()) && header.getValue() != null) {
+                final String url = parse(header.getValue()).get(rel);
+                if (url != null) {
+                    return pageOf(url);
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return the URL of every link in the header value by its relation.  Anything that does not parse
+     * is skipped.
+     */
+    /* internal */ static Map<String, String> parse(String value) {
+        final Map<String, String> links = new HashMap<>();
+        for (String link : value.split(",")) {
+            final int open = link.indexOf('<');
+            final int close = link.indexOf('>', open + 1);
+            if (open < 0 || close < 0) {
+                continue;
+            }
+            final String url = link.substring(open + 1, close);
+            for (String param : link.substring(close + 1).split(";")) {
+                param = param.trim();
+                if (param.startsWith(REL)) {
+                    // A relation may be quoted and may list several space separated relations.
+                    for (String rel : param.substring(REL.length()).replace("\"", "").split(" ")) {
+                        if (!rel.isEmpty()) {
+                            links.put(rel, url);
+                        }
+                    }
+                }
+            }
+        }
+        return links;
+    }
+
+    /**
+     * Return the value of the page query parameter of the URL, or -1 if it has none.
+     */
+    /* internal */ static int pageOf(String url) {
+        final int query = url.indexOf('?');
+        if (query < 0) {
+            return -1;
+        }
+        for (String param : url.substring(query + 1).split("&")) {
+            if (param.startsWith(PAGE_PARAM)) {
+                try {
+                    return Integer.parseInt(param.substring(PAGE_PARAM.length()));
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,236 @@
+package com.bypassmobile.octo.rest;
+
+
+import android.os.SystemClock;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import retrofit.client.Client;
+import retrofit.client.Request;
+import retrofit.client.Response;
+import retrofit.http.RestMethod;
+import retrofit.mime.TypedInput;
+
+/**
+ * {@link Client} that adds every request to {@link RequestMetrics}: the URL template it was made
+ * through, the time until the response arrived, its status, the size of its body and whether the server
+ * answered 304 Not Modified.
+ *
+ * It should wrap the client that goes to the network directly, so the 304s are still visible and the
+ * body is counted as it is read rather than buffered.
+ */
+public class MetricsClient implements Client {
+
+    private static final int HTTP_NOT_MODIFIED = 304;
+    private static final Pattern PATH_PARAM = Pattern.compile("\\{[^}]+\\}");
+
+    /**
+     * Body that knows how many of its bytes were read, which is what came over the wire even when the
+     * length is unknown, as it is for gzipped or chunked responses.  Wrappers of a counted body should
+     * pass the count on.
+     */
+    public interface CountedInput extends TypedInput {
+        long getBytesRead();
+    }
+
+    private final Client client;
+    private final RequestMetrics metrics;
+    /** Path pattern to the template it was compiled from. */
+    private final Map<Pattern, String> templates;
+
+    /**
+     * @param client
+     *      Client that executes the requests.
+     * @param metrics
+     *      Where the requests are recorded.
+     * @param endpoints
+     *      Retrofit interfaces whose paths are used as URL templates.  A request that matches none of them
+     *      is recorded with its plain path.
+     */
+    public MetricsClient(Client client, RequestMetrics metrics, Class<?>... endpoints) {
+        if (client == null || metrics == null) {
+            throw new IllegalArgumentException("The client and metrics can not be null.");
+        }
+        this.client = client;
+        this.metrics = metrics;
+        this.templates = compileTemplates(endpoints);
+    }
+
+    @Override
+    public Response execute(Request request) throws IOException {
+        final String template = templateOf(request.getUrl());
+        final long start = SystemClock.elapsedRealtime();
+        final Response response;
+        try {
+            response = client.execute(request);
+        } catch (IOException | RuntimeException e) {
+            metrics.record(request.getMethod(), template, -1, SystemClock.elapsedRealtime() - start, 0,
+                    RequestMetrics.CacheResult.FAILED);
+            throw e;
+        }
+        final long latencyMs = SystemClock.elapsedRealtime() - start;
+
+        final int status = response.getStatus();
+        final RequestMetrics.Record record = metrics.record(request.getMethod(), template, status, latencyMs, 0,
+                (status == HTTP_NOT_MODIFIED) ? RequestMetrics.CacheResult.NOT_MODIFIED : RequestMetrics.CacheResult.NETWORK);
+        if (response.getBody() == null) {
+            return response;
+        }
+        return new Response(status, response.getReason(), response.getHeaders(),
+                new CountingInput(response.getBody(), record));
+    }
+
+    /**
+     * Return the bytes read from the body if it was counted, or else its length.
+     *
+     * @param body
+     *      Body of a response, may be null.
+     * @return
+     *      The number of bytes, 0 if there is no body or nothing is known about its size.
+     */
+    public static long getBytesRead(TypedInput body) {
+        if (body instanceof CountedInput) {
+            return ((CountedInput) body).getBytesRead();
+        }
+        return (body != null) ? Math.max(body.length(), 0) : 0;
+    }
+
+    /**
+     * Return the template the URL was built from, or its path if it matches none.
+     */
+    /* internal */ String templateOf(String url) {
+        String path;
+        try {
+            path = new URI(url).getRawPath();
+        } catch (URISyntaxException e) {
+            path = null;
+        }
+        if (path == null) {
+            return url;
+        }
+        for (Map.Entry<Pattern, String> entry : templates.entrySet()) {
+            if (entry.getKey().matcher(path).matches()) {
+                return entry.getValue();
+            }
+        }
+        return path;
+    }
+
+    private static Map<Pattern, String> compileTemplates(Class<?>... endpoints) {
+        final List<String> paths = new ArrayList<>();
+        for (Class<?> endpoint : endpoints) {
+            for (Method method : endpoint.getMethods()) {
+                for (Annotation annotation : method.getAnnotations()) {
+                    final String path = pathOf(annotation);
+                    if (path != null && !paths.contains(path)) {
+                        paths.add(path);
+                    }
+                }
+            }
+        }
+
+        final Map<Pattern, String> templates = new LinkedHashMap<>();
+        for (String path : paths) {
+            final StringBuilder regex = new StringBuilder();
+            final Matcher params = PATH_PARAM.matcher(path);
+            int last = 0;
+            while (params.find()) {
+                regex.append(Pattern.quote(path.substring(last, params.start()))).append("[^/]+");
+                last = params.end();
+            }
+            regex.append(Pattern.quote(path.substring(last)));
+            templates.put(Pattern.compile(regex.toString()), path);
+        }
+        return templates;
+    }
+
+    /**
+     * Return the path of a Retrofit HTTP method annotation such as {@link retrofit.http.GET}, or null for
+     * any other annotation.
+     */
+    private static String pathOf(Annotation annotation) {
+        if (annotation.annotationType().getAnnotation(RestMethod.class) == null) {
+            return null;
+        }
+        try {
+            return (String) annotation.annotationType().getMethod("value").invoke(annotation);
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Body that updates the byte count of its record as it is read.
+     */
+    private static final class CountingInput implements CountedInput {
+        private final TypedInput body;
+        private final RequestMetrics.Record record;
+
+        CountingInput(TypedInput body, RequestMetrics.Record record) {
+            this.body = body;
+            this.record = record;
+        }
+
+        @Override
+        public String mimeType() {
+            return body.mimeType();
+        }
+
+        @Override
+        public long length() {
+            return body.length();
+        }
+
+        @Override
+        public long getBytesRead() {
+            return Math.max(record.getBytes(), 0);
+        }
+
+        @Override
+        public InputStream in() throws IOException {
+            return new FilterInputStream(body.in()) {
+                private long count;
+
+                @Override
+                public int read() throws IOException {
+                    final int b = super.read();
+                    if (b != -1) {
+                        record.setBytes(++count);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    final int read = super.read(buffer, offset, length);
+                    if (read > 0) {
+                        count += read;
+                        record.setBytes(count);
+                    }
+                    return read;
+                }
+
+                @Override
+                public long skip(long n) throws IOException {
+                    final long skipped = super.skip(n);
+                    count += skipped;
+                    record.setBytes(count);
+                    return skipped;
+                }
+            };
+        }
+    }
+}
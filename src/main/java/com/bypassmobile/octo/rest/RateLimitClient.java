@@ -0,0 +1,32 @@
+package com.bypassmobile.octo.rest;
+
+
+import java.io.IOException;
+
+import retrofit.client.Client;
+import retrofit.client.Request;
+import retrofit.client.Response;
+
+/**
+ * {@link Client} that reports the rate limit headers of every response to a {@link RequestScheduler}.
+ */
+public class RateLimitClient implements Client {
+
+    private final Client client;
+    private final RequestScheduler scheduler;
+
+    public RateLimitClient(Client client, RequestScheduler scheduler) {
+        if (client == null || scheduler == null) {
+            throw new IllegalArgumentException("The client and scheduler can not be null.");
+        }
+        this.client = client;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public Response execute(Request request) throws IOException {
+        final Response response = client.execute(request);
+        scheduler.onResponse(response.getHeaders());
+        return response;
+    }
+}
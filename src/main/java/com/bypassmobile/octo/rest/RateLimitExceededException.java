@@ -0,0 +1,23 @@
+package com.bypassmobile.octo.rest;
+
+
+/**
+ * Cause of the {@link retrofit.RetrofitError} a request gets when the {@link RequestScheduler} turned it
+ * away because the rate limit is used up.
+ */
+public class RateLimitExceededException extends RuntimeException {
+
+    private final long resetAtMs;
+
+    public RateLimitExceededException(long resetAtMs) {
+        super("Rate limit exceeded until " + resetAtMs);
+        this.resetAtMs = resetAtMs;
+    }
+
+    /**
+     * Return the wall clock time in milliseconds the rate limit resets at.
+     */
+    public long getResetAtMs() {
+        return resetAtMs;
+    }
+}
@@ -0,0 +1,188 @@
+package com.bypassmobile.octo.rest;
+
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed size ring of the most recent requests, written by the network threads without taking a lock
+ * and read for diagnostics.  Once full, every new record replaces the oldest one.
+ */
+public class RequestMetrics {
+
+    /**
+     * Where the response came from.
+     */
+    public enum CacheResult {
+        /** Downloaded in full. */
+        NETWORK,
+        /** The server answered 304 Not Modified, the cached copy was used. */
+        NOT_MODIFIED,
+        /** No response at all. */
+        FAILED
+    }
+
+    private final AtomicReferenceArray<Record> ring;
+    private final int mask;
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * @param capacity
+     *      Number of records kept, rounded up to a power of two.  Must be greater than 0.
+     */
+    public RequestMetrics(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity should be greater than 0.");
+        }
+        final int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.ring = new AtomicReferenceArray<>(Math.max(size, 1));
+        this.mask = ring.length() - 1;
+    }
+
+    /**
+     * Add a record, replacing the oldest one once the ring is full.
+     *
+     * @return
+     *      The record, whose byte count may still be updated while the body is read.
+     */
+    public Record record(String method, String urlTemplate, int status, long latencyMs, long bytes, CacheResult cacheResult) {
+        final long seq = sequence.getAndIncrement();
+        final Record record = new Record(seq, method, urlTemplate, status, latencyMs, bytes, cacheResult);
+        ring.set((int) (seq & mask), record);
+        return record;
+    }
+
+    /**
+     * Return the number of requests recorded since creation, including the ones no longer kept.
+     */
+    public long getRecordedCount() {
+        return sequence.get();
+    }
+
+    public int getCapacity() {
+        return ring.length();
+    }
+
+    /**
+     * Return the records still kept, oldest first.  Records written while this runs may or may not be
+     * included.
+     */
+    public List<Record> snapshot() {
+        final long end = sequence.get();
+        final long start = Math.max(0, end - ring.length());
+        final List<Record> records = new ArrayList<>((int) (end - start));
+        for (long seq = start; seq < end; seq++) {
+            final Record record = ring.get((int) (seq & mask));
+            // A slot may already hold a newer record, or not yet hold the one claimed for it.
+            if (record != null && record.sequence == seq) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Write a summary per URL template followed by every record kept.
+     */
+    public void dump(PrintWriter writer) {
+        final List<Record> records = snapshot();
+        writer.println("Requests: " + getRecordedCount() + " recorded, last " + records.size() + " kept");
+
+        final Map<String, List<Record>> byTemplate = new LinkedHashMap<>();
+        for (Record record : records) {
+            final String key = record.method + " " + record.urlTemplate;
+            if (!byTemplate.containsKey(key)) {
+                byTemplate.put(key, new ArrayList<Record>());
+            }
+            byTemplate.get(key).add(record);
+        }
+        for (Map.Entry<String, List<Record>> entry : byTemplate.entrySet()) {
+            final List<Record> group = entry.getValue();
+            final long[] latencies = new long[group.size()];
+            long bytes = 0;
+            int notModified = 0;
+            int failed = 0;
+            for (int i = 0; i < group.size(); i++) {
+                final Record record = group.get(i);
+                latencies[i] = record.latencyMs;
+                bytes += Math.max(record.getBytes(), 0);
+                if (record.cacheResult == CacheResult.NOT_MODIFIED) {
+                    notModified++;
+                } else if (record.cacheResult == CacheResult.FAILED) {
+                    failed++;
+                }
+            }
+            Arrays.sort(latencies);
+            writer.println("  " + entry.getKey() + ": " + group.size() + " requests, p50 " + percentile(latencies, 50)
+                    + "ms, p95 " + percentile(latencies, 95) + "ms, " + bytes + " bytes, "
+                    + notModified + " not modified, " + failed + " failed");
+        }
+        for (Record record : records) {
+            writer.println("  " + record);
+        }
+        writer.flush();
+    }
+
+    /**
+     * Return what {@link #dump(PrintWriter)} writes.
+     */
+    public String dump() {
+        final StringWriter out = new StringWriter();
+        dump(new PrintWriter(out));
+        return out.toString();
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        return sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)];
+    }
+
+    /**
+     * One request.  Everything but the byte count is fixed once recorded.
+     */
+    public static final class Record {
+        final long sequence;
+        public final String method;
+        /** The path as declared on the endpoint, like /users/{id}/following, without the query. */
+        public final String urlTemplate;
+        /** HTTP status, or -1 if there was no response. */
+        public final int status;
+        /** Time until the response headers arrived. */
+        public final long latencyMs;
+        public final CacheResult cacheResult;
+        private volatile long bytes;
+
+        Record(long sequence, String method, String urlTemplate, int status, long latencyMs, long bytes, CacheResult cacheResult) {
+            this.sequence = sequence;
+            this.method = method;
+            this.urlTemplate = urlTemplate;
+            this.status = status;
+            this.latencyMs = latencyMs;
+            this.bytes = bytes;
+            this.cacheResult = cacheResult;
+        }
+
+        /**
+         * Return the size of the response body, or -1 while it is unknown.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /* internal */ void setBytes(long bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + sequence + " " + method + " " + urlTemplate + " " + status + " " + cacheResult
+                    + " " + latencyMs + "ms " + bytes + "B";
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.bypassmobile.octo.rest;
+
+
+import com.bypassmobile.octo.image.Clock;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import retrofit.Callback;
+import retrofit.RetrofitError;
+import retrofit.client.Header;
+import retrofit.client.Response;
+
+/**
+ * Decides when a request may go out based on the rate limit GitHub reports in the headers of every
+ * response, 60 requests an hour without authentication.
+ *
+ * Requests the user is waiting on always go out while there is budget left.  Prefetches only go out
+ * while more than a reserve is left, so speculative work never spends the requests a screen needs.
+ * A request that can't go out is held until the budget resets if that is only a short wait away, and
+ * failed with a {@link RateLimitExceededException} otherwise.  Held requests wait on a timer, but are
+ * started or failed from the callback executor, the main thread in the app, where their callbacks
+ * expect to be called.
+ */
+public class RequestScheduler {
+
+    public enum Priority {
+        /** A screen the user is looking at is waiting on the request. */
+        FOREGROUND,
+        /** Nobody is waiting on the request yet. */
+        PREFETCH
+    }
+
+    /* internal */ static final String HEADER_LIMIT = "X-RateLimit-Limit";
+    /* internal */ static final String HEADER_REMAINING = "X-RateLimit-Remaining";
+    /* internal */ static final String HEADER_RESET = "X-RateLimit-Reset";
+
+    private static final int HTTP_FORBIDDEN = 403;
+
+    /** Fraction of the limit prefetches may not touch. */
+    private static final int PREFETCH_RESERVE_FRACTION = 4;
+    /** Longest a request is held for the budget to reset before it is failed instead. */
+    public static final long DEFAULT_MAX_DELAY_MS = 60 * 1000; // 1 minute
+
+    private final ScheduledExecutorService timer;
+    private final Executor callbackExecutor;
+    private final Clock clock;
+    private final long maxDelayMs;
+
+    /** Last reported limit, or -1 before the first response. */
+    private int limit = -1;
+    /** Requests left, counting down for every request sent since the last response. */
+    private int remaining = -1;
+    /** Wall clock time the budget resets at. */
+    private long resetAtMs;
+
+    private int deferredCount;
+    private int rejectedCount;
+
+    /**
+     * @param timer
+     *      Waits out the time requests are held for the budget to reset.
+     * @param callbackExecutor
+     *      Starts the held requests, or fails them, once their wait is over.  The thread requests are
+     *      scheduled from, the main thread in the app.
+     * @param clock
+     *      Wall clock, GitHub reports the reset time as a wall clock time.
+     * @param maxDelayMs
+     *      Longest a request is held for the budget to reset before it is failed instead.
+     */
+    public RequestScheduler(ScheduledExecutorService timer, Executor callbackExecutor, Clock clock, long maxDelayMs) {
+        if (timer == null || callbackExecutor == null || clock == null) {
+            throw new IllegalArgumentException("The timer, callback executor and clock can not be null.");
+        }
+        this.timer = timer;
+        this.callbackExecutor = callbackExecutor;
+        this.clock = clock;
+        this.maxDelayMs = maxDelayMs;
+    }
+
+    /**
+     * Start the request now, later or not at all, depending on its priority and the budget left.
+     * Requests that are turned away fail with a {@link RateLimitExceededException} as the cause.
+     */
+    public <T> void schedule(final Priority priority, final InFlightRequests.Request<T> request, final Callback<T> callback) {
+        final long waitMs;
+        synchronized (this) {
+            if (mayStart(priority)) {
+                if (remaining > 0) {
+                    // Until the response says otherwise.
+                    remaining--;
+                }
+                waitMs = 0;
+            } else {
+                waitMs = resetAtMs - clock.millis();
+                if (waitMs <= maxDelayMs) {
+                    deferredCount++;
+                } else {
+                    rejectedCount++;
+                }
+            }
+        }
+
+        if (waitMs <= 0) {
+            request.start(callback);
+        } else if (waitMs <= maxDelayMs) {
+            timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    callbackExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            startAfterReset(priority, request, callback);
+                        }
+                    });
+                }
+            }, waitMs, TimeUnit.MILLISECONDS);
+        } else {
+            callback.failure(RetrofitError.unexpectedError(null, new RateLimitExceededException(getResetAtMs())));
+        }
+    }
+
+    /**
+     * Record the rate limit headers of a response.
+     */
+    public void onResponse(List<Header> headers) {
+        final long newLimit = longHeader(headers, HEADER_LIMIT);
+        final long newRemaining = longHeader(headers, HEADER_REMAINING);
+        final long newResetSeconds = longHeader(headers, HEADER_RESET);
+        if (newRemaining < 0) {
+            // Not a rate limited response.
+            return;
+        }
+        synchronized (this) {
+            limit = (int) newLimit;
+            remaining = (int) newRemaining;
+            resetAtMs = (newResetSeconds >= 0) ? newResetSeconds * 1000 : resetAtMs;
+        }
+    }
+
+    /**
+     * Return the number of requests left until the budget resets, or -1 if no response has reported it
+     * yet.
+     */
+    public synchronized int getRemaining() {
+        resetIfDue();
+        return remaining;
+    }
+
+    /**
+     * Return the number of requests allowed per period, or -1 if no response has reported it yet.
+     */
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Return the wall clock time in milliseconds the budget resets at.
+     */
+    public synchronized long getResetAtMs() {
+        return resetAtMs;
+    }
+
+    /**
+     * Return the number of whole minutes, rounded up, until the budget resets.
+     */
+    public synchronized int getMinutesUntilReset() {
+        final long waitMs = resetAtMs - clock.millis();
+        return (waitMs <= 0) ? 0 : (int) ((waitMs + 59999) / 60000);
+    }
+
+    /**
+     * Return the number of requests held for the budget to reset.
+     */
+    public synchronized int getDeferredCount() {
+        return deferredCount;
+    }
+
+    /**
+     * Return the number of requests failed because the budget was used up.
+     */
+    public synchronized int getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * Return if the request failed because the rate limit was used up, either turned away before it went
+     * out or refused by the server.
+     */
+    public static boolean isRateLimited(RetrofitError error) {
+        if (error.getCause() instanceof RateLimitExceededException) {
+            return true;
+        }
+        final Response response = error.getResponse();
+        return response != null && response.getStatus() == HTTP_FORBIDDEN
+                && longHeader(response.getHeaders(), HEADER_REMAINING) == 0;
+    }
+
+    private <T> void startAfterReset(Priority priority, InFlightRequests.Request<T> request, Callback<T> callback) {
+        final boolean start;
+        synchronized (this) {
+            start = mayStart(priority);
+            if (!start) {
+                rejectedCount++;
+            } else if (remaining > 0) {
+                remaining--;
+            }
+        }
+        if (start) {
+            request.start(callback);
+        } else {
+            callback.failure(RetrofitError.unexpectedError(null, new RateLimitExceededException(getResetAtMs())));
+        }
+    }
+
+    private boolean mayStart(Priority priority) {
+        resetIfDue();
+        if (remaining < 0) {
+            // Nothing known yet.
+            return true;
+        }
+        if (priority == Priority.FOREGROUND) {
+            return remaining > 0;
+        }
+        return remaining > limit / PREFETCH_RESERVE_FRACTION;
+    }
+
+    private void resetIfDue() {
+        if (remaining >= 0 && limit >= 0 && clock.millis() >= resetAtMs) {
+            // Assume the whole budget is back until the next response tells.
+            remaining = limit;
+        }
+    }
+
+    private static long longHeader(List<Header> headers, String name) {
+        if (headers == null) {
+            return -1;
+        }
+        for (Header header : headers) {
+            if (name.equalsIgnoreCase(header.getName()) && header.getValue() != null) {
+                try {
+                    return Long.parseLong(header.getValue().trim());
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,407 @@
+package com.bypassmobile.octo.rest;
+
+
+import com.bypassmobile.octo.image.Clock;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import retrofit.Callback;
+import retrofit.RetrofitError;
+import retrofit.client.Header;
+import retrofit.client.Response;
+
+/**
+ * Sends requests again when they fail for a reason that is likely to pass: no connection, a timeout, a
+ * 5xx, or a 429 or 403 that says when to come back with Retry-After.  Retries wait a capped exponential
+ * backoff with jitter, so clients that failed together don't all come back together, and never less
+ * than the server asked for.
+ *
+ * A circuit breaker is shared by every request going through the policy.  After a run of consecutive
+ * transient failures it opens and requests fail right away with a {@link CircuitOpenException} for a
+ * while.  Once that time is up a single request is let through, and its result decides whether the
+ * circuit closes again or stays open for another round.
+ *
+ * Requests turned away by the {@link RequestScheduler} are never retried, it already held them as long
+ * as it was willing to.
+ *
+ * Retries wait on a timer but are sent from the callback executor, the main thread in the app, so the
+ * request and every outcome of it, a short circuit included, happen on the thread the first attempt
+ * was made from.
+ */
+public class RetryPolicy {
+
+    public enum State {
+        /** Requests go out. */
+        CLOSED,
+        /** Requests fail without going out. */
+        OPEN,
+        /** A single trial request is out, the rest fail without going out. */
+        HALF_OPEN
+    }
+
+    /* internal */ static final String HEADER_RETRY_AFTER = "Retry-After";
+
+    private static final int HTTP_FORBIDDEN = 403;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final int HTTP_SERVER_ERROR = 500;
+
+    private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+    private final ScheduledExecutorService timer;
+    private final Executor callbackExecutor;
+    private final Clock clock;
+    private final Clock wallClock;
+    private final Random random;
+    private final int maxAttempts;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final int failureThreshold;
+    private final long openMs;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openUntilMs;
+
+    private int retryCount;
+    private int gaveUpCount;
+    private int shortCircuitedCount;
+
+    private RetryPolicy(Builder builder) {
+        this.timer = builder.timer;
+        this.callbackExecutor = builder.callbackExecutor;
+        this.clock = builder.clock;
+        this.wallClock = builder.wallClock;
+        this.random = builder.random;
+        this.maxAttempts = builder.maxAttempts;
+        this.baseDelayMs = builder.baseDelayMs;
+        this.maxDelayMs = builder.maxDelayMs;
+        this.failureThreshold = builder.failureThreshold;
+        this.openMs = builder.openMs;
+    }
+
+    /**
+     * Start the request, and start it again on transient failures until it succeeds, fails for good or
+     * runs out of attempts.  The callback only hears about the final outcome.
+     */
+    public <T> void execute(InFlightRequests.Request<T> request, Callback<T> callback) {
+        attempt(request, callback, 1);
+    }
+
+    public synchronized State getState() {
+        if (state == State.OPEN && clock.millis() >= openUntilMs) {
+            // Reported as closed until the trial request is actually sent.
+            return State.CLOSED;
+        }
+        return state;
+    }
+
+    /**
+     * Return the number of times a request was sent again.
+     */
+    public synchronized int getRetryCount() {
+        return retryCount;
+    }
+
+    /**
+     * Return the number of requests that failed after their last attempt, or whose server asked for a
+     * longer wait than the policy allows.
+     */
+    public synchronized int getGaveUpCount() {
+        return gaveUpCount;
+    }
+
+    /**
+     * Return the number of requests failed without being sent because the circuit was open.
+     */
+    public synchronized int getShortCircuitedCount() {
+        return shortCircuitedCount;
+    }
+
+    /**
+     * Return the time in milliseconds to wait before the given retry, without the jitter or the server's
+     * Retry-After.
+     *
+     * @param retry
+     *      1 for the first retry.
+     */
+    /* internal */ long backoffMs(int retry) {
+        final int shift = Math.min(retry - 1, 30);
+        return Math.min(maxDelayMs, baseDelayMs << shift);
+    }
+
+    private <T> void attempt(final InFlightRequests.Request<T> request, final Callback<T> callback, final int attempt) {
+        final long openUntil;
+        synchronized (this) {
+            openUntil = allowRequest() ? -1 : openUntilMs;
+            if (openUntil >= 0) {
+                shortCircuitedCount++;
+            }
+        }
+        if (openUntil >= 0) {
+            callback.failure(RetrofitError.unexpectedError(null, new CircuitOpenException(openUntil)));
+            return;
+        }
+
+        request.start(new Callback<T>() {
+            @Override
+            public void success(T result, Response response) {
+                onSuccess();
+                callback.success(result, response);
+            }
+
+            @Override
+            public void failure(RetrofitError error) {
+                if (!isTransient(error)) {
+                    // The server is up, it just doesn't like this request.
+                    onSuccess();
+                    callback.failure(error);
+                    return;
+                }
+
+                final long delayMs = retryDelayMs(error, attempt);
+                final boolean retry;
+                synchronized (RetryPolicy.this) {
+                    onFailure();
+                    retry = attempt < maxAttempts && delayMs <= maxDelayMs && state == State.CLOSED;
+                    if (retry) {
+                        retryCount++;
+                    } else {
+                        gaveUpCount++;
+                    }
+                }
+                if (!retry) {
+                    callback.failure(error);
+                    return;
+                }
+                timer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Off the timer thread, the callback expects to hear back where it was called.
+                        callbackExecutor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                attempt(request, callback, attempt + 1);
+                            }
+                        });
+                    }
+                }, delayMs, TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    /**
+     * Return the time to wait before sending the request again after the given attempt failed, the
+     * jittered backoff or the server's Retry-After, whichever is longer.
+     */
+    private long retryDelayMs(RetrofitError error, int attempt) {
+        final long backoff = backoffMs(attempt);
+        final long jittered;
+        synchronized (random) {
+            // Half fixed, half random, so retries are spread out but never bunched up right away.
+            jittered = backoff / 2 + (long) (random.nextDouble() * (backoff - backoff / 2));
+        }
+        final Response response = error.getResponse();
+        final long retryAfterMs = (response != null) ? retryAfterMs(response.getHeaders(), wallClock.millis()) : -1;
+        return Math.max(jittered, retryAfterMs);
+    }
+
+    private boolean allowRequest() {
+        switch (state) {
+            case OPEN:
+                if (clock.millis() < openUntilMs) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                return true;
+            case HALF_OPEN:
+                return false;
+            case CLOSED:
+            default:
+                return true;
+        }
+    }
+
+    private synchronized void onSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+    }
+
+    private void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openUntilMs = clock.millis() + openMs;
+        }
+    }
+
+    /**
+     * Return if the request failed in a way that is likely to pass if it is sent again.
+     */
+    /* internal */ static boolean isTransient(RetrofitError error) {
+        if (error.isNetworkError()) {
+            return true;
+        }
+        final Response response = error.getResponse();
+        if (response == null) {
+            // Turned away before it went out, or a bug.
+            return false;
+        }
+        final int status = response.getStatus();
+        if (status >= HTTP_SERVER_ERROR) {
+            return true;
+        }
+        if (status == HTTP_TOO_MANY_REQUESTS) {
+            return true;
+        }
+        // A used up hourly budget is the scheduler's business, a 403 with Retry-After is GitHub's
+        // secondary rate limit and passes shortly.
+        return status == HTTP_FORBIDDEN && !RequestScheduler.isRateLimited(error)
+                && retryAfterMs(response.getHeaders(), 0) >= 0;
+    }
+
+    /**
+     * Return the wait in milliseconds the Retry-After header asks for, either in seconds or as an HTTP
+     * date, or -1 if there is none.
+     *
+     * @param nowMs
+     *      Wall clock time to count an HTTP date from.
+     */
+    /* internal */ static long retryAfterMs(List<Header> headers, long nowMs) {
+        if (headers == null) {
+            return -1;
+        }
+        for (Header header : headers) {
+            if (!HEADER_RETRY_AFTER.equalsIgnoreCase(header.getName()) || header.getValue() == null) {
+                continue;
+            }
+            final String value = header.getValue().trim();
+            try {
+                return Math.max(0, Long.parseLong(value) * 1000);
+            } catch (NumberFormatException e) {
+                // Not seconds, try a date.
+            }
+            final SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            try {
+                return Math.max(0, format.parse(value).getTime() - nowMs);
+            } catch (ParseException e) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Builds a {@link RetryPolicy}.  Every setting has a default suited to the GitHub API.
+     */
+    public static class Builder {
+        private final ScheduledExecutorService timer;
+        private final Executor callbackExecutor;
+        private Clock clock = Clock.SYSTEM;
+        private Clock wallClock = Clock.WALL;
+        private Random random = new Random();
+        private int maxAttempts = 3;
+        private long baseDelayMs = 1000;
+        private long maxDelayMs = 30 * 1000;
+        private int failureThreshold = 5;
+        private long openMs = 30 * 1000;
+
+        /**
+         * @param timer
+         *      Waits out the delay of the retries.
+         * @param callbackExecutor
+         *      Sends the retries, and so calls back with their outcome.  The thread requests are
+         *      executed from, the main thread in the app.
+         */
+        public Builder(ScheduledExecutorService timer, Executor callbackExecutor) {
+            if (timer == null || callbackExecutor == null) {
+                throw new IllegalArgumentException("The timer and callback executor can not be null.");
+            }
+            this.timer = timer;
+            this.callbackExecutor = callbackExecutor;
+        }
+
+        /**
+         * Number of times a request is sent at most, the first one included.  Defaults to 3.
+         */
+        public Builder maxAttempts(int maxAttempts) {
+            if (maxAttempts < 1) {
+                throw new IllegalArgumentException("A request has to be sent at least once.");
+            }
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * Wait before the first retry, doubled for every further one up to the maximum.  The maximum also
+         * caps the server's Retry-After, a request asked to wait longer fails instead.  Defaults to 1
+         * second and 30 seconds.
+         */
+        public Builder backoff(long baseDelayMs, long maxDelayMs) {
+            if (baseDelayMs <= 0 || maxDelayMs < baseDelayMs) {
+                throw new IllegalArgumentException("The base delay should be greater than 0 and not greater than the maximum.");
+            }
+            this.baseDelayMs = baseDelayMs;
+            this.maxDelayMs = maxDelayMs;
+            return this;
+        }
+
+        /**
+         * Open the circuit after the given number of consecutive transient failures, and keep it open for
+         * the given time.  Defaults to 5 failures and 30 seconds.
+         */
+        public Builder circuitBreaker(int failureThreshold, long openMs) {
+            if (failureThreshold < 1 || openMs < 0) {
+                throw new IllegalArgumentException("The failure threshold should be at least 1 and the open time can not be negative.");
+            }
+            this.failureThreshold = failureThreshold;
+            this.openMs = openMs;
+            return this;
+        }
+
+        /**
+         * Time source for the circuit breaker.  Defaults to {@link Clock#SYSTEM}.
+         */
+        public Builder clock(Clock clock) {
+            if (clock == null) {
+                throw new IllegalArgumentException("Clock can not be null.");
+            }
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * Wall clock a Retry-After date is compared against.  Defaults to {@link Clock#WALL}.
+         */
+        public Builder wallClock(Clock wallClock) {
+            if (wallClock == null) {
+                throw new IllegalArgumentException("Clock can not be null.");
+            }
+            this.wallClock = wallClock;
+            return this;
+        }
+
+        /**
+         * Source of the jitter, so tests can make it predictable.
+         */
+        public Builder random(Random random) {
+            if (random == null) {
+                throw new IllegalArgumentException("Random can not be null.");
+            }
+            this.random = random;
+            return this;
+        }
+
+        public RetryPolicy build() {
+            return new RetryPolicy(this);
+        }
+    }
+}
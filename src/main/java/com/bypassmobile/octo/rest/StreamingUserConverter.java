@@ -0,0 +1,76 @@
+package com.bypassmobile.octo.rest;
+
+
+import com.bypassmobile.octo.model.User;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.List;
+
+import retrofit.converter.ConversionException;
+import retrofit.converter.Converter;
+import retrofit.mime.MimeUtil;
+import retrofit.mime.TypedInput;
+import retrofit.mime.TypedOutput;
+
+/**
+ * {@link Converter} that reads {@code List<User>} responses with the {@link UserListParser} straight
+ * off the response stream, and hands every other type to the converter it wraps.
+ */
+public class StreamingUserConverter implements Converter {
+
+    private final Converter converter;
+
+    public StreamingUserConverter(Converter converter) {
+        if (converter == null) {
+            throw new IllegalArgumentException("The converter can not be null.");
+        }
+        this.converter = converter;
+    }
+
+    @Override
+    public Object fromBody(TypedInput body, Type type) throws ConversionException {
+        if (!isUserList(type)) {
+            return converter.fromBody(body, type);
+        }
+
+        Reader in = null;
+        try {
+            in = new InputStreamReader(body.in(), MimeUtil.parseCharset(body.mimeType()));
+            return UserListParser.parse(in);
+        } catch (IOException | RuntimeException e) {
+            // JsonReader reports malformed JSON with IllegalStateException and NumberFormatException.
+            throw new ConversionException(e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // don't care
+                }
+            }
+        }
+    }
+
+    @Override
+    public TypedOutput toBody(Object object) {
+        return converter.toBody(object);
+    }
+
+    /**
+     * Return if the type is {@code List<User>} or one of its supertypes.
+     */
+    /* internal */ static boolean isUserList(Type type) {
+        if (!(type instanceof ParameterizedType)) {
+            return false;
+        }
+        final ParameterizedType parameterized = (ParameterizedType) type;
+        final Type raw = parameterized.getRawType();
+        return (raw == List.class || raw == Collection.class || raw == Iterable.class)
+                && parameterized.getActualTypeArguments()[0] == User.class;
+    }
+}
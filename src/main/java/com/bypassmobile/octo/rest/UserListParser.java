@@ -0,0 +1,65 @@
+package com.bypassmobile.octo.rest;
+
+
+import com.bypassmobile.octo.model.User;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pulls {@link User}s out of a JSON array one at a time with a {@link JsonReader}, reading only the
+ * login and avatar and skipping every other field of the GitHub user payload without building
+ * anything for it or going through reflection.
+ */
+public final class UserListParser {
+
+    private static final String FIELD_LOGIN = "login";
+    private static final String FIELD_AVATAR_URL = "avatar_url";
+
+    private UserListParser() {
+    }
+
+    /**
+     * Parse the whole array.
+     */
+    public static List<User> parse(Reader in) throws IOException {
+        final List<User> users = new ArrayList<>();
+        final JsonReader reader = new JsonReader(in);
+        reader.beginArray();
+        while (reader.hasNext()) {
+            users.add(readUser(reader));
+        }
+        reader.endArray();
+        return users;
+    }
+
+    private static User readUser(JsonReader reader) throws IOException {
+        String login = null;
+        String avatarUrl = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            if (FIELD_LOGIN.equals(name)) {
+                login = nextStringOrNull(reader);
+            } else if (FIELD_AVATAR_URL.equals(name)) {
+                avatarUrl = nextStringOrNull(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new User(login, avatarUrl);
+    }
+
+    private static String nextStringOrNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+}
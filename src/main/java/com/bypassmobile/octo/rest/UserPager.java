@@ -0,0 +1,285 @@
+package com.bypassmobile.octo.rest;
+
+
+import com.bypassmobile.octo.model.User;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+
+import retrofit.Callback;
+import retrofit.RetrofitError;
+import retrofit.client.Response;
+
+/**
+ * Walks a paged user list page by page, following the Link header GitHub sends with each page, and
+ * hands every page to its {@link Listener} as soon as it and all the pages before it have arrived.
+ *
+ * Pages are either fetched all in a row with {@link #loadAll()}, or one at a time with
+ * {@link #loadNext()} as the user scrolls.  Once the first page names the last one, up to
+ * {@code maxConcurrentPages} pages are requested at once.  Pages that arrive early are held back
+ * so the listener always sees them in order.
+ *
+ * Not thread safe, meant to be used and called back on the main thread.
+ */
+public class UserPager {
+
+    /** Largest page GitHub serves. */
+    public static final int MAX_PAGE_SIZE = 100;
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int DEFAULT_MAX_CONCURRENT_PAGES = 2;
+
+    private static final int FIRST_PAGE = 1;
+
+    /**
+     * Fetches one page of the list, usually one of the paged {@link GithubEndpoint} methods.
+     */
+    public interface PageSource {
+        void getPage(int page, int perPage, Callback<List<User>> callback);
+    }
+
+    public interface Listener {
+        /**
+         * The next page in order has arrived.
+         *
+         * @param page
+         *      Number of the page, starting at 1.
+         */
+        void onPage(List<User> users, int page);
+
+        /**
+         * The last page has been handed over, there is nothing more to load.
+         */
+        void onComplete();
+
+        /**
+         * The page could not be fetched.  Loading stops, {@link #loadNext()} or {@link #loadAll()}
+         * requests it again.
+         */
+        void onFailure(RetrofitError error, int page);
+    }
+
+    private final PageSource source;
+    private final int pageSize;
+    private final int maxConcurrentPages;
+    private final Listener listener;
+
+    /** Pages that arrived before the pages in front of them. */
+    private final TreeMap<Integer, List<User>> arrived = new TreeMap<>();
+    private final Set<Integer> inFlight = new HashSet<>();
+
+    /** Bumped on every restart so the callbacks of an earlier walk are ignored. */
+    private int generation;
+    /** Page the current walk started at. */
+    private int firstPage;
+    private int nextToDeliver;
+    /** Highest page a Link header has pointed at so far. */
+    private int highestKnown;
+    /** The last page, or -1 while it is unknown. */
+    private int lastPage;
+    private boolean loadAll;
+
+    /**
+     * @param pageSize
+     *      Number of users per page, between 1 and {@link #MAX_PAGE_SIZE}.
+     * @param maxConcurrentPages
+     *      Maximum number of pages requested at the same time.  Must be greater than 0.
+     */
+    public UserPager(PageSource source, int pageSize, int maxConcurrentPages, Listener listener) {
+        if (source == null || listener == null) {
+            throw new IllegalArgumentException("The page source and listener can not be null.");
+        }
+        if (pageSize <= 0 || pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("The page size should be between 1 and " + MAX_PAGE_SIZE + ".");
+        }
+        if (maxConcurrentPages <= 0) {
+            throw new IllegalArgumentException("The maximum number of concurrent pages should be greater than 0.");
+        }
+        this.source = source;
+        this.pageSize = pageSize;
+        this.maxConcurrentPages = maxConcurrentPages;
+        this.listener = listener;
+        reset(FIRST_PAGE);
+    }
+
+    /**
+     * Fetch every remaining page, as many at once as allowed.
+     */
+    public void loadAll() {
+        loadAll = true;
+        fill();
+    }
+
+    /**
+     * Fetch the page after the ones already requested, unless the list is complete or as many pages as
+     * allowed are already being fetched.
+     *
+     * @return
+     *      True if a page was requested.
+     */
+    public boolean loadNext() {
+        final int page = nextToRequest();
+        if (page < 0 || inFlight.size() >= maxConcurrentPages) {
+            return false;
+        }
+        request(page);
+        return true;
+    }
+
+    /**
+     * Start over from the first page.  Responses to requests already sent are ignored.
+     */
+    public void restart() {
+        generation++;
+        reset(FIRST_PAGE);
+    }
+
+    /**
+     * Start over from a later page, to continue a list that was loaded up to the page before it some
+     * other time.  Responses to requests already sent are ignored.
+     *
+     * @param page
+     *      The page to continue at, as returned by {@link #getNextPage()}.
+     */
+    public void resumeAt(int page) {
+        if (page < FIRST_PAGE) {
+            throw new IllegalArgumentException("The page to resume at should be at least " + FIRST_PAGE + ".");
+        }
+        generation++;
+        reset(page);
+    }
+
+    /**
+     * Stop loading, responses to requests already sent are ignored.
+     */
+    public void cancel() {
+        generation++;
+        inFlight.clear();
+        loadAll = false;
+    }
+
+    public boolean isLoading() {
+        return !inFlight.isEmpty();
+    }
+
+    /**
+     * Return if the last page has been handed to the listener.
+     */
+    public boolean isComplete() {
+        return lastPage > 0 && nextToDeliver > lastPage;
+    }
+
+    /**
+     * Return the number of pages handed to the listener so far.
+     */
+    public int getPagesDelivered() {
+        return nextToDeliver - firstPage;
+    }
+
+    /**
+     * Return the page the list continues at after the pages handed to the listener so far, or 0 if the
+     * last page has been handed over.
+     */
+    public int getNextPage() {
+        return isComplete() ? 0 : nextToDeliver;
+    }
+
+    /**
+     * Return the page the Link header of a page points at next, or 0 if it was the last page.
+     */
+    public static int nextPageOf(Response response) {
+        return Math.max(LinkHeader.findPage(response.getHeaders(), LinkHeader.REL_NEXT), 0);
+    }
+
+    private void reset(int page) {
+        arrived.clear();
+        inFlight.clear();
+        firstPage = page;
+        nextToDeliver = page;
+        highestKnown = page;
+        lastPage = -1;
+        loadAll = false;
+    }
+
+    private void fill() {
+        while (loadAll && loadNext()) {
+            // Keep requesting.
+        }
+    }
+
+    /**
+     * Return the lowest page that is known to exist and is neither being fetched nor waiting to be
+     * delivered, or -1 if there is none.
+     */
+    private int nextToRequest() {
+        final int limit = (lastPage > 0) ? lastPage : highestKnown;
+        for (int page = nextToDeliver; page <= limit; page++) {
+            if (!inFlight.contains(page) && !arrived.containsKey(page)) {
+                return page;
+            }
+        }
+        return -1;
+    }
+
+    private void request(int page) {
+        inFlight.add(page);
+        source.getPage(page, pageSize, new PageCallback(page, generation));
+    }
+
+    private void onPageArrived(int page, List<User> users, Response response) {
+        inFlight.remove(page);
+
+        final int next = LinkHeader.findPage(response.getHeaders(), LinkHeader.REL_NEXT);
+        final int last = LinkHeader.findPage(response.getHeaders(), LinkHeader.REL_LAST);
+        if (last > 0) {
+            lastPage = last;
+        } else if (next < 0) {
+            // No way forward, this is the end.
+            lastPage = page;
+        }
+        highestKnown = Math.max(highestKnown, next);
+
+        arrived.put(page, users);
+        while (arrived.containsKey(nextToDeliver)) {
+            final int deliver = nextToDeliver++;
+            listener.onPage(arrived.remove(deliver), deliver);
+        }
+        if (isComplete()) {
+            loadAll = false;
+            listener.onComplete();
+            return;
+        }
+        fill();
+    }
+
+    private void onPageFailed(int page, RetrofitError error) {
+        inFlight.remove(page);
+        loadAll = false;
+        listener.onFailure(error, page);
+    }
+
+    private class PageCallback implements Callback<List<User>> {
+        final int page;
+        final int generation;
+
+        PageCallback(int page, int generation) {
+            this.page = page;
+            this.generation = generation;
+        }
+
+        @Override
+        public void success(List<User> users, Response response) {
+            if (generation == UserPager.this.generation) {
+                onPageArrived(page, users, response);
+            }
+        }
+
+        @Override
+        public void failure(RetrofitError error) {
+            if (generation == UserPager.this.generation) {
+                onPageFailed(page, error);
+            }
+        }
+    }
+}
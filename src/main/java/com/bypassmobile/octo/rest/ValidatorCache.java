@@ -0,0 +1,172 @@
+package com.bypassmobile.octo.rest;
+
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import retrofit.client.Header;
+
+/**
+ * Remembers, per URL, the validators and headers of the last successful response along with the object
+ * it was converted to, so a conditional request answered with 304 Not Modified can hand back that
+ * object without downloading or parsing anything.
+ *
+ * Shared by a {@link ConditionalClient}, which sends the validators and sees the status, and a
+ * {@link ConditionalConverter}, which sees the converted object.  Retrofit gives the converter nothing
+ * but the body, so the client marks the body's mime type with the URL it came from.
+ */
+public class ValidatorCache {
+
+    private static final String URL_PARAM = "; x-octo-url=";
+    private static final String NOT_MODIFIED_PARAM = "; x-octo-not-modified";
+    private static final String ENCODING = "UTF-8";
+
+    private final LinkedHashMap<String, Entry> entries;
+
+    /**
+     * @param maxEntries
+     *      Maximum number of URLs to remember.  The least recently used one is forgotten first.  Must be
+     *      greater than 0.
+     */
+    public ValidatorCache(final int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("The maximum number of entries should be greater than 0.");
+        }
+        this.entries = new LinkedHashMap<String, Entry>(0, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ValidatorCache.Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Return the ETag of the last response for the URL, or null if there is none or the response was
+     * never converted.
+     */
+    public synchronized String getETag(String url) {
+        final Entry entry = entries.get(url);
+        return (entry != null && entry.hasBody) ? entry.eTag : null;
+    }
+
+    /**
+     * Return the Last-Modified date of the last response for the URL, or null if there is none or the
+     * response was never converted.
+     */
+    public synchronized String getLastModified(String url) {
+        final Entry entry = entries.get(url);
+        return (entry != null && entry.hasBody) ? entry.lastModified : null;
+    }
+
+    /**
+     * Return the converted body of the last response for the URL, or null if there is none.
+     */
+    public synchronized Object getBody(String url) {
+        final Entry entry = entries.get(url);
+        return (entry != null) ? entry.body : null;
+    }
+
+    /**
+     * Return the headers of the last response for the URL, or an empty list if there is none.  A 304
+     * need not repeat them, the Link header in particular.
+     */
+    public synchronized List<Header> getHeaders(String url) {
+        final Entry entry = entries.get(url);
+        return (entry != null) ? entry.headers : Collections.<Header>emptyList();
+    }
+
+    /**
+     * Record the validators and headers of a fresh response.  The validators are only sent once the
+     * body was converted too.
+     */
+    /* internal */ synchronized void putValidators(String url, String eTag, String lastModified, List<Header> headers) {
+        entries.put(url, new Entry(eTag, lastModified, headers));
+    }
+
+    /**
+     * Record the converted body of the response the validators were last recorded for.
+     */
+    /* internal */ synchronized void putBody(String url, Object body) {
+        final Entry entry = entries.get(url);
+        if (entry != null) {
+            entry.body = body;
+            entry.hasBody = true;
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Return the mime type marked with the URL the body was downloaded from.
+     */
+    /* internal */ static String markUrl(String mimeType, String url) {
+        return mimeType + URL_PARAM + encode(url);
+    }
+
+    /**
+     * Return the mime type of an empty body standing in for the cached body of the URL.
+     */
+    /* internal */ static String markNotModified(String mimeType, String url) {
+        return markUrl(mimeType, url) + NOT_MODIFIED_PARAM;
+    }
+
+    /**
+     * Return the URL the mime type was marked with, or null if it is not marked.
+     */
+    /* internal */ static String getMarkedUrl(String mimeType) {
+        if (mimeType == null) {
+            return null;
+        }
+        final int start = mimeType.indexOf(URL_PARAM);
+        if (start < 0) {
+            return null;
+        }
+        int end = mimeType.indexOf(';', start + URL_PARAM.length());
+        if (end < 0) {
+            end = mimeType.length();
+        }
+        return decode(mimeType.substring(start + URL_PARAM.length(), end));
+    }
+
+    /* internal */ static boolean isMarkedNotModified(String mimeType) {
+        return mimeType != null && mimeType.endsWith(NOT_MODIFIED_PARAM);
+    }
+
+    private static String encode(String url) {
+        try {
+            return URLEncoder.encode(url, ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String decode(String url) {
+        try {
+            return URLDecoder.decode(url, ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static final class Entry {
+        final String eTag;
+        final String lastModified;
+        final List<Header> headers;
+        Object body;
+        boolean hasBody;
+
+        Entry(String eTag, String lastModified, List<Header> headers) {
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.headers = Collections.unmodifiableList(new ArrayList<>(headers));
+        }
+    }
+}
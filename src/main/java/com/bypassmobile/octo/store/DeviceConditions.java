@@ -0,0 +1,73 @@
+package com.bypassmobile.octo.store;
+
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+
+/**
+ * {@link FollowingPrefetcher.Conditions} that only allow speculative work on an unmetered network,
+ * with the battery charging or reasonably full and battery saver off.
+ */
+public class DeviceConditions implements FollowingPrefetcher.Conditions {
+
+    /** Below this battery percentage nothing is prefetched unless the device is charging. */
+    private static final int MIN_BATTERY_PERCENT = 30;
+
+    private final Context context;
+
+    public DeviceConditions(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    @Override
+    public boolean allowsPrefetch() {
+        return isUnmetered() && isBatteryOk() && !isPowerSaveMode();
+    }
+
+    /**
+     * Return if the device is connected to a network the user does not pay for by the byte.
+     */
+    public boolean isUnmetered() {
+        final ConnectivityManager connectivity = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        final NetworkInfo network = connectivity.getActiveNetworkInfo();
+        if (network == null || !network.isConnected()) {
+            return false;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            return !connectivity.isActiveNetworkMetered();
+        }
+        return network.getType() == ConnectivityManager.TYPE_WIFI || network.getType() == ConnectivityManager.TYPE_ETHERNET;
+    }
+
+    /**
+     * Return if the device is charging or has enough battery left to spend some on prefetching.
+     */
+    public boolean isBatteryOk() {
+        // Sticky broadcast, no receiver is registered.
+        final Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery == null) {
+            return true;
+        }
+        if (battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0) {
+            return true;
+        }
+        final int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        final int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        return level < 0 || scale <= 0 || level * 100 / scale >= MIN_BATTERY_PERCENT;
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private boolean isPowerSaveMode() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return false;
+        }
+        return ((PowerManager) context.getSystemService(Context.POWER_SERVICE)).isPowerSaveMode();
+    }
+}
@@ -0,0 +1,322 @@
+package com.bypassmobile.octo.store;
+
+
+import android.content.Context;
+
+import com.bypassmobile.octo.image.AvatarUrls;
+import com.bypassmobile.octo.image.Clock;
+import com.bypassmobile.octo.image.ImageLoader;
+import com.bypassmobile.octo.model.User;
+import com.bypassmobile.octo.rest.CoalescingPageSource;
+import com.bypassmobile.octo.rest.EndpointProvider;
+import com.bypassmobile.octo.rest.GithubEndpoint;
+import com.bypassmobile.octo.rest.InFlightRequests;
+import com.bypassmobile.octo.rest.MetricsClient;
+import com.bypassmobile.octo.rest.RequestScheduler;
+import com.bypassmobile.octo.rest.UserPager;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import retrofit.Callback;
+import retrofit.RetrofitError;
+import retrofit.client.Response;
+
+/**
+ * Loads the first page of the following lists of the users on screen before anyone taps them, and puts
+ * it in the {@link UserStore} the list screen reads first.  A tap on a prefetched user shows the list
+ * right away, a tap while the prefetch is still running joins it through {@link InFlightRequests}.
+ *
+ * Prefetching is speculative, so it only runs while the {@link Conditions} allow it, only for the first
+ * few visible rows, only a couple at a time, and at {@link RequestScheduler.Priority#PREFETCH} so it
+ * never spends the rate limit a screen needs.
+ *
+ * Not thread safe, meant to be used and called back on the main thread.
+ */
+public class FollowingPrefetcher {
+
+    /** Number of visible rows, from the top, whose lists are prefetched. */
+    public static final int DEFAULT_ROWS = 3;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 2;
+    /** Number of avatars of a prefetched list to prefetch as well, about one screen. */
+    private static final int AVATARS_PER_LIST = 8;
+    /** Number of unused prefetches remembered for the metrics, the oldest one counts as wasted. */
+    private static final int MAX_TRACKED = 64;
+
+    private static FollowingPrefetcher singleton;
+
+    /**
+     * Whether the device is in a state to spend network and battery on work nobody asked for yet.
+     */
+    public interface Conditions {
+        boolean allowsPrefetch();
+    }
+
+    /**
+     * Loads an avatar into the image caches ahead of time.
+     */
+    public interface AvatarLoader {
+        void prefetch(String url);
+    }
+
+    private final GithubEndpoint endpoint;
+    private final RequestScheduler scheduler;
+    private final InFlightRequests requests;
+    private final UserStore store;
+    private final Conditions conditions;
+    private final AvatarLoader avatarLoader;
+    private final Clock clock;
+    private final long ttlMs;
+    private final int rows;
+    private final int maxInFlight;
+
+    /** Logins whose stored list is being checked for freshness. */
+    private final Set<String> checking = new HashSet<>();
+    /** Logins being prefetched. */
+    private final Set<String> pending = new HashSet<>();
+    /** Logins opened while their prefetch was still running. */
+    private final Set<String> openedWhilePending = new HashSet<>();
+    /** Prefetched lists nobody opened yet, oldest first. */
+    private final LinkedHashMap<String, Prefetched> unused = new LinkedHashMap<>();
+
+    private int prefetchCount;
+    private int hitCount;
+    private int failedCount;
+    private int skippedCount;
+    private long prefetchedBytes;
+    private long wastedBytes;
+
+    /**
+     * Return the process wide prefetcher.
+     */
+    public static synchronized FollowingPrefetcher getInstance(final Context context) {
+        if (singleton == null) {
+            final Context app = context.getApplicationContext();
+            singleton = new FollowingPrefetcher(EndpointProvider.getEndpoint(), EndpointProvider.getRequestScheduler(),
+                    InFlightRequests.getInstance(), UserStore.getInstance(app), new DeviceConditions(app),
+                    new AvatarLoader() {
+                        @Override
+                        public void prefetch(String url) {
+                            // Same size as the rows, so the list finds it in the memory cache.
+                            final AvatarUrls avatarUrls = ImageLoader.getAvatarUrls(app);
+                            ImageLoader.createImageLoader(app)
+                                    .load(avatarUrls.get(url))
+                                    .resize(avatarUrls.getWidthPx(), avatarUrls.getHeightPx())
+                                    .fetch();
+                        }
+                    }, Clock.WALL, UserStore.DEFAULT_TTL_MS, DEFAULT_ROWS, DEFAULT_MAX_IN_FLIGHT);
+        }
+        return singleton;
+    }
+
+    /**
+     * @param avatarLoader
+     *      Loads the first avatars of every prefetched list, or null to only prefetch the lists.
+     * @param ttlMs
+     *      How long a prefetched list is worth opening, after that it counts as wasted.
+     */
+    public FollowingPrefetcher(GithubEndpoint endpoint, RequestScheduler scheduler, InFlightRequests requests,
+                               UserStore store, Conditions conditions, AvatarLoader avatarLoader, Clock clock,
+                               long ttlMs, int rows, int maxInFlight) {
+        if (endpoint == null || scheduler == null || requests == null || store == null || conditions == null || clock == null) {
+            throw new IllegalArgumentException("Only the avatar loader may be null.");
+        }
+        if (rows <= 0 || maxInFlight <= 0) {
+            throw new IllegalArgumentException("The number of rows and requests in flight should be greater than 0.");
+        }
+        this.endpoint = endpoint;
+        this.scheduler = scheduler;
+        this.requests = requests;
+        this.store = store;
+        this.conditions = conditions;
+        this.avatarLoader = avatarLoader;
+        this.clock = clock;
+        this.ttlMs = ttlMs;
+        this.rows = rows;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Prefetch the lists of the first visible users that are not stored and fresh already.  The store is
+     * checked in the background, a check counts against the requests in flight until it answers.
+     *
+     * @param visible
+     *      The users on screen, top to bottom.
+     */
+    public void prefetch(List<User> visible) {
+        if (!conditions.allowsPrefetch()) {
+            skippedCount++;
+            return;
+        }
+        for (int i = 0; i < visible.size() && i < rows && hasRoom(); i++) {
+            final String login = visible.get(i).getName();
+            if (login == null || !isUnknown(login)) {
+                continue;
+            }
+            checking.add(login);
+            store.checkFresh(UserStore.followingKey(login), new UserStore.FreshnessListener() {
+                @Override
+                public void onChecked(boolean fresh) {
+                    checking.remove(login);
+                    // Things may have changed while the store was read.
+                    if (!fresh && isUnknown(login) && hasRoom() && conditions.allowsPrefetch()) {
+                        start(login);
+                    }
+                }
+            });
+        }
+    }
+
+    private boolean hasRoom() {
+        return pending.size() + checking.size() < maxInFlight;
+    }
+
+    private boolean isUnknown(String login) {
+        return !checking.contains(login) && !pending.contains(login) && !unused.containsKey(login);
+    }
+
+    /**
+     * Record that the list of the user was opened, for the hit ratio.
+     */
+    public void onOpened(String login) {
+        if (pending.contains(login)) {
+            openedWhilePending.add(login);
+            hitCount++;
+            return;
+        }
+        final Prefetched prefetched = unused.remove(login);
+        if (prefetched == null) {
+            return;
+        }
+        if (clock.millis() - prefetched.fetchedAtMs < ttlMs) {
+            hitCount++;
+        } else {
+            wastedBytes += prefetched.bytes;
+        }
+    }
+
+    /**
+     * Return the number of lists prefetched.
+     */
+    public int getPrefetchCount() {
+        return prefetchCount;
+    }
+
+    /**
+     * Return the number of prefetched lists that were opened while still fresh or still loading.
+     */
+    public int getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Return the fraction of prefetched lists that were opened, 0 if none were prefetched yet.
+     */
+    public float getHitRatio() {
+        return (prefetchCount == 0) ? 0 : hitCount / (float) prefetchCount;
+    }
+
+    /**
+     * Return the bytes downloaded for prefetched lists.
+     */
+    public long getPrefetchedBytes() {
+        return prefetchedBytes;
+    }
+
+    /**
+     * Return the bytes downloaded for prefetched lists that went stale or were forgotten before anyone
+     * opened them.
+     */
+    public long getWastedBytes() {
+        long expired = 0;
+        final long now = clock.millis();
+        for (Prefetched prefetched : unused.values()) {
+            if (now - prefetched.fetchedAtMs >= ttlMs) {
+                expired += prefetched.bytes;
+            }
+        }
+        return wastedBytes + expired;
+    }
+
+    public int getFailedCount() {
+        return failedCount;
+    }
+
+    /**
+     * Return the number of times prefetching was skipped because of the network or battery.
+     */
+    public int getSkippedCount() {
+        return skippedCount;
+    }
+
+    private void start(final String login) {
+        pending.add(login);
+        final CoalescingPageSource source = new CoalescingPageSource(new UserPager.PageSource() {
+            @Override
+            public void getPage(final int page, final int perPage, Callback<List<User>> callback) {
+                scheduler.schedule(RequestScheduler.Priority.PREFETCH, new InFlightRequests.Request<List<User>>() {
+                    @Override
+                    public void start(Callback<List<User>> callback) {
+                        endpoint.getFollowingUser(login, page, perPage, callback);
+                    }
+                }, callback);
+            }
+        }, UserStore.followingKey(login), requests);
+
+        // Same page the list screen asks for first, so a tap joins this request.
+        source.getPage(1, UserPager.DEFAULT_PAGE_SIZE, new Callback<List<User>>() {
+            @Override
+            public void success(List<User> users, Response response) {
+                pending.remove(login);
+                // Content-Length is missing for gzipped and chunked lists, count what was read.
+                final long bytes = MetricsClient.getBytesRead(response.getBody());
+                prefetchCount++;
+                prefetchedBytes += bytes;
+                store.save(UserStore.followingKey(login), users, UserPager.nextPageOf(response));
+                if (!openedWhilePending.remove(login)) {
+                    track(login, new Prefetched(bytes, clock.millis()));
+                }
+                if (avatarLoader != null) {
+                    for (int i = 0; i < users.size() && i < AVATARS_PER_LIST; i++) {
+                        if (users.get(i).getProfileURL() != null) {
+                            avatarLoader.prefetch(users.get(i).getProfileURL());
+                        }
+                    }
+                }
+            }
+
+            @Override
+            public void failure(RetrofitError error) {
+                pending.remove(login);
+                if (openedWhilePending.remove(login)) {
+                    // The screen that joined it gets the failure, not a list.
+                    hitCount--;
+                }
+                failedCount++;
+            }
+        });
+    }
+
+    private void track(String login, Prefetched prefetched) {
+        unused.put(login, prefetched);
+        final Iterator<Map.Entry<String, Prefetched>> it = unused.entrySet().iterator();
+        while (unused.size() > MAX_TRACKED && it.hasNext()) {
+            wastedBytes += it.next().getValue().bytes;
+            it.remove();
+        }
+    }
+
+    private static final class Prefetched {
+        final long bytes;
+        final long fetchedAtMs;
+
+        Prefetched(long bytes, long fetchedAtMs) {
+            this.bytes = bytes;
+            this.fetchedAtMs = fetchedAtMs;
+        }
+    }
+}
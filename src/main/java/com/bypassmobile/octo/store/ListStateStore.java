@@ -0,0 +1,100 @@
+package com.bypassmobile.octo.store;
+
+
+import com.bypassmobile.octo.model.User;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Process wide holder of the users shown by the lists on screen, so saved instance state only has to
+ * carry a short key instead of parceling every user on each configuration change.
+ *
+ * Nothing here survives the process.  A key from a previous process, or one that was evicted, simply
+ * finds nothing, and the screen reloads the list from the {@link UserStore} as it does on a cold start.
+ * Keys embed an ID unique to the store so they can never pick up another list after the process was
+ * recreated.
+ *
+ * Only the most recently saved lists are kept, lists are evicted least recently used first.
+ */
+public class ListStateStore {
+
+    /** Lists kept at most, a few screens deep on the back stack. */
+    public static final int DEFAULT_MAX_LISTS = 8;
+
+    private static ListStateStore singleton;
+
+    private final String storeId = UUID.randomUUID().toString();
+    private final LinkedHashMap<String, List<User>> lists;
+    private int nextKey;
+
+    /**
+     * Return the process wide store.
+     */
+    public static synchronized ListStateStore getInstance() {
+        if (singleton == null) {
+            singleton = new ListStateStore(DEFAULT_MAX_LISTS);
+        }
+        return singleton;
+    }
+
+    /**
+     * @param maxLists
+     *      Maximum number of lists to hold on to.  Must be greater than 0.
+     */
+    public ListStateStore(final int maxLists) {
+        if (maxLists <= 0) {
+            throw new IllegalArgumentException("The maximum number of lists should be greater than 0.");
+        }
+        this.lists = new LinkedHashMap<String, List<User>>(0, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<User>> eldest) {
+                return size() > maxLists;
+            }
+        };
+    }
+
+    /**
+     * Return a key no other list of this process uses.
+     */
+    public synchronized String newKey() {
+        return "list:" + storeId + ":" + (nextKey++);
+    }
+
+    /**
+     * Hold on to the users under the key, replacing whatever was held.  The list is kept as is, so it
+     * should not be modified afterwards.
+     */
+    public synchronized void put(String key, List<User> users) {
+        if (key == null || users == null) {
+            throw new IllegalArgumentException("Neither the key nor the users can be null.");
+        }
+        lists.put(key, users);
+    }
+
+    /**
+     * Return the users held under the key, or null if there are none, most likely because the process
+     * was recreated since they were put.
+     */
+    public synchronized List<User> get(String key) {
+        return (key != null) ? lists.get(key) : null;
+    }
+
+    /**
+     * Let go of the users held under the key, once nothing will restore them.
+     */
+    public synchronized void remove(String key) {
+        if (key != null) {
+            lists.remove(key);
+        }
+    }
+
+    /**
+     * Return the number of lists held.
+     */
+    public synchronized int size() {
+        return lists.size();
+    }
+}
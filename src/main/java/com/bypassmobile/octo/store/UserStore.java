@@ -0,0 +1,490 @@
+package com.bypassmobile.octo.store;
+
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.bypassmobile.octo.model.User;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import retrofit.android.MainThreadExecutor;
+
+/**
+ * Persistent store of the user lists the app has shown, so a screen can render right away from disk,
+ * even on a cold start, and only then reconcile with the network.
+ *
+ * Lists are keyed by what they list, see {@link #orgKey(String)} and {@link #followingKey(String)}.
+ * Users are stored once no matter how many lists they are in.  Every list remembers when it was
+ * fetched, and is considered fresh for a fixed time after that, and the page it continues at if only its
+ * first pages were loaded.
+ *
+ * Opening the database and reading a list of thousands of users is too slow for the main thread, so
+ * screens read with {@link #loadList(String, LoadListener)} and write with {@link #save(String, List, int)},
+ * both on a background thread.  A list loaded page by page is stored once and then only has each new
+ * page appended with {@link #savePage(String, List, int, int)}.  Users no list refers to anymore are
+ * deleted whenever a list is replaced.
+ */
+public class UserStore {
+
+    private static final String TAG = UserStore.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "users.db";
+    private static final int DATABASE_VERSION = 2;
+
+    /** How long a list is shown without checking the network. */
+    public static final long DEFAULT_TTL_MS = 60 * 60 * 1000; // 1 hour
+    /** Next page of a list that was stored with all its pages. */
+    public static final int COMPLETE = 0;
+
+    private static final String TABLE_USERS = "users";
+    private static final String TABLE_LISTS = "lists";
+    private static final String TABLE_LIST_USERS = "list_users";
+
+    private static final String COL_LOGIN = "login";
+    private static final String COL_AVATAR_URL = "avatar_url";
+    private static final String COL_LIST_KEY = "list_key";
+    private static final String COL_FETCHED_AT = "fetched_at";
+    private static final String COL_NEXT_PAGE = "next_page";
+    private static final String COL_POSITION = "position";
+
+    private static UserStore singleton;
+
+    private final OpenHelper helper;
+    private final long ttlMs;
+    private final Executor ioExecutor;
+    private final Executor mainExecutor;
+
+    /**
+     * Hears about a list read in the background.
+     */
+    public interface LoadListener {
+        /**
+         * @param snapshot
+         *      The stored list, or null if it was never stored or could not be read.
+         */
+        void onLoaded(Snapshot snapshot);
+    }
+
+    /**
+     * Hears whether a list is stored and fresh, checked in the background.
+     */
+    public interface FreshnessListener {
+        void onChecked(boolean fresh);
+    }
+
+    /**
+     * Return the process wide store.
+     */
+    public static synchronized UserStore getInstance(Context context) {
+        if (singleton == null) {
+            singleton = new UserStore(context.getApplicationContext(), DATABASE_NAME, DEFAULT_TTL_MS,
+                    Executors.newSingleThreadExecutor(), new MainThreadExecutor());
+        }
+        return singleton;
+    }
+
+    /**
+     * @param name
+     *      Name of the database file, or null for a database that only lives in memory.
+     * @param ttlMs
+     *      How long after it was fetched a list is considered fresh.
+     * @param ioExecutor
+     *      Executor {@link #loadList(String, LoadListener)} reads and {@link #save(String, List, int)} writes
+     *      on, one task at a time so reads see the writes before them.
+     * @param mainExecutor
+     *      Executor lists read in the background are handed over on, the main thread in the app.
+     */
+    public UserStore(Context context, String name, long ttlMs, Executor ioExecutor, Executor mainExecutor) {
+        if (ioExecutor == null || mainExecutor == null) {
+            throw new IllegalArgumentException("The io and main executors can not be null.");
+        }
+        this.helper = new OpenHelper(context, name);
+        this.ttlMs = ttlMs;
+        this.ioExecutor = ioExecutor;
+        this.mainExecutor = mainExecutor;
+    }
+
+    public static String orgKey(String organization) {
+        return "org:" + organization;
+    }
+
+    public static String followingKey(String login) {
+        return "following:" + login;
+    }
+
+    /**
+     * Read the stored list on a background thread and hand it to the listener on the main executor.
+     */
+    public void loadList(final String key, final LoadListener listener) {
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Snapshot snapshot;
+                try {
+                    snapshot = getList(key);
+                } catch (RuntimeException e) {
+                    // Only costs a network request.
+                    Log.w(TAG, "Unable to read " + key, e);
+                    snapshot = null;
+                }
+                final Snapshot loaded = snapshot;
+                mainExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onLoaded(loaded);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Check on a background thread whether the list is stored and fresh, without reading its users, and
+     * hand the answer to the listener on the main executor.  A list that can not be read is not fresh.
+     */
+    public void checkFresh(final String key, final FreshnessListener listener) {
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean fresh;
+                try {
+                    final long fetchedAt = getFetchedAt(helper.getReadableDatabase(), key);
+                    fresh = fetchedAt >= 0 && new Snapshot(null, fetchedAt, fetchedAt + ttlMs, COMPLETE).isFresh();
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "Unable to read " + key, e);
+                    fresh = false;
+                }
+                final boolean checked = fresh;
+                mainExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onChecked(checked);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Return the stored list right away, or null if it was never stored.  Not for the main thread, see
+     * {@link #loadList(String, LoadListener)}.
+     */
+    public Snapshot getList(String key) {
+        final SQLiteDatabase db = helper.getReadableDatabase();
+        final Cursor list = db.query(TABLE_LISTS, new String[]{COL_FETCHED_AT, COL_NEXT_PAGE},
+                COL_LIST_KEY + " = ?", new String[]{key}, null, null, null);
+        final long fetchedAt;
+        final int nextPage;
+        try {
+            if (!list.moveToFirst()) {
+                return null;
+            }
+            fetchedAt = list.getLong(0);
+            nextPage = list.getInt(1);
+        } finally {
+            list.close();
+        }
+
+        final Cursor cursor = db.rawQuery("SELECT u." + COL_LOGIN + ", u." + COL_AVATAR_URL
+                + " FROM " + TABLE_LIST_USERS + " l JOIN " + TABLE_USERS + " u ON l." + COL_LOGIN + " = u." + COL_LOGIN
+                + " WHERE l." + COL_LIST_KEY + " = ? ORDER BY l." + COL_POSITION, new String[]{key});
+        try {
+            final List<User> users = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                users.add(new User(cursor.getString(0), cursor.getString(1)));
+            }
+            return new Snapshot(Collections.unmodifiableList(users), fetchedAt, fetchedAt + ttlMs, nextPage);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Store the list on a background thread, replacing whatever was stored under the key.
+     *
+     * @param nextPage
+     *      Page the list continues at, or {@link #COMPLETE} if it holds every page.
+     */
+    public void save(final String key, List<User> users, final int nextPage) {
+        final List<User> copy = new ArrayList<>(users);
+        final long fetchedAt = System.currentTimeMillis();
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    putList(key, copy, nextPage, fetchedAt);
+                } catch (RuntimeException e) {
+                    // Only costs a network request next time.
+                    Log.w(TAG, "Unable to store " + key, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Store the list right away, replacing whatever was stored under the key.
+     *
+     * @param nextPage
+     *      Page the list continues at, or {@link #COMPLETE} if it holds every page.
+     * @param fetchedAt
+     *      Wall clock time in milliseconds the list was fetched at.
+     */
+    public void putList(String key, List<User> users, int nextPage, long fetchedAt) {
+        if (nextPage < COMPLETE) {
+            throw new IllegalArgumentException("The next page can not be negative.");
+        }
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(TABLE_LIST_USERS, COL_LIST_KEY + " = ?", new String[]{key});
+
+            final ContentValues list = new ContentValues(3);
+            list.put(COL_LIST_KEY, key);
+            list.put(COL_FETCHED_AT, fetchedAt);
+            list.put(COL_NEXT_PAGE, nextPage);
+            db.insertWithOnConflict(TABLE_LISTS, null, list, SQLiteDatabase.CONFLICT_REPLACE);
+
+            insertUsers(db, key, users, 0);
+            // Users only the old list had.
+            db.delete(TABLE_USERS, COL_LOGIN + " NOT IN (SELECT " + COL_LOGIN + " FROM " + TABLE_LIST_USERS + ")", null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Append a page to the stored list on a background thread, see
+     * {@link #putPage(String, List, int, int)}.
+     */
+    public void savePage(final String key, List<User> users, final int page, final int nextPage) {
+        final List<User> copy = new ArrayList<>(users);
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!putPage(key, copy, page, nextPage)) {
+                        Log.w(TAG, "Not appending page " + page + " to " + key + ", it does not continue there");
+                    }
+                } catch (RuntimeException e) {
+                    // Only costs a network request next time.
+                    Log.w(TAG, "Unable to store " + key, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Append a page to the stored list right away, writing only the users of that page.  The list keeps
+     * the time it was fetched at, that of its first page.
+     *
+     * @param page
+     *      The page the users are on.  Nothing is stored unless the stored list continues at it.
+     * @param nextPage
+     *      Page the list continues at after this one, or {@link #COMPLETE} if it was the last.
+     * @return
+     *      True if the page was appended.
+     */
+    public boolean putPage(String key, List<User> users, int page, int nextPage) {
+        if (page <= COMPLETE) {
+            throw new IllegalArgumentException("The page should be greater than " + COMPLETE + ".");
+        }
+        if (nextPage < COMPLETE) {
+            throw new IllegalArgumentException("The next page can not be negative.");
+        }
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            final Cursor list = db.query(TABLE_LISTS, new String[]{COL_NEXT_PAGE},
+                    COL_LIST_KEY + " = ?", new String[]{key}, null, null, null);
+            try {
+                if (!list.moveToFirst() || list.getInt(0) != page) {
+                    return false;
+                }
+            } finally {
+                list.close();
+            }
+
+            final ContentValues next = new ContentValues(1);
+            next.put(COL_NEXT_PAGE, nextPage);
+            db.update(TABLE_LISTS, next, COL_LIST_KEY + " = ?", new String[]{key});
+            insertUsers(db, key, users, (int) DatabaseUtils.queryNumEntries(db, TABLE_LIST_USERS,
+                    COL_LIST_KEY + " = ?", new String[]{key}));
+            db.setTransactionSuccessful();
+            return true;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Return the number of users stored, whatever list they are in.
+     */
+    public long getUserCount() {
+        return DatabaseUtils.queryNumEntries(helper.getReadableDatabase(), TABLE_USERS);
+    }
+
+    /**
+     * Drop every stored list and user.
+     */
+    public void clear() {
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(TABLE_LIST_USERS, null, null);
+            db.delete(TABLE_LISTS, null, null);
+            db.delete(TABLE_USERS, null, null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    public void close() {
+        helper.close();
+    }
+
+    /**
+     * Return when the list was fetched, or -1 if it was never stored.
+     */
+    private static long getFetchedAt(SQLiteDatabase db, String key) {
+        final Cursor list = db.query(TABLE_LISTS, new String[]{COL_FETCHED_AT},
+                COL_LIST_KEY + " = ?", new String[]{key}, null, null, null);
+        try {
+            return list.moveToFirst() ? list.getLong(0) : -1;
+        } finally {
+            list.close();
+        }
+    }
+
+    /**
+     * Insert the users, and add them to the list from the position on.
+     */
+    private static void insertUsers(SQLiteDatabase db, String key, List<User> users, int position) {
+        final SQLiteStatement insertUser = db.compileStatement("INSERT OR REPLACE INTO " + TABLE_USERS
+                + " (" + COL_LOGIN + ", " + COL_AVATAR_URL + ") VALUES (?, ?)");
+        final SQLiteStatement insertEntry = db.compileStatement("INSERT OR REPLACE INTO " + TABLE_LIST_USERS
+                + " (" + COL_LIST_KEY + ", " + COL_POSITION + ", " + COL_LOGIN + ") VALUES (?, ?, ?)");
+        try {
+            for (int i = 0; i < users.size(); i++) {
+                final User user = users.get(i);
+                insertUser.bindString(1, user.getName());
+                bindNullable(insertUser, 2, user.getProfileURL());
+                insertUser.executeInsert();
+
+                insertEntry.bindString(1, key);
+                insertEntry.bindLong(2, position + i);
+                insertEntry.bindString(3, user.getName());
+                insertEntry.executeInsert();
+            }
+        } finally {
+            insertUser.close();
+            insertEntry.close();
+        }
+    }
+
+    private static void bindNullable(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    /**
+     * A stored list, when it was fetched and where it continues.
+     */
+    public static class Snapshot {
+        private final List<User> users;
+        private final long fetchedAt;
+        private final long freshUntil;
+        private final int nextPage;
+
+        /* internal */ Snapshot(List<User> users, long fetchedAt, long freshUntil, int nextPage) {
+            this.users = users;
+            this.fetchedAt = fetchedAt;
+            this.freshUntil = freshUntil;
+            this.nextPage = nextPage;
+        }
+
+        /**
+         * Return the users in the order they were stored.  The list can not be modified.
+         */
+        public List<User> getUsers() {
+            return users;
+        }
+
+        /**
+         * Return the wall clock time in milliseconds the list was fetched at.
+         */
+        public long getFetchedAt() {
+            return fetchedAt;
+        }
+
+        /**
+         * Return the page the list continues at, or {@link #COMPLETE} if it was stored with every page.
+         */
+        public int getNextPage() {
+            return nextPage;
+        }
+
+        public boolean isComplete() {
+            return nextPage == COMPLETE;
+        }
+
+        /**
+         * Return if the list is recent enough to show without checking the network.
+         */
+        public boolean isFresh() {
+            return isFresh(System.currentTimeMillis());
+        }
+
+        /* internal */ boolean isFresh(long now) {
+            // A clock that went backwards makes the list look newer than it is, don't trust it.
+            return now >= fetchedAt && now < freshUntil;
+        }
+    }
+
+    private static class OpenHelper extends SQLiteOpenHelper {
+
+        OpenHelper(Context context, String name) {
+            super(context, name, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE_USERS + " ("
+                    + COL_LOGIN + " TEXT PRIMARY KEY, "
+                    + COL_AVATAR_URL + " TEXT)");
+            db.execSQL("CREATE TABLE " + TABLE_LISTS + " ("
+                    + COL_LIST_KEY + " TEXT PRIMARY KEY, "
+                    + COL_FETCHED_AT + " INTEGER NOT NULL, "
+                + COL_NEXT_PAGE + " INTEGER NOT NULL DEFAULT " + COMPLETE + ")");
+            db.execSQL("CREATE TABLE " + TABLE_LIST_USERS + " ("
+                    + COL_LIST_KEY + " TEXT NOT NULL, "
+                    + COL_POSITION + " INTEGER NOT NULL, "
+                    + COL_LOGIN + " TEXT NOT NULL, "
+                    + "PRIMARY KEY (" + COL_LIST_KEY + ", " + COL_POSITION + "))");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // Only a cache of what the API returns, start over.
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_LIST_USERS);
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_LISTS);
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_USERS);
+            onCreate(db);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.bypassmobile.octo;
+
+import android.widget.ImageView;
+
+import com.squareup.picasso.Callback;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest= Config.NONE)
+public class ListAvatarLoaderTest {
+
+    FakeImages images;
+    ListAvatarLoader loader;
+
+    @Before
+    public void setUp() {
+        images = new FakeImages();
+        loader = new ListAvatarLoader(images);
+    }
+
+    @Test
+    public void loadsRightAwayAtRest() {
+        final ImageView row = view();
+        loader.bind(row, "https://avatars/1");
+        assertThat(images.loaded, equalTo(Arrays.asList("https://avatars/1")));
+
+        // Bound again to the same avatar, nothing new to load.
+        loader.bind(row, "https://avatars/1");
+        assertThat(images.loaded.size(), equalTo(1));
+    }
+
+    @Test
+    public void holdsBackDuringFlingAndLoadsOnScreenFirst() {
+        final ImageView offScreen = view();
+        final ImageView top = view();
+        final ImageView bottom = view();
+        final ImageView cached = view();
+        images.inMemory.add("https://avatars/cached");
+
+        loader.pause();
+        loader.bind(offScreen, "https://avatars/off");
+        loader.bind(bottom, "https://avatars/bottom");
+        loader.bind(top, "https://avatars/top");
+        loader.bind(cached, "https://avatars/cached");
+        // Only the one that costs nothing to show.
+        assertThat(images.loaded, equalTo(Arrays.asList("https://avatars/cached")));
+        assertThat(images.placeholders, equalTo(3));
+
+        loader.resume(Arrays.asList(top, bottom));
+        assertThat(images.loaded, equalTo(Arrays.asList(
+                "https://avatars/cached", "https://avatars/top", "https://avatars/bottom", "https://avatars/off")));
+        assertThat(loader.isPaused(), equalTo(false));
+    }
+
+    @Test
+    public void recycledRowsDoNotLoad() {
+        final ImageView flownPast = view();
+        final ImageView running = view();
+        final ImageView done = view();
+
+        loader.bind(running, "https://avatars/running");
+        loader.bind(done, "https://avatars/done");
+        images.finish(done);
+
+        loader.pause();
+        loader.bind(flownPast, "https://avatars/1");
+        // Rebound to someone else before the list came to rest.
+        loader.bind(flownPast, "https://avatars/2");
+        loader.unbind(flownPast);
+        loader.unbind(running);
+        loader.unbind(done);
+        loader.resume(Collections.<ImageView>emptyList());
+
+        assertThat(images.loaded, equalTo(Arrays.asList("https://avatars/running", "https://avatars/done")));
+        assertThat(images.cancelled, equalTo(Arrays.asList(running)));
+        assertThat(loader.getSkippedCount(), equalTo(2));
+        assertThat(loader.getCancelledCount(), equalTo(1));
+        assertThat(loader.getDecodesAvoided(), equalTo(3));
+    }
+
+    @Test
+    public void flingOverALongList() {
+        // A screen of 8 rows flung through 200 users, the views recycled as they go.
+        final List<ImageView> pool = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            pool.add(view());
+        }
+        final int before = ListAvatarLoader.getSessionDecodesAvoided();
+
+        loader.pause();
+        for (int position = 0; position < 200; position++) {
+            final ImageView row = pool.get(position % pool.size());
+            loader.unbind(row);
+            loader.bind(row, "https://avatars/" + position);
+        }
+        final List<ImageView> onScreen = new ArrayList<>();
+        for (int position = 192; position < 200; position++) {
+            onScreen.add(pool.get(position % pool.size()));
+        }
+        loader.resume(onScreen);
+
+        // Only the rows the fling stopped on, and the two spares still bound, are loaded.
+        assertThat(images.loaded.size(), equalTo(10));
+        assertThat(images.loaded.get(0), equalTo("https://avatars/192"));
+        assertThat(loader.getDecodesAvoided(), equalTo(190));
+        assertThat(ListAvatarLoader.getSessionDecodesAvoided() - before, equalTo(190));
+    }
+
+    private static ImageView view() {
+        return new ImageView(RuntimeEnvironment.application);
+    }
+
+    private static class FakeImages implements ListAvatarLoader.Images {
+        final Set<String> inMemory = new HashSet<>();
+        final List<String> loaded = new ArrayList<>();
+        final List<ImageView> cancelled = new ArrayList<>();
+        final Map<ImageView, Callback> running = new HashMap<>();
+        int placeholders;
+
+        @Override
+        public boolean isInMemory(String url) {
+            return inMemory.contains(url);
+        }
+
+        @Override
+        public void load(String url, ImageView view, Callback callback) {
+            loaded.add(url);
+            running.put(view, callback);
+        }
+
+        @Override
+        public void cancel(ImageView view) {
+            cancelled.add(view);
+            running.remove(view);
+        }
+
+        @Override
+        public void showPlaceholder(ImageView view) {
+            placeholders++;
+        }
+
+        void finish(ImageView view) {
+            running.remove(view).onSuccess();
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package com.bypassmobile.octo;
+
+import android.os.Bundle;
+import android.support.v7.widget.RecyclerView;
+
+import com.bypassmobile.octo.model.User;
+import com.bypassmobile.octo.store.ListStateStore;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest= Config.NONE)
+public class UserAdapterTest {
+
+    static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    UserAdapter adapter;
+    BindingList rows;
+
+    @Before
+    public void setUp() {
+        adapter = new UserAdapter(null, null, DIRECT, DIRECT);
+        rows = new BindingList(adapter);
+    }
+
+    @Test
+    public void idsAreStableAcrossPositions() {
+        adapter.replaceAll(users(0, 3));
+        assertThat(adapter.hasStableIds(), equalTo(true));
+        final long id = adapter.getItemId(1);
+
+        final List<User> shifted = users(100, 1);
+        shifted.addAll(users(0, 3));
+        adapter.replaceAll(shifted);
+        assertThat(adapter.getItemId(2), equalTo(id));
+        assertThat(adapter.getItemId(0), not(equalTo(id)));
+        assertThat(UserAdapter.stableId(new User("user1", "https://avatars/other")), equalTo(id));
+    }
+
+    @Test
+    public void appendingBindsOnlyThePage() {
+        adapter.addAll(users(0, 50));
+        assertThat(rows.takeBinds(), equalTo(50));
+
+        adapter.addAll(users(50, 50));
+        assertThat(rows.takeBinds(), equalTo(50));
+        rows.assertShows(users(0, 100));
+    }
+
+    @Test
+    public void restoredUsersAreNotListedTwice() {
+        final Bundle state = new Bundle();
+        adapter.addAll(users(0, 50));
+        adapter.onSaveInstanceState(state);
+
+        final UserAdapter restored = new UserAdapter(null, null, DIRECT, DIRECT);
+        final BindingList restoredRows = new BindingList(restored);
+        restored.onRestoreState(state);
+        // The first page comes in again from the network.
+        restored.addAll(users(0, 50));
+        restored.addAll(users(50, 50));
+        assertThat(restored.getCount(), equalTo(100));
+        restoredRows.assertShows(users(0, 100));
+    }
+
+    @Test
+    public void restoresFiftyThousandUsersFromAKey() {
+        final ListStateStore states = new ListStateStore(ListStateStore.DEFAULT_MAX_LISTS);
+        final UserAdapter large = new UserAdapter(null, null, states, DIRECT, DIRECT);
+        large.addAll(users(0, 50000));
+
+        final Bundle state = new Bundle();
+        large.onSaveInstanceState(state);
+        // Only the key goes into the bundle, however many users there are.
+        assertThat(state.size(), equalTo(1));
+        assertThat(states.size(), equalTo(1));
+
+        final UserAdapter restored = new UserAdapter(null, null, states, DIRECT, DIRECT);
+        assertThat(restored.onRestoreState(state), equalTo(true));
+        assertThat(restored.getCount(), equalTo(50000));
+        assertThat(restored.getItemCount(), equalTo(50000));
+        assertThat(restored.getRange(0, 1).get(0).getName(), equalTo("user0"));
+        assertThat(restored.getRange(49999, 50000).get(0).getName(), equalTo("user49999"));
+
+        // Recreated again, the list keeps its key rather than piling up copies.
+        restored.addAll(users(50000, 10));
+        final Bundle again = new Bundle();
+        restored.onSaveInstanceState(again);
+        assertThat(again.getString("savedUsersKey"), equalTo(state.getString("savedUsersKey")));
+        assertThat(states.size(), equalTo(1));
+        assertThat(states.get(again.getString("savedUsersKey")).size(), equalTo(50010));
+
+        restored.releaseState();
+        assertThat(states.size(), equalTo(0));
+    }
+
+    @Test
+    public void restoreAfterProcessDeathLoadsAgain() {
+        final Bundle state = new Bundle();
+        new UserAdapter(null, null, new ListStateStore(1), DIRECT, DIRECT).onSaveInstanceState(state);
+
+        // A new process has a new, empty store.
+        final UserAdapter restored = new UserAdapter(null, null, new ListStateStore(1), DIRECT, DIRECT);
+        assertThat(restored.onRestoreState(state), equalTo(false));
+        assertThat(restored.isEmpty(), equalTo(true));
+        assertThat(restored.onRestoreState(null), equalTo(false));
+
+        // Loaded again, the users are saved under the key the bundle already has.
+        restored.replaceAll(users(0, 10));
+        final Bundle again = new Bundle();
+        restored.onSaveInstanceState(again);
+        assertThat(again.getString("savedUsersKey"), equalTo(state.getString("savedUsersKey")));
+    }
+
+    @Test
+    public void refreshBindsOnlyWhatChanged() {
+        adapter.replaceAll(users(0, 1000));
+        rows.takeBinds();
+
+        // The same list again, nothing to do.
+        adapter.replaceAll(users(0, 1000));
+        assertThat(rows.takeBinds(), equalTo(0));
+
+        // Ten new avatars.
+        final List<User> refreshed = users(0, 1000);
+        for (int i = 0; i < 10; i++) {
+            refreshed.set(i * 100, new User("user" + (i * 100), "https://avatars/new/" + i));
+        }
+        adapter.replaceAll(refreshed);
+        assertThat(rows.takeBinds(), equalTo(10));
+        rows.assertShows(refreshed);
+
+        // Someone new at the top and someone gone from the middle.
+        refreshed.remove(500);
+        refreshed.add(0, new User("newcomer", "https://avatars/newcomer"));
+        adapter.replaceAll(refreshed);
+        assertThat(rows.takeBinds(), equalTo(1));
+        assertThat(rows.removed, equalTo(1));
+        rows.assertShows(refreshed);
+    }
+
+    @Test
+    public void diffRunsOffTheMainThread() {
+        final QueueExecutor background = new QueueExecutor();
+        final QueueExecutor main = new QueueExecutor();
+        adapter = new UserAdapter(null, null, background, main);
+        rows = new BindingList(adapter);
+        adapter.replaceAll(users(0, 10));
+
+        final List<User> refreshed = users(5, 10);
+        adapter.replaceAll(refreshed);
+        // Callers already see the new list, the rows wait for the diff.
+        assertThat(adapter.getCount(), equalTo(10));
+        rows.assertShows(users(0, 10));
+
+        // Paging in while the diff runs makes it out of date, only the newer one is applied.
+        adapter.addAll(users(15, 5));
+        assertThat(adapter.getCount(), equalTo(15));
+        background.runAll();
+        assertThat(main.size(), equalTo(2));
+        main.runAll();
+
+        final List<User> expected = users(5, 15);
+        rows.assertShows(expected);
+        assertThat(rows.takeBinds(), equalTo(10 + 10));
+    }
+
+    @Test
+    public void diffMatchesRandomEdits() {
+        final Random random = new Random(7);
+        for (int round = 0; round < 200; round++) {
+            final List<User> before = users(0, random.nextInt(60));
+            final List<User> after = new ArrayList<>(before);
+            final int edits = random.nextInt(10);
+            for (int e = 0; e < edits; e++) {
+                final int op = random.nextInt(4);
+                if (op == 0 || after.isEmpty()) {
+                    after.add(random.nextInt(after.size() + 1), new User("new" + round + "_" + e, "https://avatars/n"));
+                } else if (op == 1) {
+                    after.remove(random.nextInt(after.size()));
+                } else if (op == 2) {
+                    final int i = random.nextInt(after.size());
+                    after.set(i, new User(after.get(i).getName(), "https://avatars/changed" + e));
+                } else {
+                    after.add(random.nextInt(after.size()), after.remove(random.nextInt(after.size())));
+                }
+            }
+            if (random.nextInt(10) == 0) {
+                Collections.shuffle(after, random);
+            }
+
+            adapter = new UserAdapter(null, null, DIRECT, DIRECT);
+            adapter.replaceAll(before);
+            rows = new BindingList(adapter);
+            rows.resetTo(before);
+            adapter.replaceAll(after);
+            rows.assertShows(after);
+        }
+    }
+
+    private static List<User> users(int from, int count) {
+        final List<User> users = new ArrayList<>(count);
+        for (int i = from; i < from + count; i++) {
+            users.add(new User("user" + i, "https://avatars/" + i));
+        }
+        return users;
+    }
+
+    /**
+     * Stands in for a RecyclerView tall enough to show every row.  Like the real one it only marks rows
+     * while it is notified and binds them against the final list on the next layout.
+     */
+    private static class BindingList extends RecyclerView.AdapterDataObserver {
+        /** Marks a row that has to be bound on the next layout. */
+        static final User DIRTY = new User(null, null);
+
+        final UserAdapter adapter;
+        final List<User> bound = new ArrayList<>();
+        int binds;
+        int removed;
+
+        BindingList(UserAdapter adapter) {
+            this.adapter = adapter;
+            adapter.registerAdapterDataObserver(this);
+        }
+
+        void resetTo(List<User> users) {
+            bound.clear();
+            bound.addAll(users);
+        }
+
+        int takeBinds() {
+            layout();
+            final int taken = binds;
+            binds = 0;
+            return taken;
+        }
+
+        void assertShows(List<User> users) {
+            layout();
+            assertThat(bound.size(), equalTo(users.size()));
+            assertThat(adapter.getItemCount(), equalTo(users.size()));
+            for (int i = 0; i < users.size(); i++) {
+                assertThat(bound.get(i).getName(), equalTo(users.get(i).getName()));
+                assertThat(bound.get(i).getProfileURL(), equalTo(users.get(i).getProfileURL()));
+            }
+        }
+
+        private void layout() {
+            for (int i = 0; i < bound.size(); i++) {
+                if (bound.get(i) == DIRTY) {
+                    binds++;
+                    bound.set(i, adapter.getRange(i, i + 1).get(0));
+                }
+            }
+        }
+
+        @Override
+        public void onChanged() {
+            bound.clear();
+            for (int i = 0; i < adapter.getItemCount(); i++) {
+                bound.add(DIRTY);
+            }
+        }
+
+        @Override
+        public void onItemRangeChanged(int start, int count) {
+            for (int i = start; i < start + count; i++) {
+                bound.set(i, DIRTY);
+            }
+        }
+
+        @Override
+        public void onItemRangeInserted(int start, int count) {
+            for (int i = 0; i < count; i++) {
+                bound.add(start, DIRTY);
+            }
+        }
+
+        @Override
+        public void onItemRangeRemoved(int start, int count) {
+            for (int i = 0; i < count; i++) {
+                bound.remove(start);
+            }
+            removed += count;
+        }
+    }
+
+    private static class QueueExecutor implements Executor {
+        private final Queue<Runnable> queue = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable command) {
+            queue.add(command);
+        }
+
+        int size() {
+            return queue.size();
+        }
+
+        void runAll() {
+            while (!queue.isEmpty()) {
+                queue.poll().run();
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.bypassmobile.octo;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest= Config.NONE)
+public class UtilsTest {
+
+    static final int MEGABYTE = 1024 * 1024;
+
+    @Test
+    public void memoryCacheBudgetFollowsHeap() {
+        assertThat(Utils.calculateMemoryCacheSizeBytes(64, false, false), equalTo(64 * MEGABYTE / 7));
+        assertThat(Utils.calculateMemoryCacheSizeBytes(64, false, true), equalTo(64 * MEGABYTE / 10));
+
+        // Capped, higher for large heaps.
+        assertThat(Utils.calculateMemoryCacheSizeBytes(256, false, false), equalTo(30 * MEGABYTE));
+        assertThat(Utils.calculateMemoryCacheSizeBytes(256, true, false), equalTo(256 * MEGABYTE / 7));
+        assertThat(Utils.calculateMemoryCacheSizeBytes(512, true, false), equalTo(64 * MEGABYTE));
+    }
+}
@@ -0,0 +1,109 @@
+package com.bypassmobile.octo.image;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest= Config.NONE)
+public class AvatarUrlsTest {
+
+    static final String AVATAR = "https://avatars.githubusercontent.com/u/583231";
+
+    @Test
+    public void addsSizeParameter() {
+        // 48dp at mdpi, xhdpi and xxhdpi.
+        assertThat(new AvatarUrls(48, 48).get(AVATAR), equalTo(AVATAR + "?s=48"));
+        assertThat(new AvatarUrls(96, 96).get(AVATAR), equalTo(AVATAR + "?s=96"));
+        assertThat(new AvatarUrls(144, 144).get(AVATAR), equalTo(AVATAR + "?s=144"));
+
+        // Other parameters are kept, the size always comes last.
+        assertThat(new AvatarUrls(96, 96).get(AVATAR + "?v=3"), equalTo(AVATAR + "?v=3&s=96"));
+    }
+
+    @Test
+    public void roundsUpToSizeSteps() {
+        // 48dp at hdpi, the larger side decides.
+        final AvatarUrls urls = new AvatarUrls(72, 60);
+        assertThat(urls.getRequestPx(), equalTo(80));
+        assertThat(urls.get(AVATAR), equalTo(AVATAR + "?s=80"));
+        assertThat(urls.getWidthPx(), equalTo(72));
+        assertThat(urls.getHeightPx(), equalTo(60));
+
+        assertThat(AvatarUrls.stepFor(1), equalTo(32));
+        assertThat(AvatarUrls.stepFor(48), equalTo(48));
+        assertThat(AvatarUrls.stepFor(49), equalTo(64));
+        assertThat(AvatarUrls.stepFor(5000), equalTo(460));
+    }
+
+    @Test
+    public void normalizesUrls() {
+        final AvatarUrls urls = new AvatarUrls(96, 96);
+        final String expected = AVATAR + "?a=1&v=3&s=96";
+        assertThat(urls.get(AVATAR + "?v=3&a=1"), equalTo(expected));
+        assertThat(urls.get("HTTPS://Avatars.GitHubUserContent.com/u/583231?a=1&v=3"), equalTo(expected));
+        assertThat(urls.get(AVATAR + "?s=460&v=3&a=1"), equalTo(expected));
+        assertThat(urls.get(AVATAR + "?size=20&a=1&v=3#top"), equalTo(expected));
+        assertThat(urls.get(" " + AVATAR + "?v=3&a=1 "), equalTo(expected));
+    }
+
+    @Test
+    public void recognizesItsOwnUrls() {
+        final AvatarUrls urls = new AvatarUrls(96, 96);
+        assertThat(urls.isAvatar(urls.get(AVATAR + "?v=3")), equalTo(true));
+        // Another size, not normalized, or not an avatar at all.
+        assertThat(urls.isAvatar(new AvatarUrls(48, 48).get(AVATAR)), equalTo(false));
+        assertThat(urls.isAvatar(AVATAR + "?s=96&v=3"), equalTo(false));
+        assertThat(urls.isAvatar("https://github.com/images/logo.png"), equalTo(false));
+        assertThat(urls.isAvatar(null), equalTo(false));
+    }
+
+    @Test
+    public void leavesOtherUrlsAlone() {
+        final AvatarUrls urls = new AvatarUrls(96, 96);
+        assertThat(urls.get(null), nullValue());
+        assertThat(urls.get("file:///sdcard/avatar.png"), equalTo("file:///sdcard/avatar.png"));
+        assertThat(urls.get("avatar.png"), equalTo("avatar.png"));
+    }
+
+    @Test
+    public void sharesCacheKeysWhenSizesMatch() {
+        // The toolbar and the rows each build their own urls from the same dimensions.
+        final AvatarUrls toolbar = new AvatarUrls(144, 144);
+        final AvatarUrls list = new AvatarUrls(144, 144);
+        final String fromToolbar = toolbar.get(AVATAR + "?v=3");
+        final String fromList = list.get(AVATAR + "?v=3&s=40");
+        assertThat(fromToolbar, equalTo(fromList));
+        assertThat(DiskImageCache.hashKey(fromToolbar), equalTo(DiskImageCache.hashKey(fromList)));
+        assertThat(memoryKey(toolbar, fromToolbar), equalTo(memoryKey(list, fromList)));
+
+        // Slightly different sizes still share the download, only the decoded bitmaps differ.
+        final AvatarUrls smaller = new AvatarUrls(130, 130);
+        assertThat(smaller.get(AVATAR + "?v=3"), equalTo(fromToolbar));
+        assertThat(memoryKey(smaller, fromToolbar), not(equalTo(memoryKey(toolbar, fromToolbar))));
+
+        // A different size is a different image.
+        assertThat(new AvatarUrls(48, 48).get(AVATAR + "?v=3"), not(equalTo(fromToolbar)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptySize() {
+        new AvatarUrls(0, 48);
+    }
+
+    /**
+     * The key Picasso caches a resized image under.
+     */
+    private static String memoryKey(AvatarUrls urls, String url) {
+        return url + "\nresize:" + urls.getWidthPx() + "x" + urls.getHeightPx() + "\n";
+    }
+}
@@ -0,0 +1,82 @@
+package com.bypassmobile.octo.image;
+
+import android.graphics.Bitmap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+/**
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest= Config.NONE)
+public class BitmapPoolTest {
+
+    static final int MEGABYTE = 1024 * 1024;
+
+    @Test
+    public void reusesMatchingBitmaps() {
+        BitmapPool pool = new BitmapPool(MEGABYTE);
+        assertThat(pool.get(100, 100, Bitmap.Config.ARGB_8888), nullValue());
+
+        final Bitmap bitmap = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888);
+        assertThat(pool.put(bitmap), equalTo(true));
+        assertThat(pool.getCurrSizeBytes(), equalTo(bitmap.getByteCount()));
+
+        // Only an exact match can be decoded into.
+        assertThat(pool.get(100, 50, Bitmap.Config.ARGB_8888), nullValue());
+        assertThat(pool.get(100, 100, Bitmap.Config.RGB_565), nullValue());
+        assertThat(pool.get(100, 100, Bitmap.Config.ARGB_8888), sameInstance(bitmap));
+        assertThat(pool.get(100, 100, Bitmap.Config.ARGB_8888), nullValue());
+
+        assertThat(pool.getCurrSizeBytes(), equalTo(0));
+        assertThat(pool.getHitCount(), equalTo(1));
+        assertThat(pool.getMissCount(), equalTo(4));
+        assertThat(pool.getHitRate(), equalTo(0.2f));
+        assertThat(pool.getBytesReused(), equalTo((long) bitmap.getByteCount()));
+    }
+
+    @Test
+    public void rejectsBitmapsThatCanNotBeReused() {
+        BitmapPool pool = new BitmapPool(MEGABYTE);
+        assertThat(pool.put(null), equalTo(false));
+
+        final Bitmap recycled = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888);
+        recycled.recycle();
+        assertThat(pool.put(recycled), equalTo(false));
+
+        assertThat(pool.put(Bitmap.createBitmap(1024, 1024, Bitmap.Config.ARGB_8888)), equalTo(false));
+        assertThat(pool.getCurrSizeBytes(), equalTo(0));
+    }
+
+    @Test
+    public void staysWithinBudget() {
+        final Bitmap small = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888);
+        final int bitmapSize = small.getByteCount();
+        BitmapPool pool = new BitmapPool(bitmapSize * 3);
+
+        pool.put(small);
+        pool.put(Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888));
+        pool.put(Bitmap.createBitmap(50, 200, Bitmap.Config.ARGB_8888));
+        pool.get(100, 100, Bitmap.Config.ARGB_8888); // touch the 100x100 size
+        pool.put(Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888));
+        pool.put(Bitmap.createBitmap(200, 50, Bitmap.Config.ARGB_8888));
+
+        // The least recently used size went first.
+        assertThat(pool.getCurrSizeBytes(), lessThanOrEqualTo(pool.getMaxSizeBytes()));
+        assertThat(pool.getEvictionCount(), equalTo(1));
+        assertThat(pool.get(50, 200, Bitmap.Config.ARGB_8888), nullValue());
+
+        pool.trimToSize(0);
+        assertThat(pool.getCurrSizeBytes(), equalTo(0));
+        assertThat(pool.get(100, 100, Bitmap.Config.ARGB_8888), nullValue());
+    }
+}
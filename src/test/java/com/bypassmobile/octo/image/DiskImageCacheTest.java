@@ -0,0 +1,223 @@
+package com.bypassmobile.octo.image;
+
+import android.net.Uri;
+
+import com.squareup.picasso.Downloader;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+/**
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest= Config.NONE)
+public class DiskImageCacheTest {
+
+    static final int KILOBYTE = 1024;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void putAndGet() throws IOException {
+        DiskImageCache cache = new DiskImageCache(tempFolder.getRoot(), KILOBYTE * 10);
+        assertThat(cache.get("http://avatars/1"), nullValue());
+
+        final byte[] data = bytes(KILOBYTE, 1);
+        cache.put("http://avatars/1", data);
+        assertThat(Arrays.equals(cache.get("http://avatars/1"), data), equalTo(true));
+        assertThat(cache.getCurrSizeBytes(), equalTo((long) KILOBYTE));
+
+        final byte[] replacement = bytes(KILOBYTE * 2, 2);
+        cache.put("http://avatars/1", replacement);
+        assertThat(Arrays.equals(cache.get("http://avatars/1"), replacement), equalTo(true));
+        assertThat(cache.getCurrSizeBytes(), equalTo((long) KILOBYTE * 2));
+        assertThat(cache.size(), equalTo(1));
+
+        assertThat(cache.remove("http://avatars/1"), equalTo(true));
+        assertThat(cache.get("http://avatars/1"), nullValue());
+        assertThat(cache.getCurrSizeBytes(), equalTo(0L));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws IOException {
+        DiskImageCache cache = new DiskImageCache(tempFolder.getRoot(), KILOBYTE * 3);
+        cache.put("http://avatars/1", bytes(KILOBYTE, 1));
+        cache.put("http://avatars/2", bytes(KILOBYTE, 2));
+        cache.put("http://avatars/3", bytes(KILOBYTE, 3));
+        cache.get("http://avatars/1"); // touch it
+
+        cache.put("http://avatars/4", bytes(KILOBYTE, 4));
+        assertThat(cache.getCurrSizeBytes(), lessThanOrEqualTo(cache.getMaxSizeBytes()));
+        assertThat(cache.get("http://avatars/2"), nullValue());
+        assertThat(cache.get("http://avatars/1")[0], equalTo((byte) 1));
+        assertThat(cache.get("http://avatars/4")[0], equalTo((byte) 4));
+
+        // Too large to ever fit.
+        cache.put("http://avatars/5", bytes(KILOBYTE * 4, 5));
+        assertThat(cache.get("http://avatars/5"), nullValue());
+        assertThat(cache.size(), equalTo(3));
+    }
+
+    @Test
+    public void survivesReopen() throws IOException {
+        DiskImageCache cache = new DiskImageCache(tempFolder.getRoot(), KILOBYTE * 3);
+        cache.put("http://avatars/1", bytes(KILOBYTE, 1));
+        cache.put("http://avatars/2", bytes(KILOBYTE, 2));
+        cache.put("http://avatars/3", bytes(KILOBYTE, 3));
+        cache.get("http://avatars/1");
+        cache.close();
+
+        // A new instance replays the journal, recency included.
+        DiskImageCache reopened = new DiskImageCache(tempFolder.getRoot(), KILOBYTE * 3);
+        assertThat(reopened.size(), equalTo(3));
+        assertThat(reopened.getCurrSizeBytes(), equalTo((long) KILOBYTE * 3));
+        reopened.put("http://avatars/4", bytes(KILOBYTE, 4));
+        assertThat(reopened.get("http://avatars/2"), nullValue());
+        assertThat(reopened.get("http://avatars/1")[0], equalTo((byte) 1));
+    }
+
+    @Test
+    public void recoversFromCrash() throws IOException {
+        DiskImageCache cache = new DiskImageCache(tempFolder.getRoot(), KILOBYTE * 10);
+        cache.put("http://avatars/1", bytes(KILOBYTE, 1));
+        cache.put("http://avatars/2", bytes(KILOBYTE, 2));
+        cache.close();
+
+        final File root = tempFolder.getRoot();
+        // A write that never made it to the journal, a half written temporary file, a half written
+        // journal line and an entry whose file was truncated.
+        write(new File(root, DiskImageCache.hashKey("http://avatars/3") + ".0"), "orphan");
+        write(new File(root, DiskImageCache.hashKey("http://avatars/4") + ".7.tmp"), "partial");
+        appendJournal("CLEAN " + DiskImageCache.hashKey("http://avatars/5"));
+        write(new File(root, DiskImageCache.hashKey("http://avatars/2") + ".0"), "short");
+
+        DiskImageCache reopened = new DiskImageCache(root, KILOBYTE * 10);
+        assertThat(reopened.size(), equalTo(1));
+        assertThat(reopened.getCurrSizeBytes(), equalTo((long) KILOBYTE));
+        assertThat(reopened.get("http://avatars/1")[0], equalTo((byte) 1));
+        assertThat(reopened.get("http://avatars/2"), nullValue());
+        assertThat(reopened.get("http://avatars/3"), nullValue());
+
+        // Only the journal and the surviving entry are left.
+        assertThat(root.list().length, equalTo(2));
+    }
+
+    @Test
+    public void readsNeverMixEntries() throws Exception {
+        final DiskImageCache cache = new DiskImageCache(tempFolder.getRoot(), KILOBYTE * 100);
+        cache.put("http://avatars/1", bytes(KILOBYTE, 1));
+
+        // Replaced over and over with entries of another size and contents while it is read.
+        final AtomicBoolean done = new AtomicBoolean();
+        final Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 500; i++) {
+                        cache.put("http://avatars/1", (i % 2 == 0) ? bytes(KILOBYTE * 2, 2) : bytes(KILOBYTE, 1));
+                    }
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                } finally {
+                    done.set(true);
+                }
+            }
+        });
+        writer.start();
+        int reads = 0;
+        while (!done.get() || reads == 0) {
+            final byte[] data = cache.get("http://avatars/1");
+            assertThat(data != null, equalTo(true));
+            // A whole entry, either the old or the new one.
+            assertThat(data.length, equalTo(KILOBYTE * data[0]));
+            assertThat(data[data.length - 1], equalTo(data[0]));
+            reads++;
+        }
+        writer.join();
+        assertThat(cache.get("http://avatars/1").length, equalTo(KILOBYTE));
+    }
+
+    @Test
+    public void downloaderChecksDiskBeforeNetwork() throws IOException {
+        final CountingDownloader network = new CountingDownloader();
+        final Uri avatar = Uri.parse("https://avatars.githubusercontent.com/u/1");
+
+        DiskCacheDownloader downloader = new DiskCacheDownloader(network, new DiskImageCache(tempFolder.getRoot(), KILOBYTE * 10));
+        assertThat(read(downloader.load(avatar, false).getInputStream())[0], equalTo((byte) 7));
+        assertThat(network.loads, equalTo(1));
+
+        assertThat(read(downloader.load(avatar, false).getInputStream())[0], equalTo((byte) 7));
+        assertThat(network.loads, equalTo(1));
+
+        // Cold start, a brand new cache over the same directory.
+        DiskCacheDownloader coldStart = new DiskCacheDownloader(network, new DiskImageCache(tempFolder.getRoot(), KILOBYTE * 10));
+        assertThat(read(coldStart.load(avatar, false).getInputStream())[0], equalTo((byte) 7));
+        assertThat(network.loads, equalTo(1));
+    }
+
+    private void appendJournal(String line) throws IOException {
+        final FileWriter writer = new FileWriter(new File(tempFolder.getRoot(), DiskImageCache.JOURNAL_FILE), true);
+        try {
+            writer.write(line);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void write(File file, String contents) throws IOException {
+        final FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(contents);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static byte[] bytes(int size, int value) {
+        final byte[] data = new byte[size];
+        Arrays.fill(data, (byte) value);
+        return data;
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            out.write(b);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Stand in for the network that serves the same image for every URI.
+     */
+    private static class CountingDownloader implements Downloader {
+        int loads;
+
+        @Override
+        public Response load(Uri uri, boolean localCacheOnly) throws IOException {
+            loads++;
+            return new Response(new ByteArrayInputStream(bytes(KILOBYTE, 7)), false);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.bypassmobile.octo.image;
+
+import android.graphics.Point;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest= Config.NONE)
+public class DownloadRevalidatorTest {
+
+    static final String AVATAR = "https://avatars.githubusercontent.com/u/583231?s=96";
+
+    @Test
+    public void resizedKeysAreRevalidated() {
+        assertThat(DownloadRevalidator.getResize(AVATAR + "\nresize:96x48\n"), equalTo(new Point(96, 48)));
+    }
+
+    @Test
+    public void otherKeysAreLeftToExpire() {
+        assertThat(DownloadRevalidator.getResize(AVATAR + "\n"), nullValue());
+        assertThat(DownloadRevalidator.getResize(AVATAR + "\nresize:96x96\ncenterCrop\n"), nullValue());
+        assertThat(DownloadRevalidator.getResize(AVATAR + "\nrotation:90.0\nresize:96x96\n"), nullValue());
+        assertThat(DownloadRevalidator.getResize(AVATAR + "\nresize:96x96\ncircle\n"), nullValue());
+        assertThat(DownloadRevalidator.getResize(AVATAR + "\nresize:96\n"), nullValue());
+        assertThat(DownloadRevalidator.getResize(AVATAR + "\nresize:0x96\n"), nullValue());
+    }
+}
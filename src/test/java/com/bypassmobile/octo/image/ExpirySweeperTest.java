@@ -0,0 +1,93 @@
+package com.bypassmobile.octo.image;
+
+import android.graphics.Bitmap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest= Config.NONE)
+public class ExpirySweeperTest {
+
+    static final int MEGABYTE = 1024 * 1024;
+
+    @Test
+    public void coarseClockOnlyMovesOnTick() {
+        final FakeClock source = new FakeClock();
+        source.advance(5000);
+        CoarseClock clock = new CoarseClock(source, 1000);
+        assertThat(clock.millis(), equalTo(5000L));
+
+        source.advance(700);
+        assertThat(clock.millis(), equalTo(5000L));
+        clock.tick();
+        assertThat(clock.millis(), equalTo(5700L));
+
+        // Never goes backwards.
+        source.advance(-300);
+        clock.tick();
+        assertThat(clock.millis(), equalTo(5700L));
+    }
+
+    @Test
+    public void sweepReclaimsIdleCache() {
+        final FakeClock source = new FakeClock();
+        final CoarseClock clock = new CoarseClock(source, 1000);
+        ImageCache cache = new ImageCache.Builder(MEGABYTE).timeout(1000).clock(clock).build();
+        final Bitmap bmp = Bitmap.createBitmap(10, 10, Bitmap.Config.ALPHA_8);
+        for (int i = 0; i < 100; i++) {
+            cache.set("TestBitmap" + i, bmp);
+        }
+        cache.set("Forever", bmp, 0);
+        ExpirySweeper sweeper = new ExpirySweeper(cache, 60 * 1000);
+
+        // Nothing due yet.
+        sweeper.run();
+        assertThat(sweeper.getSweptEntries(), equalTo(0));
+
+        // The cache reads the coarse clock, so the time only passes for it on the next tick.
+        source.advance(1001);
+        sweeper.run();
+        assertThat(sweeper.getSweptEntries(), equalTo(0));
+        clock.tick();
+        sweeper.run();
+
+        assertThat(sweeper.getSweptEntries(), equalTo(100));
+        assertThat(sweeper.getSweepCount(), equalTo(3));
+        assertThat(cache.size(), equalTo(1));
+        assertThat(cache.getCurrSizeBytes(), equalTo(bmp.getByteCount()));
+        assertThat(cache.getExpirationCount(), equalTo(100));
+        assertThat(cache.get("Forever"), notNullValue());
+        cache.checkConsistency();
+    }
+
+    @Test
+    public void sweepWorksInBatches() {
+        final FakeClock clock = new FakeClock();
+        ImageCache cache = new ImageCache.Builder(MEGABYTE).timeout(1000).clock(clock).build();
+        final Bitmap bmp = Bitmap.createBitmap(10, 10, Bitmap.Config.ALPHA_8);
+        for (int i = 0; i < 50; i++) {
+            cache.set("Old" + i, bmp);
+        }
+        clock.advance(500);
+        for (int i = 0; i < 5; i++) {
+            cache.set("New" + i, bmp);
+        }
+
+        // A batch size that does not divide the expired count still removes exactly the expired entries.
+        clock.advance(501);
+        assertThat(cache.sweepExpired(3), equalTo(50));
+        assertThat(cache.size(), equalTo(5));
+        assertThat(cache.sweepExpired(3), equalTo(0));
+        cache.checkConsistency();
+    }
+}
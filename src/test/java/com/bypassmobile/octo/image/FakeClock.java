@@ -0,0 +1,18 @@
+package com.bypassmobile.octo.image;
+
+/**
+ * Clock that only moves when a test tells it to.
+ */
+class FakeClock implements Clock {
+
+    private long millis;
+
+    @Override
+    public long millis() {
+        return millis;
+    }
+
+    void advance(long ms) {
+        millis += ms;
+    }
+}
@@ -1,5 +1,6 @@
 package com.bypassmobile.octo.image;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.graphics.Bitmap;
 
@@ -12,12 +13,16 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Random;
 
 import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 
 /**
  *
@@ -151,6 +156,285 @@ public class ImageCacheTest {
         assertThat(cache.get("TestBitmap1"), nullValue());
     }
 
+    @Test
+    public void largeBitmapEvictsDownToBudget() {
+        int cacheSize = MEGABYTE;
+        ImageCache cache = new ImageCache(cacheSize);
+        final Bitmap smallBitmap = Bitmap.createBitmap(100, 100, Bitmap.Config.ALPHA_8);
+        for (int i = 0; i < 10; i++) {
+            cache.set("SmallBitmap" + i, smallBitmap);
+        }
+
+        // Only fits once about half of the small bitmaps are gone.
+        final Bitmap largeBitmap = Bitmap.createBitmap(1000, 1000, Bitmap.Config.ALPHA_8);
+        cache.set("LargeBitmap", largeBitmap);
+
+        assertThat(cache.getCurrSizeBytes(), lessThanOrEqualTo(cacheSize));
+        assertThat(cache.get("LargeBitmap"), notNullValue());
+        assertThat(cache.get("SmallBitmap0"), nullValue());
+        assertThat(cache.get("SmallBitmap9"), notNullValue());
+        assertThat(cache.getEvictionCount(), greaterThan(1));
+        assertThat(cache.getEvictionCount(), equalTo(11 - cache.size()));
+        assertThat(cache.getEvictedBytes(), equalTo((long) cache.getEvictionCount() * smallBitmap.getByteCount()));
+        assertThat(cache.getCurrSizeBytes(), equalTo(largeBitmap.getByteCount() + (cache.size() - 1) * smallBitmap.getByteCount()));
+    }
+
+    @Test
+    public void budgetNeverExceededAfterSet() {
+        int cacheSize = MEGABYTE;
+        ImageCache cache = new ImageCache(cacheSize);
+        final Random random = new Random(42);
+        for (int i = 0; i < 500; i++) {
+            final int side = 1 + random.nextInt(700);
+            cache.set("TestBitmap" + random.nextInt(50), Bitmap.createBitmap(side, side, Bitmap.Config.ALPHA_8));
+            assertThat(cache.getCurrSizeBytes(), lessThanOrEqualTo(cacheSize));
+        }
+    }
+
+    @Test
+    public void lowWatermarkEvictsInBatches() {
+        final Bitmap bmp = Bitmap.createBitmap(100, 100, Bitmap.Config.ALPHA_8);
+        final int cacheSize = bmp.getByteCount() * 10;
+        ImageCache cache = new ImageCache(cacheSize, -1, 0.5f);
+        for (int i = 0; i < 10; i++) {
+            cache.set("TestBitmap" + i, bmp);
+        }
+        assertThat(cache.getEvictionCount(), equalTo(0));
+
+        // Going over budget trims down to half, the new bitmap included.
+        cache.set("TestBitmap10", bmp);
+        assertThat(cache.getCurrSizeBytes(), lessThanOrEqualTo(cacheSize / 2));
+        assertThat(cache.size(), equalTo(5));
+        assertThat(cache.getEvictionCount(), equalTo(6));
+        assertThat(cache.get("TestBitmap10"), notNullValue());
+        assertThat(cache.get("TestBitmap5"), nullValue());
+        assertThat(cache.get("TestBitmap6"), notNullValue());
+
+        // The next five sets fit without evicting anything.
+        for (int i = 11; i < 16; i++) {
+            cache.set("TestBitmap" + i, bmp);
+        }
+        assertThat(cache.getEvictionCount(), equalTo(6));
+    }
+
+    @Test
+    public void clearResetsAccounting() {
+        final Bitmap bmp = Bitmap.createBitmap(100, 100, Bitmap.Config.ALPHA_8);
+        final int cacheSize = bmp.getByteCount() * 4;
+        ImageCache cache = new ImageCache(cacheSize, 60 * 1000);
+        for (int i = 0; i < 4; i++) {
+            cache.set("TestBitmap" + i, bmp);
+        }
+        cache.clear();
+        cache.checkConsistency();
+        assertThat(cache.size(), equalTo(0));
+        assertThat(cache.getCurrSizeBytes(), equalTo(0));
+
+        // A cleared cache has its whole budget available again.
+        for (int i = 0; i < 4; i++) {
+            cache.set("TestBitmap" + i, bmp);
+        }
+        assertThat(cache.size(), equalTo(4));
+        assertThat(cache.getEvictionCount(), equalTo(0));
+        cache.checkConsistency();
+    }
+
+    @Test
+    public void fuzzAgainstReferenceModel() {
+        fuzz(new Random(1), 1f);
+        fuzz(new Random(2), 1f);
+    }
+
+    @Test
+    public void fuzzAgainstReferenceModelWithLowWatermark() {
+        fuzz(new Random(3), 0.6f);
+        fuzz(new Random(4), 0.25f);
+    }
+
+    @Test
+    public void trimCostIsFlat() {
+        // Long enough that nothing expires while the test runs.
+        int maxTime = 60 * 60 * 1000;
+        ImageCache smallCache = fillCache(new ImageCache(MEGABYTE, maxTime), "TestBitmap", 10);
+        ImageCache largeCache = fillCache(new ImageCache(MEGABYTE, maxTime), "TestBitmap", 10000);
+
+        smallCache.get("TestBitmap0");
+        largeCache.get("TestBitmap0");
+        assertThat(smallCache.getLastTrimScanCount(), equalTo(1));
+        assertThat(largeCache.getLastTrimScanCount(), equalTo(smallCache.getLastTrimScanCount()));
+
+        smallCache.set("NewBitmap", Bitmap.createBitmap(1, 1, Bitmap.Config.ALPHA_8));
+        largeCache.set("NewBitmap", Bitmap.createBitmap(1, 1, Bitmap.Config.ALPHA_8));
+        assertThat(largeCache.getLastTrimScanCount(), equalTo(smallCache.getLastTrimScanCount()));
+    }
+
+    @Test
+    public void trimOnlyVisitsExpiredEntries() {
+        int maxTime = 1000;
+        final ImageCache cache = fillCache(new ImageCache(MEGABYTE, maxTime), "OldBitmap", 5);
+        sleep(maxTime + maxTime/2);
+
+        // The five old entries plus the fresh one that stops the scan.
+        final Bitmap freshBitmap = Bitmap.createBitmap(1, 1, Bitmap.Config.ALPHA_8);
+        cache.set("FreshBitmap", freshBitmap);
+        assertThat(cache.getLastTrimScanCount(), equalTo(6));
+        assertThat(cache.size(), equalTo(1));
+        assertThat(cache.getCurrSizeBytes(), equalTo(freshBitmap.getByteCount()));
+
+        cache.get("FreshBitmap");
+        assertThat(cache.getLastTrimScanCount(), equalTo(1));
+    }
+
+    @Test
+    public void resizeAtRuntime() {
+        final Bitmap bmp = Bitmap.createBitmap(100, 100, Bitmap.Config.ALPHA_8);
+        final int bitmapSize = bmp.getByteCount();
+        ImageCache cache = new ImageCache(bitmapSize * 10);
+        for (int i = 0; i < 10; i++) {
+            cache.set("TestBitmap" + i, bmp);
+        }
+        cache.get("TestBitmap0"); // touch it
+
+        cache.resize(bitmapSize * 4);
+        assertThat(cache.maxSize(), equalTo(bitmapSize * 4));
+        assertThat(cache.size(), equalTo(4));
+        assertThat(cache.get("TestBitmap0"), notNullValue());
+        assertThat(cache.get("TestBitmap1"), nullValue());
+        cache.checkConsistency();
+
+        // Growing again lets it fill past the old budget.
+        cache.resize(bitmapSize * 20);
+        for (int i = 10; i < 30; i++) {
+            cache.set("TestBitmap" + i, bmp);
+        }
+        assertThat(cache.size(), equalTo(20));
+        cache.checkConsistency();
+    }
+
+    @Test
+    public void trimMemoryIsGraduated() {
+        final Bitmap bmp = Bitmap.createBitmap(100, 100, Bitmap.Config.ALPHA_8);
+        final int bitmapSize = bmp.getByteCount();
+        ImageCache cache = new ImageCache(bitmapSize * 8);
+        for (int i = 0; i < 8; i++) {
+            cache.set("TestBitmap" + i, bmp);
+        }
+
+        cache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE);
+        assertThat(cache.size(), equalTo(8));
+        cache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        assertThat(cache.size(), equalTo(6));
+        cache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertThat(cache.size(), equalTo(4));
+        assertThat(cache.get("TestBitmap7"), notNullValue());
+        cache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+        assertThat(cache.size(), equalTo(0));
+        assertThat(cache.getCurrSizeBytes(), equalTo(0));
+
+        // The budget itself is untouched.
+        assertThat(cache.maxSize(), equalTo(bitmapSize * 8));
+    }
+
+    @Test
+    public void slidingExpiryFollowsAccess() {
+        final FakeClock clock = new FakeClock();
+        ImageCache cache = new ImageCache.Builder(MEGABYTE).timeout(1000).clock(clock).build();
+        cache.set("TestBitmap1", Bitmap.createBitmap(100, 100, Bitmap.Config.ALPHA_8));
+
+        clock.advance(800);
+        assertThat(cache.get("TestBitmap1"), notNullValue());
+        clock.advance(800);
+        assertThat(cache.get("TestBitmap1"), notNullValue());
+
+        clock.advance(1001);
+        assertThat(cache.get("TestBitmap2"), nullValue());
+        assertThat(cache.size(), equalTo(0));
+        assertThat(cache.getExpirationCount(), equalTo(1));
+        cache.checkConsistency();
+    }
+
+    @Test
+    public void absoluteExpiryIgnoresAccess() {
+        final FakeClock clock = new FakeClock();
+        ImageCache cache = new ImageCache.Builder(MEGABYTE)
+                .timeout(1000)
+                .expiration(ImageCache.Expiration.ABSOLUTE)
+                .clock(clock)
+                .build();
+        cache.set("TestBitmap1", Bitmap.createBitmap(100, 100, Bitmap.Config.ALPHA_8));
+
+        clock.advance(800);
+        assertThat(cache.get("TestBitmap1"), notNullValue());
+        clock.advance(300);
+        assertThat(cache.get("TestBitmap1"), nullValue());
+        assertThat(cache.getExpirationCount(), equalTo(1));
+        assertThat(cache.getCurrSizeBytes(), equalTo(0));
+        cache.checkConsistency();
+    }
+
+    @Test
+    public void perKeyTtlOverridesDefault() {
+        final FakeClock clock = new FakeClock();
+        ImageCache cache = new ImageCache.Builder(MEGABYTE)
+                .timeout(1000)
+                .expiration(ImageCache.Expiration.ABSOLUTE)
+                .clock(clock)
+                .build();
+        cache.set("Popular", Bitmap.createBitmap(100, 100, Bitmap.Config.ALPHA_8), 5000);
+        cache.set("Forever", Bitmap.createBitmap(100, 100, Bitmap.Config.ALPHA_8), 0);
+        cache.set("Default", Bitmap.createBitmap(100, 100, Bitmap.Config.ALPHA_8));
+
+        clock.advance(2000);
+        assertThat(cache.get("Default"), nullValue());
+        assertThat(cache.get("Popular"), notNullValue());
+
+        // Replacing the bitmap keeps the key's own timeout.
+        cache.set("Popular", Bitmap.createBitmap(100, 100, Bitmap.Config.ALPHA_8));
+        clock.advance(4000);
+        assertThat(cache.get("Popular"), notNullValue());
+        cache.checkConsistency();
+
+        clock.advance(1001);
+        assertThat(cache.get("Popular"), nullValue());
+        assertThat(cache.get("Forever"), notNullValue());
+        cache.checkConsistency();
+    }
+
+    @Test
+    public void staleWhileRevalidate() {
+        final FakeClock clock = new FakeClock();
+        final RecordingRevalidator revalidator = new RecordingRevalidator();
+        ImageCache cache = new ImageCache.Builder(MEGABYTE)
+                .timeout(1000)
+                .expiration(ImageCache.Expiration.ABSOLUTE)
+                .staleWhileRevalidate(500, revalidator)
+                .clock(clock)
+                .build();
+        final Bitmap stale = Bitmap.createBitmap(100, 100, Bitmap.Config.ALPHA_8);
+        cache.set("TestBitmap1", stale);
+        cache.set("TestBitmap2", stale);
+
+        // Expired, but still served right away while a single refresh runs.
+        clock.advance(1200);
+        assertThat(cache.get("TestBitmap1"), equalTo(stale));
+        assertThat(cache.get("TestBitmap1"), equalTo(stale));
+        assertThat(revalidator.keys.size(), equalTo(1));
+        assertThat(revalidator.keys.get(0), equalTo("TestBitmap1"));
+        assertThat(cache.getStaleHitCount(), equalTo(2));
+
+        // The refresh lands.
+        final Bitmap fresh = Bitmap.createBitmap(100, 100, Bitmap.Config.ALPHA_8);
+        cache.set("TestBitmap1", fresh);
+        assertThat(cache.get("TestBitmap1"), equalTo(fresh));
+        assertThat(revalidator.keys.size(), equalTo(1));
+
+        // Without a refresh an entry is dropped once the stale time is over.
+        clock.advance(301);
+        assertThat(cache.get("TestBitmap2"), nullValue());
+        assertThat(cache.get("TestBitmap1"), equalTo(fresh));
+        cache.checkConsistency();
+    }
+
     private static void sleep(long ms) {
         try {
             Thread.sleep(ms);
@@ -158,4 +442,121 @@ public class ImageCacheTest {
             // don't care
         }
     }
+
+    private static class RecordingRevalidator implements ImageCache.Revalidator {
+        final ArrayList<String> keys = new ArrayList<>();
+
+        @Override
+        public void revalidate(ImageCache cache, String key) {
+            keys.add(key);
+        }
+    }
+
+    /**
+     * Adds {@code count} tiny bitmaps keyed prefix0 through prefix(count - 1).
+     */
+    private static ImageCache fillCache(ImageCache cache, String prefix, int count) {
+        for (int i = 0; i < count; i++) {
+            cache.set(prefix + i, Bitmap.createBitmap(1, 1, Bitmap.Config.ALPHA_8));
+        }
+        return cache;
+    }
+
+    /**
+     * Applies a random sequence of operations to the cache and to {@link ReferenceCache}, checking after
+     * every step that both agree and that the cache's own bookkeeping is consistent.
+     */
+    private static void fuzz(Random random, float lowWatermark) {
+        final int[] sides = {1, 10, 50, 100, 200, 300, 500, 800};
+        final Bitmap[] bitmaps = new Bitmap[sides.length];
+        for (int i = 0; i < sides.length; i++) {
+            bitmaps[i] = Bitmap.createBitmap(sides[i], sides[i], Bitmap.Config.ALPHA_8);
+        }
+
+        final int cacheSize = MEGABYTE / 2;
+        final ImageCache cache = new ImageCache(cacheSize, -1, lowWatermark);
+        final ReferenceCache model = new ReferenceCache(cacheSize, lowWatermark);
+
+        for (int op = 0; op < 2000; op++) {
+            final String key = "TestBitmap" + random.nextInt(30);
+            final int action = random.nextInt(100);
+            if (action < 45) {
+                assertThat(cache.get(key), equalTo(model.get(key)));
+            } else if (action < 90) {
+                final Bitmap bitmap = bitmaps[random.nextInt(bitmaps.length)];
+                cache.set(key, bitmap);
+                model.set(key, bitmap);
+            } else if (action < 99) {
+                assertThat(cache.removeFromCache(key), equalTo(model.remove(key)));
+            } else {
+                cache.clear();
+                model.clear();
+            }
+
+            cache.checkConsistency();
+            assertThat(cache.size(), equalTo(model.size()));
+            assertThat(cache.getCurrSizeBytes(), equalTo(model.sizeBytes));
+        }
+    }
+
+    /**
+     * Deliberately naive model of the cache without timeouts: an access ordered map whose size is
+     * recomputed from scratch and that evicts from the front one entry at a time.
+     */
+    private static class ReferenceCache {
+        final LinkedHashMap<String, Bitmap> map = new LinkedHashMap<>(16, 0.75f, true);
+        final int maxSizeBytes;
+        final int lowWatermarkBytes;
+        int sizeBytes;
+
+        ReferenceCache(int maxSizeBytes, float lowWatermark) {
+            this.maxSizeBytes = maxSizeBytes;
+            this.lowWatermarkBytes = (int) (maxSizeBytes * (double) lowWatermark);
+        }
+
+        Bitmap get(String key) {
+            return map.get(key);
+        }
+
+        void set(String key, Bitmap bitmap) {
+            if (bitmap.getByteCount() >= maxSizeBytes) {
+                remove(key);
+                return;
+            }
+            map.put(key, bitmap);
+            recount();
+            if (sizeBytes > maxSizeBytes) {
+                while (sizeBytes > lowWatermarkBytes) {
+                    final String eldest = map.keySet().iterator().next();
+                    if (eldest.equals(key)) {
+                        break;
+                    }
+                    map.remove(eldest);
+                    recount();
+                }
+            }
+        }
+
+        Bitmap remove(String key) {
+            final Bitmap old = map.remove(key);
+            recount();
+            return old;
+        }
+
+        void clear() {
+            map.clear();
+            recount();
+        }
+
+        int size() {
+            return map.size();
+        }
+
+        private void recount() {
+            sizeBytes = 0;
+            for (Bitmap bitmap : map.values()) {
+                sizeBytes += bitmap.getByteCount();
+            }
+        }
+    }
 }
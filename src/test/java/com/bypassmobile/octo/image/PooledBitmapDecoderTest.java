@@ -0,0 +1,82 @@
+package com.bypassmobile.octo.image;
+
+import android.graphics.Bitmap;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowBitmapFactory;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest= Config.NONE)
+public class PooledBitmapDecoderTest {
+
+    static final int MEGABYTE = 1024 * 1024;
+    static final String AVATAR = "https://avatars.githubusercontent.com/u/583231";
+
+    final AvatarUrls avatarUrls = new AvatarUrls(96, 96);
+
+    @After
+    public void tearDown() {
+        ShadowBitmapFactory.reset();
+    }
+
+    @Test
+    public void scalesAvatarsDownKeepingTheAspectRatio() {
+        final PooledBitmapDecoder decoder = new PooledBitmapDecoder(new BitmapPool(MEGABYTE), avatarUrls);
+
+        final Bitmap square = decoder.decode(avatarUrls.get(AVATAR), image("square", 460, 460));
+        assertThat(square.getWidth(), equalTo(96));
+        assertThat(square.getHeight(), equalTo(96));
+
+        // Covers the avatar size, Picasso crops the rest as the request asks.
+        final Bitmap wide = decoder.decode(avatarUrls.get(AVATAR), image("wide", 400, 200));
+        assertThat(wide.getWidth(), equalTo(192));
+        assertThat(wide.getHeight(), equalTo(96));
+
+        // Never scaled up.
+        final Bitmap small = decoder.decode(avatarUrls.get(AVATAR), image("small", 64, 64));
+        assertThat(small.getWidth(), equalTo(64));
+    }
+
+    @Test
+    public void leavesOtherImagesToPicasso() {
+        final PooledBitmapDecoder decoder = new PooledBitmapDecoder(new BitmapPool(MEGABYTE), avatarUrls);
+        assertThat(decoder.decode("https://github.com/images/logo.png", image("logo", 400, 200)), nullValue());
+        assertThat(decoder.decode(new AvatarUrls(48, 48).get(AVATAR), image("other size", 400, 200)), nullValue());
+    }
+
+    @Test
+    public void reusesTheDecodeBuffer() {
+        final BitmapPool pool = new BitmapPool(MEGABYTE);
+        final PooledBitmapDecoder decoder = new PooledBitmapDecoder(pool, avatarUrls);
+
+        decoder.decode(avatarUrls.get(AVATAR), image("first", 460, 460));
+        assertThat(pool.getMissCount(), equalTo(1));
+
+        // The full size buffer of a previous decode is taken back out of the pool.
+        pool.put(Bitmap.createBitmap(460, 460, Bitmap.Config.ARGB_8888));
+        decoder.decode(avatarUrls.get(AVATAR), image("second", 460, 460));
+        assertThat(pool.getHitCount(), equalTo(1));
+        assertThat(pool.getBytesReused(), equalTo(460L * 460 * 4));
+        assertThat(pool.getCurrSizeBytes(), equalTo(0));
+    }
+
+    /**
+     * Return encoded image data Robolectric decodes to a bitmap of the given size.
+     */
+    private static byte[] image(String name, int width, int height) {
+        // Robolectric decodes bytes to a bitmap named after them, and looks up hints by file name.
+        ShadowBitmapFactory.provideWidthAndHeightHints(name, width, height);
+        return ("file:" + name).getBytes();
+    }
+}
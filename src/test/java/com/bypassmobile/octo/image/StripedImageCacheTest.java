@@ -0,0 +1,235 @@
+package com.bypassmobile.octo.image;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.squareup.picasso.Cache;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.Shadows;
+import org.robolectric.annotation.Config;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+/**
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest= Config.NONE)
+public class StripedImageCacheTest {
+
+    static final String TAG = StripedImageCacheTest.class.getSimpleName();
+
+    static final int MEGABYTE = 1024 * 1024;
+
+    static final int STRESS_THREADS = 4;
+    static final int STRESS_OPS_PER_THREAD = 20000;
+    static final int STRESS_KEYS = 1000;
+    static final int STRESS_HOT_KEYS = 100;
+
+    @Test
+    public void singleImageCache() {
+        StripedImageCache cache = new StripedImageCache(MEGABYTE);
+        assertThat(cache.get("TestBitmap1"), nullValue());
+
+        final Bitmap testBitmap = Bitmap.createBitmap(100, 100, Bitmap.Config.ALPHA_8);
+        cache.set("TestBitmap1", testBitmap);
+        assertThat(cache.get("TestBitmap1"), equalTo(testBitmap));
+        assertThat(cache.getCurrSizeBytes(), equalTo(testBitmap.getByteCount()));
+
+        final Bitmap twiceTheBitmap = Bitmap.createBitmap(200, 200, Bitmap.Config.ALPHA_8);
+        cache.set("TestBitmap1", twiceTheBitmap);
+        assertThat(cache.get("TestBitmap1"), equalTo(twiceTheBitmap));
+        assertThat(cache.getCurrSizeBytes(), equalTo(twiceTheBitmap.getByteCount()));
+
+        final Bitmap wayTooLargeBitmap = Bitmap.createBitmap(1024, 1024, Bitmap.Config.ALPHA_8);
+        cache.set("TestBitmap1", wayTooLargeBitmap);
+        assertThat(cache.get("TestBitmap1"), nullValue());
+        assertThat(cache.getCurrSizeBytes(), equalTo(0));
+    }
+
+    @Test
+    public void lruWithinSegment() {
+        // A single segment behaves as a plain LRU.
+        StripedImageCache cache = new StripedImageCache(MEGABYTE * 4, 1);
+        for (int i = 1; i <= 4; i++) {
+            cache.set("TestBitmap" + i, Bitmap.createBitmap(1024, 1024, Bitmap.Config.ALPHA_8));
+        }
+        cache.get("TestBitmap1"); // touch it
+
+        cache.set("TestBitmap5", Bitmap.createBitmap(1024, 1024, Bitmap.Config.ALPHA_8));
+        assertThat(cache.get("TestBitmap1"), notNullValue());
+        assertThat(cache.get("TestBitmap2"), nullValue());
+        assertThat(cache.get("TestBitmap5"), notNullValue());
+        assertThat(cache.getCurrSizeBytes(), lessThanOrEqualTo(cache.maxSize()));
+    }
+
+    @Test
+    public void budgetIsGlobal() {
+        final Bitmap bmp = Bitmap.createBitmap(100, 100, Bitmap.Config.ALPHA_8);
+        final int maxSize = bmp.getByteCount() * 10;
+        StripedImageCache cache = new StripedImageCache(maxSize, 4);
+        for (int i = 0; i < 100; i++) {
+            cache.set("TestBitmap" + i, bmp);
+            assertThat(cache.getCurrSizeBytes(), lessThanOrEqualTo(maxSize));
+        }
+        assertThat(cache.size(), equalTo(10));
+        assertThat(cache.get("TestBitmap99"), notNullValue());
+    }
+
+    @Test
+    public void removeAndClear() {
+        StripedImageCache cache = new StripedImageCache(MEGABYTE);
+        final Bitmap bmp = Bitmap.createBitmap(100, 100, Bitmap.Config.ALPHA_8);
+        for (int i = 0; i < 10; i++) {
+            cache.set("TestBitmap" + i, bmp);
+        }
+        assertThat(cache.removeFromCache("doesnotexist"), nullValue());
+        assertThat(cache.removeFromCache("TestBitmap3"), equalTo(bmp));
+        assertThat(cache.size(), equalTo(9));
+        assertThat(cache.getCurrSizeBytes(), equalTo(bmp.getByteCount() * 9));
+
+        cache.clear();
+        assertThat(cache.size(), equalTo(0));
+        assertThat(cache.getCurrSizeBytes(), equalTo(0));
+    }
+
+    @Test
+    public void removeReleasesTheRecordedSize() {
+        StripedImageCache cache = new StripedImageCache(MEGABYTE);
+        final Bitmap bmp = Bitmap.createBitmap(100, 100, Bitmap.Config.ALPHA_8);
+        cache.set("TestBitmap", bmp);
+
+        // Reused for a smaller image while still in the cache.
+        Shadows.shadowOf(bmp).setHeight(50);
+        assertThat(bmp.getByteCount(), equalTo(5000));
+        cache.removeFromCache("TestBitmap");
+        assertThat(cache.getCurrSizeBytes(), equalTo(0));
+    }
+
+    @Test
+    public void resizeAndTrimMemory() {
+        final Bitmap bmp = Bitmap.createBitmap(100, 100, Bitmap.Config.ALPHA_8);
+        final int bitmapSize = bmp.getByteCount();
+        StripedImageCache cache = new StripedImageCache(bitmapSize * 16, 4);
+        for (int i = 0; i < 16; i++) {
+            cache.set("TestBitmap" + i, bmp);
+        }
+
+        cache.resize(bitmapSize * 8);
+        assertThat(cache.maxSize(), equalTo(bitmapSize * 8));
+        assertThat(cache.getCurrSizeBytes(), lessThanOrEqualTo(bitmapSize * 8));
+
+        cache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL);
+        assertThat(cache.getCurrSizeBytes(), lessThanOrEqualTo(bitmapSize * 4));
+        assertThat(cache.getCurrSizeBytes(), equalTo(bitmapSize * cache.size()));
+
+        cache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        assertThat(cache.size(), equalTo(0));
+        assertThat(cache.getCurrSizeBytes(), equalTo(0));
+    }
+
+    /**
+     * Runs the same skewed access trace against the single lock cache and the striped cache from
+     * several threads.  The striped cache only approximates LRU so it may lose a few hits, but it must
+     * stay close to the single lock cache and never overrun its budget.
+     *
+     * The throughput of both is logged for comparison but not asserted, it depends on the machine and
+     * on what else it is running.
+     */
+    @Test
+    public void concurrentStressComparedToSingleLock() throws Exception {
+        final Bitmap[] bitmaps = new Bitmap[STRESS_KEYS];
+        for (int i = 0; i < STRESS_KEYS; i++) {
+            bitmaps[i] = Bitmap.createBitmap(10, 10, Bitmap.Config.ALPHA_8);
+        }
+        // Room for roughly twice the hot set.
+        final int maxSize = bitmaps[0].getByteCount() * STRESS_HOT_KEYS * 2;
+
+        final ImageCache singleLock = new ImageCache(maxSize);
+        final StripedImageCache striped = new StripedImageCache(maxSize);
+
+        final StressResult singleLockResult = stress(singleLock, bitmaps);
+        final StressResult stripedResult = stress(striped, bitmaps);
+        Log.i(TAG, String.format(Locale.US, "%d threads: single lock %.0f ops/s, %.3f hit rate; striped %.0f ops/s, %.3f hit rate",
+                STRESS_THREADS, singleLockResult.opsPerSecond, singleLockResult.hitRate,
+                stripedResult.opsPerSecond, stripedResult.hitRate));
+
+        assertThat(singleLockResult.hitRate, greaterThan(0.5));
+        assertThat(stripedResult.hitRate, greaterThan(singleLockResult.hitRate * 0.9));
+        assertThat(striped.getCurrSizeBytes(), lessThanOrEqualTo(maxSize));
+
+        // The running byte count must match what is actually in the cache.
+        int actualBytes = 0;
+        for (int i = 0; i < STRESS_KEYS; i++) {
+            actualBytes += ImageCache.getByteCount(striped.get(key(i)));
+        }
+        assertThat(striped.getCurrSizeBytes(), equalTo(actualBytes));
+    }
+
+    private static StressResult stress(final Cache cache, final Bitmap[] bitmaps) throws InterruptedException {
+        final AtomicInteger hits = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(STRESS_THREADS);
+
+        for (int t = 0; t < STRESS_THREADS; t++) {
+            final Random random = new Random(t);
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int op = 0; op < STRESS_OPS_PER_THREAD; op++) {
+                            // 80% of the traffic goes to the hot set, like an org list that is visited over and over.
+                            final int index = random.nextInt(10) < 8 ? random.nextInt(STRESS_HOT_KEYS) : random.nextInt(STRESS_KEYS);
+                            if (cache.get(key(index)) != null) {
+                                hits.incrementAndGet();
+                            } else {
+                                cache.set(key(index), bitmaps[index]);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        final long startNs = System.nanoTime();
+        start.countDown();
+        done.await();
+        final long elapsedNs = Math.max(1, System.nanoTime() - startNs);
+        final int ops = STRESS_THREADS * STRESS_OPS_PER_THREAD;
+        return new StressResult(hits.get() / (double) ops, ops * 1e9 / elapsedNs);
+    }
+
+    private static String key(int index) {
+        return "https://avatars.githubusercontent.com/u/" + index;
+    }
+
+    private static class StressResult {
+        /** Fraction of the lookups that hit. */
+        final double hitRate;
+        final double opsPerSecond;
+
+        StressResult(double hitRate, double opsPerSecond) {
+            this.hitRate = hitRate;
+            this.opsPerSecond = opsPerSecond;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.bypassmobile.octo.image;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+
+import com.squareup.picasso.Cache;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+/**
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest= Config.NONE)
+public class TinyLfuImageCacheTest {
+
+    static final int MEGABYTE = 1024 * 1024;
+
+    static final int TRACE_CAPACITY = 100;
+    static final int TRACE_ROOT_SIZE = 30;
+    static final int TRACE_PAGE_SIZE = 30;
+    static final int TRACE_DEPTH = 6;
+    static final int TRACE_ROUNDS = 20;
+
+    @Test
+    public void sketchCountsAndAges() {
+        FrequencySketch sketch = new FrequencySketch(16);
+        assertThat(sketch.frequency("avatar"), equalTo(0));
+        for (int i = 0; i < 5; i++) {
+            sketch.increment("avatar");
+        }
+        assertThat(sketch.frequency("avatar"), equalTo(5));
+
+        // Counters saturate.
+        for (int i = 0; i < 20; i++) {
+            sketch.increment("popular");
+        }
+        assertThat(sketch.frequency("popular"), equalTo(15));
+
+        // Enough other traffic halves everything.
+        int i = 0;
+        while (sketch.getResetCount() == 0) {
+            sketch.increment("other" + i++);
+        }
+        assertThat(sketch.frequency("popular"), lessThanOrEqualTo(8));
+        assertThat(sketch.frequency("avatar"), lessThanOrEqualTo(3));
+    }
+
+    @Test
+    public void sketchFollowsResize() {
+        final TinyLfuImageCache cache = new TinyLfuImageCache(MEGABYTE, 64);
+        assertThat(cache.getSketchSampleSize(), equalTo(640));
+
+        // Four times the budget holds about four times the entries, the sketch ages as slowly relative to them.
+        cache.resize(MEGABYTE * 4);
+        assertThat(cache.getSketchSampleSize(), equalTo(2560));
+        cache.resize(MEGABYTE / 2);
+        assertThat(cache.getSketchSampleSize(), equalTo(320));
+    }
+
+    @Test
+    public void singleImageCache() {
+        TinyLfuImageCache cache = new TinyLfuImageCache(MEGABYTE);
+        assertThat(cache.get("TestBitmap1"), nullValue());
+
+        final Bitmap testBitmap = Bitmap.createBitmap(100, 100, Bitmap.Config.ALPHA_8);
+        cache.set("TestBitmap1", testBitmap);
+        assertThat(cache.get("TestBitmap1"), equalTo(testBitmap));
+        assertThat(cache.getCurrSizeBytes(), equalTo(testBitmap.getByteCount()));
+
+        final Bitmap twiceTheBitmap = Bitmap.createBitmap(200, 200, Bitmap.Config.ALPHA_8);
+        cache.set("TestBitmap1", twiceTheBitmap);
+        assertThat(cache.get("TestBitmap1"), equalTo(twiceTheBitmap));
+        assertThat(cache.getCurrSizeBytes(), equalTo(twiceTheBitmap.getByteCount()));
+
+        final Bitmap wayTooLargeBitmap = Bitmap.createBitmap(1024, 1024, Bitmap.Config.ALPHA_8);
+        cache.set("TestBitmap1", wayTooLargeBitmap);
+        assertThat(cache.get("TestBitmap1"), nullValue());
+        assertThat(cache.getCurrSizeBytes(), equalTo(0));
+    }
+
+    @Test
+    public void popularEntriesSurviveScan() {
+        final Bitmap bmp = Bitmap.createBitmap(100, 100, Bitmap.Config.ALPHA_8);
+        TinyLfuImageCache cache = new TinyLfuImageCache(bmp.getByteCount() * 10, 10);
+        for (int pass = 0; pass < 3; pass++) {
+            for (int i = 0; i < 5; i++) {
+                lookUp(cache, "Popular" + i, bmp);
+            }
+        }
+        for (int i = 0; i < 50; i++) {
+            lookUp(cache, "Scan" + i, bmp);
+        }
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(cache.get("Popular" + i), notNullValue());
+        }
+        assertThat(cache.getRejectedCount(), greaterThan(0));
+        assertThat(cache.getCurrSizeBytes(), lessThanOrEqualTo(cache.maxSize()));
+    }
+
+    @Test
+    public void resizeAndTrimMemory() {
+        final Bitmap bmp = Bitmap.createBitmap(100, 100, Bitmap.Config.ALPHA_8);
+        final int bitmapSize = bmp.getByteCount();
+        TinyLfuImageCache cache = new TinyLfuImageCache(bitmapSize * 16);
+        for (int i = 0; i < 16; i++) {
+            lookUp(cache, "TestBitmap" + i, bmp);
+        }
+        assertThat(cache.getCurrSizeBytes(), greaterThan(bitmapSize * 8));
+
+        cache.resize(bitmapSize * 8);
+        assertThat(cache.getCurrSizeBytes(), lessThanOrEqualTo(bitmapSize * 8));
+
+        cache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL);
+        assertThat(cache.getCurrSizeBytes(), lessThanOrEqualTo(bitmapSize * 4));
+        assertThat(cache.getCurrSizeBytes(), equalTo(bitmapSize * cache.size()));
+
+        cache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+        assertThat(cache.size(), equalTo(0));
+        assertThat(cache.getCurrSizeBytes(), equalTo(0));
+    }
+
+    /**
+     * Replays a "browse deep, then return to root" session against a plain LRU and the TinyLFU cache of
+     * the same size: open the organization, walk several follower lists deep, come back, repeat.  The
+     * walk alone is larger than the cache, so LRU loses the organization's avatars every round.
+     */
+    @Test
+    public void browseDeepThenReturnToRoot() {
+        final Bitmap bmp = Bitmap.createBitmap(100, 100, Bitmap.Config.ALPHA_8);
+        final int maxSize = bmp.getByteCount() * TRACE_CAPACITY;
+        final List<String> trace = browseDeepTrace();
+
+        final float lruHitRate = replay(new ImageCache(maxSize), trace, bmp);
+        final float tinyLfuHitRate = replay(new TinyLfuImageCache(maxSize, TRACE_CAPACITY), trace, bmp);
+
+        // Every return to the organization could be a hit, nothing else is ever requested twice.
+        final float rootRevisitRate = (TRACE_ROUNDS - 1) * TRACE_ROOT_SIZE / (float) trace.size();
+        assertThat(lruHitRate, lessThanOrEqualTo(rootRevisitRate * 0.1f));
+        assertThat(tinyLfuHitRate, greaterThan(rootRevisitRate * 0.9f));
+    }
+
+    private static List<String> browseDeepTrace() {
+        final List<String> trace = new ArrayList<>();
+        int page = 0;
+        for (int round = 0; round < TRACE_ROUNDS; round++) {
+            for (int i = 0; i < TRACE_ROOT_SIZE; i++) {
+                trace.add("root/" + i);
+            }
+            for (int depth = 0; depth < TRACE_DEPTH; depth++, page++) {
+                for (int i = 0; i < TRACE_PAGE_SIZE; i++) {
+                    trace.add("following/" + page + "/" + i);
+                }
+            }
+        }
+        return trace;
+    }
+
+    /**
+     * @return
+     *      Fraction of the trace served from the cache.
+     */
+    private static float replay(Cache cache, List<String> trace, Bitmap bmp) {
+        int hits = 0;
+        for (String key : trace) {
+            if (lookUp(cache, key, bmp)) {
+                hits++;
+            }
+        }
+        return hits / (float) trace.size();
+    }
+
+    /**
+     * Looks the key up the way Picasso does, setting the bitmap on a miss.
+     *
+     * @return
+     *      True on a hit.
+     */
+    private static boolean lookUp(Cache cache, String key, Bitmap bmp) {
+        if (cache.get(key) != null) {
+            return true;
+        }
+        cache.set(key, bmp);
+        return false;
+    }
+}
@@ -0,0 +1,135 @@
+package com.bypassmobile.octo.model;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest= Config.NONE)
+public class UserCollectionTest {
+
+    static final int PAGE_SIZE = 100;
+
+    @Test
+    public void appendsInOrderAndSkipsDuplicates() {
+        final UserCollection users = new UserCollection();
+        assertThat(users.addAll(users(0, 50)), equalTo(50));
+
+        // The next page overlaps the first because the list shifted in between.
+        assertThat(users.addAll(users(45, 50)), equalTo(45));
+        assertThat(users.size(), equalTo(95));
+        for (int i = 0; i < users.size(); i++) {
+            assertThat(users.get(i).getName(), equalTo("user" + i));
+            assertThat(users.indexOf("user" + i), equalTo(i));
+        }
+        assertThat(users.indexOf("stranger"), equalTo(-1));
+        assertThat(users.find("stranger"), nullValue());
+    }
+
+    @Test
+    public void duplicatesUpdateInPlace() {
+        final UserCollection users = new UserCollection();
+        users.addAll(users(0, 3));
+
+        final User moved = new User("user1", "https://avatars/new");
+        assertThat(users.add(moved), equalTo(false));
+        assertThat(users.get(1), sameInstance(moved));
+        assertThat(users.size(), equalTo(3));
+
+        assertThat(users.update(new User("user2", "https://avatars/newer")), equalTo(2));
+        assertThat(users.update(new User("stranger", "https://avatars/1")), equalTo(-1));
+        assertThat(users.size(), equalTo(3));
+    }
+
+    @Test
+    public void replaceAllReindexes() {
+        final UserCollection users = new UserCollection();
+        users.addAll(users(0, 10));
+
+        final List<User> refreshed = users(5, 10);
+        refreshed.add(new User("user7", "https://avatars/again"));
+        users.replaceAll(refreshed);
+        assertThat(users.size(), equalTo(10));
+        assertThat(users.indexOf("user0"), equalTo(-1));
+        assertThat(users.indexOf("user5"), equalTo(0));
+        // Listed twice, first position, last data.
+        assertThat(users.find("user7").getProfileURL(), equalTo("https://avatars/again"));
+        assertThat(users.indexOf("user7"), equalTo(2));
+
+        users.clear();
+        assertThat(users.isEmpty(), equalTo(true));
+        assertThat(users.indexOf("user5"), equalTo(-1));
+    }
+
+    @Test
+    public void snapshotsDoNotChange() {
+        final UserCollection users = new UserCollection(4);
+        users.addAll(users(0, 3));
+        final List<User> snapshot = users.snapshot();
+
+        users.addAll(users(3, 10));
+        users.update(new User("user0", "https://avatars/new"));
+        users.replaceAll(users(100, 2));
+
+        assertThat(snapshot.size(), equalTo(3));
+        assertThat(snapshot.get(0).getProfileURL(), equalTo("https://avatars/0"));
+        assertThat(snapshot.get(2).getName(), equalTo("user2"));
+        assertThat(users.snapshot().size(), equalTo(2));
+        assertThat(users.snapshot().get(1).getName(), equalTo("user101"));
+    }
+
+    @Test
+    public void usersWithoutLoginAreKept() {
+        final UserCollection users = new UserCollection();
+        users.addAll(Arrays.asList(new User(null, null), new User(null, null)));
+        assertThat(users.size(), equalTo(2));
+        assertThat(users.indexOf(null), equalTo(-1));
+    }
+
+    @Test
+    public void largeListOfOverlappingPages() {
+        final int size = 100000;
+        final UserCollection users = new UserCollection();
+        List<User> halfway = null;
+        for (int from = 0; from < size; from += PAGE_SIZE) {
+            // Every page repeats the last few users of the one before.
+            users.addAll(users(Math.max(0, from - 5), PAGE_SIZE + Math.min(from, 5)));
+            final List<User> snapshot = users.snapshot();
+            if (from == size / 2) {
+                halfway = snapshot;
+            }
+        }
+        assertThat(users.size(), equalTo(size));
+        // Later pages never show through an earlier snapshot.
+        assertThat(halfway.size(), equalTo(size / 2 + PAGE_SIZE));
+
+        int found = 0;
+        for (int i = 0; i < size; i++) {
+            if (users.indexOf("user" + i) == i) {
+                found++;
+            }
+        }
+        assertThat(found, equalTo(size));
+    }
+
+    private static List<User> users(int from, int count) {
+        final List<User> users = new ArrayList<>(count);
+        for (int i = from; i < from + count; i++) {
+            users.add(new User("user" + i, "https://avatars/" + i));
+        }
+        return users;
+    }
+}
@@ -0,0 +1,208 @@
+package com.bypassmobile.octo.rest;
+
+import com.bypassmobile.octo.model.User;
+import com.google.gson.Gson;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import retrofit.Callback;
+import retrofit.RestAdapter;
+import retrofit.RetrofitError;
+import retrofit.client.UrlConnectionClient;
+import retrofit.converter.ConversionException;
+import retrofit.converter.Converter;
+import retrofit.converter.GsonConverter;
+import retrofit.http.GET;
+import retrofit.http.Path;
+import retrofit.mime.TypedInput;
+import retrofit.mime.TypedOutput;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest= Config.NONE)
+public class ConditionalRequestTest {
+
+    static final String MEMBERS = "[{\"login\":\"octocat\",\"avatar_url\":\"https://avatars/1\"},"
+            + "{\"login\":\"hubot\",\"avatar_url\":\"https://avatars/2\"}]";
+
+    /**
+     * Blocking version of the endpoint calls, so the test does not need a main looper.
+     */
+    interface SyncEndpoint {
+        @GET("/orgs/{id}/members")
+        List<User> getOrganizationMember(@Path("id") String organization);
+    }
+
+    MockGithubServer server;
+    ValidatorCache validators;
+    ConditionalClient client;
+    CountingConverter parser;
+    SyncEndpoint endpoint;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockGithubServer();
+        validators = new ValidatorCache(8);
+        client = new ConditionalClient(new UrlConnectionClient(), validators);
+        parser = new CountingConverter(new GsonConverter(new Gson()));
+        endpoint = EndpointProvider.createAdapter(server.getUrl(), client,
+                new ConditionalConverter(parser, validators), Executors.newSingleThreadExecutor())
+                .create(SyncEndpoint.class);
+    }
+
+    @After
+    public void tearDown() {
+        server.shutdown();
+    }
+
+    @Test
+    public void notModifiedSkipsParsing() {
+        server.setBody("/orgs/bypasslane/members", MEMBERS);
+
+        final List<User> first = endpoint.getOrganizationMember("bypasslane");
+        assertThat(first.size(), equalTo(2));
+        assertThat(first.get(0).getName(), equalTo("octocat"));
+        assertThat(parser.conversions, equalTo(1));
+
+        // Same ETag, the server answers 304 and the parsed list is handed back as is.
+        final List<User> second = endpoint.getOrganizationMember("bypasslane");
+        assertThat(second, sameInstance(first));
+        assertThat(parser.conversions, equalTo(1));
+        assertThat(server.getNotModifiedCount(), equalTo(1));
+        assertThat(client.getNotModifiedCount(), equalTo(1));
+    }
+
+    @Test
+    public void changedBodyIsParsedAgain() {
+        server.setBody("/orgs/bypasslane/members", MEMBERS);
+        endpoint.getOrganizationMember("bypasslane");
+
+        server.setBody("/orgs/bypasslane/members", "[{\"login\":\"octocat\",\"avatar_url\":\"https://avatars/1\"}]");
+        final List<User> changed = endpoint.getOrganizationMember("bypasslane");
+        assertThat(changed.size(), equalTo(1));
+        assertThat(parser.conversions, equalTo(2));
+        assertThat(server.getNotModifiedCount(), equalTo(0));
+
+        // And the new version is what is validated against from now on.
+        assertThat(endpoint.getOrganizationMember("bypasslane"), sameInstance(changed));
+        assertThat(server.getNotModifiedCount(), equalTo(1));
+    }
+
+    @Test
+    public void validatorsArePerUrl() {
+        server.setBody("/orgs/bypasslane/members", MEMBERS);
+        server.setBody("/orgs/github/members", MEMBERS);
+        endpoint.getOrganizationMember("bypasslane");
+
+        // Same body, but never seen at this URL, so it is a plain request.
+        endpoint.getOrganizationMember("github");
+        assertThat(server.getNotModifiedCount(), equalTo(0));
+        assertThat(parser.conversions, equalTo(2));
+    }
+
+    @Test
+    public void notModifiedPagesKeepTheirLinks() {
+        final String members = "/orgs/bypasslane/members";
+        for (int page = 1; page <= 3; page++) {
+            final String path = members + "?page=" + page + "&per_page=2";
+            server.setBody(path, "[{\"login\":\"u" + page + "\"}]");
+            if (page < 3) {
+                server.addHeader(path, "Link: <" + server.getUrl() + members + "?page=" + (page + 1)
+                        + "&per_page=2>; rel=\"next\", <" + server.getUrl() + members + "?page=3&per_page=2>; rel=\"last\"");
+            }
+        }
+        // GitHub need not repeat the Link header on a 304.
+        server.setHeadersWhenNotModified(false);
+        final GithubEndpoint paged = new RestAdapter.Builder()
+                .setServer(server.getUrl())
+                .setClient(client)
+                .setConverter(new ConditionalConverter(parser, validators))
+                .setExecutors(UserPagerTest.DIRECT, UserPagerTest.DIRECT)
+                .build()
+                .create(GithubEndpoint.class);
+        final UserPager.PageSource source = new UserPager.PageSource() {
+            @Override
+            public void getPage(int page, int perPage, Callback<List<User>> callback) {
+                paged.getOrganizationMember("bypasslane", page, perPage, callback);
+            }
+        };
+
+        final List<Integer> pages = new ArrayList<>();
+        new UserPager(source, 2, 1, new PageRecorder(pages)).loadAll();
+        assertThat(pages, equalTo(Arrays.asList(1, 2, 3)));
+
+        // Every page comes back 304 without a Link header, and the walk still reaches the last one.
+        pages.clear();
+        final UserPager refresh = new UserPager(source, 2, 1, new PageRecorder(pages));
+        refresh.loadAll();
+        assertThat(server.getNotModifiedCount(), equalTo(3));
+        assertThat(pages, equalTo(Arrays.asList(1, 2, 3)));
+        assertThat(refresh.isComplete(), equalTo(true));
+        assertThat(parser.conversions, equalTo(3));
+    }
+
+    /**
+     * Records the pages handed over.
+     */
+    static class PageRecorder implements UserPager.Listener {
+        private final List<Integer> pages;
+
+        PageRecorder(List<Integer> pages) {
+            this.pages = pages;
+        }
+
+        @Override
+        public void onPage(List<User> users, int page) {
+            pages.add(page);
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+        @Override
+        public void onFailure(RetrofitError error, int page) {
+        }
+    }
+
+    /**
+     * Counts how many bodies actually had to be parsed.
+     */
+    static class CountingConverter implements Converter {
+        private final Converter converter;
+        int conversions;
+
+        CountingConverter(Converter converter) {
+            this.converter = converter;
+        }
+
+        @Override
+        public Object fromBody(TypedInput body, Type type) throws ConversionException {
+            conversions++;
+            return converter.fromBody(body, type);
+        }
+
+        @Override
+        public TypedOutput toBody(Object object) {
+            return converter.toBody(object);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.bypassmobile.octo.rest;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest= Config.NONE)
+public class EndpointProviderTest {
+
+    @Test
+    public void endpointIsCreatedOncePerProcess() {
+        final GithubEndpoint first = EndpointProvider.getEndpoint();
+        assertThat(first, notNullValue());
+
+        // Every further screen gets the same endpoint.
+        for (int i = 0; i < 10; i++) {
+            assertThat(EndpointProvider.getEndpoint(), sameInstance(first));
+        }
+        assertThat(EndpointProvider.getCreationCount(), equalTo(1));
+    }
+}
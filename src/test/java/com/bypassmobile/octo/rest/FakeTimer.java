@@ -0,0 +1,77 @@
+package com.bypassmobile.octo.rest;
+
+import com.bypassmobile.octo.image.Clock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timer and clock in one that only move when a test tells them to.  Scheduled runnables run on the
+ * test thread once the time is advanced past their delay.
+ */
+class FakeTimer extends ScheduledThreadPoolExecutor implements Clock {
+
+    private final List<Task> tasks = new ArrayList<>();
+    private long millis;
+
+    FakeTimer() {
+        super(1);
+    }
+
+    @Override
+    public long millis() {
+        return millis;
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        tasks.add(new Task(millis + unit.toMillis(delay), command));
+        return null;
+    }
+
+    /**
+     * Return the delays of the runnables still waiting, in the order they were scheduled.
+     */
+    List<Long> getPendingDelaysMs() {
+        final List<Long> delays = new ArrayList<>();
+        for (Task task : tasks) {
+            delays.add(task.dueMs - millis);
+        }
+        return delays;
+    }
+
+    /**
+     * Move the time forward and run everything that is due by then, in order.
+     */
+    void advance(long ms) {
+        final long target = millis + ms;
+        while (true) {
+            Task next = null;
+            for (Task task : tasks) {
+                if (task.dueMs <= target && (next == null || task.dueMs < next.dueMs)) {
+                    next = task;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            tasks.remove(next);
+            millis = Math.max(millis, next.dueMs);
+            next.command.run();
+        }
+        millis = target;
+    }
+
+    private static final class Task {
+        final long dueMs;
+        final Runnable command;
+
+        Task(long dueMs, Runnable command) {
+            this.dueMs = dueMs;
+            this.command = command;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.bypassmobile.octo.rest;
+
+import com.bypassmobile.octo.model.User;
+import com.google.gson.Gson;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import retrofit.Callback;
+import retrofit.RestAdapter;
+import retrofit.RetrofitError;
+import retrofit.client.Response;
+import retrofit.client.UrlConnectionClient;
+import retrofit.converter.GsonConverter;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest= Config.NONE)
+public class InFlightRequestsTest {
+
+    static final String FOLLOWING = "/users/amy/following";
+    static final String USERS = "[{\"login\":\"octocat\"},{\"login\":\"hubot\"}]";
+
+    MockGithubServer server;
+    ExecutorService httpExecutor;
+    GithubEndpoint endpoint;
+    InFlightRequests requests;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockGithubServer();
+        server.setBody(FOLLOWING, USERS);
+        // Slow enough for every caller in a test to arrive while the first request is running.
+        server.setDelayMs(300);
+        httpExecutor = Executors.newFixedThreadPool(2);
+        endpoint = new RestAdapter.Builder()
+                .setServer(server.getUrl())
+                .setClient(new UrlConnectionClient())
+                .setConverter(new GsonConverter(new Gson()))
+                .setExecutors(httpExecutor, UserPagerTest.DIRECT)
+                .build()
+                .create(GithubEndpoint.class);
+        requests = new InFlightRequests();
+    }
+
+    @After
+    public void tearDown() {
+        httpExecutor.shutdownNow();
+        server.shutdown();
+    }
+
+    @Test
+    public void concurrentCallersShareOneCall() throws InterruptedException {
+        final LatchCallback first = new LatchCallback();
+        final LatchCallback second = new LatchCallback();
+        requests.join("following:amy", following("amy"), first);
+        requests.join("following:amy", following("amy"), second);
+        assertThat(requests.isInFlight("following:amy"), equalTo(true));
+
+        first.await();
+        second.await();
+        assertThat(server.getRequests().size(), equalTo(1));
+        assertThat(first.users.size(), equalTo(2));
+        assertThat(second.users, sameInstance(first.users));
+        assertThat(requests.getStartedCount(), equalTo(1));
+        assertThat(requests.getJoinedCount(), equalTo(1));
+        assertThat(requests.isInFlight("following:amy"), equalTo(false));
+
+        // Finished requests are not reused, the next caller goes to the network.
+        final LatchCallback third = new LatchCallback();
+        requests.join("following:amy", following("amy"), third);
+        third.await();
+        assertThat(server.getRequests().size(), equalTo(2));
+    }
+
+    @Test
+    public void differentKeysDoNotShare() throws InterruptedException {
+        server.setBody("/users/bob/following", USERS);
+        final LatchCallback amy = new LatchCallback();
+        final LatchCallback bob = new LatchCallback();
+        requests.join("following:amy", following("amy"), amy);
+        requests.join("following:bob", following("bob"), bob);
+        amy.await();
+        bob.await();
+        assertThat(server.getRequests().size(), equalTo(2));
+        assertThat(requests.getJoinedCount(), equalTo(0));
+    }
+
+    @Test
+    public void leavingCallerIsNotCalled() throws InterruptedException {
+        final LatchCallback destroyed = new LatchCallback();
+        final LatchCallback recreated = new LatchCallback();
+        requests.join("following:amy", following("amy"), destroyed);
+        assertThat(requests.leave("following:amy", destroyed), equalTo(true));
+        requests.join("following:amy", following("amy"), recreated);
+
+        recreated.await();
+        assertThat(server.getRequests().size(), equalTo(1));
+        assertThat(destroyed.latch.getCount(), equalTo(1L));
+        assertThat(requests.leave("following:amy", recreated), equalTo(false));
+    }
+
+    @Test
+    public void failureReachesEveryCaller() throws InterruptedException {
+        final LatchCallback first = new LatchCallback();
+        final LatchCallback second = new LatchCallback();
+        requests.join("following:nobody", following("nobody"), first);
+        requests.join("following:nobody", following("nobody"), second);
+
+        first.await();
+        second.await();
+        assertThat(server.getRequests().size(), equalTo(1));
+        assertThat(first.error, notNullValue());
+        assertThat(second.error, sameInstance(first.error));
+        assertThat(first.users, nullValue());
+        assertThat(requests.isInFlight("following:nobody"), equalTo(false));
+    }
+
+    @Test
+    public void pagersShareTheirPages() throws InterruptedException {
+        final CountDownLatch pages = new CountDownLatch(2);
+        final CoalescingPageSource rotated = pageSource();
+        final CoalescingPageSource current = pageSource();
+        final UserPager old = new UserPager(rotated, 2, 1, new LatchListener(pages));
+        final UserPager recreated = new UserPager(current, 2, 1, new LatchListener(pages));
+
+        // A screen recreated before its page arrived, and a second screen for the same user.
+        old.loadNext();
+        new UserPager(pageSource(), 2, 1, new LatchListener(pages)).loadNext();
+        rotated.detach();
+        recreated.loadNext();
+
+        assertThat(pages.await(5, TimeUnit.SECONDS), equalTo(true));
+        assertThat(server.getRequests().size(), equalTo(1));
+        assertThat(old.getPagesDelivered(), equalTo(0));
+        assertThat(recreated.getPagesDelivered(), equalTo(1));
+    }
+
+    private CoalescingPageSource pageSource() {
+        return new CoalescingPageSource(new UserPager.PageSource() {
+            @Override
+            public void getPage(int page, int perPage, Callback<List<User>> callback) {
+                endpoint.getFollowingUser("amy", page, perPage, callback);
+            }
+        }, "following:amy", requests);
+    }
+
+    private InFlightRequests.Request<List<User>> following(final String login) {
+        return new InFlightRequests.Request<List<User>>() {
+            @Override
+            public void start(Callback<List<User>> callback) {
+                endpoint.getFollowingUser(login, callback);
+            }
+        };
+    }
+
+    private static class LatchCallback implements Callback<List<User>> {
+        final CountDownLatch latch = new CountDownLatch(1);
+        volatile List<User> users;
+        volatile RetrofitError error;
+
+        @Override
+        public void success(List<User> users, Response response) {
+            this.users = users;
+            latch.countDown();
+        }
+
+        @Override
+        public void failure(RetrofitError error) {
+            this.error = error;
+            latch.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertThat(latch.await(5, TimeUnit.SECONDS), equalTo(true));
+        }
+    }
+
+    private static class LatchListener implements UserPager.Listener {
+        final CountDownLatch latch;
+
+        LatchListener(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        public void onPage(List<User> users, int page) {
+            latch.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+        @Override
+        public void onFailure(RetrofitError error, int page) {
+        }
+    }
+}
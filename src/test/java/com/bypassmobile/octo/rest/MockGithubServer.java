@@ -0,0 +1,157 @@
+package com.bypassmobile.octo.rest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Local HTTP server standing in for the GitHub API.  Serves a fixed body per path with an ETag and
+ * answers matching conditional requests with 304 Not Modified.
+ */
+class MockGithubServer {
+
+    private final HttpServer server;
+    private final Map<String, String> bodies = new HashMap<>();
+    private final Map<String, List<String>> headers = new HashMap<>();
+    private final Map<String, Integer> statuses = new HashMap<>();
+    private final List<String> requests = new ArrayList<>();
+
+    private int notModifiedCount;
+    private long delayMs;
+    private boolean headersWhenNotModified = true;
+
+    MockGithubServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange);
+            }
+        });
+        server.start();
+    }
+
+    String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Serve the body at the path.  The path may include a query, for example
+     * {@code /orgs/bypasslane/members?page=2&per_page=50}, which is then preferred over the same path
+     * without one.  The ETag changes with the body.
+     */
+    synchronized void setBody(String path, String body) {
+        bodies.put(path, body);
+    }
+
+    /**
+     * Answer requests for the path, which may include a query, with the status instead of 200.  The
+     * body is still sent.
+     */
+    synchronized void setStatus(String path, int status) {
+        statuses.put(path, status);
+    }
+
+    /**
+     * Add a response header to every response for the path, which may include a query.
+     */
+    synchronized void addHeader(String path, String header) {
+        if (!headers.containsKey(path)) {
+            headers.put(path, new ArrayList<String>());
+        }
+        headers.get(path).add(header);
+    }
+
+    /**
+     * Drop the headers added for the path.
+     */
+    synchronized void clearHeaders(String path) {
+        headers.remove(path);
+    }
+
+    /**
+     * Select whether the headers added for a path are sent with a 304 Not Modified too, which the
+     * server may leave out.  On by default.
+     */
+    synchronized void setHeadersWhenNotModified(boolean sent) {
+        this.headersWhenNotModified = sent;
+    }
+
+    /**
+     * Hold every response back for the given time, so requests overlap.
+     */
+    synchronized void setDelayMs(long delayMs) {
+        this.delayMs = delayMs;
+    }
+
+    /**
+     * Return every request path and query received so far, in order.
+     */
+    synchronized List<String> getRequests() {
+        return new ArrayList<>(requests);
+    }
+
+    synchronized int getNotModifiedCount() {
+        return notModifiedCount;
+    }
+
+    void shutdown() {
+        server.stop(0);
+    }
+
+    private synchronized void respond(HttpExchange exchange) throws IOException {
+        final String path = exchange.getRequestURI().getPath();
+        final String query = exchange.getRequestURI().getRawQuery();
+        final String request = (query != null) ? path + "?" + query : path;
+        requests.add(request);
+        if (delayMs > 0) {
+            try {
+                Thread.sleep(delayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        final String key = bodies.containsKey(request) ? request : path;
+        final String body = bodies.get(key);
+        if (body == null) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+
+        final String eTag = "\"" + Integer.toHexString(body.hashCode()) + "\"";
+        exchange.getResponseHeaders().add("ETag", eTag);
+        exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+        final boolean notModified = eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"));
+        if (headers.containsKey(key) && (headersWhenNotModified || !notModified)) {
+            for (String header : headers.get(key)) {
+                final int colon = header.indexOf(':');
+                exchange.getResponseHeaders().add(header.substring(0, colon).trim(), header.substring(colon + 1).trim());
+            }
+        }
+        if (notModified) {
+            notModifiedCount++;
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+
+        final byte[] bytes = body.getBytes("UTF-8");
+        exchange.sendResponseHeaders(statuses.containsKey(key) ? statuses.get(key) : 200, bytes.length);
+        final OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.bypassmobile.octo.rest;
+
+import com.bypassmobile.octo.model.User;
+import com.google.gson.Gson;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+
+import retrofit.RetrofitError;
+import retrofit.client.Client;
+import retrofit.client.Header;
+import retrofit.client.Request;
+import retrofit.client.Response;
+import retrofit.client.UrlConnectionClient;
+import retrofit.converter.GsonConverter;
+import retrofit.http.GET;
+import retrofit.http.Path;
+import retrofit.mime.TypedByteArray;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest= Config.NONE)
+public class RequestMetricsTest {
+
+    static final String MEMBERS = "[{\"login\":\"octocat\",\"avatar_url\":\"https://avatars/1\"}]";
+
+    interface SyncEndpoint {
+        @GET("/orgs/{id}/members")
+        List<User> getOrganizationMember(@Path("id") String organization);
+
+        @GET("/users/{id}/following")
+        List<User> getFollowingUser(@Path("id") String user);
+    }
+
+    MockGithubServer server;
+    RequestMetrics metrics;
+    SyncEndpoint endpoint;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockGithubServer();
+        metrics = new RequestMetrics(16);
+        final ValidatorCache validators = new ValidatorCache(8);
+        endpoint = EndpointProvider.createAdapter(server.getUrl(),
+                new ConditionalClient(new MetricsClient(new UrlConnectionClient(), metrics, SyncEndpoint.class), validators),
+                new ConditionalConverter(new GsonConverter(new Gson()), validators), Executors.newSingleThreadExecutor())
+                .create(SyncEndpoint.class);
+    }
+
+    @After
+    public void tearDown() {
+        server.shutdown();
+    }
+
+    @Test
+    public void recordsTemplateStatusBytesAndCacheResult() throws IOException {
+        server.setBody("/orgs/bypasslane/members", MEMBERS);
+        endpoint.getOrganizationMember("bypasslane");
+        endpoint.getOrganizationMember("bypasslane");
+
+        final List<RequestMetrics.Record> records = metrics.snapshot();
+        assertThat(records.size(), equalTo(2));
+
+        final RequestMetrics.Record first = records.get(0);
+        assertThat(first.method, equalTo("GET"));
+        assertThat(first.urlTemplate, equalTo("/orgs/{id}/members"));
+        assertThat(first.status, equalTo(200));
+        assertThat(first.cacheResult, equalTo(RequestMetrics.CacheResult.NETWORK));
+        assertThat(first.getBytes(), equalTo((long) MEMBERS.getBytes("UTF-8").length));
+
+        // Same ETag, nothing but headers came over the wire.
+        final RequestMetrics.Record second = records.get(1);
+        assertThat(second.status, equalTo(304));
+        assertThat(second.cacheResult, equalTo(RequestMetrics.CacheResult.NOT_MODIFIED));
+        assertThat(second.getBytes(), equalTo(0L));
+    }
+
+    @Test
+    public void countsBodiesOfUnknownLength() throws IOException {
+        final byte[] gzipped = new byte[1234];
+        final Client chunked = new Client() {
+            @Override
+            public Response execute(Request request) {
+                return new Response(200, "OK", Collections.<Header>emptyList(), new TypedByteArray("application/json", gzipped) {
+                    @Override
+                    public long length() {
+                        return -1;
+                    }
+                });
+            }
+        };
+        final Response response = new ConditionalClient(new MetricsClient(chunked, metrics, SyncEndpoint.class), new ValidatorCache(8))
+                .execute(new Request("GET", "https://api.github.com/users/octocat/following", Collections.<Header>emptyList(), null));
+        assertThat(MetricsClient.getBytesRead(response.getBody()), equalTo(0L));
+
+        final InputStream in = response.getBody().in();
+        while (in.read(new byte[100]) != -1) {
+            // read it all, like the converter does
+        }
+        assertThat(MetricsClient.getBytesRead(response.getBody()), equalTo(1234L));
+        assertThat(metrics.snapshot().get(0).getBytes(), equalTo(1234L));
+    }
+
+    @Test
+    public void recordsErrors() {
+        try {
+            endpoint.getFollowingUser("nobody");
+        } catch (RetrofitError e) {
+            // expected, the server has no body for it
+        }
+        final RequestMetrics.Record notFound = metrics.snapshot().get(0);
+        assertThat(notFound.urlTemplate, equalTo("/users/{id}/following"));
+        assertThat(notFound.status, equalTo(404));
+
+        server.shutdown();
+        try {
+            endpoint.getFollowingUser("nobody");
+        } catch (RetrofitError e) {
+            // expected, nothing is listening anymore
+        }
+        final RequestMetrics.Record failed = metrics.snapshot().get(1);
+        assertThat(failed.status, equalTo(-1));
+        assertThat(failed.cacheResult, equalTo(RequestMetrics.CacheResult.FAILED));
+    }
+
+    @Test
+    public void unknownPathsAreRecordedAsIs() {
+        final MetricsClient client = new MetricsClient(new UrlConnectionClient(), metrics, SyncEndpoint.class);
+        assertThat(client.templateOf("https://api.github.com/users/octocat/following?page=2&per_page=50"),
+                equalTo("/users/{id}/following"));
+        assertThat(client.templateOf("https://api.github.com/users/octocat"), equalTo("/users/octocat"));
+    }
+
+    @Test
+    public void ringKeepsTheMostRecentRecords() {
+        final RequestMetrics ring = new RequestMetrics(3);
+        assertThat(ring.getCapacity(), equalTo(4));
+        for (int i = 0; i < 10; i++) {
+            ring.record("GET", "/users/{id}", 200, i, 0, RequestMetrics.CacheResult.NETWORK);
+        }
+
+        final List<RequestMetrics.Record> records = ring.snapshot();
+        assertThat(ring.getRecordedCount(), equalTo(10L));
+        assertThat(records.size(), equalTo(4));
+        for (int i = 0; i < records.size(); i++) {
+            assertThat(records.get(i).latencyMs, equalTo(6L + i));
+        }
+    }
+
+    @Test
+    public void concurrentWritersNeverLoseTheRing() throws InterruptedException {
+        final RequestMetrics ring = new RequestMetrics(64);
+        final int threads = 4;
+        final int perThread = 10000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        ring.record("GET", "/users/{id}", 200, i, i, RequestMetrics.CacheResult.NETWORK);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+
+        assertThat(ring.getRecordedCount(), equalTo((long) threads * perThread));
+        final List<RequestMetrics.Record> records = ring.snapshot();
+        assertThat(records.size(), equalTo(64));
+        for (int i = 0; i < records.size(); i++) {
+            assertThat(records.get(i).sequence, equalTo((long) threads * perThread - 64 + i));
+        }
+    }
+
+    @Test
+    public void dumpSummarizesPerTemplate() {
+        server.setBody("/orgs/bypasslane/members", MEMBERS);
+        endpoint.getOrganizationMember("bypasslane");
+        endpoint.getOrganizationMember("bypasslane");
+
+        final String dump = metrics.dump();
+        assertThat(dump, containsString("Requests: 2 recorded, last 2 kept"));
+        assertThat(dump, containsString("GET /orgs/{id}/members: 2 requests"));
+        assertThat(dump, containsString("1 not modified, 0 failed"));
+    }
+}
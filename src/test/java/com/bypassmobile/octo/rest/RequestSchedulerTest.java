@@ -0,0 +1,268 @@
+package com.bypassmobile.octo.rest;
+
+import com.bypassmobile.octo.image.Clock;
+import com.bypassmobile.octo.model.User;
+import com.google.gson.Gson;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import retrofit.Callback;
+import retrofit.RestAdapter;
+import retrofit.RetrofitError;
+import retrofit.client.Header;
+import retrofit.client.Response;
+import retrofit.client.UrlConnectionClient;
+import retrofit.converter.GsonConverter;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest= Config.NONE)
+public class RequestSchedulerTest {
+
+    static final String MEMBERS = "/orgs/bypasslane/members";
+    static final String USERS = "[{\"login\":\"octocat\"}]";
+
+    /** Wall clock time the tests run at, the budget resets an hour later. */
+    static final long NOW_MS = 1400000000000L;
+    static final long RESET_S = NOW_MS / 1000 + 3600;
+
+    MockGithubServer server;
+    ScheduledExecutorService timer;
+    MutableClock clock;
+    RequestScheduler scheduler;
+    GithubEndpoint endpoint;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockGithubServer();
+        server.setBody(MEMBERS, USERS);
+        timer = Executors.newSingleThreadScheduledExecutor();
+        clock = new MutableClock();
+        scheduler = new RequestScheduler(timer, UserPagerTest.DIRECT, clock, RequestScheduler.DEFAULT_MAX_DELAY_MS);
+        endpoint = new RestAdapter.Builder()
+                .setServer(server.getUrl())
+                .setClient(new RateLimitClient(new UrlConnectionClient(), scheduler))
+                .setConverter(new GsonConverter(new Gson()))
+                .setExecutors(UserPagerTest.DIRECT, UserPagerTest.DIRECT)
+                .build()
+                .create(GithubEndpoint.class);
+    }
+
+    @After
+    public void tearDown() {
+        timer.shutdownNow();
+        server.shutdown();
+    }
+
+    @Test
+    public void readsRateLimitHeaders() {
+        assertThat(scheduler.getRemaining(), equalTo(-1));
+        serveRateLimit(60, 59);
+
+        final ResultCallback result = schedule(RequestScheduler.Priority.FOREGROUND);
+        assertThat(result.users.size(), equalTo(1));
+        assertThat(scheduler.getLimit(), equalTo(60));
+        assertThat(scheduler.getRemaining(), equalTo(59));
+        assertThat(scheduler.getResetAtMs(), equalTo(RESET_S * 1000));
+        assertThat(scheduler.getMinutesUntilReset(), equalTo(60));
+    }
+
+    @Test
+    public void prefetchesKeepOutOfTheReserve() {
+        // A quarter of the budget is kept for screens.
+        serveRateLimit(60, 16);
+        schedule(RequestScheduler.Priority.FOREGROUND);
+
+        assertThat(schedule(RequestScheduler.Priority.PREFETCH).users, notNullValue());
+        assertThat(scheduler.getRemaining(), equalTo(16));
+
+        serveRateLimit(60, 15);
+        schedule(RequestScheduler.Priority.FOREGROUND);
+        final ResultCallback prefetch = schedule(RequestScheduler.Priority.PREFETCH);
+        assertThat(prefetch.users, nullValue());
+        assertThat(RequestScheduler.isRateLimited(prefetch.error), equalTo(true));
+        assertThat(scheduler.getRejectedCount(), equalTo(1));
+
+        // Screens still get through.
+        assertThat(schedule(RequestScheduler.Priority.FOREGROUND).users, notNullValue());
+        assertThat(server.getRequests().size(), equalTo(4));
+    }
+
+    @Test
+    public void exhaustedBudgetRejectsWithoutNetwork() {
+        serveRateLimit(60, 1);
+        schedule(RequestScheduler.Priority.FOREGROUND);
+
+        // The response said one is left, and it is counted as spent before the next response arrives.
+        final ResultCallback first = new ResultCallback();
+        final ResultCallback second = new ResultCallback();
+        scheduler.schedule(RequestScheduler.Priority.FOREGROUND, heldRequest(), first);
+        scheduler.schedule(RequestScheduler.Priority.FOREGROUND, heldRequest(), second);
+        assertThat(scheduler.getRemaining(), equalTo(0));
+        assertThat(second.error.getCause(), instanceOf(RateLimitExceededException.class));
+        assertThat(((RateLimitExceededException) second.error.getCause()).getResetAtMs(), equalTo(RESET_S * 1000));
+        assertThat(server.getRequests().size(), equalTo(1));
+    }
+
+    @Test
+    public void budgetComesBackAfterReset() {
+        serveRateLimit(60, 0);
+        schedule(RequestScheduler.Priority.FOREGROUND);
+        assertThat(schedule(RequestScheduler.Priority.FOREGROUND).error, notNullValue());
+
+        clock.millis = RESET_S * 1000;
+        assertThat(scheduler.getRemaining(), equalTo(60));
+        assertThat(schedule(RequestScheduler.Priority.PREFETCH).users, notNullValue());
+    }
+
+    @Test
+    public void heldUntilResetWhenItIsClose() throws InterruptedException {
+        serveRateLimit(60, 0);
+        schedule(RequestScheduler.Priority.FOREGROUND);
+        clock.millis = RESET_S * 1000 - 100;
+
+        final ResultCallback held = new ResultCallback();
+        scheduler.schedule(RequestScheduler.Priority.FOREGROUND, request(), held);
+        assertThat(scheduler.getDeferredCount(), equalTo(1));
+        assertThat(held.latch.getCount(), equalTo(1L));
+
+        clock.millis = RESET_S * 1000;
+        assertThat(held.latch.await(5, TimeUnit.SECONDS), equalTo(true));
+        assertThat(held.users, notNullValue());
+        assertThat(server.getRequests().size(), equalTo(2));
+    }
+
+    @Test
+    public void heldRequestsCallBackOnTheCallbackExecutor() throws InterruptedException {
+        final BlockingQueue<Runnable> mainQueue = new LinkedBlockingQueue<>();
+        scheduler = new RequestScheduler(timer, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mainQueue.add(command);
+            }
+        }, clock, RequestScheduler.DEFAULT_MAX_DELAY_MS);
+        scheduler.onResponse(Arrays.asList(new Header(RequestScheduler.HEADER_LIMIT, "60"),
+                new Header(RequestScheduler.HEADER_REMAINING, "0"), new Header(RequestScheduler.HEADER_RESET, Long.toString(RESET_S))));
+        clock.millis = RESET_S * 1000 - 100;
+
+        final ResultCallback started = new ResultCallback();
+        final ResultCallback rejected = new ResultCallback();
+        scheduler.schedule(RequestScheduler.Priority.FOREGROUND, request(), started);
+        scheduler.schedule(RequestScheduler.Priority.FOREGROUND, request(), rejected);
+        clock.millis = RESET_S * 1000;
+
+        // Both wait for the main thread, even the one turned away because the first used the budget up.
+        final Runnable first = mainQueue.poll(5, TimeUnit.SECONDS);
+        final Runnable second = mainQueue.poll(5, TimeUnit.SECONDS);
+        assertThat(started.latch.getCount(), equalTo(1L));
+        assertThat(rejected.latch.getCount(), equalTo(1L));
+        first.run();
+        // The first one back uses up the next hour's budget.
+        scheduler.onResponse(Arrays.asList(new Header(RequestScheduler.HEADER_LIMIT, "60"),
+                new Header(RequestScheduler.HEADER_REMAINING, "0"), new Header(RequestScheduler.HEADER_RESET, Long.toString(RESET_S + 3600))));
+        second.run();
+        assertThat(started.users, notNullValue());
+        assertThat(started.thread, equalTo(Thread.currentThread()));
+        assertThat(rejected.error.getCause(), instanceOf(RateLimitExceededException.class));
+        assertThat(rejected.thread, equalTo(Thread.currentThread()));
+    }
+
+    @Test
+    public void serverRefusal() {
+        serveRateLimit(60, 0);
+        server.setStatus(MEMBERS, 403);
+
+        // Nothing known yet, so the request goes out and the server refuses it.
+        final ResultCallback refused = schedule(RequestScheduler.Priority.FOREGROUND);
+        assertThat(refused.error.getResponse().getStatus(), equalTo(403));
+        assertThat(RequestScheduler.isRateLimited(refused.error), equalTo(true));
+        assertThat(scheduler.getRemaining(), equalTo(0));
+    }
+
+    private void serveRateLimit(int limit, int remaining) {
+        server.clearHeaders(MEMBERS);
+        server.addHeader(MEMBERS, RequestScheduler.HEADER_LIMIT + ": " + limit);
+        server.addHeader(MEMBERS, RequestScheduler.HEADER_REMAINING + ": " + remaining);
+        server.addHeader(MEMBERS, RequestScheduler.HEADER_RESET + ": " + RESET_S);
+    }
+
+    private ResultCallback schedule(RequestScheduler.Priority priority) {
+        final ResultCallback callback = new ResultCallback();
+        scheduler.schedule(priority, request(), callback);
+        return callback;
+    }
+
+    private InFlightRequests.Request<List<User>> request() {
+        return new InFlightRequests.Request<List<User>>() {
+            @Override
+            public void start(Callback<List<User>> callback) {
+                endpoint.getOrganizationMember("bypasslane", callback);
+            }
+        };
+    }
+
+    /**
+     * Request that goes out but never comes back, like one still on its way.
+     */
+    private InFlightRequests.Request<List<User>> heldRequest() {
+        return new InFlightRequests.Request<List<User>>() {
+            @Override
+            public void start(Callback<List<User>> callback) {
+            }
+        };
+    }
+
+    private static class MutableClock implements Clock {
+        volatile long millis = NOW_MS;
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+    }
+
+    private static class ResultCallback implements Callback<List<User>> {
+        final CountDownLatch latch = new CountDownLatch(1);
+        volatile List<User> users;
+        volatile RetrofitError error;
+        volatile Thread thread;
+
+        @Override
+        public void success(List<User> users, Response response) {
+            this.users = users;
+            thread = Thread.currentThread();
+            latch.countDown();
+        }
+
+        @Override
+        public void failure(RetrofitError error) {
+            this.error = error;
+            thread = Thread.currentThread();
+            latch.countDown();
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package com.bypassmobile.octo.rest;
+
+import com.bypassmobile.octo.model.User;
+import com.google.gson.Gson;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import retrofit.Callback;
+import retrofit.RestAdapter;
+import retrofit.RetrofitError;
+import retrofit.client.Header;
+import retrofit.client.Response;
+import retrofit.client.UrlConnectionClient;
+import retrofit.converter.GsonConverter;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+/**
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest= Config.NONE)
+public class RetryPolicyTest {
+
+    static final String MEMBERS = "/orgs/bypasslane/members";
+    static final String USERS = "[{\"login\":\"octocat\"}]";
+
+    MockGithubServer server;
+    FakeTimer timer;
+    GithubEndpoint endpoint;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockGithubServer();
+        server.setBody(MEMBERS, USERS);
+        timer = new FakeTimer();
+        endpoint = new RestAdapter.Builder()
+                .setServer(server.getUrl())
+                .setClient(new UrlConnectionClient())
+                .setConverter(new GsonConverter(new Gson()))
+                .setExecutors(UserPagerTest.DIRECT, UserPagerTest.DIRECT)
+                .build()
+                .create(GithubEndpoint.class);
+    }
+
+    @After
+    public void tearDown() {
+        server.shutdown();
+    }
+
+    @Test
+    public void retriesServerErrorsWithBackoff() {
+        final RetryPolicy policy = policy().maxAttempts(4).build();
+        server.setStatus(MEMBERS, 503);
+
+        final ResultCallback result = execute(policy);
+        assertThat(server.getRequests().size(), equalTo(1));
+        assertThat(result.done, equalTo(false));
+
+        // Each wait is within [backoff / 2, backoff], the backoff doubling from 1 second.
+        long backoff = 1000;
+        for (int retry = 1; retry <= 2; retry++) {
+            final long delay = timer.getPendingDelaysMs().get(0);
+            assertThat(delay, greaterThanOrEqualTo(backoff / 2));
+            assertThat(delay, lessThanOrEqualTo(backoff));
+            timer.advance(delay);
+            assertThat(server.getRequests().size(), equalTo(1 + retry));
+            backoff *= 2;
+        }
+
+        // The server recovers before the last attempt.
+        server.setStatus(MEMBERS, 200);
+        timer.advance(timer.getPendingDelaysMs().get(0));
+        assertThat(result.users.size(), equalTo(1));
+        assertThat(policy.getRetryCount(), equalTo(3));
+        assertThat(policy.getGaveUpCount(), equalTo(0));
+    }
+
+    @Test
+    public void givesUpAfterTheLastAttempt() {
+        final RetryPolicy policy = policy().maxAttempts(2).build();
+        server.setStatus(MEMBERS, 500);
+
+        final ResultCallback result = execute(policy);
+        timer.advance(10000);
+        assertThat(server.getRequests().size(), equalTo(2));
+        assertThat(result.error.getResponse().getStatus(), equalTo(500));
+        assertThat(timer.getPendingDelaysMs().isEmpty(), equalTo(true));
+        assertThat(policy.getGaveUpCount(), equalTo(1));
+    }
+
+    @Test
+    public void clientErrorsAreNotRetried() {
+        final RetryPolicy policy = policy().build();
+        server.setStatus(MEMBERS, 404);
+
+        final ResultCallback result = execute(policy);
+        assertThat(result.error.getResponse().getStatus(), equalTo(404));
+        assertThat(timer.getPendingDelaysMs().isEmpty(), equalTo(true));
+        assertThat(policy.getRetryCount(), equalTo(0));
+    }
+
+    @Test
+    public void honorsRetryAfter() {
+        final RetryPolicy policy = policy().backoff(100, 30000).build();
+        server.setStatus(MEMBERS, 403);
+        server.addHeader(MEMBERS, "Retry-After: 7");
+
+        execute(policy);
+        assertThat(timer.getPendingDelaysMs().get(0), equalTo(7000L));
+        timer.advance(6999);
+        assertThat(server.getRequests().size(), equalTo(1));
+        timer.advance(1);
+        assertThat(server.getRequests().size(), equalTo(2));
+
+        // Asked to wait longer than the policy allows, the request fails instead.
+        server.clearHeaders(MEMBERS);
+        server.addHeader(MEMBERS, "Retry-After: 120");
+        timer.advance(100000);
+        final ResultCallback result = execute(policy);
+        assertThat(result.error.getResponse().getStatus(), equalTo(403));
+        assertThat(timer.getPendingDelaysMs().isEmpty(), equalTo(true));
+    }
+
+    @Test
+    public void usedUpRateLimitIsLeftToTheScheduler() {
+        final RetryPolicy policy = policy().build();
+        server.setStatus(MEMBERS, 403);
+        server.addHeader(MEMBERS, RequestScheduler.HEADER_REMAINING + ": 0");
+
+        final ResultCallback result = execute(policy);
+        assertThat(RequestScheduler.isRateLimited(result.error), equalTo(true));
+        assertThat(policy.getRetryCount(), equalTo(0));
+    }
+
+    @Test
+    public void parsesRetryAfter() {
+        assertThat(RetryPolicy.retryAfterMs(headers("Retry-After", "30"), 0), equalTo(30000L));
+        assertThat(RetryPolicy.retryAfterMs(headers("Retry-After", "Thu, 01 Jan 1970 00:01:00 GMT"), 15000), equalTo(45000L));
+        assertThat(RetryPolicy.retryAfterMs(headers("Retry-After", "soon"), 0), equalTo(-1L));
+        assertThat(RetryPolicy.retryAfterMs(Collections.<Header>emptyList(), 0), equalTo(-1L));
+    }
+
+    @Test
+    public void backoffIsCapped() {
+        final RetryPolicy policy = policy().backoff(1000, 5000).build();
+        assertThat(policy.backoffMs(1), equalTo(1000L));
+        assertThat(policy.backoffMs(3), equalTo(4000L));
+        assertThat(policy.backoffMs(4), equalTo(5000L));
+        assertThat(policy.backoffMs(100), equalTo(5000L));
+    }
+
+    @Test
+    public void circuitOpensAfterConsecutiveFailures() {
+        final RetryPolicy policy = policy().maxAttempts(1).circuitBreaker(3, 30000).build();
+        server.setStatus(MEMBERS, 502);
+        for (int i = 0; i < 3; i++) {
+            execute(policy);
+        }
+        assertThat(policy.getState(), equalTo(RetryPolicy.State.OPEN));
+
+        // Fails without going out while open.
+        final ResultCallback shortCircuited = execute(policy);
+        assertThat(shortCircuited.error.getCause(), instanceOf(CircuitOpenException.class));
+        assertThat(server.getRequests().size(), equalTo(3));
+        assertThat(policy.getShortCircuitedCount(), equalTo(1));
+
+        // A failed trial opens it for another round.
+        timer.advance(30000);
+        execute(policy);
+        assertThat(server.getRequests().size(), equalTo(4));
+        assertThat(policy.getState(), equalTo(RetryPolicy.State.OPEN));
+        assertThat(execute(policy).error.getCause(), instanceOf(CircuitOpenException.class));
+
+        // A successful trial closes it.
+        server.setStatus(MEMBERS, 200);
+        timer.advance(30000);
+        assertThat(execute(policy).users, notNullValue());
+        assertThat(policy.getState(), equalTo(RetryPolicy.State.CLOSED));
+        assertThat(execute(policy).error, nullValue());
+    }
+
+    @Test
+    public void openCircuitStopsRetries() {
+        final RetryPolicy policy = policy().maxAttempts(10).circuitBreaker(2, 30000).build();
+        server.setStatus(MEMBERS, 503);
+
+        final ResultCallback result = execute(policy);
+        timer.advance(100000);
+        assertThat(server.getRequests().size(), equalTo(2));
+        assertThat(result.error.getResponse().getStatus(), equalTo(503));
+    }
+
+    @Test
+    public void retriesCallBackOnTheCallbackExecutor() throws InterruptedException {
+        final ScheduledExecutorService realTimer = Executors.newSingleThreadScheduledExecutor();
+        final BlockingQueue<Runnable> mainQueue = new LinkedBlockingQueue<>();
+        final RetryPolicy policy = new RetryPolicy.Builder(realTimer, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mainQueue.add(command);
+            }
+        }).backoff(1, 1).maxAttempts(2).circuitBreaker(2, 30000).build();
+        server.setStatus(MEMBERS, 503);
+
+        try {
+            // The first waits for a retry, the second opens the circuit while it does.
+            final ResultCallback retried = execute(policy);
+            final ResultCallback opened = execute(policy);
+            assertThat(retried.done, equalTo(false));
+            assertThat(opened.error.getResponse().getStatus(), equalTo(503));
+
+            // The retry is short circuited on the thread the request came from, not the timer's.
+            final Runnable retry = mainQueue.poll(5, TimeUnit.SECONDS);
+            assertThat(retried.done, equalTo(false));
+            retry.run();
+            assertThat(retried.error.getCause(), instanceOf(CircuitOpenException.class));
+            assertThat(retried.thread, equalTo(Thread.currentThread()));
+        } finally {
+            realTimer.shutdownNow();
+        }
+    }
+
+    private RetryPolicy.Builder policy() {
+        return new RetryPolicy.Builder(timer, UserPagerTest.DIRECT).clock(timer).random(new Random(42));
+    }
+
+    private ResultCallback execute(RetryPolicy policy) {
+        final ResultCallback result = new ResultCallback();
+        policy.execute(new InFlightRequests.Request<List<User>>() {
+            @Override
+            public void start(Callback<List<User>> callback) {
+                endpoint.getOrganizationMember("bypasslane", callback);
+            }
+        }, result);
+        return result;
+    }
+
+    private static List<Header> headers(String name, String value) {
+        return Arrays.asList(new Header(name, value));
+    }
+
+    private static class ResultCallback implements Callback<List<User>> {
+        boolean done;
+        List<User> users;
+        RetrofitError error;
+        Thread thread;
+
+        @Override
+        public void success(List<User> users, Response response) {
+            this.users = users;
+            thread = Thread.currentThread();
+            done = true;
+        }
+
+        @Override
+        public void failure(RetrofitError error) {
+            this.error = error;
+            thread = Thread.currentThread();
+            done = true;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.bypassmobile.octo.rest;
+
+import com.bypassmobile.octo.model.User;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import retrofit.converter.ConversionException;
+import retrofit.converter.Converter;
+import retrofit.converter.GsonConverter;
+import retrofit.mime.TypedByteArray;
+import retrofit.mime.TypedInput;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest= Config.NONE)
+public class UserListParserTest {
+
+    static final Type USER_LIST = new TypeToken<List<User>>() {}.getType();
+
+    /** A full GitHub user object, most of which the app never reads. */
+    static final String USER_TEMPLATE = "{\"login\":\"user%1$d\",\"id\":%1$d,"
+            + "\"avatar_url\":\"https://avatars.githubusercontent.com/u/%1$d?v=3\",\"gravatar_id\":\"\","
+            + "\"url\":\"https://api.github.com/users/user%1$d\",\"html_url\":\"https://github.com/user%1$d\","
+            + "\"followers_url\":\"https://api.github.com/users/user%1$d/followers\","
+            + "\"following_url\":\"https://api.github.com/users/user%1$d/following{/other_user}\","
+            + "\"gists_url\":\"https://api.github.com/users/user%1$d/gists{/gist_id}\","
+            + "\"starred_url\":\"https://api.github.com/users/user%1$d/starred{/owner}{/repo}\","
+            + "\"subscriptions_url\":\"https://api.github.com/users/user%1$d/subscriptions\","
+            + "\"organizations_url\":\"https://api.github.com/users/user%1$d/orgs\","
+            + "\"repos_url\":\"https://api.github.com/users/user%1$d/repos\","
+            + "\"events_url\":\"https://api.github.com/users/user%1$d/events{/privacy}\","
+            + "\"received_events_url\":\"https://api.github.com/users/user%1$d/received_events\","
+            + "\"type\":\"User\",\"site_admin\":false,\"plan\":{\"name\":\"free\",\"collaborators\":0},"
+            + "\"tags\":[1,2.5,null,true]}";
+
+    @Test
+    public void skipsUnknownFields() throws IOException {
+        final List<User> users = UserListParser.parse(new StringReader(usersJson(3)));
+        assertThat(users.size(), equalTo(3));
+        assertThat(users.get(2).getName(), equalTo("user2"));
+        assertThat(users.get(2).getProfileURL(), equalTo("https://avatars.githubusercontent.com/u/2?v=3"));
+
+        final List<User> partial = UserListParser.parse(new StringReader("[{\"avatar_url\":null,\"login\":\"amy\"},{}]"));
+        assertThat(partial.get(0).getName(), equalTo("amy"));
+        assertThat(partial.get(0).getProfileURL(), nullValue());
+        assertThat(partial.get(1).getName(), nullValue());
+        assertThat(UserListParser.parse(new StringReader("[]")).size(), equalTo(0));
+    }
+
+    @Test
+    public void converterMatchesGson() throws ConversionException {
+        final String json = usersJson(50);
+        final GsonConverter gson = new GsonConverter(new Gson());
+        final StreamingUserConverter streaming = new StreamingUserConverter(gson);
+
+        @SuppressWarnings("unchecked")
+        final List<User> expected = (List<User>) gson.fromBody(body(json), USER_LIST);
+        @SuppressWarnings("unchecked")
+        final List<User> actual = (List<User>) streaming.fromBody(body(json), USER_LIST);
+        assertThat(actual.size(), equalTo(expected.size()));
+        for (int i = 0; i < expected.size(); i++) {
+            assertThat(actual.get(i).getName(), equalTo(expected.get(i).getName()));
+            assertThat(actual.get(i).getProfileURL(), equalTo(expected.get(i).getProfileURL()));
+        }
+
+        // Everything else still goes through Gson.
+        final User single = (User) streaming.fromBody(body(String.format(USER_TEMPLATE, 9)), User.class);
+        assertThat(single.getName(), equalTo("user9"));
+        assertThat(StreamingUserConverter.isUserList(new TypeToken<List<String>>() {}.getType()), equalTo(false));
+    }
+
+    @Test(expected = ConversionException.class)
+    public void malformedBody() throws ConversionException {
+        new StreamingUserConverter(new GsonConverter(new Gson())).fromBody(body("[{\"login\":"), USER_LIST);
+    }
+
+    /**
+     * The converter is what the app reads every user list with.  It has to get through a large list
+     * straight off a body of unknown length, as a gzipped response is, reading it only once, and agree
+     * with Gson on every user.
+     */
+    @Test
+    public void converterStreamsLargeLists() throws ConversionException {
+        final int users = 20000;
+        final String json = usersJson(users);
+        final GsonConverter gson = new GsonConverter(new Gson());
+
+        final UnknownLengthBody body = new UnknownLengthBody(json);
+        final List<User> actual = parse(new StreamingUserConverter(gson), body);
+        assertThat(body.opened, equalTo(1));
+
+        final List<User> expected = parse(gson, body(json));
+        assertThat(actual.size(), equalTo(users));
+        for (int i = 0; i < users; i++) {
+            assertThat(actual.get(i).getName(), equalTo(expected.get(i).getName()));
+            assertThat(actual.get(i).getProfileURL(), equalTo(expected.get(i).getProfileURL()));
+        }
+    }
+
+    private static List<User> parse(Converter converter, TypedInput body) throws ConversionException {
+        @SuppressWarnings("unchecked")
+        final List<User> users = (List<User>) converter.fromBody(body, USER_LIST);
+        return users;
+    }
+
+    private static TypedByteArray body(String json) {
+        try {
+            return new TypedByteArray("application/json; charset=utf-8", json.getBytes("UTF-8"));
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String usersJson(int count) {
+        final StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < count; i++) {
+            json.append((i > 0) ? "," : "").append(String.format(USER_TEMPLATE, i));
+        }
+        return json.append("]").toString();
+    }
+
+    /**
+     * Body that, like a gzipped or chunked response, does not know its length.
+     */
+    private static class UnknownLengthBody implements TypedInput {
+        final byte[] bytes;
+        int opened;
+
+        UnknownLengthBody(String json) {
+            this.bytes = json.getBytes(Charset.forName("UTF-8"));
+        }
+
+        @Override
+        public String mimeType() {
+            return "application/json; charset=utf-8";
+        }
+
+        @Override
+        public long length() {
+            return -1;
+        }
+
+        @Override
+        public InputStream in() {
+            opened++;
+            return new ByteArrayInputStream(bytes);
+        }
+    }
+}
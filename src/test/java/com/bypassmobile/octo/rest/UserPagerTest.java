@@ -0,0 +1,296 @@
+package com.bypassmobile.octo.rest;
+
+import com.bypassmobile.octo.model.User;
+import com.google.gson.Gson;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import retrofit.Callback;
+import retrofit.RestAdapter;
+import retrofit.RetrofitError;
+import retrofit.client.Header;
+import retrofit.client.Response;
+import retrofit.client.UrlConnectionClient;
+import retrofit.converter.GsonConverter;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest= Config.NONE)
+public class UserPagerTest {
+
+    static final String FOLLOWING = "/users/amy/following";
+
+    /** Runs requests and callbacks on the calling thread so the test does not need a main looper. */
+    static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    MockGithubServer server;
+    GithubEndpoint endpoint;
+    RecordingListener listener;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockGithubServer();
+        endpoint = new RestAdapter.Builder()
+                .setServer(server.getUrl())
+                .setClient(new UrlConnectionClient())
+                .setConverter(new GsonConverter(new Gson()))
+                .setExecutors(DIRECT, DIRECT)
+                .build()
+                .create(GithubEndpoint.class);
+        listener = new RecordingListener();
+    }
+
+    @After
+    public void tearDown() {
+        server.shutdown();
+    }
+
+    @Test
+    public void parseLinkHeader() {
+        final Map<String, String> links = LinkHeader.parse(
+                "<https://api.github.com/user/1/following?page=2&per_page=50>; rel=\"next\", "
+                + "<https://api.github.com/user/1/following?per_page=50&page=9>; rel=\"last\"");
+        assertThat(links.size(), equalTo(2));
+        assertThat(LinkHeader.pageOf(links.get("next")), equalTo(2));
+        assertThat(LinkHeader.pageOf(links.get("last")), equalTo(9));
+
+        assertThat(LinkHeader.findPage(Arrays.asList(new Header("link", "<https://x/?page=3>; rel=next")), "next"), equalTo(3));
+        assertThat(LinkHeader.findPage(Arrays.asList(new Header("Link", "garbage")), "next"), equalTo(-1));
+        assertThat(LinkHeader.findPage(Collections.<Header>emptyList(), "next"), equalTo(-1));
+        assertThat(LinkHeader.pageOf("https://x/?per_page=2"), equalTo(-1));
+    }
+
+    @Test
+    public void loadAllFollowsLinks() {
+        servePages(3, false);
+        final UserPager pager = new UserPager(followingSource(), 2, 1, listener);
+        pager.loadAll();
+
+        assertThat(listener.pages, equalTo(Arrays.asList(1, 2, 3)));
+        assertThat(listener.logins, equalTo(Arrays.asList("u1", "u2", "u3", "u4", "u5")));
+        assertThat(listener.completions, equalTo(1));
+        assertThat(pager.isComplete(), equalTo(true));
+        assertThat(server.getRequests(), equalTo(Arrays.asList(
+                FOLLOWING + "?page=1&per_page=2", FOLLOWING + "?page=2&per_page=2", FOLLOWING + "?page=3&per_page=2")));
+    }
+
+    @Test
+    public void loadNextFetchesOnePage() {
+        servePages(3, true);
+        final UserPager pager = new UserPager(followingSource(), 2, 2, listener);
+
+        assertThat(pager.loadNext(), equalTo(true));
+        assertThat(listener.pages, equalTo(Arrays.asList(1)));
+        assertThat(pager.loadNext(), equalTo(true));
+        assertThat(listener.pages, equalTo(Arrays.asList(1, 2)));
+        assertThat(pager.isComplete(), equalTo(false));
+        assertThat(pager.getNextPage(), equalTo(3));
+
+        assertThat(pager.loadNext(), equalTo(true));
+        assertThat(pager.isComplete(), equalTo(true));
+        assertThat(pager.getNextPage(), equalTo(0));
+        assertThat(listener.completions, equalTo(1));
+
+        // Nothing left.
+        assertThat(pager.loadNext(), equalTo(false));
+        assertThat(server.getRequests().size(), equalTo(3));
+    }
+
+    @Test
+    public void concurrentPagesArriveInOrder() {
+        final HeldSource source = new HeldSource();
+        final UserPager pager = new UserPager(source, 2, 2, listener);
+        pager.loadAll();
+        assertThat(source.requested, equalTo(Arrays.asList(1)));
+
+        // The first page names the last one, so two pages go out at once but never more.
+        source.succeed(1, 4);
+        assertThat(source.requested, equalTo(Arrays.asList(1, 2, 3)));
+        assertThat(pager.isLoading(), equalTo(true));
+
+        // Page 3 overtakes page 2 and is held back.
+        source.succeed(3, 4);
+        assertThat(listener.pages, equalTo(Arrays.asList(1)));
+        assertThat(source.requested, equalTo(Arrays.asList(1, 2, 3, 4)));
+
+        source.succeed(2, 4);
+        assertThat(listener.pages, equalTo(Arrays.asList(1, 2, 3)));
+        source.succeed(4, 4);
+        assertThat(listener.pages, equalTo(Arrays.asList(1, 2, 3, 4)));
+        assertThat(listener.completions, equalTo(1));
+        assertThat(pager.isLoading(), equalTo(false));
+    }
+
+    @Test
+    public void failedPageIsRequestedAgain() {
+        final HeldSource source = new HeldSource();
+        final UserPager pager = new UserPager(source, 2, 1, listener);
+        pager.loadAll();
+        source.succeed(1, 3);
+        source.fail(2);
+
+        assertThat(listener.failedPages, equalTo(Arrays.asList(2)));
+        // Loading stopped.
+        assertThat(source.requested, equalTo(Arrays.asList(1, 2)));
+
+        assertThat(pager.loadNext(), equalTo(true));
+        assertThat(source.requested, equalTo(Arrays.asList(1, 2, 2)));
+        source.succeed(2, 3);
+        assertThat(listener.pages, equalTo(Arrays.asList(1, 2)));
+    }
+
+    @Test
+    public void restartIgnoresEarlierResponses() {
+        final HeldSource source = new HeldSource();
+        final UserPager pager = new UserPager(source, 2, 2, listener);
+        pager.loadAll();
+        source.succeed(1, 3);
+        pager.restart();
+
+        // Pages 2 and 3 of the old walk come back late.
+        source.succeed(2, 3);
+        source.succeed(3, 3);
+        assertThat(listener.pages, equalTo(Arrays.asList(1)));
+        assertThat(pager.getPagesDelivered(), equalTo(0));
+
+        pager.loadNext();
+        source.succeed(1, 3);
+        assertThat(listener.pages, equalTo(Arrays.asList(1, 1)));
+    }
+
+    @Test
+    public void resumeAtContinuesAStoredList() {
+        final HeldSource source = new HeldSource();
+        final UserPager pager = new UserPager(source, 2, 2, listener);
+        pager.resumeAt(2);
+
+        assertThat(pager.loadNext(), equalTo(true));
+        assertThat(source.requested, equalTo(Arrays.asList(2)));
+        source.succeed(2, 3);
+        assertThat(listener.pages, equalTo(Arrays.asList(2)));
+        assertThat(pager.getPagesDelivered(), equalTo(1));
+        assertThat(pager.getNextPage(), equalTo(3));
+
+        pager.loadNext();
+        source.succeed(3, 3);
+        assertThat(pager.isComplete(), equalTo(true));
+        assertThat(source.requested, equalTo(Arrays.asList(2, 3)));
+    }
+
+    @Test
+    public void nextPageOfFollowsTheLinkHeader() {
+        final List<Header> headers = Arrays.asList(new Header("Link",
+                "<https://api/?page=3>; rel=\"next\", <https://api/?page=7>; rel=\"last\""));
+        assertThat(UserPager.nextPageOf(new Response(200, "OK", headers, null)), equalTo(3));
+        assertThat(UserPager.nextPageOf(new Response(200, "OK", Collections.<Header>emptyList(), null)), equalTo(0));
+    }
+
+    /**
+     * Serve five users over three pages of two.
+     */
+    private void servePages(int pages, boolean withLast) {
+        int login = 1;
+        for (int page = 1; page <= pages; page++) {
+            final String path = FOLLOWING + "?page=" + page + "&per_page=2";
+            final StringBuilder body = new StringBuilder("[");
+            for (int i = 0; i < 2 && login <= 5; i++, login++) {
+                body.append((i > 0) ? "," : "").append("{\"login\":\"u").append(login).append("\"}");
+            }
+            server.setBody(path, body.append("]").toString());
+            if (page < pages) {
+                server.addHeader(path, "Link: <" + server.getUrl() + FOLLOWING + "?page=" + (page + 1) + "&per_page=2>; rel=\"next\""
+                        + (withLast ? ", <" + server.getUrl() + FOLLOWING + "?page=" + pages + "&per_page=2>; rel=\"last\"" : ""));
+            }
+        }
+    }
+
+    private UserPager.PageSource followingSource() {
+        return new UserPager.PageSource() {
+            @Override
+            public void getPage(int page, int perPage, Callback<List<User>> callback) {
+                endpoint.getFollowingUser("amy", page, perPage, callback);
+            }
+        };
+    }
+
+    private static class RecordingListener implements UserPager.Listener {
+        final List<Integer> pages = new ArrayList<>();
+        final List<String> logins = new ArrayList<>();
+        final List<Integer> failedPages = new ArrayList<>();
+        int completions;
+
+        @Override
+        public void onPage(List<User> users, int page) {
+            pages.add(page);
+            for (User user : users) {
+                logins.add(user.getName());
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            completions++;
+        }
+
+        @Override
+        public void onFailure(RetrofitError error, int page) {
+            failedPages.add(page);
+        }
+    }
+
+    /**
+     * Source that holds on to every request until the test answers it.
+     */
+    private static class HeldSource implements UserPager.PageSource {
+        final List<Integer> requested = new ArrayList<>();
+        final List<Callback<List<User>>> callbacks = new ArrayList<>();
+
+        @Override
+        public void getPage(int page, int perPage, Callback<List<User>> callback) {
+            requested.add(page);
+            callbacks.add(callback);
+        }
+
+        /**
+         * Answer the latest request for the page.
+         */
+        void succeed(int page, int lastPage) {
+            final List<Header> headers = new ArrayList<>();
+            if (page < lastPage) {
+                headers.add(new Header("Link", "<https://api/?page=" + (page + 1) + ">; rel=\"next\", <https://api/?page=" + lastPage + ">; rel=\"last\""));
+            }
+            callback(page).success(Arrays.asList(new User("p" + page, null)), new Response(200, "OK", headers, null));
+        }
+
+        void fail(int page) {
+            callback(page).failure(RetrofitError.networkError("https://api/?page=" + page, new IOException("offline")));
+        }
+
+        private Callback<List<User>> callback(int page) {
+            return callbacks.get(requested.lastIndexOf(page));
+        }
+    }
+}
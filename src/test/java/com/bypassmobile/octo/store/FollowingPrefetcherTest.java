@@ -0,0 +1,271 @@
+package com.bypassmobile.octo.store;
+
+import com.bypassmobile.octo.image.Clock;
+import com.bypassmobile.octo.model.User;
+import com.bypassmobile.octo.rest.CoalescingPageSource;
+import com.bypassmobile.octo.rest.GithubEndpoint;
+import com.bypassmobile.octo.rest.InFlightRequests;
+import com.bypassmobile.octo.rest.RequestScheduler;
+import com.bypassmobile.octo.rest.UserPager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import retrofit.Callback;
+import retrofit.RetrofitError;
+import retrofit.client.Header;
+import retrofit.client.Response;
+import retrofit.mime.TypedByteArray;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest= Config.NONE)
+public class FollowingPrefetcherTest {
+
+    static final long TTL_MS = 60 * 1000;
+    static final int BODY_BYTES = 1000;
+
+    ScheduledExecutorService timer;
+    FakeEndpoint endpoint;
+    InFlightRequests requests;
+    UserStore store;
+    boolean allowed = true;
+    List<String> avatars = new ArrayList<>();
+    long now = 1000;
+
+    @Before
+    public void setUp() {
+        timer = Executors.newSingleThreadScheduledExecutor();
+        endpoint = new FakeEndpoint();
+        requests = new InFlightRequests();
+        store = new UserStore(RuntimeEnvironment.application, null, TTL_MS, UserStoreTest.DIRECT, UserStoreTest.DIRECT);
+    }
+
+    @After
+    public void tearDown() {
+        timer.shutdownNow();
+        store.close();
+    }
+
+    @Test
+    public void prefetchesFirstVisibleRows() {
+        final FollowingPrefetcher prefetcher = prefetcher(3, 2);
+        prefetcher.prefetch(users("u", 5));
+
+        assertThat(endpoint.requested, equalTo(list("u0", "u1", "u2")));
+        assertThat(store.getList(UserStore.followingKey("u0")).getUsers().size(), equalTo(2));
+        // The list screen pages on from there instead of loading the first page again.
+        assertThat(store.getList(UserStore.followingKey("u0")).getNextPage(), equalTo(2));
+        assertThat(store.getList(UserStore.followingKey("u3")), nullValue());
+        assertThat(prefetcher.getPrefetchCount(), equalTo(3));
+        assertThat(prefetcher.getPrefetchedBytes(), equalTo(3L * BODY_BYTES));
+        // The avatars of every prefetched list too.
+        assertThat(avatars.size(), equalTo(6));
+
+        // Already done, nothing goes out again.
+        prefetcher.prefetch(users("u", 5));
+        assertThat(endpoint.requested.size(), equalTo(3));
+    }
+
+    @Test
+    public void skipsWhatIsNotNeeded() {
+        final FollowingPrefetcher prefetcher = prefetcher(3, 2);
+        allowed = false;
+        prefetcher.prefetch(users("u", 5));
+        assertThat(endpoint.requested.size(), equalTo(0));
+        assertThat(prefetcher.getSkippedCount(), equalTo(1));
+
+        allowed = true;
+        store.save(UserStore.followingKey("u0"), users("x", 1), UserStore.COMPLETE);
+        prefetcher.prefetch(users("u", 1));
+        assertThat(endpoint.requested.size(), equalTo(0));
+    }
+
+    @Test
+    public void boundedRequestsInFlight() {
+        endpoint.hold = true;
+        final FollowingPrefetcher prefetcher = prefetcher(3, 2);
+        prefetcher.prefetch(users("u", 5));
+        assertThat(endpoint.requested, equalTo(list("u0", "u1")));
+
+        endpoint.release(0);
+        prefetcher.prefetch(users("u", 5));
+        assertThat(endpoint.requested, equalTo(list("u0", "u1", "u2")));
+    }
+
+    @Test
+    public void checksTheStoreInTheBackground() {
+        final UserStoreTest.QueueExecutor io = new UserStoreTest.QueueExecutor();
+        store.close();
+        store = new UserStore(RuntimeEnvironment.application, null, TTL_MS, io, UserStoreTest.DIRECT);
+        store.putList(UserStore.followingKey("u1"), users("x", 1), UserStore.COMPLETE, System.currentTimeMillis());
+        final FollowingPrefetcher prefetcher = prefetcher(3, 3);
+
+        prefetcher.prefetch(users("u", 3));
+        assertThat(io.size(), equalTo(3));
+        assertThat(endpoint.requested.size(), equalTo(0));
+
+        // Still being checked, not checked twice.
+        prefetcher.prefetch(users("u", 3));
+        assertThat(io.size(), equalTo(3));
+
+        io.runAll();
+        assertThat(endpoint.requested, equalTo(list("u0", "u2")));
+    }
+
+    @Test
+    public void hitRatioAndWastedBytes() {
+        final FollowingPrefetcher prefetcher = prefetcher(3, 3);
+        prefetcher.prefetch(users("u", 3));
+
+        prefetcher.onOpened("u0");
+        prefetcher.onOpened("nobody");
+        assertThat(prefetcher.getHitCount(), equalTo(1));
+        assertThat(prefetcher.getWastedBytes(), equalTo(0L));
+
+        // The other two went stale unopened.
+        now += TTL_MS;
+        assertThat(prefetcher.getWastedBytes(), equalTo(2L * BODY_BYTES));
+        prefetcher.onOpened("u1");
+        assertThat(prefetcher.getHitCount(), equalTo(1));
+        assertThat(prefetcher.getWastedBytes(), equalTo(2L * BODY_BYTES));
+        assertThat(prefetcher.getHitRatio(), equalTo(1 / 3f));
+    }
+
+    @Test
+    public void tapWhilePrefetchingJoinsIt() {
+        endpoint.hold = true;
+        final FollowingPrefetcher prefetcher = prefetcher(1, 1);
+        prefetcher.prefetch(users("u", 1));
+
+        // The list screen opens and asks for the same first page.
+        prefetcher.onOpened("u0");
+        final List<List<User>> shown = new ArrayList<>();
+        new CoalescingPageSource(endpointSource("u0"), UserStore.followingKey("u0"), requests)
+                .getPage(1, UserPager.DEFAULT_PAGE_SIZE, new Callback<List<User>>() {
+                    @Override
+                    public void success(List<User> users, Response response) {
+                        shown.add(users);
+                    }
+
+                    @Override
+                    public void failure(RetrofitError error) {
+                    }
+                });
+        assertThat(endpoint.requested.size(), equalTo(1));
+
+        endpoint.release(0);
+        assertThat(shown.size(), equalTo(1));
+        assertThat(prefetcher.getHitRatio(), equalTo(1f));
+        assertThat(prefetcher.getWastedBytes(), equalTo(0L));
+        assertThat(store.getList(UserStore.followingKey("u0")), notNullValue());
+    }
+
+    private FollowingPrefetcher prefetcher(int rows, int maxInFlight) {
+        final Clock clock = new Clock() {
+            @Override
+            public long millis() {
+                return now;
+            }
+        };
+        return new FollowingPrefetcher(endpoint, new RequestScheduler(timer, UserStoreTest.DIRECT, clock, RequestScheduler.DEFAULT_MAX_DELAY_MS),
+                requests, store, new FollowingPrefetcher.Conditions() {
+                    @Override
+                    public boolean allowsPrefetch() {
+                        return allowed;
+                    }
+                }, new FollowingPrefetcher.AvatarLoader() {
+                    @Override
+                    public void prefetch(String url) {
+                        avatars.add(url);
+                    }
+                }, clock, TTL_MS, rows, maxInFlight);
+    }
+
+    private UserPager.PageSource endpointSource(final String login) {
+        return new UserPager.PageSource() {
+            @Override
+            public void getPage(int page, int perPage, Callback<List<User>> callback) {
+                endpoint.getFollowingUser(login, page, perPage, callback);
+            }
+        };
+    }
+
+    private static List<User> users(String prefix, int count) {
+        final List<User> users = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            users.add(new User(prefix + i, "https://avatars/" + prefix + i));
+        }
+        return users;
+    }
+
+    private static List<String> list(String... values) {
+        final List<String> list = new ArrayList<>();
+        Collections.addAll(list, values);
+        return list;
+    }
+
+    /**
+     * Endpoint that answers every following list with a first page of two users, right away or once
+     * released.
+     */
+    private static class FakeEndpoint implements GithubEndpoint {
+        final List<String> requested = new ArrayList<>();
+        final List<Callback<List<User>>> held = new ArrayList<>();
+        boolean hold;
+
+        @Override
+        public void getFollowingUser(String user, int page, int perPage, Callback<List<User>> callback) {
+            requested.add(user);
+            held.add(callback);
+            if (!hold) {
+                release(held.size() - 1);
+            }
+        }
+
+        void release(int request) {
+            final List<Header> headers = Collections.singletonList(new Header("Link",
+                    "<https://api.github.com/users/" + requested.get(request) + "/following?page=2>; rel=\"next\""));
+            held.get(request).success(users(requested.get(request) + "-", 2),
+                    new Response(200, "OK", headers, new TypedByteArray("application/json", new byte[BODY_BYTES])));
+        }
+
+        @Override
+        public void getUser(String user, Callback<User> callback) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void getFollowingUser(String user, Callback<List<User>> callback) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void getOrganizationMember(String organization, Callback<List<User>> callback) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void getOrganizationMember(String organization, int page, int perPage, Callback<List<User>> callback) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.bypassmobile.octo.store;
+
+import com.bypassmobile.octo.model.User;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest= Config.NONE)
+public class ListStateStoreTest {
+
+    static final List<User> USERS = Collections.singletonList(new User("user1", "https://avatars/1"));
+
+    @Test
+    public void putGetAndRemove() {
+        final ListStateStore store = new ListStateStore(2);
+        final String key = store.newKey();
+        assertThat(store.get(key), nullValue());
+        assertThat(store.get(null), nullValue());
+
+        store.put(key, USERS);
+        assertThat(store.get(key), sameInstance(USERS));
+
+        store.remove(key);
+        store.remove(null);
+        assertThat(store.get(key), nullValue());
+        assertThat(store.size(), equalTo(0));
+    }
+
+    @Test
+    public void keysNeverRepeat() {
+        final ListStateStore store = new ListStateStore(2);
+        assertThat(store.newKey(), not(equalTo(store.newKey())));
+
+        // A key saved by a previous process finds nothing in the next one, even if it counted the same.
+        final String oldProcessKey = store.newKey();
+        store.put(oldProcessKey, USERS);
+        final ListStateStore recreated = new ListStateStore(2);
+        recreated.newKey();
+        recreated.newKey();
+        final String newProcessKey = recreated.newKey();
+        recreated.put(newProcessKey, USERS);
+        assertThat(newProcessKey, not(equalTo(oldProcessKey)));
+        assertThat(recreated.get(oldProcessKey), nullValue());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        final ListStateStore store = new ListStateStore(2);
+        final String first = store.newKey();
+        final String second = store.newKey();
+        final String third = store.newKey();
+        store.put(first, USERS);
+        store.put(second, USERS);
+        store.get(first); // touch it
+
+        store.put(third, USERS);
+        assertThat(store.size(), equalTo(2));
+        assertThat(store.get(second), nullValue());
+        assertThat(store.get(first), sameInstance(USERS));
+        assertThat(store.get(third), sameInstance(USERS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNullUsers() {
+        new ListStateStore(1).put("key", null);
+    }
+}
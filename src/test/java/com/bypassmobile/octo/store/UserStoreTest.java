@@ -0,0 +1,247 @@
+package com.bypassmobile.octo.store;
+
+import com.bypassmobile.octo.model.User;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ *
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest= Config.NONE)
+public class UserStoreTest {
+
+    static final long TTL_MS = 60 * 1000;
+
+    /** Runs writes on the calling thread so tests can read them back right away. */
+    static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private UserStore store;
+
+    @Before
+    public void setUp() {
+        store = new UserStore(RuntimeEnvironment.application, null, TTL_MS, DIRECT, DIRECT);
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+    }
+
+    @Test
+    public void putAndGetKeepsOrder() {
+        assertThat(store.getList(UserStore.orgKey("bypasslane")), nullValue());
+
+        store.putList(UserStore.orgKey("bypasslane"), users("zed", "amy", "bob"), UserStore.COMPLETE, 1000);
+        final UserStore.Snapshot snapshot = store.getList(UserStore.orgKey("bypasslane"));
+        assertThat(snapshot, notNullValue());
+        assertThat(logins(snapshot.getUsers()), equalTo(Arrays.asList("zed", "amy", "bob")));
+        assertThat(snapshot.getUsers().get(1).getProfileURL(), equalTo("https://avatars/amy"));
+        assertThat(snapshot.getFetchedAt(), equalTo(1000L));
+
+        // An empty list is still a stored list, different from one that was never fetched.
+        store.putList(UserStore.followingKey("amy"), new ArrayList<User>(), UserStore.COMPLETE, 1000);
+        assertThat(store.getList(UserStore.followingKey("amy")).getUsers().size(), equalTo(0));
+        assertThat(store.getList(UserStore.followingKey("bob")), nullValue());
+    }
+
+    @Test
+    public void replaceList() {
+        store.putList(UserStore.orgKey("bypasslane"), users("amy", "bob", "cat"), UserStore.COMPLETE, 1000);
+        store.putList(UserStore.orgKey("bypasslane"), users("cat", "dan"), UserStore.COMPLETE, 2000);
+
+        final UserStore.Snapshot snapshot = store.getList(UserStore.orgKey("bypasslane"));
+        assertThat(logins(snapshot.getUsers()), equalTo(Arrays.asList("cat", "dan")));
+        assertThat(snapshot.getFetchedAt(), equalTo(2000L));
+    }
+
+    @Test
+    public void remembersWhereAListContinues() {
+        store.putList(UserStore.followingKey("amy"), users("bob", "cat"), 2, 1000);
+        assertThat(store.getList(UserStore.followingKey("amy")).getNextPage(), equalTo(2));
+        assertThat(store.getList(UserStore.followingKey("amy")).isComplete(), equalTo(false));
+
+        store.putList(UserStore.followingKey("amy"), users("bob", "cat", "dan"), UserStore.COMPLETE, 2000);
+        assertThat(store.getList(UserStore.followingKey("amy")).isComplete(), equalTo(true));
+    }
+
+    @Test
+    public void appendsPages() {
+        final String key = UserStore.followingKey("amy");
+        assertThat(store.putPage(key, users("bob"), 2, 3), equalTo(false));
+
+        store.putList(key, users("bob", "cat"), 2, 1000);
+        assertThat(store.putPage(key, users("dan", "eve"), 2, 3), equalTo(true));
+        assertThat(store.putPage(key, users("fay"), 3, UserStore.COMPLETE), equalTo(true));
+        final UserStore.Snapshot snapshot = store.getList(key);
+        assertThat(logins(snapshot.getUsers()), equalTo(Arrays.asList("bob", "cat", "dan", "eve", "fay")));
+        assertThat(snapshot.isComplete(), equalTo(true));
+        assertThat(snapshot.getFetchedAt(), equalTo(1000L));
+
+        // The list was replaced by a new first page meanwhile, a later page does not go after it.
+        store.putList(key, users("zed"), 2, 2000);
+        assertThat(store.putPage(key, users("eve"), 3, 4), equalTo(false));
+        assertThat(logins(store.getList(key).getUsers()), equalTo(Arrays.asList("zed")));
+        assertThat(store.getList(key).getNextPage(), equalTo(2));
+
+        store.savePage(key, users("yan"), 2, UserStore.COMPLETE);
+        assertThat(logins(store.getList(key).getUsers()), equalTo(Arrays.asList("zed", "yan")));
+    }
+
+    @Test
+    public void usersSharedBetweenLists() {
+        store.putList(UserStore.orgKey("bypasslane"), users("amy", "bob"), UserStore.COMPLETE, 1000);
+        store.putList(UserStore.followingKey("amy"), Arrays.asList(new User("bob", "https://avatars/bob2")), UserStore.COMPLETE, 2000);
+
+        // A user is stored once, the latest avatar wins for every list it is in.
+        assertThat(store.getList(UserStore.orgKey("bypasslane")).getUsers().get(1).getProfileURL(), equalTo("https://avatars/bob2"));
+        assertThat(logins(store.getList(UserStore.orgKey("bypasslane")).getUsers()), equalTo(Arrays.asList("amy", "bob")));
+    }
+
+    @Test
+    public void freshness() {
+        store.putList(UserStore.orgKey("bypasslane"), users("amy"), UserStore.COMPLETE, 1000);
+        final UserStore.Snapshot snapshot = store.getList(UserStore.orgKey("bypasslane"));
+
+        assertThat(snapshot.isFresh(1000), equalTo(true));
+        assertThat(snapshot.isFresh(1000 + TTL_MS - 1), equalTo(true));
+        assertThat(snapshot.isFresh(1000 + TTL_MS), equalTo(false));
+        // The clock went backwards, can't tell how old it is.
+        assertThat(snapshot.isFresh(999), equalTo(false));
+
+        store.save(UserStore.orgKey("bypasslane"), users("amy"), UserStore.COMPLETE);
+        assertThat(store.getList(UserStore.orgKey("bypasslane")).isFresh(), equalTo(true));
+    }
+
+    @Test
+    public void survivesReopen() {
+        final File file = new File(tempFolder.getRoot(), "users.db");
+        UserStore onDisk = new UserStore(RuntimeEnvironment.application, file.getAbsolutePath(), TTL_MS, DIRECT, DIRECT);
+        onDisk.save(UserStore.orgKey("bypasslane"), users("amy", "bob"), UserStore.COMPLETE);
+        onDisk.close();
+
+        // Cold start.
+        UserStore reopened = new UserStore(RuntimeEnvironment.application, file.getAbsolutePath(), TTL_MS, DIRECT, DIRECT);
+        try {
+            final UserStore.Snapshot snapshot = reopened.getList(UserStore.orgKey("bypasslane"));
+            assertThat(logins(snapshot.getUsers()), equalTo(Arrays.asList("amy", "bob")));
+            assertThat(snapshot.isFresh(), equalTo(true));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void loadsInTheBackgroundAndHandsOverOnTheMainExecutor() {
+        final QueueExecutor io = new QueueExecutor();
+        final QueueExecutor main = new QueueExecutor();
+        final UserStore background = new UserStore(RuntimeEnvironment.application, null, TTL_MS, io, main);
+        try {
+            background.save(UserStore.orgKey("bypasslane"), users("amy", "bob"), UserStore.COMPLETE);
+            final List<UserStore.Snapshot> loaded = new ArrayList<>();
+            final UserStore.LoadListener listener = new UserStore.LoadListener() {
+                @Override
+                public void onLoaded(UserStore.Snapshot snapshot) {
+                    loaded.add(snapshot);
+                }
+            };
+            background.loadList(UserStore.orgKey("bypasslane"), listener);
+            background.loadList(UserStore.orgKey("other"), listener);
+
+            // Nothing is read on the calling thread.
+            assertThat(io.size(), equalTo(3));
+            assertThat(main.size(), equalTo(0));
+            io.runAll();
+            assertThat(loaded.size(), equalTo(0));
+            main.runAll();
+            assertThat(logins(loaded.get(0).getUsers()), equalTo(Arrays.asList("amy", "bob")));
+            assertThat(loaded.get(1), nullValue());
+        } finally {
+            background.close();
+        }
+    }
+
+    @Test
+    public void prunesUsersNoListRefersTo() {
+        store.putList(UserStore.orgKey("bypasslane"), users("amy", "bob", "cat"), UserStore.COMPLETE, 1000);
+        store.putList(UserStore.followingKey("amy"), users("bob", "dan"), UserStore.COMPLETE, 1000);
+        assertThat(store.getUserCount(), equalTo(4L));
+
+        // Cat is gone, bob and dan are still followed by amy.
+        store.putList(UserStore.orgKey("bypasslane"), users("amy"), UserStore.COMPLETE, 2000);
+        assertThat(store.getUserCount(), equalTo(3L));
+        store.putList(UserStore.followingKey("amy"), new ArrayList<User>(), UserStore.COMPLETE, 2000);
+        assertThat(store.getUserCount(), equalTo(1L));
+    }
+
+    @Test
+    public void clear() {
+        store.putList(UserStore.orgKey("bypasslane"), users("amy"), UserStore.COMPLETE, 1000);
+        store.clear();
+        assertThat(store.getList(UserStore.orgKey("bypasslane")), nullValue());
+    }
+
+    static class QueueExecutor implements Executor {
+        private final Queue<Runnable> queue = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable command) {
+            queue.add(command);
+        }
+
+        int size() {
+            return queue.size();
+        }
+
+        void runAll() {
+            while (!queue.isEmpty()) {
+                queue.poll().run();
+            }
+        }
+    }
+
+    private static List<User> users(String... logins) {
+        final List<User> users = new ArrayList<>(logins.length);
+        for (String login : logins) {
+            users.add(new User(login, "https://avatars/" + login));
+        }
+        return users;
+    }
+
+    private static List<String> logins(List<User> users) {
+        final List<String> logins = new ArrayList<>(users.size());
+        for (User user : users) {
+            logins.add(user.getName());
+        }
+        return logins;
+    }
+}